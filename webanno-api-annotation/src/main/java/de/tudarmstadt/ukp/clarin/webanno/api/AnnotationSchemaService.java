@@ -23,6 +23,7 @@ import java.util.List;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.springframework.security.access.prepost.PreAuthorize;
 
@@ -396,8 +397,65 @@ public interface AnnotationSchemaService
     
     List<TypeSystemDescription> getProjectTypes(Project aProject);
     
-    void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+    /**
+     * Returns a number which changes whenever layers or features of the given project are
+     * created, changed or removed. It can be used to find out whether data derived from the
+     * schema of the project is still up to date. The number is only valid while WebAnno is
+     * running.
+     *
+     * @param aProject
+     *            the project.
+     * @return the schema version.
+     */
+    long getSchemaVersion(Project aProject);
+    
+    /**
+     * Returns the built-in types merged with the {@link #getProjectTypes project types}. The type
+     * system is cached until the {@link #getSchemaVersion schema version} changes. Every call
+     * returns a new copy, so callers may modify it.
+     *
+     * @param aProject
+     *            the project.
+     * @return the full type system of the project.
+     */
+    TypeSystemDescription getFullProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException;
+    
+    /**
+     * Creates an empty CAS using the {@link #getFullProjectTypeSystem full type system} of the
+     * given project.
+     *
+     * @param aProject
+     *            the project.
+     * @return the new CAS.
+     */
+    CAS createCas(Project aProject)
+        throws ResourceInitializationException;
+    
+    /**
+     * Changes the type system of the given CAS to the {@link #getFullProjectTypeSystem full type
+     * system} of the project of the given document, keeping the annotations. If the CAS already
+     * uses this type system, it is left untouched.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aSourceDocument
+     *            the document the CAS belongs to.
+     * @param aUser
+     *            the user the CAS belongs to.
+     * @return whether the CAS has been changed.
+     */
+    boolean upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
             throws UIMAException, IOException;
 
+    /**
+     * Returns the adapter for the given layer. The adapter of a saved layer is built once and
+     * then shared until the layers or features of the project change, so callers must not
+     * reconfigure it.
+     *
+     * @param aLayer
+     *            the layer.
+     * @return the adapter.
+     */
     TypeAdapter getAdapter(AnnotationLayer aLayer);
 }
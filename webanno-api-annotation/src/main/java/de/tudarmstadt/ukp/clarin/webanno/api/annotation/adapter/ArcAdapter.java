@@ -17,12 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectCovered;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSame;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSameSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
-import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,7 +33,6 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +41,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationExce
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.ArcCrossedMultipleSentenceException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -157,11 +156,15 @@ public class ArcAdapter
             AnnotationFS aOriginFs, AnnotationFS aTargetFs)
         throws AnnotationException
     {
-        Type type = getType(aJCas.getCas(), annotationTypeName);
-        Feature dependentFeature = type.getFeatureByBaseName(targetFeatureName);
-        Feature governorFeature = type.getFeatureByBaseName(sourceFeatureName);
+        Type type = resolveType(aJCas.getCas(), annotationTypeName);
+        Feature dependentFeature = resolveFeature(aJCas.getCas(), annotationTypeName,
+                targetFeatureName);
+        Feature governorFeature = resolveFeature(aJCas.getCas(), annotationTypeName,
+                sourceFeatureName);
 
-        Type spanType = getType(aJCas.getCas(), attachType);
+        Type spanType = resolveType(aJCas.getCas(), attachType);
+        Feature arcSpanFeature = attachFeatureName != null
+                ? resolveFeature(aJCas.getCas(), attachType, attachFeatureName) : null;
 
         AnnotationFS dependentFs = null;
         AnnotationFS governorFs = null;
@@ -171,7 +174,6 @@ public class ArcAdapter
         for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, aWindowBegin, aWindowEnd)) {
 
             if (attachFeatureName != null) {
-                Feature arcSpanFeature = spanType.getFeatureByBaseName(attachFeatureName);
                 dependentFs = (AnnotationFS) fs.getFeatureValue(dependentFeature).getFeatureValue(
                         arcSpanFeature);
                 governorFs = (AnnotationFS) fs.getFeatureValue(governorFeature).getFeatureValue(
@@ -231,6 +233,7 @@ public class ArcAdapter
         newAnnotation.setFeatureValue(dependentFeature, dependentFs);
         newAnnotation.setFeatureValue(governorFeature, governorFs);
         aJCas.addFsToIndexes(newAnnotation);
+        DirtyRegion.record(aJCas.getCas(), newAnnotation);
         return newAnnotation;
     }
 
@@ -239,6 +242,7 @@ public class ArcAdapter
     {
         FeatureStructure fs = selectByAddr(aJCas, FeatureStructure.class, aVid.getId());
         aJCas.removeFsFromIndexes(fs);
+        DirtyRegion.record(aJCas.getCas(), fs);
     }
 
 
@@ -259,7 +263,7 @@ public class ArcAdapter
     @Override
     public Type getAnnotationType(CAS cas)
     {
-        return CasUtil.getType(cas, annotationTypeName);
+        return resolveType(cas, annotationTypeName);
     }
 
     @Override
@@ -283,19 +287,19 @@ public class ArcAdapter
     public void delete(JCas aJCas, AnnotationFeature aFeature, int aBegin, int aEnd,
             String aDepCoveredText, String aGovCoveredText, Object aValue)
     {
-        Feature dependentFeature = getAnnotationType(aJCas.getCas())
-                .getFeatureByBaseName(getTargetFeatureName());
-        Feature governorFeature = getAnnotationType(aJCas.getCas())
-                .getFeatureByBaseName(getSourceFeatureName());
+        Feature dependentFeature = resolveFeature(aJCas.getCas(), getAnnotationTypeName(),
+                getTargetFeatureName());
+        Feature governorFeature = resolveFeature(aJCas.getCas(), getAnnotationTypeName(),
+                getSourceFeatureName());
 
         AnnotationFS dependentFs = null;
         AnnotationFS governorFs = null;
         
-        Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        Type spanType = getType(aJCas.getCas(), getAttachTypeName());
-        Feature arcSpanFeature = spanType.getFeatureByBaseName(getAttachFeatureName());
+        Type type = resolveType(aJCas.getCas(), getAnnotationTypeName());
+        Feature arcSpanFeature = resolveFeature(aJCas.getCas(), getAttachTypeName(),
+                getAttachFeatureName());
         
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
+        for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
             if (getAttachFeatureName() != null) {
                 dependentFs = (AnnotationFS) fs.getFeatureValue(dependentFeature).getFeatureValue(
                         arcSpanFeature);
@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectCovered;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
 import static org.apache.uima.fit.util.CasUtil.selectFS;
 
@@ -31,12 +32,12 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.MultipleSentenceCoveredException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -62,6 +63,11 @@ public class ChainAdapter
      */
     private String annotationTypeName;
 
+    /**
+     * The UIMA type name of the links.
+     */
+    private final String linkTypeName;
+
     /**
      * The feature of an UIMA annotation for the first span in the chain
      */
@@ -84,6 +90,7 @@ public class ChainAdapter
         
         layerId = aLayerId;
         annotationTypeName = aTypeName;
+        linkTypeName = StringUtils.substringBeforeLast(aTypeName, CHAIN) + LINK;
         chainFirstFeatureName = aFirstFeatureName;
         linkNextFeatureName = aNextFeatureName;
     }
@@ -119,10 +126,9 @@ public class ChainAdapter
         List<Token> tokens = selectOverlapping(aJCas, Token.class, aBegin, aEnd);
         int begin = tokens.get(0).getBegin();
         int end = tokens.get(tokens.size() - 1).getEnd();
-        String baseName = StringUtils.substringBeforeLast(getAnnotationTypeName(), CHAIN) + LINK;
-        Type linkType = CasUtil.getType(aJCas.getCas(), baseName);
+        Type linkType = resolveType(aJCas.getCas(), linkTypeName);
         
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), linkType, begin, end)) {
+        for (AnnotationFS fs : selectCovered(aJCas.getCas(), linkType, begin, end)) {
             if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
                 return getFeatureValue(aFeature, fs);
             }
@@ -178,6 +184,7 @@ public class ChainAdapter
                     // and we can remove the target chain head
                     else {
                         aJCas.removeFsFromIndexes(targetChain);
+                        DirtyRegion.record(aJCas.getCas(), targetChain);
                     }
 
                     // connect the rest of the target chain to the origin chain
@@ -212,6 +219,7 @@ public class ChainAdapter
 
                     // we don't need the second chain head anymore
                     aJCas.removeFsFromIndexes(targetChain);
+                    DirtyRegion.record(aJCas.getCas(), targetChain);
                 }
             }
             else {
@@ -298,16 +306,19 @@ public class ChainAdapter
             // case 1: first element removed
             setFirstLink(oldChainFs, followingLinkToDelete);
             aJCas.removeFsFromIndexes(linkToDelete);
+            DirtyRegion.record(aJCas.getCas(), linkToDelete);
 
             // removed last element form chain?
             if (followingLinkToDelete == null) {
                 aJCas.removeFsFromIndexes(oldChainFs);
+                DirtyRegion.record(aJCas.getCas(), oldChainFs);
             }
         }
         else if (followingLinkToDelete == null) {
             // case 3: removing the last link (but not leaving the chain empty)
             setNextLink(prevLinkFs, null);
             aJCas.removeFsFromIndexes(linkToDelete);
+            DirtyRegion.record(aJCas.getCas(), linkToDelete);
         }
         else if (prevLinkFs != null && followingLinkToDelete != null) {
             // case 2: removing a middle link
@@ -320,6 +331,7 @@ public class ChainAdapter
             
             // Delete middle link
             aJCas.removeFsFromIndexes(linkToDelete);
+            DirtyRegion.record(aJCas.getCas(), linkToDelete);
         }
         else {
             throw new IllegalStateException(
@@ -336,7 +348,7 @@ public class ChainAdapter
     @Override
     public Type getAnnotationType(CAS cas)
     {
-        return CasUtil.getType(cas, annotationTypeName);
+        return resolveType(cas, annotationTypeName);
     }
 
     @Override
@@ -402,8 +414,7 @@ public class ChainAdapter
         List<AnnotationFS> links = new ArrayList<>();
 
         // Now we seek the link within the current chain
-        AnnotationFS linkFs = (AnnotationFS) aChain.getFeatureValue(aChain.getType()
-                .getFeatureByBaseName(chainFirstFeatureName));
+        AnnotationFS linkFs = getFirstLink(aChain);
         while (linkFs != null) {
             links.add(linkFs);
 
@@ -439,8 +450,11 @@ public class ChainAdapter
     {
         Type chainType = getAnnotationType(aJCas.getCas());
         FeatureStructure newChain = aJCas.getCas().createFS(chainType);
-        newChain.setFeatureValue(chainType.getFeatureByBaseName(chainFirstFeatureName), aFirstLink);
+        newChain.setFeatureValue(
+                resolveFeature(aJCas.getCas(), annotationTypeName, chainFirstFeatureName),
+                aFirstLink);
         aJCas.addFsToIndexes(newChain);
+        DirtyRegion.record(aJCas.getCas(), newChain);
         return newChain;
     }
 
@@ -449,10 +463,10 @@ public class ChainAdapter
      */
     private AnnotationFS newLink(JCas aJCas, int aBegin, int aEnd)
     {
-        String baseName = StringUtils.substringBeforeLast(getAnnotationTypeName(), CHAIN) + LINK;
-        Type linkType = CasUtil.getType(aJCas.getCas(), baseName);
+        Type linkType = resolveType(aJCas.getCas(), linkTypeName);
         AnnotationFS newLink = aJCas.getCas().createAnnotation(linkType, aBegin, aEnd);
         aJCas.getCas().addFsToIndexes(newLink);
+        DirtyRegion.record(aJCas.getCas(), newLink);
         return newLink;
     }
 
@@ -461,7 +475,11 @@ public class ChainAdapter
      */
     private void setFirstLink(FeatureStructure aChain, AnnotationFS aLink)
     {
-        aChain.setFeatureValue(aChain.getType().getFeatureByBaseName(chainFirstFeatureName), aLink);
+        aChain.setFeatureValue(
+                resolveFeature(aChain.getCAS(), annotationTypeName, chainFirstFeatureName),
+                aLink);
+        DirtyRegion.record(aChain.getCAS(), aChain);
+        DirtyRegion.record(aChain.getCAS(), aLink);
     }
 
     /**
@@ -469,8 +487,8 @@ public class ChainAdapter
      */
     private AnnotationFS getFirstLink(FeatureStructure aChain)
     {
-        return (AnnotationFS) aChain.getFeatureValue(aChain.getType().getFeatureByBaseName(
-                chainFirstFeatureName));
+        return (AnnotationFS) aChain.getFeatureValue(
+                resolveFeature(aChain.getCAS(), annotationTypeName, chainFirstFeatureName));
     }
 
     /**
@@ -503,8 +521,10 @@ public class ChainAdapter
      */
     private void setNextLink(AnnotationFS aLink, AnnotationFS aNext)
     {
-        aLink.setFeatureValue(
-                aLink.getType().getFeatureByBaseName(linkNextFeatureName), aNext);
+        aLink.setFeatureValue(resolveFeature(aLink.getCAS(), linkTypeName, linkNextFeatureName),
+                aNext);
+        DirtyRegion.record(aLink.getCAS(), aLink);
+        DirtyRegion.record(aLink.getCAS(), aNext);
     }
 
     /**
@@ -512,8 +532,8 @@ public class ChainAdapter
      */
     private AnnotationFS getNextLink(AnnotationFS aLink)
     {
-        return (AnnotationFS) aLink.getFeatureValue(aLink.getType().getFeatureByBaseName(
-                linkNextFeatureName));
+        return (AnnotationFS) aLink.getFeatureValue(
+                resolveFeature(aLink.getCAS(), linkTypeName, linkNextFeatureName));
     }
 
     /**
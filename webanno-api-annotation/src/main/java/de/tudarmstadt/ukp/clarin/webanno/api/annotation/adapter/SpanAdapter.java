@@ -17,12 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectCovered;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSameSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
-import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.io.Serializable;
@@ -39,13 +38,13 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.MultipleSentenceCoveredException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -212,8 +211,8 @@ public class SpanAdapter
             end = aEnd;
         }
         
-        Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, begin, end)) {
+        Type type = resolveType(aJCas.getCas(), getAnnotationTypeName());
+        for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, begin, end)) {
             if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
                 return getFeatureValue(aFeature, fs);
             }
@@ -228,8 +227,8 @@ public class SpanAdapter
     private Integer updateCas(CAS aCas, int aBegin, int aEnd)
         throws AnnotationException
     {
-        Type type = CasUtil.getType(aCas, getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aCas, type, aBegin, aEnd)) {
+        Type type = resolveType(aCas, getAnnotationTypeName());
+        for (AnnotationFS fs : selectCovered(aCas, type, aBegin, aEnd)) {
             if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
                 if (!allowStacking) {
                     return getAddr(fs);
@@ -246,16 +245,19 @@ public class SpanAdapter
         AnnotationFS newAnnotation = aCas.createAnnotation(aType, aBegin, aEnd);
 
         if (getAttachFeatureName() != null) {
-            Type theType = CasUtil.getType(aCas, getAttachTypeName());
-            Feature attachFeature = theType.getFeatureByBaseName(getAttachFeatureName());
-            if (CasUtil.selectCovered(aCas, theType, aBegin, aEnd).isEmpty()) {
+            Type theType = resolveType(aCas, getAttachTypeName());
+            Feature attachFeature = resolveFeature(aCas, getAttachTypeName(),
+                    getAttachFeatureName());
+            if (selectCovered(aCas, theType, aBegin, aEnd).isEmpty()) {
                 throw new AnnotationException("No annotation of type [" + getAttachTypeName()
                         + "] to attach to at location [" + aBegin + "-" + aEnd + "].");
             }
-            CasUtil.selectCovered(aCas, theType, aBegin, aEnd).get(0)
-                    .setFeatureValue(attachFeature, newAnnotation);
+            AnnotationFS attachFs = selectCovered(aCas, theType, aBegin, aEnd).get(0);
+            attachFs.setFeatureValue(attachFeature, newAnnotation);
+            DirtyRegion.record(aCas, attachFs);
         }
         aCas.addFsToIndexes(newAnnotation);
+        DirtyRegion.record(aCas, newAnnotation);
         return newAnnotation;
     }
 
@@ -264,26 +266,30 @@ public class SpanAdapter
     {
         FeatureStructure fs = selectByAddr(aJCas, FeatureStructure.class, aVid.getId());
         aJCas.removeFsFromIndexes(fs);
+        DirtyRegion.record(aJCas.getCas(), fs);
 
         // delete associated attachFeature
         if (getAttachTypeName() == null) {
             return;
         }
-        Type theType = CasUtil.getType(aJCas.getCas(), getAttachTypeName());
-        Feature attachFeature = theType.getFeatureByBaseName(getAttachFeatureName());
+        Type theType = resolveType(aJCas.getCas(), getAttachTypeName());
+        Feature attachFeature = resolveFeature(aJCas.getCas(), getAttachTypeName(),
+                getAttachFeatureName());
         if (attachFeature == null) {
             return;
         }
-        CasUtil.selectCovered(aJCas.getCas(), theType, ((AnnotationFS) fs).getBegin(),
-                ((AnnotationFS) fs).getEnd()).get(0).setFeatureValue(attachFeature, null);
+        AnnotationFS attachFs = selectCovered(aJCas.getCas(), theType,
+                ((AnnotationFS) fs).getBegin(), ((AnnotationFS) fs).getEnd()).get(0);
+        attachFs.setFeatureValue(attachFeature, null);
+        DirtyRegion.record(aJCas.getCas(), attachFs);
 
     }
 
     @Override
     public void delete(JCas aJCas, AnnotationFeature aFeature, int aBegin, int aEnd, Object aValue)
     {
-        Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
+        Type type = resolveType(aJCas.getCas(), getAnnotationTypeName());
+        for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
 
             if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
                 if (ObjectUtils.equals(getFeatureValue(aFeature, fs), aValue)) {
@@ -302,7 +308,7 @@ public class SpanAdapter
     @Override
     public Type getAnnotationType(CAS cas)
     {
-        return CasUtil.getType(cas, getAnnotationTypeName());
+        return resolveType(cas, getAnnotationTypeName());
     }
 
     /**
@@ -326,7 +332,7 @@ public class SpanAdapter
     {
         CAS cas = aSentence.getCAS();
         
-        Type type = getType(cas, getAnnotationTypeName());
+        Type type = resolveType(cas, getAnnotationTypeName());
         List<String> annotations = new ArrayList<>();
 
         for (Token token : selectCovered(Token.class, aSentence)) {
@@ -347,7 +353,7 @@ public class SpanAdapter
         throws CASException
     {
         Map<Integer, String> multAnno = new HashMap<>();
-        Type type = getType(sentence.getCAS(), getAnnotationTypeName());
+        Type type = resolveType(sentence.getCAS(), getAnnotationTypeName());
         for (AnnotationFS fs : selectCovered(type, sentence)) {
             boolean isBegin = true;
             Feature labelFeature = fs.getType().getFeatureByBaseName(aFeature.getName());
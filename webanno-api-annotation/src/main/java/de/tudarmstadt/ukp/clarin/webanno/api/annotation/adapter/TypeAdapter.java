@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 import java.util.Collection;
 
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.jcas.JCas;
@@ -108,4 +109,35 @@ public interface TypeAdapter
     void setFeatureValue(AnnotationFeature aFeature, JCas aJcas, int aAddress, Object aValue);
 
     <T> T getFeatureValue(AnnotationFeature aFeature, FeatureStructure aFs);
+
+    /**
+     * Looks up a type in the type system of the given CAS. Adapters remember the types and
+     * features they have looked up for as long as they are used with the same type system, so
+     * this is cheaper than looking up the type in the type system every time.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aTypeName
+     *            the name of the type.
+     * @return the type.
+     * @throws IllegalArgumentException
+     *             if the type does not exist.
+     */
+    Type resolveType(CAS aCas, String aTypeName);
+
+    /**
+     * Looks up a feature of a type in the type system of the given CAS, see
+     * {@link #resolveType}.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aTypeName
+     *            the name of the type.
+     * @param aFeatureName
+     *            the base name of the feature.
+     * @return the feature or {@code null} if the type has no such feature.
+     * @throws IllegalArgumentException
+     *             if the type does not exist.
+     */
+    Feature resolveFeature(CAS aCas, String aTypeName, String aFeatureName);
 }
@@ -20,11 +20,17 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 
@@ -39,6 +45,13 @@ public abstract class TypeAdapter_ImplBase
 
     private boolean deletable;
 
+    /**
+     * Types and features resolved by name in the type system this adapter has last been used
+     * with. Adapters may be shared between threads, so the handles are replaced as a whole when
+     * the adapter is used with a different type system.
+     */
+    private volatile ResolvedHandles resolvedHandles;
+
     public TypeAdapter_ImplBase(FeatureSupportRegistry aFeatureSupportRegistry,
             AnnotationLayer aLayer, Collection<AnnotationFeature> aFeatures)
     {
@@ -81,6 +94,7 @@ public abstract class TypeAdapter_ImplBase
     {
         featureSupportRegistry.getFeatureSupport(aFeature).setFeatureValue(aJcas, aFeature,
                 aAddress, aValue);
+        DirtyRegion.record(aJcas.getCas(), aAddress);
     }
 
     @Override
@@ -88,4 +102,72 @@ public abstract class TypeAdapter_ImplBase
     {
         return featureSupportRegistry.getFeatureSupport(aFeature).getFeatureValue(aFeature, aFs);
     }
+
+    @Override
+    public Type resolveType(CAS aCas, String aTypeName)
+    {
+        return getResolvedType(aCas, aTypeName).type;
+    }
+
+    @Override
+    public Feature resolveFeature(CAS aCas, String aTypeName, String aFeatureName)
+    {
+        ResolvedType resolvedType = getResolvedType(aCas, aTypeName);
+        if (aFeatureName == null) {
+            return null;
+        }
+        
+        Feature feature = resolvedType.features.get(aFeatureName);
+        if (feature == null) {
+            feature = resolvedType.type.getFeatureByBaseName(aFeatureName);
+            // Missing features are not remembered, but they should not be asked for often
+            if (feature != null) {
+                resolvedType.features.put(aFeatureName, feature);
+            }
+        }
+        return feature;
+    }
+
+    private ResolvedType getResolvedType(CAS aCas, String aTypeName)
+    {
+        TypeSystem typeSystem = aCas.getTypeSystem();
+        ResolvedHandles handles = resolvedHandles;
+        if (handles == null || handles.typeSystem != typeSystem) {
+            handles = new ResolvedHandles(typeSystem);
+            resolvedHandles = handles;
+        }
+
+        ResolvedType resolvedType = handles.types.get(aTypeName);
+        if (resolvedType == null) {
+            Type type = typeSystem.getType(aTypeName);
+            if (type == null) {
+                throw new IllegalArgumentException("Undeclared type [" + aTypeName + "]");
+            }
+            resolvedType = new ResolvedType(type);
+            handles.types.put(aTypeName, resolvedType);
+        }
+        return resolvedType;
+    }
+
+    private static final class ResolvedHandles
+    {
+        private final TypeSystem typeSystem;
+        private final Map<String, ResolvedType> types = new ConcurrentHashMap<>();
+
+        public ResolvedHandles(TypeSystem aTypeSystem)
+        {
+            typeSystem = aTypeSystem;
+        }
+    }
+
+    private static final class ResolvedType
+    {
+        private final Type type;
+        private final Map<String, Feature> features = new ConcurrentHashMap<>();
+
+        public ResolvedType(Type aType)
+        {
+            type = aType;
+        }
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static org.apache.uima.fit.util.CasUtil.selectFS;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
+
+/**
+ * Maps the links of the chains of a chain layer to their chain and to their position within the
+ * chain, so that the chains passing through a part of the document can be rendered without
+ * walking through all chains of the document.
+ * <p>
+ * The index of a chain type is built when it is first needed and is kept with the CAS view until
+ * the {@link DirtyRegion#getVersion modification version} of the CAS changes, i.e. until a change
+ * is recorded or the CAS is reset. The CAS objects holding the same
+ * {@link DirtyRegion#getStoredVersion stored CAS} share their indexes, so the indexes are not built
+ * again when a document is read again, e.g. for each page turn.
+ */
+final class ChainLinkIndex
+{
+    /**
+     * The indexes of the CAS views, keyed by the view. Once a CAS is no longer used, its indexes
+     * are dropped with it.
+     */
+    private static final Map<CAS, Map<Type, ChainLinkIndex>> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * The number of indexes of stored CASes which are kept.
+     */
+    private static final int MAX_SHARED_INDEXES = 64;
+
+    /**
+     * The indexes of stored CASes keyed by the stored version, the name of the view and the chain
+     * type, least recently used first.
+     */
+    private static final Map<String, ChainLinkIndex> SHARED_INDEXES = Collections
+            .synchronizedMap(new LinkedHashMap<String, ChainLinkIndex>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -2286040512860417537L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ChainLinkIndex> aEldest)
+                {
+                    return size() > MAX_SHARED_INDEXES;
+                }
+            });
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long version;
+    private final String documentText;
+
+    // Sorted by address
+    private int[] linkAddresses;
+    private int[] linkChains;
+    private int[] linkPositions;
+    private int size;
+
+    private ChainLinkIndex(CAS aCas, Type aChainType, Feature aChainFirst,
+            String aLinkNextFeatureName)
+    {
+        version = DirtyRegion.getVersion(aCas);
+        documentText = aCas.getDocumentText();
+
+        linkAddresses = new int[INITIAL_CAPACITY];
+        linkChains = new int[INITIAL_CAPACITY];
+        linkPositions = new int[INITIAL_CAPACITY];
+        BitSet seen = new BitSet();
+        int chain = 0;
+        for (FeatureStructure chainFs : selectFS(aCas, aChainType)) {
+            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(aChainFirst);
+            int position = 0;
+            // A link can only be part of one chain - this also stops at loops within a chain
+            while (linkFs != null && !seen.get(getAddr(linkFs))) {
+                seen.set(getAddr(linkFs));
+                add(getAddr(linkFs), chain, position);
+                position++;
+
+                Feature linkNext = linkFs.getType().getFeatureByBaseName(aLinkNextFeatureName);
+                linkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
+            }
+            chain++;
+        }
+
+        sortByAddress();
+    }
+
+    /**
+     * @param aCas
+     *            the CAS view containing the chains.
+     * @param aChainType
+     *            the type of the chain heads.
+     * @param aChainFirst
+     *            the feature of the chain heads pointing to the first link.
+     * @param aLinkNextFeatureName
+     *            the name of the feature of the links pointing to the next link.
+     * @return the index of the given chain type in the given CAS view.
+     */
+    static ChainLinkIndex get(CAS aCas, Type aChainType, Feature aChainFirst,
+            String aLinkNextFeatureName)
+    {
+        long storedVersion = DirtyRegion.getStoredVersion(aCas);
+        if (storedVersion >= 0) {
+            // Building the same index twice in parallel is harmless, so the index is not built
+            // while holding the lock
+            String key = storedVersion + "|" + aCas.getViewName() + "|" + aChainType.getName();
+            ChainLinkIndex index = SHARED_INDEXES.get(key);
+            if (index == null) {
+                index = new ChainLinkIndex(aCas, aChainType, aChainFirst, aLinkNextFeatureName);
+                SHARED_INDEXES.put(key, index);
+            }
+            return index;
+        }
+
+        Map<Type, ChainLinkIndex> indexes;
+        synchronized (INDEXES) {
+            indexes = INDEXES.computeIfAbsent(aCas, k -> new HashMap<>());
+        }
+
+        synchronized (indexes) {
+            ChainLinkIndex index = indexes.get(aChainType);
+            if (index == null || !index.isCurrent(aCas)) {
+                index = new ChainLinkIndex(aCas, aChainType, aChainFirst, aLinkNextFeatureName);
+                indexes.put(aChainType, index);
+            }
+            return index;
+        }
+    }
+
+    private boolean isCurrent(CAS aCas)
+    {
+        // Comparing the identity of the text is intended - the text is replaced when the CAS is
+        // reset or deserialized
+        return version == DirtyRegion.getVersion(aCas) && documentText == aCas.getDocumentText();
+    }
+
+    private void add(int aAddress, int aChain, int aPosition)
+    {
+        if (size == linkAddresses.length) {
+            linkAddresses = Arrays.copyOf(linkAddresses, size * 2);
+            linkChains = Arrays.copyOf(linkChains, size * 2);
+            linkPositions = Arrays.copyOf(linkPositions, size * 2);
+        }
+        linkAddresses[size] = aAddress;
+        linkChains[size] = aChain;
+        linkPositions[size] = aPosition;
+        size++;
+    }
+
+    private void sortByAddress()
+    {
+        // Sort the addresses together with the entry numbers packed into longs to avoid boxing
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((long) linkAddresses[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        int[] addresses = new int[size];
+        int[] chains = new int[size];
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            int entry = (int) packed[i];
+            addresses[i] = linkAddresses[entry];
+            chains[i] = linkChains[entry];
+            positions[i] = linkPositions[entry];
+        }
+        linkAddresses = addresses;
+        linkChains = chains;
+        linkPositions = positions;
+    }
+
+    /**
+     * @param aLink
+     *            a link.
+     * @return the number of the chain of the given link in the order of the chain index or
+     *         {@code -1} if the link is not part of any chain.
+     */
+    int getChain(AnnotationFS aLink)
+    {
+        int i = Arrays.binarySearch(linkAddresses, 0, size, getAddr(aLink));
+        return i < 0 ? -1 : linkChains[i];
+    }
+
+    /**
+     * @param aLink
+     *            a link which is part of a chain.
+     * @return the position of the link within its chain.
+     */
+    int getPosition(AnnotationFS aLink)
+    {
+        return linkPositions[Arrays.binarySearch(linkAddresses, 0, size, getAddr(aLink))];
+    }
+}
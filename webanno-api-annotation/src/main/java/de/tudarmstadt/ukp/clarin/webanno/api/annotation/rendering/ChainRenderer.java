@@ -17,15 +17,17 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectAt;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectOverlapping;
 import static java.util.Arrays.asList;
 import static java.util.Collections.EMPTY_LIST;
 import static java.util.Collections.singletonMap;
-import static org.apache.uima.fit.util.CasUtil.selectFS;
+import static java.util.Comparator.comparingInt;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.uima.cas.Feature;
-import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.JCas;
@@ -71,84 +73,80 @@ public class ChainRenderer
 
         ChainAdapter typeAdapter = getTypeAdapter();
         Type chainType = typeAdapter.getAnnotationType(aJcas.getCas());
-        Feature chainFirst = chainType.getFeatureByBaseName(typeAdapter.getChainFirstFeatureName());
-
-        int colorIndex = 0;
-        // Iterate over the chains
-        for (FeatureStructure chainFs : selectFS(aJcas.getCas(), chainType)) {
-            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(chainFirst);
-            AnnotationFS prevLinkFs = null;
-
-            // Iterate over the links of the chain
-            while (linkFs != null) {
-                Feature linkNext = linkFs.getType()
-                        .getFeatureByBaseName(typeAdapter.getLinkNextFeatureName());
-                AnnotationFS nextLinkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
-
-                // Is link after window? If yes, we can skip the rest of the chain
-                if (linkFs.getBegin() >= aState.getWindowEndOffset()) {
-                    break; // Go to next chain
-                }
+        Feature chainFirst = typeAdapter.resolveFeature(aJcas.getCas(),
+                typeAdapter.getAnnotationTypeName(), typeAdapter.getChainFirstFeatureName());
+
+        int windowBegin = aState.getWindowBeginOffset();
+        int windowEnd = aState.getWindowEndOffset();
+        
+        // Find the links which need to be rendered in the window and determine their chains. The
+        // links are all annotations which begin in the window and those which span the whole
+        // window, but not those which begin before the window and end within it.
+        Type linkType = chainFirst.getRange();
+        ChainLinkIndex chains = ChainLinkIndex.get(aJcas.getCas(), chainType, chainFirst,
+                typeAdapter.getLinkNextFeatureName());
+        List<AnnotationFS> links = new ArrayList<>();
+        links.addAll(selectOverlapping(aJcas.getCas(), linkType, windowBegin, windowEnd));
+        links.addAll(selectAt(aJcas.getCas(), linkType, windowBegin, windowBegin));
+        links.removeIf(linkFs -> linkFs.getBegin() >= windowEnd
+                || (linkFs.getBegin() < windowBegin && linkFs.getEnd() <= windowEnd)
+                || chains.getChain(linkFs) == -1);
+        
+        // Render the chains in the order of the chain index and the links in the order of their
+        // chains
+        links.sort(comparingInt((AnnotationFS linkFs) -> chains.getChain(linkFs))
+                .thenComparingInt(linkFs -> chains.getPosition(linkFs)));
+        
+        String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
+        AnnotationFS prevLinkFs = null;
+        for (AnnotationFS linkFs : links) {
+            // The color index is the number of the chain, even for chains that have no visible
+            // links in the current window, because we would like the chain color to be
+            // independent of visibility. In particular the color of a chain should not change when
+            // switching pages/scrolling.
+            int colorIndex = chains.getChain(linkFs);
+            
+            // An arc is only rendered between links of the same chain
+            if (prevLinkFs != null && chains.getChain(prevLinkFs) != colorIndex) {
+                prevLinkFs = null;
+            }
 
-                // Is link before window? We only need links that being within the window and that
-                // end within the window
-                if (!(linkFs.getBegin() >= aState.getWindowBeginOffset())
-                        && (linkFs.getEnd() <= aState.getWindowEndOffset())) {
-                    // prevLinkFs remains null until we enter the window
-                    linkFs = nextLinkFs;
-                    continue; // Go to next link
-                }
+            // Render span
+            {
+                String bratLabelText = TypeUtil.getUiLabelText(typeAdapter, linkFs,
+                        (spanLabelFeature != null) ? asList(spanLabelFeature) : EMPTY_LIST);
+                VRange offsets = new VRange(linkFs.getBegin() - windowBegin,
+                        linkFs.getEnd() - windowBegin);
 
-                String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
+                aResponse.add(new VSpan(typeAdapter.getLayer(), linkFs, bratTypeName, offsets,
+                        colorIndex, singletonMap("label", bratLabelText)));
+            }
 
-                // Render span
-                {
-                    String bratLabelText = TypeUtil.getUiLabelText(typeAdapter, linkFs,
-                            (spanLabelFeature != null) ? asList(spanLabelFeature) : EMPTY_LIST);
-                    VRange offsets = new VRange(linkFs.getBegin() - aState.getWindowBeginOffset(),
-                            linkFs.getEnd() - aState.getWindowBeginOffset());
+            // Render arc (we do this on prevLinkFs because then we easily know that the current
+            // and last link are within the window ;)
+            if (prevLinkFs != null) {
+                String bratLabelText = null;
 
-                    aResponse.add(new VSpan(typeAdapter.getLayer(), linkFs, bratTypeName, offsets,
-                            colorIndex, singletonMap("label", bratLabelText)));
+                if (typeAdapter.isLinkedListBehavior() && arcLabelFeature != null) {
+                    // Render arc label
+                    bratLabelText = TypeUtil.getUiLabelText(typeAdapter, prevLinkFs,
+                            asList(arcLabelFeature));
                 }
-
-                // Render arc (we do this on prevLinkFs because then we easily know that the current
-                // and last link are within the window ;)
-                if (prevLinkFs != null) {
-                    String bratLabelText = null;
-
-                    if (typeAdapter.isLinkedListBehavior() && arcLabelFeature != null) {
-                        // Render arc label
-                        bratLabelText = TypeUtil.getUiLabelText(typeAdapter, prevLinkFs,
-                                asList(arcLabelFeature));
-                    }
-                    else {
-                        // Render only chain type
-                        bratLabelText = TypeUtil.getUiLabelText(typeAdapter, prevLinkFs,
-                                EMPTY_LIST);
-                    }
-
-                    aResponse.add(new VArc(typeAdapter.getLayer(),
-                            new VID(prevLinkFs, 1, VID.NONE, VID.NONE), bratTypeName, prevLinkFs,
-                            linkFs, colorIndex, singletonMap("label", bratLabelText)));
+                else {
+                    // Render only chain type
+                    bratLabelText = TypeUtil.getUiLabelText(typeAdapter, prevLinkFs,
+                            EMPTY_LIST);
                 }
 
-                // Render errors if required features are missing
-                renderRequiredFeatureErrors(aFeatures, linkFs, aResponse);
+                aResponse.add(new VArc(typeAdapter.getLayer(),
+                        new VID(prevLinkFs, 1, VID.NONE, VID.NONE), bratTypeName, prevLinkFs,
+                        linkFs, colorIndex, singletonMap("label", bratLabelText)));
+            }
 
-                // if (BratAjaxCasUtil.isSame(linkFs, nextLinkFs)) {
-                // log.error("Loop in CAS detected, aborting rendering of chains");
-                // break;
-                // }
+            // Render errors if required features are missing
+            renderRequiredFeatureErrors(aFeatures, linkFs, aResponse);
 
-                prevLinkFs = linkFs;
-                linkFs = nextLinkFs;
-            }
-            
-            // The color index is updated even for chains that have no visible links in the current
-            // window because we would like the chain color to be independent of visibility. In
-            // particular the color of a chain should not change when switching pages/scrolling.
-            colorIndex++;
+            prevLinkFs = linkFs;
         }
     }
 }
@@ -17,18 +17,15 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex.selectCovered;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
 import static java.util.Comparator.comparingInt;
-import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
@@ -54,6 +51,9 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 public class RelationRenderer
     extends Renderer_ImplBase<ArcAdapter>
 {
+    private static final Comparator<AnnotationFS> TEXT_ORDER = comparingInt(
+            AnnotationFS::getBegin).thenComparingInt(fs -> getAddr(fs));
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     public RelationRenderer(ArcAdapter aTypeAdapter, FeatureSupportRegistry aFeatureSupportRegistry)
@@ -66,27 +66,25 @@ public class RelationRenderer
             VDocument aResponse, AnnotatorState aBratAnnotatorModel)
     {
         ArcAdapter typeAdapter = getTypeAdapter();
-        Type type = getType(aJcas.getCas(), typeAdapter.getAnnotationTypeName());
+        Type type = typeAdapter.getAnnotationType(aJcas.getCas());
         
         int windowBegin = aBratAnnotatorModel.getWindowBeginOffset();
         int windowEnd = aBratAnnotatorModel.getWindowEndOffset();
         
-        Feature dependentFeature = type.getFeatureByBaseName(typeAdapter.getTargetFeatureName());
-        Feature governorFeature = type.getFeatureByBaseName(typeAdapter.getSourceFeatureName());
-
-        Type spanType = getType(aJcas.getCas(), typeAdapter.getAttachTypeName());
-        Feature arcSpanFeature = spanType.getFeatureByBaseName(typeAdapter.getAttachFeatureName());
-
-        FeatureStructure dependentFs;
-        FeatureStructure governorFs;
-
-        Map<Integer, Set<Integer>> relationLinks = getRelationLinks(aJcas, windowBegin, windowEnd,
-                type, dependentFeature, governorFeature, arcSpanFeature);
-
-        // if this is a governor for more than one dependent, avoid duplicate yield
-        List<Integer> yieldDeps = new ArrayList<>();
-
+        Feature dependentFeature = typeAdapter.resolveFeature(aJcas.getCas(),
+                typeAdapter.getAnnotationTypeName(), typeAdapter.getTargetFeatureName());
+        Feature governorFeature = typeAdapter.resolveFeature(aJcas.getCas(),
+                typeAdapter.getAnnotationTypeName(), typeAdapter.getSourceFeatureName());
+        Feature arcSpanFeature = typeAdapter.resolveFeature(aJcas.getCas(),
+                typeAdapter.getAttachTypeName(), typeAdapter.getAttachFeatureName());
+
+        // Collect the relations first so that the related spans can be numbered for the yield
+        List<AnnotationFS> relations = new ArrayList<>();
+        List<AnnotationFS> governors = new ArrayList<>();
+        List<AnnotationFS> dependents = new ArrayList<>();
         for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, windowBegin, windowEnd)) {
+            FeatureStructure dependentFs;
+            FeatureStructure governorFs;
             if (typeAdapter.getAttachFeatureName() != null) {
                 dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
                 governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
@@ -96,9 +94,6 @@ public class RelationRenderer
                 governorFs = fs.getFeatureValue(governorFeature);
             }
 
-            String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
-            Map<String, String> features = getFeatures(typeAdapter, fs, aFeatures);
-            
             if (dependentFs == null || governorFs == null) {
                 log.warn("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
                         + getAddr(fs) + "] has loose ends - cannot render");
@@ -111,24 +106,44 @@ public class RelationRenderer
                 
                 continue;
             }
+            
+            relations.add(fs);
+            governors.add((AnnotationFS) governorFs);
+            dependents.add((AnnotationFS) dependentFs);
+        }
+        
+        // Number the related spans in the order in which they appear in the text, so the yields
+        // are already sorted for display.
+        AnnotationFS[] nodes = getNodes(governors, dependents);
+        int[] governorNodes = new int[relations.size()];
+        int[] dependentNodes = new int[relations.size()];
+        for (int i = 0; i < relations.size(); i++) {
+            governorNodes[i] = Arrays.binarySearch(nodes, governors.get(i), TEXT_ORDER);
+            dependentNodes[i] = Arrays.binarySearch(nodes, dependents.get(i), TEXT_ORDER);
+        }
+        YieldGraph yieldGraph = new YieldGraph(nodes.length, governorNodes, dependentNodes);
 
-            aResponse.add(new VArc(typeAdapter.getLayer(), fs, bratTypeName, governorFs,
-                    dependentFs, features));
+        // if this is a governor for more than one dependent, avoid duplicate yield
+        boolean[] yieldRendered = new boolean[nodes.length];
+        
+        String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
+        for (int i = 0; i < relations.size(); i++) {
+            AnnotationFS fs = relations.get(i);
+            Map<String, String> features = getFeatures(typeAdapter, fs, aFeatures);
+            
+            aResponse.add(new VArc(typeAdapter.getLayer(), fs, bratTypeName, governors.get(i),
+                    dependents.get(i), features));
 
             // Render errors if required features are missing
             renderRequiredFeatureErrors(aFeatures, fs, aResponse);
             
-            if (relationLinks.keySet().contains(getAddr(governorFs))
-                    && !yieldDeps.contains(getAddr(governorFs))) {
-                yieldDeps.add(getAddr(governorFs));
-
-                // sort the annotations (begin, end)
-                List<Integer> sortedDepFs = new ArrayList<>(relationLinks.get(getAddr(governorFs)));
-                sortedDepFs.sort(comparingInt(arg0 -> selectByAddr(aJcas, arg0).getBegin()));
-
-                String cm = getYieldMessage(aJcas, sortedDepFs);
-                aResponse.add(
-                        new VComment(governorFs, VCommentType.YIELD, "Yield of relation:" + cm));
+            // The yield is only computed for governors which are rendered
+            int governor = governorNodes[i];
+            if (!yieldRendered[governor]) {
+                yieldRendered[governor] = true;
+                String cm = getYieldMessage(nodes, yieldGraph.getYield(governor));
+                aResponse.add(new VComment(governors.get(i), VCommentType.YIELD,
+                        "Yield of relation:" + cm));
             }
         }
     }
@@ -136,89 +151,53 @@ public class RelationRenderer
     /**
      * The relations yield message
      */
-    private String getYieldMessage(JCas aJCas, List<Integer> sortedDepFs)
+    private String getYieldMessage(AnnotationFS[] aNodes, int[] aYield)
     {
         StringBuilder cm = new StringBuilder();
         int end = -1;
-        for (Integer depFs : sortedDepFs) {
+        for (int node : aYield) {
+            AnnotationFS depFs = aNodes[node];
             if (end == -1) {
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(depFs.getCoveredText());
             }
             // if no space between token and punct
-            else if (end == selectByAddr(aJCas, depFs).getBegin()) {
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end == depFs.getBegin()) {
+                cm.append(depFs.getCoveredText());
             }
-            else if (end + 1 != selectByAddr(aJCas, depFs).getBegin()) {
-                cm.append(" ... ").append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end + 1 != depFs.getBegin()) {
+                cm.append(" ... ").append(depFs.getCoveredText());
             }
             else {
-                cm.append(" ").append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(" ").append(depFs.getCoveredText());
             }
-
+            end = depFs.getEnd();
         }
         return cm.toString();
     }
 
     /**
-     * Get relation links to display in relation yield
+     * Get the spans connected by the relations, sorted by {@link #TEXT_ORDER} and without
+     * duplicates.
      */
-    private Map<Integer, Set<Integer>> getRelationLinks(JCas aJcas, int aWindowBegin,
-            int aWindowEnd, Type type, Feature dependentFeature, Feature governorFeature,
-            Feature arcSpanFeature)
+    private static AnnotationFS[] getNodes(List<AnnotationFS> aGovernors,
+            List<AnnotationFS> aDependents)
     {
-        ArcAdapter typeAdapter = getTypeAdapter();
-        FeatureStructure dependentFs;
-        FeatureStructure governorFs;
-        Map<Integer, Set<Integer>> relations = new ConcurrentHashMap<>();
-
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, aWindowBegin, aWindowEnd)) {
-            if (typeAdapter.getAttachFeatureName() != null) {
-                dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
-                governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
-            }
-            else {
-                dependentFs = fs.getFeatureValue(dependentFeature);
-                governorFs = fs.getFeatureValue(governorFeature);
-            }
-            if (dependentFs == null || governorFs == null) {
-                log.warn("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
-                        + getAddr(fs) + "] has loose ends - cannot render.");
-                continue;
-            }
-            Set<Integer> links = relations.get(getAddr(governorFs));
-            if (links == null) {
-                links = new ConcurrentSkipListSet<>();
-            }
-
-            links.add(getAddr(dependentFs));
-            relations.put(getAddr(governorFs), links);
-        }
-
-        // Update other subsequent links
-        for (int i = 0; i < relations.keySet().size(); i++) {
-            for (Integer fs : relations.keySet()) {
-                updateLinks(relations, fs);
-            }
+        AnnotationFS[] spans = new AnnotationFS[aGovernors.size() + aDependents.size()];
+        int i = 0;
+        for (AnnotationFS fs : aGovernors) {
+            spans[i++] = fs;
         }
-        // to start displaying the text from the governor, include it
-        for (Integer fs : relations.keySet()) {
-            relations.get(fs).add(fs);
+        for (AnnotationFS fs : aDependents) {
+            spans[i++] = fs;
         }
-        return relations;
-    }
-
-    private void updateLinks(Map<Integer, Set<Integer>> aRelLinks, Integer aGov)
-    {
-        for (Integer dep : aRelLinks.get(aGov)) {
-            if (aRelLinks.containsKey(dep)
-                    && !aRelLinks.get(aGov).containsAll(aRelLinks.get(dep))) {
-                aRelLinks.get(aGov).addAll(aRelLinks.get(dep));
-                updateLinks(aRelLinks, dep);
+        Arrays.sort(spans, TEXT_ORDER);
+        
+        int unique = 0;
+        for (i = 0; i < spans.length; i++) {
+            if (i == 0 || getAddr(spans[i]) != getAddr(spans[unique - 1])) {
+                spans[unique++] = spans[i];
             }
         }
+        return Arrays.copyOf(spans, unique);
     }
 }
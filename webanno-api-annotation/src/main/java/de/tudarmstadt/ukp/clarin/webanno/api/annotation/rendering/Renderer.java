@@ -74,7 +74,8 @@ public interface Renderer
                 continue;
             }
             
-            Feature labelFeature = aFs.getType().getFeatureByBaseName(feature.getName());
+            Feature labelFeature = aAdapter.resolveFeature(aFs.getCAS(), aFs.getType().getName(),
+                    feature.getName());
             String label = defaultString(
                     fsr.getFeatureSupport(feature).renderFeatureValue(feature, aFs, labelFeature));
             
@@ -18,7 +18,6 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
-import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
@@ -62,7 +61,7 @@ public class SpanRenderer
             VDocument aResponse, AnnotatorState aBratAnnotatorModel)
     {
         SpanAdapter typeAdapter = getTypeAdapter();
-        Type type = getType(aJcas.getCas(), typeAdapter.getAnnotationTypeName());
+        Type type = typeAdapter.getAnnotationType(aJcas.getCas());
         
         int windowBegin = aBratAnnotatorModel.getWindowBeginOffset();
         int windowEnd = aBratAnnotatorModel.getWindowEndOffset();
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import java.util.Arrays;
+
+/**
+ * The relations between nodes numbered from {@code 0} to {@code n - 1}, used to compute the yield
+ * of a node, i.e. the node itself and all nodes reachable from it.
+ * <p>
+ * The strongly connected components of the graph are determined once when the graph is created.
+ * The yields are then computed per component when they are first requested and are memoized, so
+ * the yield of a node is built from the already computed yields of its dependents. Relations may
+ * form cycles.
+ */
+final class YieldGraph
+{
+    private final int nodeCount;
+
+    // Relations as adjacency lists, the dependents of node n are at
+    // edgeTargets[edgeStarts[n]] to edgeTargets[edgeStarts[n + 1] - 1]
+    private final int[] edgeStarts;
+    private final int[] edgeTargets;
+
+    private int componentCount;
+    private int[] components;
+
+    // Members and dependent components of each component, stored like the relations
+    private int[] memberStarts;
+    private int[] members;
+    private int[] componentEdgeStarts;
+    private int[] componentEdgeTargets;
+
+    private final int[][] yields;
+    private final boolean[] expanded;
+
+    /**
+     * @param aNodeCount
+     *            the number of nodes.
+     * @param aGovernors
+     *            the governor node of each relation.
+     * @param aDependents
+     *            the dependent node of each relation.
+     */
+    YieldGraph(int aNodeCount, int[] aGovernors, int[] aDependents)
+    {
+        nodeCount = aNodeCount;
+
+        edgeStarts = new int[aNodeCount + 1];
+        edgeTargets = new int[aGovernors.length];
+        for (int governor : aGovernors) {
+            edgeStarts[governor + 1]++;
+        }
+        for (int n = 0; n < aNodeCount; n++) {
+            edgeStarts[n + 1] += edgeStarts[n];
+        }
+        int[] next = Arrays.copyOf(edgeStarts, aNodeCount);
+        for (int i = 0; i < aGovernors.length; i++) {
+            edgeTargets[next[aGovernors[i]]++] = aDependents[i];
+        }
+
+        computeComponents();
+        yields = new int[componentCount][];
+        expanded = new boolean[componentCount];
+    }
+
+    /**
+     * @param aNode
+     *            a node.
+     * @return the node itself and all nodes reachable from it in ascending order. The returned
+     *         array must not be modified.
+     */
+    int[] getYield(int aNode)
+    {
+        int component = components[aNode];
+        if (yields[component] == null) {
+            computeYield(component);
+        }
+        return yields[component];
+    }
+
+    /**
+     * Determines the strongly connected components using Tarjan's algorithm. An explicit stack is
+     * used instead of recursion since relations can form long chains.
+     */
+    private void computeComponents()
+    {
+        components = new int[nodeCount];
+        int[] index = new int[nodeCount];
+        Arrays.fill(index, -1);
+        int[] low = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        int[] path = new int[nodeCount];
+        int[] nextEdge = new int[nodeCount];
+        int pathLength = 0;
+        int counter = 0;
+
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            nextEdge[root] = edgeStarts[root];
+            path[pathLength++] = root;
+
+            while (pathLength > 0) {
+                int node = path[pathLength - 1];
+                if (nextEdge[node] < edgeStarts[node + 1]) {
+                    int dependent = edgeTargets[nextEdge[node]++];
+                    if (index[dependent] == -1) {
+                        index[dependent] = low[dependent] = counter++;
+                        stack[stackSize++] = dependent;
+                        onStack[dependent] = true;
+                        nextEdge[dependent] = edgeStarts[dependent];
+                        path[pathLength++] = dependent;
+                    }
+                    else if (onStack[dependent]) {
+                        low[node] = Math.min(low[node], index[dependent]);
+                    }
+                    continue;
+                }
+
+                pathLength--;
+                if (pathLength > 0) {
+                    int parent = path[pathLength - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        components[member] = componentCount;
+                    }
+                    while (member != node);
+                    componentCount++;
+                }
+            }
+        }
+
+        // Iterating the nodes in order keeps the members of each component sorted
+        memberStarts = new int[componentCount + 1];
+        members = new int[nodeCount];
+        componentEdgeStarts = new int[componentCount + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            memberStarts[components[n] + 1]++;
+            for (int e = edgeStarts[n]; e < edgeStarts[n + 1]; e++) {
+                if (components[edgeTargets[e]] != components[n]) {
+                    componentEdgeStarts[components[n] + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < componentCount; c++) {
+            memberStarts[c + 1] += memberStarts[c];
+            componentEdgeStarts[c + 1] += componentEdgeStarts[c];
+        }
+        componentEdgeTargets = new int[componentEdgeStarts[componentCount]];
+        int[] nextMember = Arrays.copyOf(memberStarts, componentCount);
+        int[] nextComponentEdge = Arrays.copyOf(componentEdgeStarts, componentCount);
+        for (int n = 0; n < nodeCount; n++) {
+            members[nextMember[components[n]]++] = n;
+            for (int e = edgeStarts[n]; e < edgeStarts[n + 1]; e++) {
+                if (components[edgeTargets[e]] != components[n]) {
+                    componentEdgeTargets[nextComponentEdge[components[n]]++] =
+                            components[edgeTargets[e]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the yield of the given component and of all components reachable from it which
+     * have not been computed yet. The components form an acyclic graph, so the dependent
+     * components can always be computed first.
+     */
+    private void computeYield(int aComponent)
+    {
+        int[] stack = new int[16];
+        int stackSize = 0;
+        stack[stackSize++] = aComponent;
+
+        while (stackSize > 0) {
+            int component = stack[stackSize - 1];
+            if (yields[component] != null) {
+                stackSize--;
+            }
+            else if (!expanded[component]) {
+                expanded[component] = true;
+                int end = componentEdgeStarts[component + 1];
+                for (int e = componentEdgeStarts[component]; e < end; e++) {
+                    int dependent = componentEdgeTargets[e];
+                    if (yields[dependent] == null && !expanded[dependent]) {
+                        if (stackSize == stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[stackSize++] = dependent;
+                    }
+                }
+            }
+            else {
+                stackSize--;
+                yields[component] = merge(component);
+            }
+        }
+    }
+
+    private int[] merge(int aComponent)
+    {
+        int edgesEnd = componentEdgeStarts[aComponent + 1];
+        int size = memberStarts[aComponent + 1] - memberStarts[aComponent];
+        for (int e = componentEdgeStarts[aComponent]; e < edgesEnd; e++) {
+            size += yields[componentEdgeTargets[e]].length;
+        }
+
+        int[] yield = new int[size];
+        int length = memberStarts[aComponent + 1] - memberStarts[aComponent];
+        System.arraycopy(members, memberStarts[aComponent], yield, 0, length);
+        for (int e = componentEdgeStarts[aComponent]; e < edgesEnd; e++) {
+            int[] dependentYield = yields[componentEdgeTargets[e]];
+            System.arraycopy(dependentYield, 0, yield, length, dependentYield.length);
+            length += dependentYield.length;
+        }
+
+        // Yields of different dependents may overlap
+        Arrays.sort(yield);
+        int unique = 0;
+        for (int i = 0; i < yield.length; i++) {
+            if (i == 0 || yield[i] != yield[i - 1]) {
+                yield[unique++] = yield[i];
+            }
+        }
+        return unique == yield.length ? yield : Arrays.copyOf(yield, unique);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+
+/**
+ * The offsets and addresses of the annotations of a type (including its subtypes) in a CAS view,
+ * sorted by begin offset, then by descending end offset and then by address. Annotations which
+ * are covered by, which overlap with or which are located at a given range are found using
+ * binary search instead of iterating over the annotation index. Contrary to
+ * {@link org.apache.uima.fit.util.CasUtil#selectCovered(CAS, Type, int, int)}, no temporary
+ * annotation is created in the CAS for a lookup.
+ * <p>
+ * The index of a type is built when it is first needed and then kept with the CAS. Changes
+ * recorded through {@link DirtyRegion#record} are applied to the index right away, so editing an
+ * annotation does not require the index to be built again. A change is expected to be recorded
+ * after it has been made, i.e. after the annotation has been added to or removed from the
+ * indexes. The index is built again when the document text of the CAS has been replaced, e.g.
+ * because the CAS has been reset or deserialized, or when the number of annotations in the CAS
+ * does not match the index. Code changing annotations without recording the changes must call
+ * {@link #invalidate(CAS)} afterwards.
+ * <p>
+ * Overlap lookups only need to look at annotations which begin at most the length of the longest
+ * annotation before the given range. They are fast as long as the annotations are short compared
+ * to the document, e.g. for tokens or named entities.
+ */
+public final class AnnotationOffsetIndex
+{
+    /**
+     * The indexes of the CAS views, keyed by the view. Once a CAS is no longer used, its indexes
+     * are dropped with it.
+     */
+    private static final Map<CAS, ViewIndexes> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Type type;
+
+    // Entries in offset order
+    private int[] begins;
+    private int[] ends;
+    private int[] addresses;
+
+    // The same entries in address order
+    private int[] sortedAddresses;
+    private int[] sortedBegins;
+    private int[] sortedEnds;
+
+    private int size;
+    private int maxLength;
+
+    private AnnotationOffsetIndex(Type aType, AnnotationIndex<AnnotationFS> aIndex)
+    {
+        type = aType;
+
+        int capacity = Math.max(INITIAL_CAPACITY, aIndex.size());
+        begins = new int[capacity];
+        ends = new int[capacity];
+        addresses = new int[capacity];
+
+        for (AnnotationFS ann : aIndex) {
+            begins[size] = ann.getBegin();
+            ends[size] = ann.getEnd();
+            addresses[size] = WebAnnoCasUtil.getAddr(ann);
+            maxLength = Math.max(maxLength, ann.getEnd() - ann.getBegin());
+            size++;
+        }
+
+        // The annotation index is already sorted by offsets, but annotations with the same
+        // offsets may appear in any order - sort these by address.
+        for (int i = 1; i < size; i++) {
+            int j = i;
+            while (j > 0 && compare(j - 1, begins[j], ends[j], addresses[j]) > 0) {
+                swap(j - 1, j);
+                j--;
+            }
+        }
+
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = ((long) addresses[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+        sortedAddresses = new int[capacity];
+        sortedBegins = new int[capacity];
+        sortedEnds = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int position = (int) sorted[i];
+            sortedAddresses[i] = addresses[position];
+            sortedBegins[i] = begins[position];
+            sortedEnds[i] = ends[position];
+        }
+    }
+
+    /**
+     * @param aCas
+     *            the CAS view containing the annotations.
+     * @param aType
+     *            the annotation type.
+     * @return the offset index of the given type in the given CAS view.
+     */
+    public static AnnotationOffsetIndex get(CAS aCas, Type aType)
+    {
+        ViewIndexes indexes = getViewIndexes(aCas);
+        synchronized (indexes) {
+            AnnotationIndex<AnnotationFS> annotationIndex = aCas.getAnnotationIndex(aType);
+            AnnotationOffsetIndex index = indexes.types.get(aType);
+            if (index == null || index.size() != annotationIndex.size()) {
+                index = new AnnotationOffsetIndex(aType, annotationIndex);
+                indexes.types.put(aType, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Gets the annotations of the given type which are located within the given range, like
+     * {@link org.apache.uima.fit.util.CasUtil#selectCovered(CAS, Type, int, int)}.
+     *
+     * @param aCas
+     *            the CAS view containing the annotations.
+     * @param aType
+     *            the annotation type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static <T extends AnnotationFS> List<T> selectCovered(CAS aCas, Type aType,
+            int aBegin, int aEnd)
+    {
+        return get(aCas, aType).covered(aCas, aBegin, aEnd);
+    }
+
+    /**
+     * Gets the annotations of the given type which overlap with the given range, i.e. which
+     * begin before its end and end after its begin.
+     *
+     * @param aCas
+     *            the CAS view containing the annotations.
+     * @param aType
+     *            the annotation type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static <T extends AnnotationFS> List<T> selectOverlapping(CAS aCas, Type aType,
+            int aBegin, int aEnd)
+    {
+        return get(aCas, aType).overlapping(aCas, aBegin, aEnd);
+    }
+
+    /**
+     * Gets the annotations of the given type which have exactly the given offsets.
+     *
+     * @param aCas
+     *            the CAS view containing the annotations.
+     * @param aType
+     *            the annotation type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static <T extends AnnotationFS> List<T> selectAt(CAS aCas, Type aType, int aBegin,
+            int aEnd)
+    {
+        return get(aCas, aType).at(aCas, aBegin, aEnd);
+    }
+
+    /**
+     * Applies a change of the given annotation to the indexes of its CAS view. Called by
+     * {@link DirtyRegion#record} after the annotation has been added to, changed or removed from
+     * the indexes.
+     *
+     * @param aAnnotation
+     *            the annotation.
+     */
+    static void update(AnnotationFS aAnnotation)
+    {
+        CAS view = aAnnotation.getView();
+        ViewIndexes indexes = INDEXES.get(view);
+        if (indexes == null) {
+            return;
+        }
+
+        synchronized (indexes) {
+            if (!indexes.isCurrent(view)) {
+                INDEXES.remove(view);
+                return;
+            }
+
+            TypeSystem ts = view.getTypeSystem();
+            int address = WebAnnoCasUtil.getAddr(aAnnotation);
+            indexes.types.values().removeIf(index -> ts.subsumes(index.type, aAnnotation.getType())
+                    && !index.update(view, aAnnotation, address));
+        }
+    }
+
+    /**
+     * Drops the indexes of the given CAS, e.g. after annotations have been changed without
+     * recording the changes or after the CAS has been reset. The CAS also gets a new
+     * {@link DirtyRegion#getVersion modification version}.
+     *
+     * @param aCas
+     *            any view of the CAS.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        DirtyRegion.newVersion(aCas);
+
+        CAS baseCas = getBaseCas(aCas);
+        synchronized (INDEXES) {
+            INDEXES.keySet().removeIf(view -> getBaseCas(view) == baseCas);
+        }
+    }
+
+    private static CAS getBaseCas(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS();
+    }
+
+    private static ViewIndexes getViewIndexes(CAS aCas)
+    {
+        synchronized (INDEXES) {
+            ViewIndexes indexes = INDEXES.get(aCas);
+            if (indexes == null || !indexes.isCurrent(aCas)) {
+                indexes = new ViewIndexes(aCas);
+                INDEXES.put(aCas, indexes);
+            }
+            return indexes;
+        }
+    }
+
+    private synchronized <T extends AnnotationFS> List<T> covered(CAS aCas, int aBegin, int aEnd)
+    {
+        List<T> result = new ArrayList<>();
+        for (int i = lowerBound(aBegin); i < size && begins[i] <= aEnd; i++) {
+            if (ends[i] <= aEnd) {
+                result.add(getFs(aCas, i));
+            }
+        }
+        return result;
+    }
+
+    private synchronized <T extends AnnotationFS> List<T> overlapping(CAS aCas, int aBegin,
+            int aEnd)
+    {
+        List<T> result = new ArrayList<>();
+        // Annotations beginning further before the range are too short to reach into it
+        int first = lowerBound((int) Math.max(Integer.MIN_VALUE, (long) aBegin - maxLength));
+        for (int i = first; i < size && begins[i] < aEnd; i++) {
+            if (ends[i] > aBegin) {
+                result.add(getFs(aCas, i));
+            }
+        }
+        return result;
+    }
+
+    private synchronized <T extends AnnotationFS> List<T> at(CAS aCas, int aBegin, int aEnd)
+    {
+        List<T> result = new ArrayList<>();
+        for (int i = search(aBegin, aEnd, Integer.MIN_VALUE); i < size && begins[i] == aBegin
+                && ends[i] == aEnd; i++) {
+            result.add(getFs(aCas, i));
+        }
+        return result;
+    }
+
+    /**
+     * @return whether the index is still in sync with the CAS. If not, it must be dropped.
+     */
+    private synchronized boolean update(CAS aView, AnnotationFS aAnnotation, int aAddress)
+    {
+        remove(aAddress);
+
+        int indexed = aView.getAnnotationIndex(type).size();
+        if (indexed == size + 1) {
+            insert(aAnnotation.getBegin(), aAnnotation.getEnd(), aAddress);
+        }
+
+        return indexed == size;
+    }
+
+    private void remove(int aAddress)
+    {
+        int j = Arrays.binarySearch(sortedAddresses, 0, size, aAddress);
+        if (j < 0) {
+            return;
+        }
+
+        int i = search(sortedBegins[j], sortedEnds[j], aAddress);
+        size--;
+        removeAt(sortedAddresses, sortedBegins, sortedEnds, j);
+        removeAt(begins, ends, addresses, i);
+    }
+
+    private void insert(int aBegin, int aEnd, int aAddress)
+    {
+        if (size == begins.length) {
+            int capacity = begins.length * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            addresses = Arrays.copyOf(addresses, capacity);
+            sortedAddresses = Arrays.copyOf(sortedAddresses, capacity);
+            sortedBegins = Arrays.copyOf(sortedBegins, capacity);
+            sortedEnds = Arrays.copyOf(sortedEnds, capacity);
+        }
+
+        int i = search(aBegin, aEnd, aAddress);
+        int j = -Arrays.binarySearch(sortedAddresses, 0, size, aAddress) - 1;
+        insertAt(begins, ends, addresses, i, aBegin, aEnd, aAddress);
+        insertAt(sortedAddresses, sortedBegins, sortedEnds, j, aAddress, aBegin, aEnd);
+        size++;
+        maxLength = Math.max(maxLength, aEnd - aBegin);
+    }
+
+    private void removeAt(int[] aA, int[] aB, int[] aC, int aPosition)
+    {
+        int length = size - aPosition;
+        System.arraycopy(aA, aPosition + 1, aA, aPosition, length);
+        System.arraycopy(aB, aPosition + 1, aB, aPosition, length);
+        System.arraycopy(aC, aPosition + 1, aC, aPosition, length);
+    }
+
+    private void insertAt(int[] aA, int[] aB, int[] aC, int aPosition, int aValueA, int aValueB,
+            int aValueC)
+    {
+        int length = size - aPosition;
+        System.arraycopy(aA, aPosition, aA, aPosition + 1, length);
+        System.arraycopy(aB, aPosition, aB, aPosition + 1, length);
+        System.arraycopy(aC, aPosition, aC, aPosition + 1, length);
+        aA[aPosition] = aValueA;
+        aB[aPosition] = aValueB;
+        aC[aPosition] = aValueC;
+    }
+
+    /**
+     * @return the position of the first entry which does not sort before the given one.
+     */
+    private int search(int aBegin, int aEnd, int aAddress)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, aBegin, aEnd, aAddress) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first entry which does not begin before the given offset.
+     */
+    private int lowerBound(int aBegin)
+    {
+        return search(aBegin, Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    private int compare(int aPosition, int aBegin, int aEnd, int aAddress)
+    {
+        if (begins[aPosition] != aBegin) {
+            return Integer.compare(begins[aPosition], aBegin);
+        }
+        if (ends[aPosition] != aEnd) {
+            return Integer.compare(aEnd, ends[aPosition]);
+        }
+        return Integer.compare(addresses[aPosition], aAddress);
+    }
+
+    private void swap(int aI, int aJ)
+    {
+        int begin = begins[aI];
+        int end = ends[aI];
+        int address = addresses[aI];
+        begins[aI] = begins[aJ];
+        ends[aI] = ends[aJ];
+        addresses[aI] = addresses[aJ];
+        begins[aJ] = begin;
+        ends[aJ] = end;
+        addresses[aJ] = address;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends AnnotationFS> T getFs(CAS aCas, int aPosition)
+    {
+        LowLevelCAS cas = aCas.getLowLevelCAS();
+        return (T) cas.ll_getFSForRef(addresses[aPosition]);
+    }
+
+    /**
+     * @return the number of annotations in the index.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * The indexes of a CAS view. They are only valid as long as the document text and the type
+     * system of the view have not been replaced.
+     */
+    private static final class ViewIndexes
+    {
+        private final String documentText;
+        private final TypeSystem typeSystem;
+        private final Map<Type, AnnotationOffsetIndex> types = new HashMap<>();
+
+        private ViewIndexes(CAS aCas)
+        {
+            documentText = aCas.getDocumentText();
+            typeSystem = aCas.getTypeSystem();
+        }
+
+        private boolean isCurrent(CAS aCas)
+        {
+            // Comparing the identity of the text is intended - the text is replaced when the CAS
+            // is reset or deserialized
+            return documentText == aCas.getDocumentText() && typeSystem == aCas.getTypeSystem();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * The part of a CAS which has been changed through the annotation actions since it has been read
+ * or saved, i.e. the addresses of the feature structures which have been created, modified or
+ * removed from the indexes and the offset range covered by these feature structures. Checks which
+ * only need to look at the changed part of a CAS can use it instead of scanning the whole CAS.
+ * <p>
+ * Only changes made through the type adapters are recorded. If there is no region for a CAS,
+ * nothing is known about the changes made to it and it has to be examined in full.
+ * <p>
+ * In addition, each CAS has a modification version which changes whenever a change is recorded
+ * or the {@link AnnotationOffsetIndex#invalidate offset indexes are invalidated}. Data derived
+ * from a CAS can be kept as long as the version has not changed.
+ * <p>
+ * A CAS which has just been read from or written to the repository can also carry the
+ * {@link #getStoredVersion version of the stored CAS}. Contrary to the modification version, it
+ * is the same for all CAS objects holding the same stored state, so data derived from one of them
+ * can be re-used for the others, e.g. when a document is read again for the next request.
+ */
+public final class DirtyRegion
+{
+    /**
+     * The regions of the CASes which are being edited, keyed by their base CAS so that all views
+     * share a region. Once a CAS is no longer used, its region is dropped with it.
+     */
+    private static final Map<CAS, DirtyRegion> REGIONS = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * The modification versions of the CASes, keyed by their base CAS. Versions are unique across
+     * all CASes. Contrary to the regions, they are kept when a CAS is saved.
+     */
+    private static final Map<CAS, Long> VERSIONS = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    private static final AtomicLong LAST_VERSION = new AtomicLong();
+
+    /**
+     * The versions of the stored CASes held by the CASes, keyed by their base CAS.
+     */
+    private static final Map<CAS, StoredVersion> STORED_VERSIONS = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private final BitSet addresses;
+    private int begin;
+    private int end;
+
+    private DirtyRegion()
+    {
+        addresses = new BitSet();
+        begin = Integer.MAX_VALUE;
+        end = Integer.MIN_VALUE;
+    }
+
+    private DirtyRegion(DirtyRegion aOther)
+    {
+        addresses = (BitSet) aOther.addresses.clone();
+        begin = aOther.begin;
+        end = aOther.end;
+    }
+
+    /**
+     * Records that the given feature structure has been created, modified or removed from the
+     * indexes. Annotations also add their offsets to the region and the change is applied to the
+     * {@link AnnotationOffsetIndex offset indexes} of the CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aFs
+     *            the feature structure, may be {@code null}.
+     */
+    public static void record(CAS aCas, FeatureStructure aFs)
+    {
+        if (aFs == null) {
+            return;
+        }
+
+        newVersion(aCas);
+
+        DirtyRegion region = getOrCreate(aCas);
+        synchronized (region) {
+            region.addresses.set(aCas.getLowLevelCAS().ll_getFSRef(aFs));
+            if (aFs instanceof AnnotationFS) {
+                AnnotationFS ann = (AnnotationFS) aFs;
+                region.extend(ann.getBegin(), ann.getEnd());
+            }
+        }
+
+        if (aFs instanceof AnnotationFS) {
+            AnnotationOffsetIndex.update((AnnotationFS) aFs);
+        }
+    }
+
+    /**
+     * Records that the feature structure at the given address has been created, modified or
+     * removed from the indexes.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aAddress
+     *            the address of the feature structure.
+     */
+    public static void record(CAS aCas, int aAddress)
+    {
+        FeatureStructure fs = aCas.getLowLevelCAS().ll_getFSForRef(aAddress);
+        record(aCas, fs);
+    }
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @return a copy of the changes recorded for the given CAS or {@code null} if there are none.
+     */
+    public static DirtyRegion get(CAS aCas)
+    {
+        DirtyRegion region = REGIONS.get(getBaseCas(aCas));
+        if (region == null) {
+            return null;
+        }
+
+        synchronized (region) {
+            return new DirtyRegion(region);
+        }
+    }
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @return whether any changes have been recorded for the given CAS.
+     */
+    public static boolean exists(CAS aCas)
+    {
+        return REGIONS.containsKey(getBaseCas(aCas));
+    }
+
+    /**
+     * Forgets the changes recorded for the given CAS, e.g. after it has been saved.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    public static void clear(CAS aCas)
+    {
+        REGIONS.remove(getBaseCas(aCas));
+    }
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @return the modification version of the given CAS.
+     */
+    public static long getVersion(CAS aCas)
+    {
+        return VERSIONS.computeIfAbsent(getBaseCas(aCas), k -> LAST_VERSION.incrementAndGet());
+    }
+
+    /**
+     * Assigns a new modification version to the given CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    static void newVersion(CAS aCas)
+    {
+        VERSIONS.put(getBaseCas(aCas), LAST_VERSION.incrementAndGet());
+    }
+
+    /**
+     * Remembers that the given CAS holds the given version of a stored CAS, e.g. after it has
+     * been read or written.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aVersion
+     *            the version of the stored CAS. Versions must be unique across all stored CASes.
+     */
+    public static void setStoredVersion(CAS aCas, long aVersion)
+    {
+        STORED_VERSIONS.put(getBaseCas(aCas), new StoredVersion(aVersion, aCas));
+    }
+
+    /**
+     * Forgets the version of the stored CAS held by the given CAS, e.g. because the CAS is going
+     * to be re-used for other data.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    public static void forgetStoredVersion(CAS aCas)
+    {
+        STORED_VERSIONS.remove(getBaseCas(aCas));
+    }
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @return the version of the stored CAS held by the given CAS or {@code -1} if there is none
+     *         or if the CAS has been changed since, i.e. if its modification version has changed
+     *         or its contents have been replaced.
+     */
+    public static long getStoredVersion(CAS aCas)
+    {
+        StoredVersion version = STORED_VERSIONS.get(getBaseCas(aCas));
+        return version != null && version.isCurrent(aCas) ? version.version : -1;
+    }
+
+    private static DirtyRegion getOrCreate(CAS aCas)
+    {
+        return REGIONS.computeIfAbsent(getBaseCas(aCas), k -> new DirtyRegion());
+    }
+
+    private static CAS getBaseCas(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS();
+    }
+
+    private void extend(int aBegin, int aEnd)
+    {
+        begin = Math.min(begin, aBegin);
+        end = Math.max(end, aEnd);
+    }
+
+    /**
+     * @return the addresses of the changed feature structures. Some of them may no longer be
+     *         indexed.
+     */
+    public BitSet getAddresses()
+    {
+        return (BitSet) addresses.clone();
+    }
+
+    /**
+     * @return whether any of the changed feature structures is an annotation.
+     */
+    public boolean hasRange()
+    {
+        return begin <= end;
+    }
+
+    /**
+     * @return the smallest begin offset of the changed annotations.
+     */
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    /**
+     * @return the largest end offset of the changed annotations.
+     */
+    public int getEnd()
+    {
+        return end;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DirtyRegion [fs=" + addresses.cardinality()
+                + (hasRange() ? ", range=" + begin + "-" + end : "") + "]";
+    }
+
+    /**
+     * The version of a stored CAS held by a CAS object. It only applies as long as no changes
+     * have been recorded for the CAS and its contents have not been replaced, e.g. by upgrading
+     * the CAS.
+     */
+    private static final class StoredVersion
+    {
+        private final long version;
+        private final long modificationVersion;
+        private final String documentText;
+
+        private StoredVersion(long aVersion, CAS aCas)
+        {
+            version = aVersion;
+            modificationVersion = getVersion(aCas);
+            documentText = getDocumentText(aCas);
+        }
+
+        private boolean isCurrent(CAS aCas)
+        {
+            // Comparing the identity of the text is intended - the text is replaced when the CAS
+            // is reset or deserialized
+            return modificationVersion == getVersion(aCas)
+                    && documentText == getDocumentText(aCas);
+        }
+
+        private static String getDocumentText(CAS aCas)
+        {
+            return getBaseCas(aCas).getView(CAS.NAME_DEFAULT_SOFA).getDocumentText();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * The offsets and addresses of the sentences in a CAS view, in the order of the annotation index.
+ * Sentences can be looked up by their position, by offset or by address using binary search
+ * instead of iterating over all sentences. Sentences are expected not to overlap.
+ * <p>
+ * The index of a CAS is built when it is first needed and then kept with the CAS. It is built
+ * again when the document text of the CAS has been replaced, e.g. because the CAS has been reset
+ * or deserialized, or when the number of sentences or the first or last sentence have changed.
+ * Sentence boundaries are not changed through the annotation editors, so this is sufficient to
+ * detect that the sentences have changed.
+ * <p>
+ * The CAS objects holding the same {@link DirtyRegion#getStoredVersion stored CAS} share their
+ * index, so the index is not built again when a document is read again, e.g. for each page turn.
+ */
+public final class SentenceIndex
+{
+    private static final Map<CAS, SentenceIndex> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * The number of indexes of stored CASes which are kept.
+     */
+    private static final int MAX_SHARED_INDEXES = 64;
+
+    /**
+     * The indexes of stored CASes keyed by the stored version and the name of the view, least
+     * recently used first.
+     */
+    private static final Map<String, SentenceIndex> SHARED_INDEXES = Collections
+            .synchronizedMap(new LinkedHashMap<String, SentenceIndex>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 3391245613598710742L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SentenceIndex> aEldest)
+                {
+                    return size() > MAX_SHARED_INDEXES;
+                }
+            });
+
+    private final String documentText;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addresses;
+
+    /**
+     * The addresses of the sentences in ascending order and the position of the sentence with
+     * the respective address.
+     */
+    private final int[] sortedAddresses;
+    private final int[] positions;
+
+    private SentenceIndex(CAS aCas, AnnotationIndex<AnnotationFS> aIndex)
+    {
+        documentText = aCas.getDocumentText();
+
+        int size = aIndex.size();
+        begins = new int[size];
+        ends = new int[size];
+        addresses = new int[size];
+
+        int i = 0;
+        for (AnnotationFS sentence : aIndex) {
+            begins[i] = sentence.getBegin();
+            ends[i] = sentence.getEnd();
+            addresses[i] = WebAnnoCasUtil.getAddr(sentence);
+            i++;
+        }
+
+        long[] sorted = new long[size];
+        for (i = 0; i < size; i++) {
+            sorted[i] = ((long) addresses[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+        sortedAddresses = new int[size];
+        positions = new int[size];
+        for (i = 0; i < size; i++) {
+            sortedAddresses[i] = (int) (sorted[i] >>> 32);
+            positions[i] = (int) sorted[i];
+        }
+    }
+
+    public static SentenceIndex get(JCas aJCas)
+    {
+        return get(aJCas.getCas());
+    }
+
+    /**
+     * @param aCas
+     *            the CAS view containing the sentences.
+     * @return the sentence index of the given CAS view.
+     */
+    public static SentenceIndex get(CAS aCas)
+    {
+        Type sentenceType = CasUtil.getType(aCas, Sentence.class);
+        AnnotationIndex<AnnotationFS> index = aCas.getAnnotationIndex(sentenceType);
+
+        long storedVersion = DirtyRegion.getStoredVersion(aCas);
+        if (storedVersion >= 0) {
+            String key = storedVersion + "|" + aCas.getViewName();
+            SentenceIndex sentenceIndex = SHARED_INDEXES.get(key);
+            if (sentenceIndex == null || !sentenceIndex.matches(index)) {
+                sentenceIndex = new SentenceIndex(aCas, index);
+                SHARED_INDEXES.put(key, sentenceIndex);
+            }
+            return sentenceIndex;
+        }
+
+        SentenceIndex sentenceIndex = INDEXES.get(aCas);
+        // Comparing the identity of the text is intended - the text is replaced when the CAS is
+        // reset or deserialized
+        if (sentenceIndex == null || sentenceIndex.documentText != aCas.getDocumentText()
+                || !sentenceIndex.matches(index)) {
+            sentenceIndex = new SentenceIndex(aCas, index);
+            INDEXES.put(aCas, sentenceIndex);
+        }
+        return sentenceIndex;
+    }
+
+    private boolean matches(AnnotationIndex<AnnotationFS> aIndex)
+    {
+        if (addresses.length != aIndex.size()) {
+            return false;
+        }
+
+        if (addresses.length == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> i = aIndex.iterator();
+        i.moveToFirst();
+        AnnotationFS first = i.get();
+        i.moveToLast();
+        AnnotationFS last = i.get();
+        return addresses[0] == WebAnnoCasUtil.getAddr(first)
+                && begins[0] == first.getBegin() && ends[0] == first.getEnd()
+                && addresses[addresses.length - 1] == WebAnnoCasUtil.getAddr(last)
+                && ends[ends.length - 1] == last.getEnd();
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addresses.length;
+    }
+
+    /**
+     * @param aPosition
+     *            the position of the sentence, starting at 0.
+     * @return the begin offset of the sentence.
+     */
+    public int getBegin(int aPosition)
+    {
+        return begins[aPosition];
+    }
+
+    /**
+     * @param aPosition
+     *            the position of the sentence, starting at 0.
+     * @return the end offset of the sentence.
+     */
+    public int getEnd(int aPosition)
+    {
+        return ends[aPosition];
+    }
+
+    /**
+     * @param aPosition
+     *            the position of the sentence, starting at 0.
+     * @return the address of the sentence.
+     */
+    public int getAddress(int aPosition)
+    {
+        return addresses[aPosition];
+    }
+
+    /**
+     * @param aAddress
+     *            an address.
+     * @return the position of the sentence with the given address or {@code -1} if there is no
+     *         such sentence.
+     */
+    public int indexOfAddress(int aAddress)
+    {
+        int i = Arrays.binarySearch(sortedAddresses, aAddress);
+        return i >= 0 ? positions[i] : -1;
+    }
+
+    /**
+     * Finds the first sentence containing the given offset.
+     *
+     * @param aOffset
+     *            an offset.
+     * @param aIncludeEnd
+     *            whether a sentence contains its end offset.
+     * @return the position of the sentence or {@code -1} if no sentence contains the offset.
+     */
+    public int indexOfOffset(int aOffset, boolean aIncludeEnd)
+    {
+        // Find the first sentence which does not end before the offset
+        int low = 0;
+        int high = ends.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aIncludeEnd ? ends[mid] < aOffset : ends[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        if (low < ends.length && begins[low] <= aOffset) {
+            return low;
+        }
+        return -1;
+    }
+}
@@ -17,15 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.select;
-import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectFollowing;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -40,7 +36,6 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.cas.text.AnnotationIndex;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
@@ -103,22 +98,13 @@ public class WebAnnoCasUtil
         int offset1 = Math.min(aReferenceOffset, aCompareOffset);
         int offset2 = Math.max(aReferenceOffset, aCompareOffset);
 
-        // Scanning through sentences
-        Iterator<Sentence> si = JCasUtil.iterator(aJcas, Sentence.class);
-        while (si.hasNext()) {
-            Sentence s = si.next();
-            if (s.getBegin() <= offset1 && offset1 <= s.getEnd()) {
-                return s.getBegin() <= offset2 && offset2 <= s.getEnd();
-            }
-
-            // Sentences are sorted. When we hit the first sentence that is beyond the reference
-            // offset, we will never again find a sentence that contains it.
-            if (offset1 < s.getBegin()) {
-                return false;
-            }
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfOffset(offset1, true);
+        if (i < 0) {
+            return false;
         }
-
-        return false;
+        
+        return index.getBegin(i) <= offset2 && offset2 <= index.getEnd(i);
     }
 
     public static int getAddr(FeatureStructure aFS)
@@ -151,29 +137,14 @@ public class WebAnnoCasUtil
     private static <T extends Annotation> T selectSingleAt(JCas aJcas, final Class<T> type,
             int aBegin, int aEnd)
     {
-        List<T> covered = selectCovered(aJcas, type, aBegin, aEnd);
-        if (covered.isEmpty()) {
-            return null;
-        }
-        else {
-            T first = covered.get(0);
-            if (first.getBegin() == aBegin && first.getEnd() == aEnd) {
-                return first;
-            }
-            else {
-                return null;
-            }
-        }
+        List<T> at = AnnotationOffsetIndex.selectAt(aJcas.getCas(),
+                JCasUtil.getType(aJcas, type), aBegin, aEnd);
+        return at.isEmpty() ? null : at.get(0);
     }
 
     public static List<AnnotationFS> selectAt(CAS aJcas, final Type type, int aBegin, int aEnd)
     {
-        List<AnnotationFS> covered = CasUtil.selectCovered(aJcas, type, aBegin, aEnd);
-
-        // Remove all that do not have the exact same offset
-        covered.removeIf(cur -> !(cur.getBegin() == aBegin && cur.getEnd() == aEnd));
-
-        return covered;
+        return AnnotationOffsetIndex.selectAt(aJcas, type, aBegin, aEnd);
     }
 
     /**
@@ -191,12 +162,9 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSingleFsAt(JCas aJcas, Type aType, int aBegin, int aEnd)
     {
-        for (AnnotationFS anFS : selectCovered(aJcas.getCas(), aType, aBegin, aEnd)) {
-            if (anFS.getBegin() == aBegin && anFS.getEnd() == aEnd) {
-                return anFS;
-            }
-        }
-        return null;
+        List<AnnotationFS> at = AnnotationOffsetIndex.selectAt(aJcas.getCas(), aType, aBegin,
+                aEnd);
+        return at.isEmpty() ? null : at.get(0);
     }
 
     /**
@@ -238,20 +206,8 @@ public class WebAnnoCasUtil
     public static <T extends Annotation> List<T> selectOverlapping(JCas aJCas,
             final Class<T> aType, int aBegin, int aEnd)
     {
-
-        List<T> annotations = new ArrayList<>();
-        for (T t : select(aJCas, aType)) {
-            if (t.getBegin() >= aEnd) {
-                break;
-            }
-            // not yet there
-            if (t.getEnd() <= aBegin) {
-                continue;
-            }
-            annotations.add(t);
-        }
-
-        return annotations;
+        return AnnotationOffsetIndex.selectOverlapping(aJCas.getCas(),
+                JCasUtil.getType(aJCas, aType), aBegin, aEnd);
     }
 
     /**
@@ -264,13 +220,8 @@ public class WebAnnoCasUtil
      */
     public static int getFirstSentenceAddress(JCas aJcas)
     {
-        int firstSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            firstSentenceAddress = getAddr(selectedSentence);
-            break;
-        }
-        return firstSentenceAddress;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.size() > 0 ? index.getAddress(0) : -1;
     }
 
     /**
@@ -304,15 +255,12 @@ public class WebAnnoCasUtil
      */
     public static Sentence getCurrentSentence(JCas aJCas, int aBegin, int aEnd)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
-            }
+        SentenceIndex index = SentenceIndex.get(aJCas);
+        int i = index.indexOfOffset(aBegin, false);
+        if (i < 0 || index.getEnd(i) > aEnd) {
+            return null;
         }
-        return currentSentence;
+        return selectByAddr(aJCas, Sentence.class, index.getAddress(i));
     }
 
     /**
@@ -326,14 +274,12 @@ public class WebAnnoCasUtil
      */
     public static Sentence getSentence(JCas aJCas, int aBegin)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
+        SentenceIndex index = SentenceIndex.get(aJCas);
+        int i = index.indexOfOffset(aBegin, false);
+        if (i < 0) {
+            return null;
         }
-        return currentSentence;
+        return selectByAddr(aJCas, Sentence.class, index.getAddress(i));
     }
 
     public static Token getNextToken(JCas aJCas, int aBegin, int aEnd)
@@ -367,6 +313,13 @@ public class WebAnnoCasUtil
     public static Sentence getLastSentenceInDisplayWindow(JCas aJcas, int aFirstSentenceAddress,
             int aWindowSize)
     {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int first = index.indexOfAddress(aFirstSentenceAddress);
+        if (first >= 0) {
+            int last = Math.min(first + Math.max(aWindowSize, 1) - 1, index.size() - 1);
+            return selectByAddr(aJcas, Sentence.class, index.getAddress(last));
+        }
+        
         int count = 0;
         FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aFirstSentenceAddress);
         Sentence s = si.get();
@@ -514,6 +467,16 @@ public class WebAnnoCasUtil
     public static int getNextPageFirstSentenceAddress(JCas aJcas, int aCurrenSentenceBeginAddress,
             int aWindowSize)
     {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int current = index.indexOfAddress(aCurrenSentenceBeginAddress);
+        if (current >= 0) {
+            // The next page starts at the next multiple of the window size, unless the current
+            // sentence is on the last page already
+            int lastPage = (index.size() - 1) / aWindowSize;
+            int nextPage = Math.min(current / aWindowSize + 1, lastPage);
+            return index.getAddress(nextPage * aWindowSize);
+        }
+        
         List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
                 aWindowSize);
 
@@ -591,7 +554,7 @@ public class WebAnnoCasUtil
      */
     public static int getNumberOfPages(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -606,13 +569,10 @@ public class WebAnnoCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(JCas aJcas,
             int aWindowSize)
     {
+        SentenceIndex index = SentenceIndex.get(aJcas);
         List<Integer> beginningAddresses = new ArrayList<>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
-            }
-            j++;
+        for (int i = 0; i < index.size(); i += aWindowSize) {
+            beginningAddresses.add(index.getAddress(i));
         }
         return beginningAddresses;
 
@@ -632,15 +592,9 @@ public class WebAnnoCasUtil
     @Deprecated
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (getAddr(sentence) == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aSentenceAddress);
+        return i >= 0 ? i : index.size();
     }
 
     /**
@@ -654,26 +608,19 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        
-        Collection<Sentence> sentences = select(aJcas, Sentence.class);
-        if (sentences.isEmpty()) {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (index.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
         
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        // If no sentence contains the offset, the number of the last sentence is returned
+        int i = index.indexOfOffset(aBeginOffset, true);
+        return i >= 0 ? i + 1 : index.size();
     }
 
     public static int getSentenceCount(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -687,23 +634,18 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber < 1) {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (aSentenceNumber < 1 || index.size() == 0) {
             return 0;
         }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
+        if (aSentenceNumber <= index.size()) {
+            return index.getAddress(aSentenceNumber - 1);
         }
-        if (aSentenceNumber > i) {
-            return 0;
+        // The number right after the last sentence is still mapped to the last sentence
+        if (aSentenceNumber == index.size() + 1) {
+            return index.getAddress(index.size() - 1);
         }
-        return address;
+        return 0;
     }
 
     /**
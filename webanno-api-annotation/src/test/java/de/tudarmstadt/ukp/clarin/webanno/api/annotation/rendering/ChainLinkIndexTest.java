@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static org.apache.uima.fit.util.CasUtil.selectFS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.SerialFormat;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.CasIOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
+
+public class ChainLinkIndexTest
+{
+    private static final String CHAIN_TYPE = "webanno.custom.TestChain";
+    private static final String LINK_TYPE = "webanno.custom.TestLink";
+
+    private TypeSystemDescription tsd;
+    private CAS cas;
+    private Type chainType;
+    private Type linkType;
+    private Feature first;
+    private Feature next;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        tsd = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        TypeDescription link = tsd.addType(LINK_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        link.addFeature("next", "", LINK_TYPE);
+        TypeDescription chain = tsd.addType(CHAIN_TYPE, "", CAS.TYPE_NAME_TOP);
+        chain.addFeature("first", "", LINK_TYPE);
+
+        cas = CasCreationUtils.createCas(tsd, null, null);
+        cas.setDocumentText("This is a test document with a few words.");
+        chainType = cas.getTypeSystem().getType(CHAIN_TYPE);
+        linkType = cas.getTypeSystem().getType(LINK_TYPE);
+        first = chainType.getFeatureByBaseName("first");
+        next = linkType.getFeatureByBaseName("next");
+    }
+
+    @Test
+    public void thatLinksAreMappedToTheirChains()
+    {
+        AnnotationFS a = createChain(0, 4, 10, 14);
+        AnnotationFS b = createChain(5, 7);
+        AnnotationFS unlinked = cas.createAnnotation(linkType, 8, 9);
+        cas.addFsToIndexes(unlinked);
+
+        ChainLinkIndex index = ChainLinkIndex.get(cas, chainType, first, "next");
+        AnnotationFS a2 = (AnnotationFS) a.getFeatureValue(next);
+
+        assertEquals(0, index.getChain(a));
+        assertEquals(0, index.getPosition(a));
+        assertEquals(0, index.getChain(a2));
+        assertEquals(1, index.getPosition(a2));
+        assertEquals(1, index.getChain(b));
+        assertEquals(0, index.getPosition(b));
+        assertEquals(-1, index.getChain(unlinked));
+    }
+
+    @Test
+    public void thatIndexIsRebuiltAfterRecordedChanges()
+    {
+        AnnotationFS a = createChain(0, 4);
+
+        ChainLinkIndex index = ChainLinkIndex.get(cas, chainType, first, "next");
+        assertSame(index, ChainLinkIndex.get(cas, chainType, first, "next"));
+
+        AnnotationFS b = createChain(5, 7);
+        DirtyRegion.record(cas, b);
+        ChainLinkIndex changed = ChainLinkIndex.get(cas, chainType, first, "next");
+        assertNotSame(index, changed);
+        assertEquals(0, changed.getChain(a));
+        assertEquals(1, changed.getChain(b));
+    }
+
+    @Test
+    public void thatCasesHoldingSameStoredCasShareIndexes()
+        throws Exception
+    {
+        AnnotationFS a = createChain(0, 4);
+        
+        // Simulate reading the stored CAS again
+        CAS reread = CasCreationUtils.createCas(tsd, null, null);
+        Serialization.deserializeCASComplete(Serialization.serializeCASComplete((CASImpl) cas),
+                (CASImpl) reread);
+        DirtyRegion.setStoredVersion(cas, Long.MAX_VALUE);
+        DirtyRegion.setStoredVersion(reread, Long.MAX_VALUE);
+
+        ChainLinkIndex index = ChainLinkIndex.get(cas, chainType, first, "next");
+        Type rereadChainType = reread.getTypeSystem().getType(CHAIN_TYPE);
+        assertSame(index, ChainLinkIndex.get(reread, rereadChainType,
+                rereadChainType.getFeatureByBaseName("first"), "next"));
+
+        // A recorded change means that the CAS no longer holds the stored CAS
+        AnnotationFS b = createChain(5, 7);
+        DirtyRegion.record(cas, b);
+        ChainLinkIndex changed = ChainLinkIndex.get(cas, chainType, first, "next");
+        assertNotSame(index, changed);
+        assertEquals(0, changed.getChain(a));
+        assertEquals(1, changed.getChain(b));
+    }
+
+    @Test
+    public void thatIndexOfCachedCasIsValidForStoredCas()
+        throws Exception
+    {
+        // A link which is not reachable and comes before the chains, so a serialization dropping
+        // it would renumber the links
+        cas.createAnnotation(linkType, 0, 4);
+        createChain(0, 4, 10, 14);
+        createChain(5, 7);
+
+        // The CAS storage serves a stored CAS either from its cache which keeps a complete
+        // snapshot or from disk where it is stored in compressed binary form 4
+        CAS cached = CasCreationUtils.createCas(tsd, null, null);
+        Serialization.deserializeCASComplete(Serialization.serializeCASComplete((CASImpl) cas),
+                (CASImpl) cached);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CasIOUtils.save(cas, bos, SerialFormat.COMPRESSED);
+        CAS fromDisk = CasCreationUtils.createCas(tsd, null, null);
+        CasIOUtils.load(new ByteArrayInputStream(bos.toByteArray()), fromDisk);
+        DirtyRegion.setStoredVersion(cached, Long.MAX_VALUE - 1);
+        DirtyRegion.setStoredVersion(fromDisk, Long.MAX_VALUE - 1);
+
+        Type cachedChainType = cached.getTypeSystem().getType(CHAIN_TYPE);
+        ChainLinkIndex index = ChainLinkIndex.get(cached, cachedChainType,
+                cachedChainType.getFeatureByBaseName("first"), "next");
+        Type diskChainType = fromDisk.getTypeSystem().getType(CHAIN_TYPE);
+        Feature diskFirst = diskChainType.getFeatureByBaseName("first");
+        Feature diskNext = fromDisk.getTypeSystem().getType(LINK_TYPE)
+                .getFeatureByBaseName("next");
+        assertSame(index, ChainLinkIndex.get(fromDisk, diskChainType, diskFirst, "next"));
+
+        // The index built for the cached CAS must be valid for the CAS read from disk
+        int chain = 0;
+        for (FeatureStructure fs : selectFS(fromDisk, diskChainType)) {
+            AnnotationFS link = (AnnotationFS) fs.getFeatureValue(diskFirst);
+            int position = 0;
+            while (link != null) {
+                assertEquals(chain, index.getChain(link));
+                assertEquals(position, index.getPosition(link));
+                link = (AnnotationFS) link.getFeatureValue(diskNext);
+                position++;
+            }
+            chain++;
+        }
+        assertEquals(2, chain);
+    }
+
+    /**
+     * Creates a chain with links at the given offsets.
+     *
+     * @return the first link.
+     */
+    private AnnotationFS createChain(int... aOffsets)
+    {
+        AnnotationFS firstLink = null;
+        AnnotationFS prevLink = null;
+        for (int i = 0; i < aOffsets.length; i += 2) {
+            AnnotationFS link = cas.createAnnotation(linkType, aOffsets[i], aOffsets[i + 1]);
+            cas.addFsToIndexes(link);
+            if (prevLink != null) {
+                prevLink.setFeatureValue(next, link);
+            }
+            else {
+                firstLink = link;
+            }
+            prevLink = link;
+        }
+
+        FeatureStructure chain = cas.createFS(chainType);
+        chain.setFeatureValue(first, firstLink);
+        cas.addFsToIndexes(chain);
+        return firstLink;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class YieldGraphTest
+{
+    @Test
+    public void thatYieldContainsTransitiveDependents()
+    {
+        // 3 -> 1 -> 0, 1 -> 2, 4 is not related to 3
+        YieldGraph graph = new YieldGraph(5, new int[] { 3, 1, 1, 4 }, new int[] { 1, 0, 2, 2 });
+
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, graph.getYield(3));
+        assertArrayEquals(new int[] { 0, 1, 2 }, graph.getYield(1));
+        assertArrayEquals(new int[] { 2, 4 }, graph.getYield(4));
+        assertArrayEquals(new int[] { 0 }, graph.getYield(0));
+    }
+
+    @Test
+    public void thatSharedDependentsAreIncludedOnce()
+    {
+        // 0 -> 1 -> 3, 0 -> 2 -> 3
+        YieldGraph graph = new YieldGraph(4, new int[] { 0, 0, 1, 2 }, new int[] { 1, 2, 3, 3 });
+
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, graph.getYield(0));
+    }
+
+    @Test
+    public void thatCyclesAreSupported()
+    {
+        // 0 -> 1 -> 2 -> 0, 2 -> 3, 4 -> 4
+        YieldGraph graph = new YieldGraph(5, new int[] { 0, 1, 2, 2, 4 },
+                new int[] { 1, 2, 0, 3, 4 });
+
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, graph.getYield(1));
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, graph.getYield(2));
+        assertArrayEquals(new int[] { 3 }, graph.getYield(3));
+        assertArrayEquals(new int[] { 4 }, graph.getYield(4));
+    }
+
+    @Test
+    public void thatLongChainsAreSupported()
+    {
+        int length = 5000;
+        int[] governors = new int[length - 1];
+        int[] dependents = new int[length - 1];
+        for (int i = 0; i < length - 1; i++) {
+            governors[i] = i + 1;
+            dependents[i] = i;
+        }
+        YieldGraph graph = new YieldGraph(length, governors, dependents);
+
+        assertArrayEquals(new int[] { 0, 1, 2 }, graph.getYield(2));
+        assertEquals(length, graph.getYield(length - 1).length);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class AnnotationOffsetIndexTest
+{
+    @Test
+    public void thatLookupsMatchUimaFit()
+        throws Exception
+    {
+        JCas jcas = createDocument(30);
+        CAS cas = jcas.getCas();
+        // Stacked and zero-width annotations
+        new Token(jcas, 4, 9).addToIndexes();
+        new Token(jcas, 10, 10).addToIndexes();
+
+        int length = jcas.getDocumentText().length();
+        for (Type type : new Type[] { CasUtil.getType(cas, Token.class),
+                CasUtil.getType(cas, Sentence.class) }) {
+            for (int begin = -1; begin <= length + 1; begin += 3) {
+                for (int end = begin; end <= Math.min(begin + 40, length + 1); end++) {
+                    String range = type.getShortName() + " " + begin + "-" + end;
+                    assertEquals(range, CasUtil.selectCovered(cas, type, begin, end),
+                            AnnotationOffsetIndex.selectCovered(cas, type, begin, end));
+                    assertEquals(range, linearSelectOverlapping(cas, type, begin, end),
+                            AnnotationOffsetIndex.selectOverlapping(cas, type, begin, end));
+                    assertEquals(range, linearSelectAt(cas, type, begin, end),
+                            AnnotationOffsetIndex.selectAt(cas, type, begin, end));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void thatRecordedChangesAreApplied()
+        throws Exception
+    {
+        JCas jcas = createDocument(10);
+        CAS cas = jcas.getCas();
+        Type tokenType = CasUtil.getType(cas, Token.class);
+        AnnotationOffsetIndex index = AnnotationOffsetIndex.get(cas, tokenType);
+        int size = index.size();
+
+        Token added = new Token(jcas, 2, 5);
+        added.addToIndexes();
+        DirtyRegion.record(cas, added);
+        assertSame(index, AnnotationOffsetIndex.get(cas, tokenType));
+        assertEquals(size + 1, index.size());
+        assertEquals(CasUtil.selectCovered(cas, tokenType, 0, 12),
+                AnnotationOffsetIndex.selectCovered(cas, tokenType, 0, 12));
+
+        // Moving an annotation requires removing it from the indexes first
+        jcas.removeFsFromIndexes(added);
+        added.setBegin(30);
+        added.setEnd(33);
+        jcas.addFsToIndexes(added);
+        DirtyRegion.record(cas, added);
+        assertSame(index, AnnotationOffsetIndex.get(cas, tokenType));
+        assertEquals(linearSelectAt(cas, tokenType, 30, 33),
+                AnnotationOffsetIndex.selectAt(cas, tokenType, 30, 33));
+        assertEquals(0, AnnotationOffsetIndex.selectAt(cas, tokenType, 2, 5).size());
+
+        jcas.removeFsFromIndexes(added);
+        DirtyRegion.record(cas, added);
+        assertSame(index, AnnotationOffsetIndex.get(cas, tokenType));
+        assertEquals(size, index.size());
+        assertEquals(0, AnnotationOffsetIndex.selectAt(cas, tokenType, 30, 33).size());
+    }
+
+    @Test
+    public void thatIndexIsRebuiltAfterUnrecordedChanges()
+        throws Exception
+    {
+        JCas jcas = createDocument(10);
+        CAS cas = jcas.getCas();
+        Type tokenType = CasUtil.getType(cas, Token.class);
+        AnnotationOffsetIndex index = AnnotationOffsetIndex.get(cas, tokenType);
+
+        new Token(jcas, 2, 5).addToIndexes();
+        AnnotationOffsetIndex changed = AnnotationOffsetIndex.get(cas, tokenType);
+        assertNotSame(index, changed);
+        assertEquals(index.size() + 1, changed.size());
+
+        AnnotationOffsetIndex.invalidate(cas);
+        assertNotSame(changed, AnnotationOffsetIndex.get(cas, tokenType));
+
+        jcas.reset();
+        jcas.setDocumentText("Two tokens");
+        new Token(jcas, 0, 3).addToIndexes();
+        new Token(jcas, 4, 10).addToIndexes();
+        assertEquals(CasUtil.selectCovered(cas, tokenType, 0, 10),
+                AnnotationOffsetIndex.selectCovered(cas, tokenType, 0, 10));
+    }
+
+    /**
+     * Compares the time needed for the token lookups done when creating span annotations before
+     * and after introducing the offset index. Nothing is asserted, the timings are only printed.
+     */
+    @Ignore("Benchmark - run manually")
+    @Test
+    public void benchmark()
+        throws Exception
+    {
+        JCas jcas = createDocument(10000);
+        CAS cas = jcas.getCas();
+        Type tokenType = CasUtil.getType(cas, Token.class);
+        int textLength = jcas.getDocumentText().length();
+        int lookups = 2000;
+
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < lookups; i++) {
+            int offset = (int) ((long) textLength * i / lookups);
+            sum += linearSelectOverlapping(cas, tokenType, offset, offset + 10).size();
+            sum += CasUtil.selectCovered(cas, tokenType, offset, offset + 10).size();
+        }
+        long linear = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long sum2 = 0;
+        for (int i = 0; i < lookups; i++) {
+            int offset = (int) ((long) textLength * i / lookups);
+            sum2 += AnnotationOffsetIndex.selectOverlapping(cas, tokenType, offset, offset + 10)
+                    .size();
+            sum2 += AnnotationOffsetIndex.selectCovered(cas, tokenType, offset, offset + 10)
+                    .size();
+        }
+        long indexed = System.nanoTime() - start;
+
+        assertEquals(sum, sum2);
+        System.out.printf("%d overlap and covered lookups in %d tokens: linear scan and uimaFIT "
+                + "%d ms, offset index %d ms%n", lookups, cas.getAnnotationIndex(tokenType)
+                        .size(), linear / 1000000, indexed / 1000000);
+    }
+
+    private static JCas createDocument(int aSentences)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        JCasBuilder builder = new JCasBuilder(jcas);
+        for (int i = 0; i < aSentences; i++) {
+            int begin = builder.getPosition();
+            builder.add("This", Token.class);
+            builder.add(" ");
+            builder.add("is", Token.class);
+            builder.add(" ");
+            builder.add("sentence", Token.class);
+            builder.add(" ");
+            builder.add(String.valueOf(i), Token.class);
+            builder.add(".", Token.class);
+            builder.add(begin, Sentence.class);
+            builder.add(" ");
+        }
+        builder.close();
+        return jcas;
+    }
+
+    // The methods below are the implementations of the lookups before the offset index has been
+    // introduced
+
+    private static List<AnnotationFS> linearSelectOverlapping(CAS aCas, Type aType, int aBegin,
+            int aEnd)
+    {
+        List<AnnotationFS> annotations = new ArrayList<>();
+        for (AnnotationFS t : CasUtil.select(aCas, aType)) {
+            if (t.getBegin() >= aEnd) {
+                break;
+            }
+            // not yet there
+            if (t.getEnd() <= aBegin) {
+                continue;
+            }
+            annotations.add(t);
+        }
+        return annotations;
+    }
+
+    private static List<AnnotationFS> linearSelectAt(CAS aCas, Type aType, int aBegin, int aEnd)
+    {
+        List<AnnotationFS> covered = CasUtil.selectCovered(aCas, aType, aBegin, aEnd);
+        covered.removeIf(cur -> !(cur.getBegin() == aBegin && cur.getEnd() == aEnd));
+        return covered;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class SentenceIndexTest
+{
+    @Test
+    public void thatLookupsMatchLinearScan()
+        throws Exception
+    {
+        JCas jcas = createDocument(100);
+        
+        for (int offset = -1; offset <= jcas.getDocumentText().length() + 1; offset++) {
+            assertEquals("Sentence number at offset " + offset,
+                    linearSentenceNumber(jcas, offset),
+                    WebAnnoCasUtil.getSentenceNumber(jcas, offset));
+            assertSame("Sentence at offset " + offset, linearSentence(jcas, offset),
+                    WebAnnoCasUtil.getSentence(jcas, offset));
+        }
+        
+        for (int number = -1; number <= 103; number++) {
+            assertEquals("Address of sentence " + number, linearSentenceAddress(jcas, number),
+                    WebAnnoCasUtil.getSentenceAddress(jcas, number));
+        }
+        
+        for (int windowSize : new int[] { 1, 3, 10, 100, 150 }) {
+            List<Integer> pages = WebAnnoCasUtil.getDisplayWindowBeginningSentenceAddresses(jcas,
+                    windowSize);
+            assertEquals(linearPageAddresses(jcas, windowSize), pages);
+            for (Sentence s : select(jcas, Sentence.class)) {
+                assertEquals(linearNextPageAddress(jcas, getAddr(s), windowSize),
+                        WebAnnoCasUtil.getNextPageFirstSentenceAddress(jcas, getAddr(s),
+                                windowSize));
+            }
+        }
+        
+        int number = 0;
+        for (Sentence s : select(jcas, Sentence.class)) {
+            assertEquals(number, WebAnnoCasUtil.getFirstSentenceNumber(jcas, getAddr(s)));
+            number++;
+        }
+        assertEquals(100, WebAnnoCasUtil.getNumberOfPages(jcas));
+    }
+
+    @Test
+    public void thatIndexIsRebuiltWhenSentencesChange()
+        throws Exception
+    {
+        JCas jcas = createDocument(10);
+        SentenceIndex index = SentenceIndex.get(jcas);
+        assertSame(index, SentenceIndex.get(jcas));
+        
+        new Sentence(jcas, 0, 1).addToIndexes();
+        SentenceIndex changed = SentenceIndex.get(jcas);
+        assertNotSame(index, changed);
+        assertEquals(11, changed.size());
+        
+        jcas.reset();
+        jcas.setDocumentText("Single sentence.");
+        new Sentence(jcas, 0, 16).addToIndexes();
+        assertEquals(1, SentenceIndex.get(jcas).size());
+    }
+
+    @Test
+    public void thatCasesHoldingSameStoredCasShareIndex()
+        throws Exception
+    {
+        JCas jcas = createDocument(10);
+        JCas reread = createDocument(10);
+        DirtyRegion.setStoredVersion(jcas.getCas(), Long.MAX_VALUE);
+        DirtyRegion.setStoredVersion(reread.getCas(), Long.MAX_VALUE);
+        
+        SentenceIndex index = SentenceIndex.get(jcas);
+        assertSame(index, SentenceIndex.get(reread));
+        
+        // A recorded change means that the CAS no longer holds the stored CAS
+        Sentence sentence = new Sentence(reread, 0, 1);
+        sentence.addToIndexes();
+        DirtyRegion.record(reread.getCas(), sentence);
+        assertEquals(-1, DirtyRegion.getStoredVersion(reread.getCas()));
+        assertEquals(11, SentenceIndex.get(reread).size());
+        assertSame(index, SentenceIndex.get(jcas));
+    }
+
+    /**
+     * Compares the time needed for the sentence lookups done on every page turn before and after
+     * introducing the sentence index. Nothing is asserted, the timings are only printed.
+     */
+    @Ignore("Benchmark - run manually")
+    @Test
+    public void benchmark()
+        throws Exception
+    {
+        JCas jcas = createDocument(20000);
+        int textLength = jcas.getDocumentText().length();
+        int lookups = 2000;
+        
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < lookups; i++) {
+            int offset = (int) ((long) textLength * i / lookups);
+            sum += linearSentenceNumber(jcas, offset);
+            sum += linearSentenceAddress(jcas, i * 10);
+        }
+        long linear = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        long sum2 = 0;
+        for (int i = 0; i < lookups; i++) {
+            int offset = (int) ((long) textLength * i / lookups);
+            sum2 += WebAnnoCasUtil.getSentenceNumber(jcas, offset);
+            sum2 += WebAnnoCasUtil.getSentenceAddress(jcas, i * 10);
+        }
+        long indexed = System.nanoTime() - start;
+        
+        assertEquals(sum, sum2);
+        System.out.printf("%d sentence number and address lookups in 20000 sentences: "
+                + "linear scan %d ms, sentence index %d ms%n", lookups, linear / 1000000,
+                indexed / 1000000);
+    }
+
+    private static JCas createDocument(int aSentences)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        JCasBuilder builder = new JCasBuilder(jcas);
+        for (int i = 0; i < aSentences; i++) {
+            builder.add("Sentence " + i + ".", Sentence.class);
+            builder.add(" ");
+        }
+        builder.close();
+        return jcas;
+    }
+
+    // The methods below are the implementations of the navigation helpers before the sentence
+    // index has been introduced
+    
+    private static int linearSentenceNumber(JCas aJcas, int aBeginOffset)
+    {
+        int sentenceNumber = 0;
+        for (Sentence sentence : select(aJcas, Sentence.class)) {
+            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
+                sentenceNumber++;
+                break;
+            }
+            sentenceNumber++;
+        }
+        return sentenceNumber;
+    }
+
+    private static Sentence linearSentence(JCas aJCas, int aBegin)
+    {
+        for (Sentence sentence : select(aJCas, Sentence.class)) {
+            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
+                return sentence;
+            }
+        }
+        return null;
+    }
+
+    private static int linearSentenceAddress(JCas aJcas, int aSentenceNumber)
+    {
+        int i = 1;
+        int address = 0;
+        if (aSentenceNumber < 1) {
+            return 0;
+        }
+        for (Sentence sentence : select(aJcas, Sentence.class)) {
+            if (i == aSentenceNumber) {
+                address = getAddr(sentence);
+                break;
+            }
+            address = getAddr(sentence);
+            i++;
+        }
+        if (aSentenceNumber > i) {
+            return 0;
+        }
+        return address;
+    }
+
+    private static List<Integer> linearPageAddresses(JCas aJcas, int aWindowSize)
+    {
+        List<Integer> beginningAddresses = new ArrayList<>();
+        int j = 0;
+        for (Sentence sentence : select(aJcas, Sentence.class)) {
+            if (j % aWindowSize == 0) {
+                beginningAddresses.add(getAddr(sentence));
+            }
+            j++;
+        }
+        return beginningAddresses;
+    }
+
+    private static int linearNextPageAddress(JCas aJcas, int aCurrenSentenceBeginAddress,
+            int aWindowSize)
+    {
+        List<Integer> beginningAddresses = linearPageAddresses(aJcas, aWindowSize);
+
+        int beginningAddress = aCurrenSentenceBeginAddress;
+        for (int i = 0; i < beginningAddresses.size(); i++) {
+            if (i == beginningAddresses.size() - 1) {
+                beginningAddress = beginningAddresses.get(i);
+                break;
+            }
+
+            if (beginningAddresses.get(i) == aCurrenSentenceBeginAddress) {
+                beginningAddress = beginningAddresses.get(i + 1);
+                break;
+            }
+
+            if ((beginningAddresses.get(i) < aCurrenSentenceBeginAddress && beginningAddresses
+                    .get(i + 1) > aCurrenSentenceBeginAddress)) {
+                beginningAddress = beginningAddresses.get(i + 1);
+                break;
+            }
+        }
+
+        return beginningAddress;
+    }
+}
@@ -28,22 +28,27 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipFile;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
-import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.impl.Serialization;
-import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
@@ -55,6 +60,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAware;
@@ -96,19 +103,75 @@ public class AnnotationSchemaServiceImpl
     @PersistenceContext
     private EntityManager entityManager;
     
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+    
     private @Resource FeatureSupportRegistry featureSupportRegistry;
+    private @Resource CasPool casPool;
+
+    /**
+     * The built-in types are the same for all projects. Determining them requires scanning the
+     * classpath, so this is only done once.
+     */
+    private static TypeSystemDescription builtInTypes;
+
+    /**
+     * Per project, a number which changes whenever the layers or features of the project change.
+     */
+    private final ConcurrentMap<Long, AtomicLong> schemaVersions = new ConcurrentHashMap<>();
+
+    /**
+     * The full type system of each project for which it has been needed, together with the schema
+     * version it has been built for.
+     */
+    private final ConcurrentMap<Long, ProjectTypeSystem> projectTypeSystems =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The adapter of each layer for which it has been needed, together with the schema version
+     * it has been built for.
+     */
+    private final ConcurrentMap<Long, LayerAdapter> adapters = new ConcurrentHashMap<>();
+
+    /**
+     * Layers, features, tag sets and tags are looked up very often while rendering and editing
+     * annotations, but rarely change. The results of these lookups are cached for as long as the
+     * entity manager of the request is open.
+     */
+    private PersistenceContextCache schemaCache = new PersistenceContextCache(null);
 
     public AnnotationSchemaServiceImpl()
     {
         // Nothing to do
     }
 
+    /**
+     * This constructor must only be used for unit tests. Pooled CASes are not retired when the
+     * type system of a project changes.
+     */
+    AnnotationSchemaServiceImpl(EntityManager aEntityManager,
+            EntityManagerFactory aEntityManagerFactory,
+            FeatureSupportRegistry aFeatureSupportRegistry)
+    {
+        entityManager = aEntityManager;
+        entityManagerFactory = aEntityManagerFactory;
+        featureSupportRegistry = aFeatureSupportRegistry;
+        init();
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        schemaCache = new PersistenceContextCache(entityManagerFactory);
+    }
+
     @Override
     @Transactional
     public void createTag(Tag aTag)
         throws IOException
     {
         entityManager.persist(aTag);
+        schemaCache.invalidate();
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTag.getTagSet().getProject().getId()))) {
@@ -132,6 +195,7 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aTagSet);
         }
+        schemaCache.invalidate();
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTagSet.getProject().getId()))) {
@@ -153,6 +217,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
         
+        schemaChanged(aLayer.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -171,6 +237,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -276,27 +344,30 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public TagSet getTagSet(long aId)
     {
-        return entityManager.createQuery("FROM TagSet WHERE id = :id", TagSet.class)
-                .setParameter("id", aId).getSingleResult();
+        return schemaCache.get(asList("getTagSet", aId),
+            () -> entityManager.createQuery("FROM TagSet WHERE id = :id", TagSet.class)
+                    .setParameter("id", aId).getSingleResult());
     }
 
     @Override
     @Transactional
     public AnnotationLayer getLayer(long aId)
     {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE id = :id", AnnotationLayer.class)
-                .setParameter("id", aId).getSingleResult();
+        return schemaCache.get(asList("getLayer", aId),
+            () -> entityManager
+                    .createQuery("FROM AnnotationLayer WHERE id = :id", AnnotationLayer.class)
+                    .setParameter("id", aId).getSingleResult());
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationLayer getLayer(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("From AnnotationLayer where name = :name AND project =:project",
-                        AnnotationLayer.class).setParameter("name", aName)
-                .setParameter("project", aProject).getSingleResult();
+        return schemaCache.get(asList("getLayer", aName, aProject.getId()),
+            () -> entityManager
+                    .createQuery("From AnnotationLayer where name = :name AND project =:project",
+                            AnnotationLayer.class).setParameter("name", aName)
+                    .setParameter("project", aProject).getSingleResult());
     }
     
     @Override
@@ -325,19 +396,21 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(long aId)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
-                .setParameter("id", aId).getSingleResult();
+        return schemaCache.get(asList("getFeature", aId),
+            () -> entityManager
+                    .createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
+                    .setParameter("id", aId).getSingleResult());
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(String aName, AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where name = :name AND layer = :layer",
-                        AnnotationFeature.class).setParameter("name", aName)
-                .setParameter("layer", aLayer).getSingleResult();
+        return schemaCache.get(asList("getFeature", aName, aLayer.getId()),
+            () -> entityManager
+                    .createQuery("From AnnotationFeature where name = :name AND layer = :layer",
+                            AnnotationFeature.class).setParameter("name", aName)
+                    .setParameter("layer", aLayer).getSingleResult());
     }
 
     @Override
@@ -764,38 +837,45 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationLayer> listAnnotationLayer(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
-                        AnnotationLayer.class).setParameter("project", aProject).getResultList();
+        // Callers may modify the list, so they get a copy of the cached one
+        return new ArrayList<>(schemaCache.get(asList("listAnnotationLayer", aProject.getId()),
+            () -> entityManager
+                    .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
+                            AnnotationLayer.class)
+                    .setParameter("project", aProject).getResultList()));
     }
 
     @Override
     @Transactional
     public List<AnnotationLayer> listAttachedRelationLayers(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
-                        "SELECT l FROM AnnotationLayer l LEFT JOIN l.attachFeature f "
-                        + "WHERE l.type = :type AND "
-                        + "(l.attachType = :attachType OR f.type = :attachTypeName) "
-                        + "ORDER BY l.uiName",
-                        AnnotationLayer.class).setParameter("type", RELATION_TYPE)
-                .setParameter("attachType", aLayer)
-                .setParameter("attachTypeName", aLayer.getName()).getResultList();
+        return new ArrayList<>(schemaCache.get(asList("listAttachedRelationLayers", aLayer.getId()),
+            () -> entityManager
+                    .createQuery(
+                            "SELECT l FROM AnnotationLayer l LEFT JOIN l.attachFeature f "
+                            + "WHERE l.type = :type AND "
+                            + "(l.attachType = :attachType OR f.type = :attachTypeName) "
+                            + "ORDER BY l.uiName",
+                            AnnotationLayer.class).setParameter("type", RELATION_TYPE)
+                    .setParameter("attachType", aLayer)
+                    .setParameter("attachTypeName", aLayer.getName()).getResultList()));
     }
 
     @Override
     @Transactional
     public List<AnnotationFeature> listAttachedLinkFeatures(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature WHERE linkMode in (:modes) AND project = :project AND "
-                                + "type in (:attachType) ORDER BY uiName", AnnotationFeature.class)
-                .setParameter("modes", asList(LinkMode.SIMPLE, LinkMode.WITH_ROLE))
-                .setParameter("attachType", asList(aLayer.getName(), CAS.TYPE_NAME_ANNOTATION))
-                // Checking for project is necessary because type match is string-based
-                .setParameter("project", aLayer.getProject()).getResultList();
+        return new ArrayList<>(schemaCache.get(asList("listAttachedLinkFeatures", aLayer.getId()),
+            () -> entityManager
+                    .createQuery(
+                            "FROM AnnotationFeature WHERE linkMode in (:modes) AND "
+                                    + "project = :project AND type in (:attachType) "
+                                    + "ORDER BY uiName", AnnotationFeature.class)
+                    .setParameter("modes", asList(LinkMode.SIMPLE, LinkMode.WITH_ROLE))
+                    .setParameter("attachType",
+                            asList(aLayer.getName(), CAS.TYPE_NAME_ANNOTATION))
+                    // Checking for project is necessary because type match is string-based
+                    .setParameter("project", aLayer.getProject()).getResultList()));
     }
 
     @Override
@@ -806,19 +886,25 @@ public class AnnotationSchemaServiceImpl
             return new ArrayList<>();
         }
 
-        return entityManager
-                .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
-                        AnnotationFeature.class).setParameter("layer", aLayer).getResultList();
+        return new ArrayList<>(schemaCache.get(asList("listAnnotationFeature", aLayer.getId()),
+            () -> entityManager
+                    .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
+                            AnnotationFeature.class)
+                    .setParameter("layer", aLayer).getResultList()));
     }
 
     @Override
     @Transactional
     public List<AnnotationFeature> listAnnotationFeature(Project aProject)
     {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
-                        AnnotationFeature.class).setParameter("project", aProject).getResultList();
+        return new ArrayList<>(schemaCache.get(
+            asList("listProjectAnnotationFeatures", aProject.getId()),
+            () -> entityManager
+                    .createQuery(
+                            "FROM AnnotationFeature f WHERE project =:project "
+                                    + "ORDER BY f.layer.uiName, f.uiName",
+                            AnnotationFeature.class)
+                    .setParameter("project", aProject).getResultList()));
     }
 
     @Override
@@ -832,9 +918,10 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<Tag> listTags(TagSet aTagSet)
     {
-        return entityManager
-                .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
-                .setParameter("tagSet", aTagSet).getResultList();
+        return new ArrayList<>(schemaCache.get(asList("listTags", aTagSet.getId()),
+            () -> entityManager
+                    .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
+                    .setParameter("tagSet", aTagSet).getResultList()));
     }
 
     @Override
@@ -849,9 +936,11 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public List<TagSet> listTagSets(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
-                .setParameter("project", aProject).getResultList();
+        return new ArrayList<>(schemaCache.get(asList("listTagSets", aProject.getId()),
+            () -> entityManager
+                    .createQuery("FROM TagSet where project = :project ORDER BY name ASC",
+                            TagSet.class)
+                    .setParameter("project", aProject).getResultList()));
     }
 
     @Override
@@ -859,6 +948,7 @@ public class AnnotationSchemaServiceImpl
     public void removeTag(Tag aTag)
     {
         entityManager.remove(aTag);
+        schemaCache.invalidate();
     }
 
     @Override
@@ -869,6 +959,7 @@ public class AnnotationSchemaServiceImpl
             entityManager.remove(tag);
         }
         entityManager.remove(aTagSet);
+        schemaCache.invalidate();
     }
 
     @Override
@@ -876,6 +967,7 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
         entityManager.remove(aFeature);
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -883,6 +975,7 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        schemaChanged(aLayer.getProject());
     }
 
     @Override
@@ -892,6 +985,7 @@ public class AnnotationSchemaServiceImpl
         for (Tag tag : listTags(aTagSet)) {
             entityManager.remove(tag);
         }
+        schemaCache.invalidate();
     }
 
     @Override
@@ -983,18 +1077,136 @@ public class AnnotationSchemaServiceImpl
     }
 
     @Override
-    public void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
-        throws UIMAException, IOException
+    public long getSchemaVersion(Project aProject)
+    {
+        return schemaVersions.computeIfAbsent(aProject.getId(), id -> new AtomicLong()).get();
+    }
+    
+    /**
+     * Invalidates the cached type system of the project. If this happens within a transaction, the
+     * version is changed again when the transaction completes. Otherwise, the type system might be
+     * rebuilt from the old layers and features while the transaction is still running and then be
+     * cached under the new version. The cached lookups of layers and features and the adapters
+     * of the layers of the project are dropped as well.
+     */
+    private void schemaChanged(Project aProject)
+    {
+        AtomicLong version = schemaVersions.computeIfAbsent(aProject.getId(),
+            id -> new AtomicLong());
+        version.incrementAndGet();
+        
+        log.debug("Schema cache statistics: {}", schemaCache);
+        schemaCache.invalidate();
+        adapters.values().removeIf(a -> a.projectId == aProject.getId());
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            version.incrementAndGet();
+                        }
+                    });
+        }
+    }
+    
+    @Override
+    public TypeSystemDescription getFullProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aSourceDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+        // The cached type system is shared, so callers get a copy they may modify
+        return (TypeSystemDescription) getProjectTypeSystem(aProject).typeSystem.clone();
+    }
+    
+    @Override
+    public CAS createCas(Project aProject)
+        throws ResourceInitializationException
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CasPersistenceUtils.restoreSnapshot(getProjectTypeSystem(aProject).template, cas);
+        return cas;
+    }
+    
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        long version = getSchemaVersion(aProject);
+        ProjectTypeSystem cached = projectTypeSystems.get(aProject.getId());
+        if (cached != null && cached.version == version) {
+            return cached;
+        }
+        
+        List<TypeSystemDescription> types = getProjectTypes(aProject);
+        // Merging must not modify the shared built-in types
+        types.add((TypeSystemDescription) getBuiltInTypes().clone());
+        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(types);
+        CAS template = CasCreationUtils.createCas(allTypes, null, null);
+        String typeSystemKey;
+        try {
+            typeSystemKey = CasPersistenceUtils.getTypeSystemKey(template);
+        }
+        catch (IOException e) {
+            throw new ResourceInitializationException(e);
+        }
+        
+        ProjectTypeSystem projectTypeSystem = new ProjectTypeSystem(version, allTypes,
+                CasPersistenceUtils.takeSnapshot(template), typeSystemKey);
+        // If another thread has concurrently built the type system, keep the newer one
+        projectTypeSystems.merge(aProject.getId(), projectTypeSystem,
+            (a, b) -> a.version >= b.version ? a : b);
+        
+        if (casPool != null) {
+            casPool.activate(typeSystemKey);
+            if (cached != null) {
+                retireTypeSystem(cached.typeSystemKey);
+            }
+        }
+        
+        log.debug("Built type system of project [{}]({}) for schema version {}",
+                aProject.getName(), aProject.getId(), version);
+        
+        return projectTypeSystem;
+    }
+    
+    /**
+     * Drops pooled CASes using the given type system unless another project still uses it.
+     */
+    private void retireTypeSystem(String aTypeSystemKey)
+    {
+        boolean used = projectTypeSystems.values().stream()
+                .anyMatch(ts -> ts.typeSystemKey.equals(aTypeSystemKey));
+        if (!used) {
+            casPool.retire(aTypeSystemKey);
+        }
+    }
+    
+    private static synchronized TypeSystemDescription getBuiltInTypes()
+        throws ResourceInitializationException
+    {
+        if (builtInTypes == null) {
+            builtInTypes = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        }
+        return builtInTypes;
+    }
 
+    @Override
+    public boolean upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+        throws UIMAException, IOException
+    {
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aSourceDocument.getProject());
+        
+        // The key of the type system of a CAS is usually known already from reading the CAS, so
+        // this comparison is cheap compared to the upgrade
+        if (projectTypeSystem.typeSystemKey.equals(CasPersistenceUtils.getTypeSystemKey(aCas))) {
+            log.debug("CAS of user [{}] for document [{}]({}) is up to date", aUser,
+                    aSourceDocument.getName(), aSourceDocument.getId());
+            return false;
+        }
+        
         // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+        CASCompleteSerializer serializer = projectTypeSystem.template;
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -1004,7 +1216,7 @@ public class AnnotationSchemaServiceImpl
         Serialization.serializeWithCompression(aCas, os2, oldTypeSystem);
 
         // Prepare CAS with new type system
-        Serialization.deserializeCASComplete(serializer, (CASImpl) aCas);
+        CasPersistenceUtils.restoreSnapshot(serializer, aCas);
 
         // Restore CAS data to new type system
         Serialization.deserializeCAS(aCas, new ByteArrayInputStream(os2.toByteArray()),
@@ -1012,6 +1224,9 @@ public class AnnotationSchemaServiceImpl
 
         // Make sure JCas is properly initialized too
         aCas.getJCas();
+        
+        // Saves calculating the key again when the CAS is upgraded or written the next time
+        CasPersistenceUtils.setTypeSystemKey(aCas, projectTypeSystem.typeSystemKey);
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(
                 Logging.KEY_PROJECT_ID,
@@ -1023,13 +1238,34 @@ public class AnnotationSchemaServiceImpl
                     aUser, aSourceDocument.getName(), aSourceDocument.getId(), project.getName(),
                     project.getId());
         }
+        
+        return true;
     }
 
     @Override
     @Transactional
     public TypeAdapter getAdapter(AnnotationLayer aLayer)
     {
-        return getAdapter(this, featureSupportRegistry, aLayer);
+        // A layer which has not been saved yet may still change, so its adapter is not kept
+        if (aLayer.getId() == 0) {
+            return getAdapter(this, featureSupportRegistry, aLayer);
+        }
+        
+        // Get the version before building the adapter - if the schema changes concurrently, the
+        // adapter is stored under the old version and is rebuilt on the next call
+        long version = getSchemaVersion(aLayer.getProject());
+        
+        LayerAdapter cached = adapters.get(aLayer.getId());
+        if (cached != null && cached.version == version) {
+            return cached.adapter;
+        }
+        
+        TypeAdapter adapter = getAdapter(this, featureSupportRegistry, aLayer);
+        // If another thread has concurrently built the adapter, keep the newer one
+        adapters.merge(aLayer.getId(),
+                new LayerAdapter(version, aLayer.getProject().getId(), adapter),
+            (a, b) -> a.version >= b.version ? a : b);
+        return adapter;
     }
     
     public static TypeAdapter getAdapter(AnnotationSchemaService aSchemaService,
@@ -1084,6 +1320,11 @@ public class AnnotationSchemaServiceImpl
     public void beforeProjectRemove(Project aProject)
         throws Exception
     {
+        ProjectTypeSystem projectTypeSystem = projectTypeSystems.remove(aProject.getId());
+        if (projectTypeSystem != null && casPool != null) {
+            retireTypeSystem(projectTypeSystem.typeSystemKey);
+        }
+
         for (AnnotationFeature feature : listAnnotationFeature(aProject)) {
             removeAnnotationFeature(feature);
         }
@@ -1107,4 +1348,35 @@ public class AnnotationSchemaServiceImpl
     {
         // Nothing at the moment
     }
+    
+    private static final class LayerAdapter
+    {
+        private final long version;
+        private final long projectId;
+        private final TypeAdapter adapter;
+
+        public LayerAdapter(long aVersion, long aProjectId, TypeAdapter aAdapter)
+        {
+            version = aVersion;
+            projectId = aProjectId;
+            adapter = aAdapter;
+        }
+    }
+    
+    private static final class ProjectTypeSystem
+    {
+        private final long version;
+        private final TypeSystemDescription typeSystem;
+        private final CASCompleteSerializer template;
+        private final String typeSystemKey;
+
+        public ProjectTypeSystem(long aVersion, TypeSystemDescription aTypeSystem,
+                CASCompleteSerializer aTemplate, String aTypeSystemKey)
+        {
+            version = aVersion;
+            typeSystem = aTypeSystem;
+            template = aTemplate;
+            typeSystemKey = aTypeSystemKey;
+        }
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Simple binary delta encoding in the spirit of rsync: the base is cut into fixed-size blocks
+ * which are indexed by a rolling hash. The target is scanned for these blocks and encoded as a
+ * sequence of instructions copying ranges from the base and adding literal bytes.
+ * <p>
+ * This works well for the legacy CAS format which mostly consists of the serialized heap arrays
+ * - changing a few annotations only changes or shifts a few ranges of the file. Compressed data
+ * does not delta-encode well.
+ */
+final class BinaryDelta
+{
+    private static final byte[] MAGIC = { 'W', 'A', 'D', 'L' };
+    private static final int VERSION = 1;
+
+    private static final int BLOCK_SIZE = 32;
+    private static final int PRIME = 31;
+    
+    /**
+     * PRIME to the power of BLOCK_SIZE - 1, i.e. the weight of the first byte in the window.
+     */
+    private static final int PRIME_POW;
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+            p *= PRIME;
+        }
+        PRIME_POW = p;
+    }
+
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_ADD = 2;
+
+    private BinaryDelta()
+    {
+        // No instances
+    }
+
+    /**
+     * Creates a delta which turns the given base into the given target.
+     */
+    public static byte[] diff(byte[] aBase, byte[] aTarget)
+    {
+        BlockIndex index = new BlockIndex(aBase);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(aTarget.length / 8 + 64);
+        try (DataOutputStream os = new DataOutputStream(bos)) {
+            os.write(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(aBase.length);
+            os.writeInt(aTarget.length);
+            os.writeLong(checksum(aTarget));
+
+            // Start of the literal bytes which have not been written yet
+            int literalStart = 0;
+            int pos = 0;
+            int hash = aTarget.length >= BLOCK_SIZE ? hash(aTarget, 0) : 0;
+            while (pos + BLOCK_SIZE <= aTarget.length) {
+                int match = index.find(hash, aTarget, pos);
+                if (match < 0) {
+                    if (pos + BLOCK_SIZE < aTarget.length) {
+                        hash = roll(hash, aTarget[pos], aTarget[pos + BLOCK_SIZE]);
+                    }
+                    pos++;
+                    continue;
+                }
+
+                // Extend the match backwards into the pending literal bytes...
+                int baseStart = match;
+                int targetStart = pos;
+                while (baseStart > 0 && targetStart > literalStart
+                        && aBase[baseStart - 1] == aTarget[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+
+                // ... and forwards as far as possible
+                int baseEnd = match + BLOCK_SIZE;
+                int targetEnd = pos + BLOCK_SIZE;
+                while (baseEnd < aBase.length && targetEnd < aTarget.length
+                        && aBase[baseEnd] == aTarget[targetEnd]) {
+                    baseEnd++;
+                    targetEnd++;
+                }
+
+                writeAdd(os, aTarget, literalStart, targetStart);
+                os.writeByte(OP_COPY);
+                os.writeInt(baseStart);
+                os.writeInt(targetEnd - targetStart);
+
+                pos = targetEnd;
+                literalStart = targetEnd;
+                if (pos + BLOCK_SIZE <= aTarget.length) {
+                    hash = hash(aTarget, pos);
+                }
+            }
+
+            writeAdd(os, aTarget, literalStart, aTarget.length);
+            os.writeByte(OP_END);
+        }
+        catch (IOException e) {
+            // Cannot happen when writing to a byte array
+            throw new IllegalStateException(e);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Applies a delta created by {@link #diff(byte[], byte[])} to the base it was created for.
+     *
+     * @throws IOException
+     *             if the delta is corrupt or does not belong to the given base.
+     */
+    public static byte[] patch(byte[] aBase, byte[] aDelta)
+        throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(aDelta))) {
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not a delta");
+            }
+            int version = is.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported delta version [" + version + "]");
+            }
+            int baseLength = is.readInt();
+            if (baseLength != aBase.length) {
+                throw new IOException("Delta expects a base of [" + baseLength
+                        + "] bytes but base has [" + aBase.length + "] bytes");
+            }
+            byte[] target = new byte[is.readInt()];
+            long checksum = is.readLong();
+
+            int pos = 0;
+            byte op;
+            while ((op = is.readByte()) != OP_END) {
+                switch (op) {
+                case OP_COPY: {
+                    int offset = is.readInt();
+                    int length = is.readInt();
+                    System.arraycopy(aBase, offset, target, pos, length);
+                    pos += length;
+                    break;
+                }
+                case OP_ADD: {
+                    int length = is.readInt();
+                    is.readFully(target, pos, length);
+                    pos += length;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown delta instruction [" + op + "]");
+                }
+            }
+
+            if (pos != target.length || checksum(target) != checksum) {
+                throw new IOException("Delta does not reproduce the expected data");
+            }
+
+            return target;
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt delta", e);
+        }
+    }
+
+    private static void writeAdd(DataOutputStream aOut, byte[] aData, int aBegin, int aEnd)
+        throws IOException
+    {
+        if (aEnd > aBegin) {
+            aOut.writeByte(OP_ADD);
+            aOut.writeInt(aEnd - aBegin);
+            aOut.write(aData, aBegin, aEnd - aBegin);
+        }
+    }
+
+    private static long checksum(byte[] aData)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(aData);
+        return crc.getValue();
+    }
+
+    private static int hash(byte[] aData, int aOffset)
+    {
+        int h = 0;
+        for (int i = aOffset; i < aOffset + BLOCK_SIZE; i++) {
+            h = h * PRIME + aData[i];
+        }
+        return h;
+    }
+
+    private static int roll(int aHash, byte aOut, byte aIn)
+    {
+        return (aHash - aOut * PRIME_POW) * PRIME + aIn;
+    }
+
+    /**
+     * Open-addressing hash table from block hashes to the offsets of the blocks in the base.
+     * Blocks are not overlapping, so the table has at most {@code length / BLOCK_SIZE} entries.
+     */
+    private static final class BlockIndex
+    {
+        private final byte[] base;
+        private final int[] hashes;
+        private final int[] offsets;
+        private final int mask;
+
+        BlockIndex(byte[] aBase)
+        {
+            base = aBase;
+
+            int blocks = aBase.length / BLOCK_SIZE;
+            int capacity = Integer.highestOneBit(Math.max(blocks * 2, 16) - 1) << 1;
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            Arrays.fill(offsets, -1);
+            mask = capacity - 1;
+
+            for (int offset = 0; offset + BLOCK_SIZE <= aBase.length; offset += BLOCK_SIZE) {
+                int h = hash(aBase, offset);
+                int slot = mix(h) & mask;
+                while (offsets[slot] >= 0) {
+                    if (hashes[slot] == h) {
+                        // Keep the first occurrence of identical blocks
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (offsets[slot] < 0) {
+                    hashes[slot] = h;
+                    offsets[slot] = offset;
+                }
+            }
+        }
+
+        /**
+         * @return the offset of a block in the base which is equal to the block at the given
+         *         position of the target, or {@code -1} if there is none.
+         */
+        int find(int aHash, byte[] aTarget, int aPos)
+        {
+            int slot = mix(aHash) & mask;
+            while (offsets[slot] >= 0) {
+                if (hashes[slot] == aHash && equalBlocks(offsets[slot], aTarget, aPos)) {
+                    return offsets[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean equalBlocks(int aOffset, byte[] aTarget, int aPos)
+        {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                if (base[aOffset + i] != aTarget[aPos + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int mix(int aHash)
+        {
+            int h = aHash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.cas.impl.CASSerializer;
+
+/**
+ * Bounded in-memory cache of CAS snapshots with LRU eviction. The cache never hands out shared
+ * CAS instances: a snapshot is taken when a CAS is put into the cache and every cache hit
+ * restores the snapshot into a fresh CAS provided by the caller, so callers cannot corrupt the
+ * cached state.
+ * <p>
+ * Each entry remembers the version the storage backend reported for the CAS when it was read or
+ * written. If the CAS has been changed or removed behind the back of the cache, the entry is
+ * discarded on the next access.
+ */
+public class CasCache
+{
+    private final long maxSize;
+
+    private final LinkedHashMap<CasKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param aMaxSize
+     *            the approximate amount of memory in bytes the cached snapshots may occupy. If
+     *            this is {@code 0}, nothing is cached.
+     */
+    public CasCache(long aMaxSize)
+    {
+        maxSize = aMaxSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Restores the cached state of the CAS into the given CAS.
+     *
+     * @param aVersion
+     *            the version of the CAS currently in the storage backend.
+     * @return whether there was a valid cache entry. If not, the target CAS is not changed.
+     */
+    boolean restore(CasKey aKey, long aVersion, CAS aTarget)
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        CASCompleteSerializer snapshot = lookup(aKey, aVersion);
+        if (snapshot == null) {
+            return false;
+        }
+
+        CasPersistenceUtils.restoreSnapshot(snapshot, aTarget);
+        return true;
+    }
+
+    private synchronized CASCompleteSerializer lookup(CasKey aKey, long aVersion)
+    {
+        Entry entry = entries.get(aKey);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        if (entry.version != aVersion) {
+            remove(aKey);
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.snapshot;
+    }
+
+    /**
+     * Stores a snapshot of the given CAS which has just been read from or written to the storage
+     * backend.
+     *
+     * @param aVersion
+     *            the version of the CAS in the storage backend.
+     */
+    void put(CasKey aKey, long aVersion, CAS aCas)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        CASCompleteSerializer snapshot = CasPersistenceUtils.takeSnapshot(aCas);
+        long entrySize = estimateSize(snapshot);
+        if (entrySize > maxSize) {
+            // Do not let a single huge CAS flush the whole cache
+            invalidate(aKey);
+            return;
+        }
+
+        store(aKey, new Entry(snapshot, entrySize, aVersion));
+    }
+
+    private synchronized void store(CasKey aKey, Entry aEntry)
+    {
+        remove(aKey);
+
+        entries.put(aKey, aEntry);
+        size += aEntry.size;
+
+        Iterator<Map.Entry<CasKey, Entry>> i = entries.entrySet().iterator();
+        while (size > maxSize && i.hasNext()) {
+            Entry eldest = i.next().getValue();
+            i.remove();
+            size -= eldest.size;
+            evictions++;
+        }
+    }
+
+    synchronized void invalidate(CasKey aKey)
+    {
+        remove(aKey);
+    }
+
+    private void remove(CasKey aKey)
+    {
+        Entry entry = entries.remove(aKey);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate amount of memory in bytes occupied by the cached snapshots.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("[entries: %d, size: %d/%d, hits: %d, misses: %d, evictions: %d]",
+                entries.size(), size, maxSize, hits, misses, evictions);
+    }
+
+    /**
+     * Estimates the memory occupied by a snapshot. Every snapshot has its own copy of the type
+     * system and index definitions, so they count as well.
+     */
+    static long estimateSize(CASCompleteSerializer aSnapshot)
+    {
+        return estimateSize(aSnapshot.getCASSerializer())
+                + estimateSize(aSnapshot.getCASMgrSerializer());
+    }
+
+    private static long estimateSize(CASSerializer aSer)
+    {
+        long bytes = 0;
+        bytes += size(aSer.heapArray);
+        bytes += size(aSer.fsIndex);
+        bytes += aSer.byteHeapArray != null ? aSer.byteHeapArray.length : 0;
+        bytes += aSer.shortHeapArray != null ? aSer.shortHeapArray.length * 2L : 0;
+        bytes += aSer.longHeapArray != null ? aSer.longHeapArray.length * 8L : 0;
+        bytes += size(aSer.stringTable);
+        return bytes;
+    }
+
+    private static long estimateSize(CASMgrSerializer aSer)
+    {
+        if (aSer == null) {
+            return 0;
+        }
+
+        long bytes = 0;
+        bytes += size(aSer.typeNames);
+        bytes += size(aSer.featureNames);
+        bytes += size(aSer.typeInheritance);
+        bytes += size(aSer.featDecls);
+        bytes += size(aSer.featureOffsets);
+        bytes += size(aSer.typeOrder);
+        bytes += size(aSer.indexNames);
+        bytes += size(aSer.indexTypes);
+        bytes += size(aSer.comparatorIndex);
+        bytes += size(aSer.comparators);
+        bytes += size(aSer.indexingStrategy);
+        bytes += size(aSer.stringSubtypes);
+        bytes += size(aSer.stringSubtypeValues);
+        bytes += size(aSer.stringSubtypeValuePos);
+        return bytes;
+    }
+
+    private static long size(int[] aArray)
+    {
+        return aArray != null ? aArray.length * 4L : 0;
+    }
+
+    private static long size(String[] aArray)
+    {
+        if (aArray == null) {
+            return 0;
+        }
+
+        long bytes = 0;
+        for (String s : aArray) {
+            // Rough per-string overhead of the object header, the char array and the pointer
+            bytes += 48 + (s != null ? s.length() * 2L : 0);
+        }
+        return bytes;
+    }
+
+    private static final class Entry
+    {
+        private final CASCompleteSerializer snapshot;
+        private final long size;
+        private final long version;
+
+        public Entry(CASCompleteSerializer aSnapshot, long aSize, long aVersion)
+        {
+            snapshot = aSnapshot;
+            size = aSize;
+            version = aVersion;
+        }
+    }
+}
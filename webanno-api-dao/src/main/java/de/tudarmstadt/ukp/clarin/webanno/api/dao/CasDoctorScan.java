@@ -0,0 +1,830 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasUpdater;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.Check;
+import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Runs the CAS Doctor checks on many CASes, e.g. on all CASes of a project or of the whole
+ * repository after upgrading WebAnno. CASes for which the checks find problems are optionally
+ * repaired and written back. The CASes are processed in parallel by a fixed number of worker
+ * threads and only a few more CASes than there are workers are queued at any time, so the memory
+ * needed does not depend on the number of CASes.
+ * <p>
+ * The results are written to a tab-separated report with at least one line per CAS while the
+ * scan progresses. A scan which has been stopped or aborted can be resumed using the same report:
+ * the CASes already listed in it are skipped and the new results are appended.
+ * <p>
+ * Besides running within WebAnno, the scan can be run as a command on a repository which is not
+ * in use by WebAnno. Without access to the database, checks and repairs which need to know the
+ * project settings (e.g. the layers) are not available then.
+ * <p>
+ * Usage: {@code CasDoctorScan <repository-path> <report-file> [--backend <backend>]
+ * [--threads <n>] [--project <id>] [--repair <repair,...>] [--resume]}
+ */
+public class CasDoctorScan
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The checks did not find any problems.
+     */
+    public static final String RESULT_OK = "OK";
+
+    /**
+     * The checks found problems which have not been repaired.
+     */
+    public static final String RESULT_FAILED = "FAILED";
+
+    /**
+     * The checks found problems and the repaired CAS has been written back.
+     */
+    public static final String RESULT_REPAIRED = "REPAIRED";
+
+    /**
+     * The CAS could not be read or processed.
+     */
+    public static final String RESULT_ERROR = "ERROR";
+
+    private static final String REPORT_HEADER = "#project\tdocument\tdocument name\tuser\tresult"
+            + "\tlevel\tsource\tmessage";
+
+    private final CasSource source;
+    private final CasDoctor casDoctor;
+    private final int threads;
+    private final File reportFile;
+    private final boolean resume;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile boolean stopRequested = false;
+    private volatile boolean running = false;
+    private volatile boolean finished = false;
+    private volatile boolean done = false;
+    private volatile IOException reportFailure;
+
+    /**
+     * @param aSource
+     *            the CASes to scan.
+     * @param aCasDoctor
+     *            the CAS Doctor running the checks. If it has any repairs, CASes which fail the
+     *            checks are repaired. The checks should be non-fatal.
+     * @param aThreads
+     *            the number of worker threads.
+     * @param aReportFile
+     *            the report file.
+     * @param aResume
+     *            whether to skip the CASes already listed in the report file and append to it.
+     *            Otherwise, the report file is overwritten.
+     */
+    public CasDoctorScan(CasSource aSource, CasDoctor aCasDoctor, int aThreads,
+            File aReportFile, boolean aResume)
+    {
+        source = aSource;
+        casDoctor = aCasDoctor;
+        threads = Math.max(aThreads, 1);
+        reportFile = aReportFile;
+        resume = aResume;
+    }
+
+    /**
+     * Scans the CASes and returns when all of them have been processed or the scan has been
+     * stopped.
+     */
+    public void run()
+        throws IOException
+    {
+        running = true;
+        try {
+            Set<CasKey> done = resume ? readReportedKeys(reportFile) : new HashSet<>();
+            boolean append = resume && reportFile.length() > 0;
+
+            List<CasKey> keys = source.list();
+            total.set(keys.size());
+            log.info("CAS Doctor scan of {} CASes started ({} already done)", keys.size(),
+                    done.size());
+
+            if (reportFile.getParentFile() != null) {
+                Files.createDirectories(reportFile.getParentFile().toPath());
+            }
+
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "CAS Doctor scan " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Limit the number of queued CASes so the list of keys is only consumed as fast as
+            // the workers can process the CASes
+            Semaphore slots = new Semaphore(threads * 2);
+
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(reportFile, append),
+                    UTF_8)) {
+                try {
+                    if (!append) {
+                        out.write(REPORT_HEADER);
+                        out.write('\n');
+                    }
+                    else if (!endsWithNewline(reportFile)) {
+                        // Terminate the incomplete last line of an aborted scan, so it does not
+                        // swallow the first new line
+                        out.write('\n');
+                    }
+
+                    for (CasKey key : keys) {
+                        if (stopRequested || reportFailure != null) {
+                            break;
+                        }
+
+                        if (done.contains(key)) {
+                            processed.incrementAndGet();
+                            continue;
+                        }
+
+                        slots.acquire();
+                        executor.execute(() -> {
+                            try {
+                                String lines = scan(key);
+                                synchronized (out) {
+                                    out.write(lines);
+                                    out.flush();
+                                }
+                            }
+                            catch (IOException e) {
+                                reportFailure = e;
+                            }
+                            finally {
+                                processed.incrementAndGet();
+                                slots.release();
+                            }
+                        });
+                    }
+                }
+                catch (InterruptedException e) {
+                    stopRequested = true;
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    // Let the workers finish the CASes they have already started. This must
+                    // happen before the report is closed because they still write to it.
+                    executor.shutdown();
+                    try {
+                        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        executor.shutdownNow();
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            if (reportFailure != null) {
+                throw reportFailure;
+            }
+
+            finished = !stopRequested;
+            log.info("CAS Doctor scan {}: {}", finished ? "completed" : "stopped", this);
+        }
+        finally {
+            running = false;
+            done = true;
+        }
+    }
+
+    /**
+     * Checks and if necessary repairs a single CAS.
+     * 
+     * @return the report lines for the CAS.
+     */
+    private String scan(CasKey aKey)
+    {
+        List<LogMessage> messages = new ArrayList<>();
+        String result;
+        CAS cas = null;
+        try {
+            cas = source.read(aKey);
+            Project project = source.getProject(aKey);
+
+            if (casDoctor.analyze(project, cas, messages, false)) {
+                result = RESULT_OK;
+            }
+            else if (!casDoctor.isRepairsActive()) {
+                result = RESULT_FAILED;
+            }
+            else {
+                // The CAS may have been changed since it has been read. The repair works on a
+                // fresh copy which cannot change until the repaired CAS has been written, so no
+                // changes are lost.
+                source.release(cas);
+                cas = null;
+                try {
+                    boolean changed = source.update(aKey, fresh -> {
+                        messages.clear();
+                        if (casDoctor.analyze(project, fresh, messages, false)) {
+                            return false;
+                        }
+                        // The repair analyzes the CAS again afterwards and fails if there are
+                        // still problems
+                        casDoctor.repair(project, fresh, messages);
+                        return true;
+                    });
+                    result = changed ? RESULT_REPAIRED : RESULT_OK;
+                }
+                catch (CasDoctorException | IllegalStateException e) {
+                    result = RESULT_FAILED;
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to scan CAS {}", aKey, e);
+            messages.add(new LogMessage(getClass(), LogLevel.ERROR, "%s",
+                    ExceptionUtils.getRootCauseMessage(e)));
+            result = RESULT_ERROR;
+        }
+        finally {
+            if (cas != null) {
+                source.release(cas);
+            }
+        }
+
+        switch (result) {
+        case RESULT_FAILED:
+            failed.incrementAndGet();
+            break;
+        case RESULT_REPAIRED:
+            repaired.incrementAndGet();
+            break;
+        case RESULT_ERROR:
+            errors.incrementAndGet();
+            break;
+        default:
+            break;
+        }
+
+        String prefix = aKey.getProjectId() + "\t" + aKey.getDocumentId() + "\t"
+                + escape(source.getDocumentName(aKey)) + "\t" + escape(aKey.getUserName()) + "\t"
+                + result + "\t";
+        StringBuilder lines = new StringBuilder();
+        if (messages.isEmpty()) {
+            lines.append(prefix).append("\t\t\n");
+        }
+        for (LogMessage msg : messages) {
+            lines.append(prefix).append(msg.level).append('\t')
+                    .append(msg.source != null ? msg.source.getSimpleName() : "").append('\t')
+                    .append(escape(msg.message)).append('\n');
+        }
+        return lines.toString();
+    }
+
+    /**
+     * @return the CASes listed in the given report.
+     */
+    public static Set<CasKey> readReportedKeys(File aReportFile)
+        throws IOException
+    {
+        Set<CasKey> keys = new HashSet<>();
+        if (!aReportFile.exists()) {
+            return keys;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(aReportFile.toPath(), UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\t", -1);
+                // The last line may be incomplete if the scan has been aborted
+                if (fields.length < 8) {
+                    continue;
+                }
+
+                try {
+                    keys.add(new CasKey(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            unescape(fields[3])));
+                }
+                catch (NumberFormatException e) {
+                    // Ignore broken lines
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static boolean endsWithNewline(File aFile)
+        throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(aFile, "r")) {
+            if (raf.length() == 0) {
+                return true;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private static String escape(String aValue)
+    {
+        if (aValue == null) {
+            return "";
+        }
+        return aValue.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n")
+                .replace("\r", "\\r");
+    }
+
+    private static String unescape(String aValue)
+    {
+        StringBuilder sb = new StringBuilder(aValue.length());
+        for (int i = 0; i < aValue.length(); i++) {
+            char c = aValue.charAt(i);
+            if (c == '\\' && i + 1 < aValue.length()) {
+                char n = aValue.charAt(++i);
+                switch (n) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    sb.append(n);
+                    break;
+                }
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops the scan. CASes which are being processed are completed, so the scan can be resumed
+     * later using the same report.
+     */
+    public void stop()
+    {
+        stopRequested = true;
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * @return whether the scan has ended, i.e. it has been completed, stopped or it has failed.
+     */
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * @return whether all CASes have been processed.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    public boolean isStopRequested()
+    {
+        return stopRequested;
+    }
+
+    public File getReportFile()
+    {
+        return reportFile;
+    }
+
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+    public long getProcessed()
+    {
+        return processed.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    public long getRepaired()
+    {
+        return repaired.get();
+    }
+
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    /**
+     * @return the percentage of the CASes which have been processed.
+     */
+    public int getProgress()
+    {
+        if (finished) {
+            return 100;
+        }
+        long n = total.get();
+        return n > 0 ? (int) Math.min(99, processed.get() * 100 / n) : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("processed: %d/%d, failed: %d, repaired: %d, errors: %d",
+                processed.get(), total.get(), failed.get(), repaired.get(), errors.get());
+    }
+
+    /**
+     * Provides the CASes to be scanned.
+     */
+    public interface CasSource
+    {
+        /**
+         * @return the CASes to be scanned.
+         */
+        List<CasKey> list()
+            throws IOException;
+
+        /**
+         * @return the project the CAS belongs to or {@code null} if it is not known.
+         */
+        Project getProject(CasKey aKey);
+
+        /**
+         * @return the name of the document the CAS belongs to or {@code null} if it is not known.
+         */
+        String getDocumentName(CasKey aKey);
+
+        CAS read(CasKey aKey)
+            throws IOException;
+
+        /**
+         * Reads the CAS again and lets the given function repair it. If the function reports a
+         * change, the stored CAS is replaced with the repaired one. The stored CAS must not be
+         * changed by anybody else in the meantime.
+         *
+         * @return whether the CAS has been changed.
+         */
+        boolean update(CasKey aKey, CasUpdater aUpdater)
+            throws IOException;
+
+        /**
+         * Called when the CAS is no longer used.
+         */
+        void release(CAS aCas);
+    }
+
+    /**
+     * Reads the CASes directly from a repository which is not in use by WebAnno.
+     */
+    private static class RepositoryCasSource
+        implements CasSource
+    {
+        private final File repository;
+        private final RepositoryLayout layout;
+        private final CasStorageBackend backend;
+        private final CasPool pool = new CasPool();
+        private final Long projectId;
+
+        public RepositoryCasSource(File aRepository, String aBackend, Long aProjectId)
+        {
+            repository = aRepository;
+            // The documents are found in either layout, so the layout used here does not matter
+            layout = new RepositoryLayout(aRepository, RepositoryLayout.LAYOUT_FLAT);
+            backend = CasStorageServiceImpl.createBackend(aBackend, layout, 0, 0, 0, false);
+            projectId = aProjectId;
+        }
+
+        @Override
+        public List<CasKey> list()
+            throws IOException
+        {
+            File[] projects = new File(repository, "project").listFiles(File::isDirectory);
+            if (projects == null) {
+                throw new IOException("No projects found in repository [" + repository + "]");
+            }
+
+            Set<CasKey> keys = new HashSet<>();
+            for (File project : projects) {
+                long id;
+                try {
+                    id = Long.parseLong(project.getName());
+                }
+                catch (NumberFormatException e) {
+                    continue;
+                }
+
+                if (projectId != null && projectId != id) {
+                    continue;
+                }
+
+                keys.addAll(backend.list(id));
+
+                // The initial CASes always remain on the file system
+                for (Long documentId : layout.listDocumentFolders(id).keySet()) {
+                    if (getInitialCasFile(id, documentId).isFile()) {
+                        keys.add(new CasKey(id, documentId, INITIAL_CAS_PSEUDO_USER));
+                    }
+                }
+            }
+
+            return keys.stream()
+                    .sorted(Comparator.comparingLong(CasKey::getProjectId)
+                            .thenComparingLong(CasKey::getDocumentId)
+                            .thenComparing(CasKey::getUserName))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public Project getProject(CasKey aKey)
+        {
+            return null;
+        }
+
+        @Override
+        public String getDocumentName(CasKey aKey)
+        {
+            return null;
+        }
+
+        @Override
+        public CAS read(CasKey aKey)
+            throws IOException
+        {
+            if (INITIAL_CAS_PSEUDO_USER.equals(aKey.getUserName())) {
+                return CasPersistenceUtils.readSerializedCas(pool,
+                        getInitialCasFile(aKey.getProjectId(), aKey.getDocumentId()));
+            }
+
+            try (InputStream is = backend.read(aKey)) {
+                if (CasPersistenceUtils.isCompactCas(is)) {
+                    return CasPersistenceUtils.readCompactCas(pool, is, aKey.toString(),
+                            new File(repository, PROJECT + aKey.getProjectId() + "/typesystem"));
+                }
+                else {
+                    return CasPersistenceUtils.readSerializedCas(pool, is);
+                }
+            }
+        }
+
+        /**
+         * The repository is not in use by WebAnno, so nobody else changes the CAS meanwhile.
+         */
+        @Override
+        public boolean update(CasKey aKey, CasUpdater aUpdater)
+            throws IOException
+        {
+            CAS cas = read(aKey);
+            try {
+                if (!aUpdater.update(cas)) {
+                    return false;
+                }
+                write(aKey, cas);
+                return true;
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
+            }
+            finally {
+                release(cas);
+            }
+        }
+
+        /**
+         * Repaired CASes are written in the legacy format. They are converted to the compact
+         * format again when WebAnno reads them if the compact format is enabled.
+         */
+        private void write(CasKey aKey, CAS aCas)
+            throws IOException
+        {
+            try {
+                if (INITIAL_CAS_PSEUDO_USER.equals(aKey.getUserName())) {
+                    CasPersistenceUtils.writeSerializedCas(aCas.getJCas(),
+                            getInitialCasFile(aKey.getProjectId(), aKey.getDocumentId()));
+                }
+                else {
+                    backend.write(aKey, out -> {
+                        try {
+                            CasPersistenceUtils.writeSerializedCas(aCas.getJCas(), out);
+                        }
+                        catch (CASException e) {
+                            throw new IOException(e);
+                        }
+                    });
+                }
+            }
+            catch (CASException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void release(CAS aCas)
+        {
+            pool.release(aCas);
+        }
+
+        public void close()
+        {
+            backend.stop();
+        }
+
+        private File getInitialCasFile(long aProjectId, long aDocumentId)
+        {
+            return new File(layout.getDocumentFolder(aProjectId, aDocumentId, ANNOTATION),
+                    INITIAL_CAS_PSEUDO_USER + ".ser");
+        }
+    }
+
+    /**
+     * @return whether the given check or repair can be used without access to the services of
+     *         WebAnno.
+     */
+    private static boolean isStandalone(Class<?> aClass)
+    {
+        for (Class<?> c = aClass; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Resource.class)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] aArgs)
+        throws Exception
+    {
+        if (aArgs.length < 2) {
+            System.err.println("Usage: CasDoctorScan <repository-path> <report-file> "
+                    + "[--backend <backend>] [--threads <n>] [--project <id>] "
+                    + "[--repair <repair,...>] [--resume]");
+            System.exit(1);
+        }
+
+        String backend = CasStorageServiceImpl.BACKEND_FILE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Long projectId = null;
+        List<String> repairNames = new ArrayList<>();
+        boolean resume = false;
+        for (int i = 2; i < aArgs.length; i++) {
+            switch (aArgs[i]) {
+            case "--backend":
+                backend = aArgs[++i];
+                break;
+            case "--threads":
+                threads = Integer.parseInt(aArgs[++i]);
+                break;
+            case "--project":
+                projectId = Long.parseLong(aArgs[++i]);
+                break;
+            case "--repair":
+                repairNames.addAll(Arrays.asList(aArgs[++i].split(",")));
+                break;
+            case "--resume":
+                resume = true;
+                break;
+            default:
+                System.err.println("Unknown option [" + aArgs[i] + "]");
+                System.exit(1);
+            }
+        }
+
+        Logger log = LoggerFactory.getLogger(CasDoctorScan.class);
+
+        List<Class<? extends Check>> checks = new ArrayList<>();
+        for (Class<? extends Check> check : CasDoctor.scanChecks()) {
+            if (isStandalone(check)) {
+                checks.add(check);
+            }
+            else {
+                log.warn("Check [{}] needs the project settings - skipping",
+                        check.getSimpleName());
+            }
+        }
+
+        List<Class<? extends Repair>> repairs = new ArrayList<>();
+        for (String name : repairNames) {
+            Class<? extends Repair> repair = (Class<? extends Repair>) Class
+                    .forName(Repair.class.getPackage().getName() + "." + name.trim());
+            if (!isStandalone(repair)) {
+                System.err.println("Repair [" + name + "] needs the project settings and "
+                        + "cannot be used here");
+                System.exit(1);
+            }
+            repairs.add(repair);
+        }
+
+        CasDoctor casDoctor = new CasDoctor();
+        casDoctor.setFatalChecks(false);
+        casDoctor.setCheckClasses(checks);
+        casDoctor.setRepairClasses(repairs);
+
+        RepositoryCasSource source = new RepositoryCasSource(new File(aArgs[0]), backend,
+                projectId);
+        CasDoctorScan scan = new CasDoctorScan(source, casDoctor, threads, new File(aArgs[1]),
+                resume);
+
+        // Stopping the command (e.g. Ctrl-C) lets the workers finish their current CASes so the
+        // scan can be resumed
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (scan.isRunning()) {
+                scan.stop();
+                try {
+                    main.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+
+        try {
+            scan.run();
+        }
+        finally {
+            source.close();
+        }
+
+        casDoctor.getStatistics().forEach(s -> log.info("{}", s));
+        System.exit(scan.getFailed() > 0 || scan.getErrors() > 0 ? 2 : 0);
+    }
+}
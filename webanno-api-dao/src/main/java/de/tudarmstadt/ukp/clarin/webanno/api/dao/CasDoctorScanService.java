@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Resource;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasUpdater;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
+
+/**
+ * Runs {@link CasDoctorScan CAS Doctor scans} of whole projects in the background. There is at
+ * most one scan per project at any time. The report of the last scan of a project is kept in the
+ * repository so that it can be downloaded and the scan can be resumed after it has been stopped,
+ * also after a restart of WebAnno.
+ */
+@Component("casDoctorScanService")
+public class CasDoctorScanService
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String REPORT_FOLDER = "casdoctor";
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    @Value(value = "${debug.casDoctor.scan.threads}")
+    private int threads;
+
+    @Resource(name = "documentService")
+    private DocumentService documentService;
+
+    @Resource(name = "casStorageService")
+    private CasStorageService casStorageService;
+
+    @Resource(name = "repositoryLayout")
+    private RepositoryLayout repositoryLayout;
+
+    @Resource(name = "casPool")
+    private CasPool casPool;
+
+    private final Map<Long, CasDoctorScan> scans = new ConcurrentHashMap<>();
+
+    private volatile boolean running = false;
+
+    /**
+     * Starts a scan of the given project in the background unless there is already one running.
+     *
+     * @param aProject
+     *            the project.
+     * @param aRepairs
+     *            the repairs to apply to CASes failing the checks. If empty, the CASes are only
+     *            checked.
+     * @param aResume
+     *            whether to continue the last scan of the project instead of starting over.
+     * @return the scan.
+     */
+    public synchronized CasDoctorScan startScan(Project aProject,
+            List<Class<? extends Repair>> aRepairs, boolean aResume)
+    {
+        CasDoctorScan scan = scans.get(aProject.getId());
+        if (scan != null && !scan.isDone()) {
+            return scan;
+        }
+
+        if (!running) {
+            throw new IllegalStateException("CAS Doctor scans are not available while shutting "
+                    + "down");
+        }
+
+        CasDoctor casDoctor = new CasDoctor();
+        casDoctor.setApplicationContext(ApplicationContextProvider.getApplicationContext());
+        casDoctor.setFatalChecks(false);
+        casDoctor.setCheckClasses(CasDoctor.scanChecks());
+        casDoctor.setRepairClasses(new ArrayList<>(aRepairs));
+
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        CasDoctorScan newScan = new CasDoctorScan(new ProjectCasSource(aProject), casDoctor, n,
+                getReportFile(aProject), aResume);
+        scans.put(aProject.getId(), newScan);
+
+        Thread thread = new Thread(() -> {
+            try {
+                newScan.run();
+                casDoctor.getStatistics().forEach(s -> log.info("{}", s));
+            }
+            catch (Exception e) {
+                log.error("CAS Doctor scan of project [{}]({}) failed", aProject.getName(),
+                        aProject.getId(), e);
+            }
+        }, "CAS Doctor scan of project " + aProject.getId());
+        thread.setDaemon(true);
+        thread.start();
+
+        return newScan;
+    }
+
+    /**
+     * Stops the scan of the given project if there is one running. The scan can be resumed later.
+     */
+    public void stopScan(Project aProject)
+    {
+        CasDoctorScan scan = scans.get(aProject.getId());
+        if (scan != null) {
+            scan.stop();
+        }
+    }
+
+    /**
+     * @return the last scan of the given project since WebAnno has been started or {@code null}
+     *         if there is none.
+     */
+    public CasDoctorScan getScan(Project aProject)
+    {
+        return scans.get(aProject.getId());
+    }
+
+    /**
+     * @return the report of the last scan of the given project. The file does not exist if the
+     *         project has never been scanned.
+     */
+    public File getReportFile(Project aProject)
+    {
+        return new File(new File(dir, REPORT_FOLDER), "project-" + aProject.getId() + ".tsv");
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        // The scans finish the CASes they are working on and can be resumed after the restart
+        scans.values().forEach(CasDoctorScan::stop);
+    }
+
+    @Override
+    public int getPhase()
+    {
+        // Stop before the CAS storage which the scans use
+        return 0;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    /**
+     * Provides the CASes of a project through the regular services, so that pending changes are
+     * taken into account and repaired CASes replace the stored ones properly.
+     */
+    private class ProjectCasSource
+        implements CasDoctorScan.CasSource
+    {
+        private final Project project;
+        private final Map<Long, SourceDocument> documents = new HashMap<>();
+
+        public ProjectCasSource(Project aProject)
+        {
+            project = aProject;
+        }
+
+        @Override
+        public List<CasKey> list()
+            throws IOException
+        {
+            List<CasKey> keys = new ArrayList<>();
+            for (SourceDocument sd : documentService.listSourceDocuments(project)) {
+                documents.put(sd.getId(), sd);
+                if (documentService.existsInitialCas(sd)) {
+                    keys.add(new CasKey(project.getId(), sd.getId(), INITIAL_CAS_PSEUDO_USER));
+                }
+                for (AnnotationDocument ad : documentService.listAnnotationDocuments(sd)) {
+                    if (documentService.existsAnnotationCas(ad)) {
+                        keys.add(new CasKey(project.getId(), sd.getId(), ad.getUser()));
+                    }
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        public Project getProject(CasKey aKey)
+        {
+            return project;
+        }
+
+        @Override
+        public String getDocumentName(CasKey aKey)
+        {
+            SourceDocument sd = documents.get(aKey.getDocumentId());
+            return sd != null ? sd.getName() : null;
+        }
+
+        @Override
+        public CAS read(CasKey aKey)
+            throws IOException
+        {
+            SourceDocument sd = documents.get(aKey.getDocumentId());
+            try {
+                if (INITIAL_CAS_PSEUDO_USER.equals(aKey.getUserName())) {
+                    return documentService.readInitialCas(sd, false).getCas();
+                }
+                else {
+                    return casStorageService.readCas(sd, aKey.getUserName(), false).getCas();
+                }
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean update(CasKey aKey, CasUpdater aUpdater)
+            throws IOException
+        {
+            SourceDocument sd = documents.get(aKey.getDocumentId());
+            if (!INITIAL_CAS_PSEUDO_USER.equals(aKey.getUserName())) {
+                // Holds the lock of the CAS from reading to writing, so changes saved by the user
+                // meanwhile are neither lost nor overwritten
+                return casStorageService.updateCas(sd, aKey.getUserName(), aUpdater);
+            }
+
+            // The initial CAS is only written when it is created, the document lock keeps
+            // anybody else from reading or creating it meanwhile
+            try (LockHandle lock = repositoryLayout.lockDocument(sd.getId(), true)) {
+                File file = documentService.getCasFile(sd, INITIAL_CAS_PSEUDO_USER);
+                if (!file.exists()) {
+                    return false;
+                }
+                CAS cas = CasPersistenceUtils.readSerializedCas(casPool, file);
+                try {
+                    if (!aUpdater.update(cas)) {
+                        return false;
+                    }
+                    CasPersistenceUtils.writeSerializedCas(cas.getJCas(), file);
+                    return true;
+                }
+                finally {
+                    casPool.release(cas);
+                }
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void release(CAS aCas)
+        {
+            casStorageService.releaseCas(aCas);
+        }
+    }
+}
@@ -0,0 +1,582 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Manages the history of CAS files ({@code <user>.ser.<timestamp>.bak} for full snapshots and
+ * {@code <user>.ser.<timestamp>.delta} for delta-encoded snapshots).
+ * <p>
+ * History snapshots are created as hard links to the current version of the CAS file if the file
+ * system supports it, so creating a snapshot does not copy any data. This is safe because CAS
+ * files are never modified in place - a new version is always written to a new file. If hard
+ * links are not supported, the file is copied.
+ * <p>
+ * The snapshots of each CAS are tracked in an in-memory index which is populated from the
+ * folder the first time the CAS is saved, so the folder does not need to be listed on every
+ * save. Surplus and outdated snapshots are removed by a background task.
+ * <p>
+ * If delta encoding is enabled, the background task also replaces full snapshots by reverse
+ * deltas: the newest snapshot is always stored in full and each older snapshot is stored as a
+ * delta against the next newer one. Removing the oldest snapshots thus never affects the
+ * remaining ones. To bound the cost of restoring old snapshots, every
+ * {@link #MAX_DELTA_CHAIN}-th snapshot is kept in full.
+ */
+class CasHistory
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final long PRUNE_INTERVAL_SECONDS = 60;
+    
+    /**
+     * Maximum number of deltas which need to be applied to restore a snapshot.
+     */
+    static final int MAX_DELTA_CHAIN = 16;
+    
+    private static final String FULL_SUFFIX = ".bak";
+    private static final String DELTA_SUFFIX = ".delta";
+
+    private final long interval;
+    private final long keepTime;
+    private final int keepNumber;
+    private final boolean delta;
+
+    /**
+     * History snapshot timestamps by current version file.
+     */
+    private final Map<File, Snapshots> index = new ConcurrentHashMap<>();
+
+    private volatile boolean linksSupported = true;
+
+    private ScheduledExecutorService pruneExecutor;
+
+    /**
+     * @param aInterval
+     *            minimum time between two snapshots. If this is {@code 0}, no history is kept.
+     * @param aKeepTime
+     *            maximum age of snapshots to keep. If this is {@code 0}, snapshots are not
+     *            removed based on their age.
+     * @param aKeepNumber
+     *            maximum number of snapshots to keep. If this is {@code 0}, snapshots are not
+     *            removed based on their number.
+     * @param aDelta
+     *            whether to store older snapshots as deltas.
+     */
+    public CasHistory(long aInterval, long aKeepTime, int aKeepNumber, boolean aDelta)
+    {
+        interval = aInterval;
+        keepTime = aKeepTime;
+        keepNumber = aKeepNumber;
+        delta = aDelta;
+    }
+
+    public boolean isEnabled()
+    {
+        return interval > 0;
+    }
+
+    public synchronized void start()
+    {
+        if (isEnabled() && pruneExecutor == null
+                && (keepTime > 0 || keepNumber > 0 || delta)) {
+            pruneExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "CAS history pruning");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pruneExecutor.scheduleWithFixedDelay(this::maintainQuietly, PRUNE_INTERVAL_SECONDS,
+                    PRUNE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if (pruneExecutor != null) {
+            pruneExecutor.shutdownNow();
+            pruneExecutor = null;
+        }
+    }
+
+    /**
+     * Creates a history snapshot of the given CAS file if the latest snapshot is older than the
+     * configured interval. The caller must hold the write lock for the CAS.
+     *
+     * @param aProjectId
+     *            the project the CAS belongs to (for logging).
+     * @param aCurrentVersion
+     *            the file containing the current version of the CAS.
+     * @param aUserName
+     *            the user owning the CAS.
+     * @return whether a snapshot was created.
+     */
+    public boolean snapshot(long aProjectId, File aCurrentVersion, String aUserName)
+        throws IOException
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        // Determine the reference point in time based on the current version
+        long now = aCurrentVersion.lastModified();
+
+        Snapshots snapshots = index.computeIfAbsent(aCurrentVersion,
+            k -> load(aProjectId, aCurrentVersion.getParentFile(), aUserName));
+        synchronized (snapshots) {
+            // Check if the newest history file is significantly older than the current one. If
+            // there is no history yet, we create a history file in any case.
+            if (!snapshots.timestamps.isEmpty()
+                    && snapshots.timestamps.last() + interval >= now) {
+                return false;
+            }
+
+            File historyFile = snapshots.getFile(now, false);
+            link(aCurrentVersion, historyFile);
+            snapshots.timestamps.add(now);
+            snapshots.dirty = true;
+            snapshots.compacted = false;
+            return true;
+        }
+    }
+
+    /**
+     * @return the timestamps of the history snapshots of the given CAS file, oldest first.
+     */
+    public List<Long> listSnapshots(long aProjectId, File aCurrentVersion, String aUserName)
+    {
+        Snapshots snapshots = index.computeIfAbsent(aCurrentVersion,
+            k -> load(aProjectId, aCurrentVersion.getParentFile(), aUserName));
+        synchronized (snapshots) {
+            return new ArrayList<>(snapshots.timestamps);
+        }
+    }
+
+    /**
+     * Restores the contents of the given history snapshot, applying deltas as necessary.
+     *
+     * @throws FileNotFoundException
+     *             if there is no snapshot with the given timestamp.
+     */
+    public byte[] readSnapshot(long aProjectId, File aCurrentVersion, String aUserName,
+            long aTimestamp)
+        throws IOException
+    {
+        Snapshots snapshots = index.computeIfAbsent(aCurrentVersion,
+            k -> load(aProjectId, aCurrentVersion.getParentFile(), aUserName));
+        synchronized (snapshots) {
+            if (!snapshots.timestamps.contains(aTimestamp)) {
+                throw new FileNotFoundException("No history snapshot [" + aTimestamp
+                        + "] of user [" + aUserName + "] in [" + snapshots.folder + "]");
+            }
+
+            // Find the closest newer full snapshot and apply the reverse deltas from there
+            List<Long> chain = new ArrayList<>();
+            for (Long timestamp : snapshots.timestamps.tailSet(aTimestamp)) {
+                chain.add(timestamp);
+                if (!snapshots.deltas.contains(timestamp)) {
+                    break;
+                }
+            }
+
+            byte[] data = null;
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                byte[] content = FileUtils.readFileToByteArray(
+                        snapshots.getFile(chain.get(i)));
+                data = data == null ? content : BinaryDelta.patch(data, content);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * @return the number of CASes for which history snapshots are tracked.
+     */
+    public int getIndexSize()
+    {
+        return index.size();
+    }
+
+    private Snapshots load(long aProjectId, File aFolder, String aUserName)
+    {
+        Snapshots snapshots = new Snapshots(aProjectId, aFolder, aUserName);
+
+        Matcher matcher = Pattern
+                .compile(Pattern.quote(aUserName) + "\\.ser\\.([0-9]+)(\\.bak|\\.delta)")
+                .matcher("");
+        String[] names = aFolder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (matcher.reset(name).matches()) {
+                    long timestamp = Long.parseLong(matcher.group(1));
+                    snapshots.timestamps.add(timestamp);
+                    if (DELTA_SUFFIX.equals(matcher.group(2))) {
+                        snapshots.deltas.add(timestamp);
+                    }
+                }
+            }
+        }
+        
+        // If the application stopped while converting a snapshot, there may be both the full
+        // snapshot and the delta - the full snapshot wins.
+        for (Iterator<Long> i = snapshots.deltas.iterator(); i.hasNext();) {
+            long timestamp = i.next();
+            if (snapshots.getFile(timestamp, false).exists()) {
+                FileUtils.deleteQuietly(snapshots.getFile(timestamp, true));
+                i.remove();
+            }
+        }
+
+        // There may be surplus history files from before the last restart
+        snapshots.dirty = true;
+
+        return snapshots;
+    }
+
+    private void link(File aSource, File aTarget)
+        throws IOException
+    {
+        // Should not exist, but make sure not to fail on it if it does
+        Files.deleteIfExists(aTarget.toPath());
+        
+        if (linksSupported) {
+            try {
+                Files.createLink(aTarget.toPath(), aSource.toPath());
+                return;
+            }
+            catch (UnsupportedOperationException | IOException e) {
+                log.info("Unable to create hard link for history file [{}] - copying history "
+                        + "files from now on: {}", aTarget, e.getMessage());
+                linksSupported = false;
+                FileUtils.deleteQuietly(aTarget);
+            }
+        }
+
+        FileUtils.copyFile(aSource, aTarget);
+    }
+
+    private void maintainQuietly()
+    {
+        try {
+            prune(System.currentTimeMillis());
+        }
+        catch (Exception e) {
+            log.error("Unable to prune CAS history", e);
+        }
+        
+        if (delta) {
+            try {
+                compact();
+            }
+            catch (Exception e) {
+                log.error("Unable to compact CAS history", e);
+            }
+        }
+    }
+
+    /**
+     * Removes surplus and outdated history snapshots. Only CASes which have been saved since the
+     * application was started are considered.
+     */
+    void prune(long aNow)
+    {
+        Iterator<Snapshots> i = index.values().iterator();
+        while (i.hasNext()) {
+            Snapshots snapshots = i.next();
+
+            // The document has been deleted
+            if (!snapshots.folder.exists()) {
+                i.remove();
+                continue;
+            }
+
+            synchronized (snapshots) {
+                if (snapshots.dirty || keepTime > 0) {
+                    prune(snapshots, aNow);
+                    snapshots.dirty = false;
+                }
+            }
+        }
+    }
+
+    private void prune(Snapshots aSnapshots, long aNow)
+    {
+        List<Long> toRemove = new ArrayList<>();
+
+        // Prune history based on number of backups - the timestamps are sorted oldest first
+        if (keepNumber > 0) {
+            int surplus = aSnapshots.timestamps.size() - keepNumber;
+            for (Long timestamp : aSnapshots.timestamps) {
+                if (surplus-- <= 0) {
+                    break;
+                }
+                toRemove.add(timestamp);
+            }
+        }
+
+        // Prune history based on time. The newest snapshot is always kept.
+        if (keepTime > 0 && !aSnapshots.timestamps.isEmpty()) {
+            Long newest = aSnapshots.timestamps.last();
+            for (Long timestamp : aSnapshots.timestamps.headSet(newest)) {
+                if (timestamp + keepTime < aNow && !toRemove.contains(timestamp)) {
+                    toRemove.add(timestamp);
+                }
+            }
+        }
+
+        for (Long timestamp : toRemove) {
+            File file = aSnapshots.getFile(timestamp);
+            FileUtils.deleteQuietly(file);
+            aSnapshots.timestamps.remove(timestamp);
+            aSnapshots.deltas.remove(timestamp);
+
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aSnapshots.projectId))) {
+                log.info("Removed history file [{}] of user [{}] in [{}]", file.getName(),
+                        aSnapshots.userName, aSnapshots.folder);
+            }
+        }
+    }
+
+    /**
+     * Replaces full snapshots by deltas and re-bases delta chains which have become too long.
+     * <p>
+     * The snapshots are read and the deltas are computed and written to temporary files without
+     * holding the lock of the CAS history - only moving the new files into place happens under
+     * the lock. Thus, saving the CAS (which creates a snapshot while holding the write lock of
+     * the CAS) and reading its history are not blocked by the compaction. This is safe because
+     * snapshots are only removed or replaced by the pruning and the compaction which both run
+     * on the maintenance thread. Saving may only add newer snapshots in the meantime, which does
+     * not affect the deltas of the older ones.
+     */
+    void compact()
+    {
+        for (Snapshots snapshots : index.values()) {
+            List<Long> timestamps;
+            Set<Long> deltas;
+            synchronized (snapshots) {
+                if (snapshots.compacted || !snapshots.folder.exists()) {
+                    continue;
+                }
+                
+                timestamps = new ArrayList<>(snapshots.timestamps.descendingSet());
+                deltas = new HashSet<>(snapshots.deltas);
+                // Reset by snapshot() if a new snapshot is added while compacting
+                snapshots.compacted = true;
+            }
+            
+            try {
+                compact(snapshots, timestamps, deltas);
+            }
+            catch (IOException e) {
+                synchronized (snapshots) {
+                    snapshots.compacted = false;
+                }
+                log.error("Unable to compact history of user [{}] in [{}]",
+                        snapshots.userName, snapshots.folder, e);
+            }
+        }
+    }
+
+    /**
+     * @param aTimestamps
+     *            the timestamps of the snapshots, newest first.
+     * @param aDeltas
+     *            the timestamps of the snapshots stored as deltas.
+     */
+    private void compact(Snapshots aSnapshots, List<Long> aTimestamps, Set<Long> aDeltas)
+        throws IOException
+    {
+        List<Replacement> replacements = new ArrayList<>();
+        try {
+            long saved = 0;
+            
+            // Walk from the newest snapshot (which is always stored in full) to the oldest one.
+            // "newer" holds the contents of the next newer snapshot and "chain" the number of
+            // deltas which need to be applied to restore it.
+            byte[] newer = null;
+            int chain = 0;
+            for (Long timestamp : aTimestamps) {
+                boolean isDelta = aDeltas.contains(timestamp);
+                File file = aSnapshots.getFile(timestamp, isDelta);
+                
+                if (newer == null) {
+                    // Should not happen, but if it does, we have nothing to apply the delta to
+                    if (isDelta) {
+                        log.warn("Newest history snapshot [{}] is a delta - unable to compact",
+                                file);
+                        return;
+                    }
+                    newer = FileUtils.readFileToByteArray(file);
+                    continue;
+                }
+                
+                byte[] content = FileUtils.readFileToByteArray(file);
+                if (isDelta) {
+                    content = BinaryDelta.patch(newer, content);
+                    chain++;
+                    // Re-base - restoring this snapshot would need too many deltas
+                    if (chain >= MAX_DELTA_CHAIN) {
+                        replacements.add(prepare(aSnapshots, timestamp, content, false));
+                        saved -= content.length - file.length();
+                        chain = 0;
+                    }
+                }
+                else if (chain + 1 < MAX_DELTA_CHAIN) {
+                    byte[] diff = BinaryDelta.diff(newer, content);
+                    // Only worth it if the delta is considerably smaller than the snapshot
+                    if (diff.length < content.length / 2) {
+                        replacements.add(prepare(aSnapshots, timestamp, diff, true));
+                        saved += content.length - diff.length;
+                        chain++;
+                    }
+                    else {
+                        chain = 0;
+                    }
+                }
+                else {
+                    chain = 0;
+                }
+                
+                newer = content;
+            }
+            
+            // The deltas are computed from the restored contents, not from the files, so the
+            // replacements do not depend on each other.
+            synchronized (aSnapshots) {
+                for (Replacement replacement : replacements) {
+                    replace(aSnapshots, replacement);
+                }
+            }
+            
+            if (saved != 0) {
+                log.debug("Compacted history of user [{}] in [{}] - saved {} bytes",
+                        aSnapshots.userName, aSnapshots.folder, saved);
+            }
+        }
+        finally {
+            // Left over if the compaction failed
+            for (Replacement replacement : replacements) {
+                FileUtils.deleteQuietly(replacement.tmpFile);
+            }
+        }
+    }
+    
+    /**
+     * Writes the new contents of the given snapshot to a temporary file.
+     */
+    private Replacement prepare(Snapshots aSnapshots, long aTimestamp, byte[] aData,
+            boolean aDelta)
+        throws IOException
+    {
+        File newFile = aSnapshots.getFile(aTimestamp, aDelta);
+        Replacement replacement = new Replacement(aTimestamp, aDelta,
+                new File(newFile.getPath() + ".tmp"));
+        FileUtils.writeByteArrayToFile(replacement.tmpFile, aData);
+        return replacement;
+    }
+    
+    /**
+     * Replaces the given snapshot by a delta or by a full snapshot. The caller must hold the lock
+     * of the CAS history.
+     */
+    private void replace(Snapshots aSnapshots, Replacement aReplacement)
+        throws IOException
+    {
+        long timestamp = aReplacement.timestamp;
+        File oldFile = aSnapshots.getFile(timestamp);
+        File newFile = aSnapshots.getFile(timestamp, aReplacement.delta);
+        Files.move(aReplacement.tmpFile.toPath(), newFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        
+        if (aReplacement.delta) {
+            aSnapshots.deltas.add(timestamp);
+        }
+        else {
+            aSnapshots.deltas.remove(timestamp);
+        }
+        
+        FileUtils.forceDelete(oldFile);
+    }
+
+    private static final class Replacement
+    {
+        private final long timestamp;
+        private final boolean delta;
+        private final File tmpFile;
+
+        public Replacement(long aTimestamp, boolean aDelta, File aTmpFile)
+        {
+            timestamp = aTimestamp;
+            delta = aDelta;
+            tmpFile = aTmpFile;
+        }
+    }
+
+    private static final class Snapshots
+    {
+        private final long projectId;
+        private final File folder;
+        private final String userName;
+        private final TreeSet<Long> timestamps = new TreeSet<>();
+        private final Set<Long> deltas = new HashSet<>();
+        private boolean dirty;
+        private boolean compacted;
+
+        public Snapshots(long aProjectId, File aFolder, String aUserName)
+        {
+            projectId = aProjectId;
+            folder = aFolder;
+            userName = aUserName;
+        }
+
+        public File getFile(long aTimestamp)
+        {
+            return getFile(aTimestamp, deltas.contains(aTimestamp));
+        }
+
+        public File getFile(long aTimestamp, boolean aDelta)
+        {
+            return new File(folder, userName + ".ser." + aTimestamp
+                    + (aDelta ? DELTA_SUFFIX : FULL_SUFFIX));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+/**
+ * Identifies a single CAS in the repository.
+ */
+public final class CasKey
+{
+    private final long projectId;
+    private final long documentId;
+    private final String userName;
+
+    public CasKey(long aProjectId, long aDocumentId, String aUserName)
+    {
+        projectId = aProjectId;
+        documentId = aDocumentId;
+        userName = aUserName;
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    public long getDocumentId()
+    {
+        return documentId;
+    }
+
+    public String getUserName()
+    {
+        return userName;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (projectId ^ (projectId >>> 32));
+        result = prime * result + (int) (documentId ^ (documentId >>> 32));
+        result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (!(aOther instanceof CasKey)) {
+            return false;
+        }
+        CasKey other = (CasKey) aOther;
+        return projectId == other.projectId && documentId == other.documentId
+                && (userName == null ? other.userName == null
+                        : userName.equals(other.userName));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[project: " + projectId + ", document: " + documentId + ", user: " + userName
+                + "]";
+    }
+}
@@ -17,23 +17,84 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static org.apache.uima.cas.impl.Serialization.deserializeCAS;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASMgr;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.SerialFormat;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASSerializer;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.CasIOUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
 
 public final class CasPersistenceUtils
 {
+    /**
+     * Marks a file written in the compact format. The legacy format is a plain Java serialization
+     * stream and always starts with {@code 0xACED}, so the two cannot be confused.
+     */
+    private static final byte[] COMPACT_MAGIC = { 'W', 'A', 'C', 'S' };
+    
+    /**
+     * Version 1 stored the CAS in compressed binary form 6 which drops unreachable feature
+     * structures and renumbers the remaining ones. Version 2 uses form 4 which keeps the feature
+     * structure addresses, so a CAS read back from disk has the same addresses as the CAS that
+     * was written. Version 1 files can still be read.
+     */
+    private static final int COMPACT_VERSION = 2;
+    
+    private static final int COMPACT_VERSION_FILTERED = 1;
+
+    private static final String TYPE_SYSTEM_SUFFIX = ".tsi";
+
+    /**
+     * Type system keys of type systems which have been written already. The key is expensive to
+     * calculate and CASes with the same type system instance are written over and over again.
+     */
+    private static final Map<TypeSystem, String> typeSystemKeys = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    
+    /**
+     * Serialized type systems and index definitions by key. These are small compared to the
+     * CASes and there are only few of them (one per project and schema version).
+     */
+    private static final Map<String, byte[]> typeSystems = new ConcurrentHashMap<>();
 
     private CasPersistenceUtils()
     {
@@ -44,13 +105,25 @@ public final class CasPersistenceUtils
         throws IOException
     {
         FileUtils.forceMkdir(aFile.getParentFile());
+        unlink(aFile);
 
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-            CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
-            os.writeObject(serializer);
+        try (OutputStream os = new FileOutputStream(aFile)) {
+            writeSerializedCas(aJCas, os);
         }
     }
 
+    /**
+     * Writes the CAS in the legacy format to the given stream. The stream is not closed.
+     */
+    public static void writeSerializedCas(JCas aJCas, OutputStream aOut)
+        throws IOException
+    {
+        ObjectOutputStream os = new ObjectOutputStream(aOut);
+        CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
+        os.writeObject(serializer);
+        os.flush();
+    }
+
     public static void readSerializedCas(JCas aJCas, File aFile)
         throws IOException
     {
@@ -65,4 +138,370 @@ public final class CasPersistenceUtils
             throw new IOException(e);
         }
     }
+
+    /**
+     * Takes an in-memory snapshot of the given CAS which can later be restored any number of
+     * times using {@link #restoreSnapshot(CASCompleteSerializer, CAS)}.
+     */
+    public static CASCompleteSerializer takeSnapshot(CAS aCas)
+    {
+        return serializeCASComplete((CASImpl) aCas);
+    }
+
+    /**
+     * Restores a snapshot taken with {@link #takeSnapshot(CAS)} into the given CAS. The
+     * deserialization may adopt the arrays of the snapshot as the heaps of the target CAS, so
+     * every restore works on its own copy of the heaps and the snapshot itself is never modified.
+     * The type system part is only read. The restored CAS shares the strings of the snapshot, so
+     * the offset indexes of the target CAS are dropped explicitly.
+     */
+    public static void restoreSnapshot(CASCompleteSerializer aSnapshot, CAS aTarget)
+    {
+        CASSerializer src = aSnapshot.getCASSerializer();
+        CASSerializer dst = new CASSerializer();
+        dst.heapMetaData = src.heapMetaData != null ? src.heapMetaData.clone() : null;
+        dst.heapArray = src.heapArray != null ? src.heapArray.clone() : null;
+        dst.fsIndex = src.fsIndex != null ? src.fsIndex.clone() : null;
+        dst.stringTable = src.stringTable != null ? src.stringTable.clone() : null;
+        dst.byteHeapArray = src.byteHeapArray != null ? src.byteHeapArray.clone() : null;
+        dst.shortHeapArray = src.shortHeapArray != null ? src.shortHeapArray.clone() : null;
+        dst.longHeapArray = src.longHeapArray != null ? src.longHeapArray.clone() : null;
+
+        CASCompleteSerializer copy = new CASCompleteSerializer();
+        copy.setCasMgrSerializer(aSnapshot.getCASMgrSerializer());
+        copy.setCasSerializer(dst);
+        
+        deserializeCASComplete(copy, (CASImpl) aTarget);
+        AnnotationOffsetIndex.invalidate(aTarget);
+    }
+
+    /**
+     * Read a CAS written using {@link #writeSerializedCas(JCas, File)}. If the pool holds a CAS
+     * with the type system stored in the file, only the annotation data is loaded into that CAS.
+     * Otherwise, a new CAS is created.
+     */
+    public static CAS readSerializedCas(CasPool aPool, File aFile)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            return readSerializedCas(aPool, is);
+        }
+    }
+
+    /**
+     * Read a CAS in the legacy format from the given stream. The stream is not closed.
+     * 
+     * @see #readSerializedCas(CasPool, File)
+     */
+    public static CAS readSerializedCas(CasPool aPool, InputStream aIn)
+        throws IOException
+    {
+        try {
+            ObjectInputStream is = new ObjectInputStream(aIn);
+            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+            
+            String tsKey = digest(serialize(serializer.getCASMgrSerializer()));
+            CAS cas = aPool.borrow(tsKey);
+            if (cas != null) {
+                deserializeCAS(cas, serializer.getCASSerializer());
+            }
+            else {
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                deserializeCASComplete(serializer, (CASImpl) cas);
+                typeSystemKeys.put(cas.getTypeSystem(), tsKey);
+            }
+            
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            cas.getJCas();
+            return cas;
+        }
+        catch (UIMAException | ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Checks if the given file has been written using
+     * {@link #writeCompactCas(JCas, File, File)}.
+     */
+    public static boolean isCompactCas(File aFile)
+        throws IOException
+    {
+        try (InputStream is = new FileInputStream(aFile)) {
+            byte[] header = new byte[COMPACT_MAGIC.length];
+            int read = 0;
+            while (read < header.length) {
+                int n = is.read(header, read, header.length - read);
+                if (n == -1) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(COMPACT_MAGIC, header);
+        }
+    }
+
+    /**
+     * Checks if the data in the given stream has been written using
+     * {@link #writeCompactCas(JCas, OutputStream, File)}. The stream must support
+     * {@link InputStream#mark(int) mark/reset} and is positioned at its start again afterwards.
+     */
+    public static boolean isCompactCas(InputStream aIn)
+        throws IOException
+    {
+        aIn.mark(COMPACT_MAGIC.length);
+        try {
+            byte[] header = new byte[COMPACT_MAGIC.length];
+            int read = 0;
+            while (read < header.length) {
+                int n = aIn.read(header, read, header.length - read);
+                if (n == -1) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(COMPACT_MAGIC, header);
+        }
+        finally {
+            aIn.reset();
+        }
+    }
+    
+    /**
+     * Write the CAS in a compact binary format. Only the annotation data is stored in the file
+     * (using UIMA's compressed binary form 4 which preserves the feature structure addresses). The
+     * type system and index definitions are stored once per distinct type system in the given
+     * type system folder and the file only refers to them.
+     */
+    public static void writeCompactCas(JCas aJCas, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+        
+        unlink(aFile);
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aFile))) {
+            writeCompactCas(aJCas, os, aTypeSystemFolder);
+        }
+    }
+
+    /**
+     * Writes the CAS in the compact format to the given stream. The stream is not closed.
+     * 
+     * @see #writeCompactCas(JCas, File, File)
+     */
+    public static void writeCompactCas(JCas aJCas, OutputStream aOut, File aTypeSystemFolder)
+        throws IOException
+    {
+        CASImpl cas = aJCas.getCasImpl();
+        String tsKey = writeTypeSystem(cas, aTypeSystemFolder);
+
+        DataOutputStream os = new DataOutputStream(aOut);
+        os.write(COMPACT_MAGIC);
+        os.writeInt(COMPACT_VERSION);
+        os.writeUTF(tsKey);
+        CasIOUtils.save(cas, os, SerialFormat.COMPRESSED);
+        os.flush();
+    }
+    
+    /**
+     * Read a CAS written using {@link #writeCompactCas(JCas, File, File)}. The CAS is
+     * re-initialized with the type system the file refers to.
+     */
+    public static void readCompactCas(JCas aJCas, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(aFile))) {
+            String tsKey = readCompactHeader(new DataInputStream(bis), aFile.getPath());
+            
+            byte[] tsi = readTypeSystem(aTypeSystemFolder, tsKey);
+            CasIOUtils.load(bis, new ByteArrayInputStream(tsi), aJCas.getCas());
+            
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            aJCas.getCas().getJCas();
+        }
+        catch (CASException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read a CAS written using {@link #writeCompactCas(JCas, File, File)}. If the pool holds a
+     * CAS with the type system the file refers to, only the annotation data is loaded into that
+     * CAS. Otherwise, a new CAS is created.
+     */
+    public static CAS readCompactCas(CasPool aPool, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(aFile))) {
+            return readCompactCas(aPool, bis, aFile.getPath(), aTypeSystemFolder);
+        }
+    }
+
+    /**
+     * Read a CAS in the compact format from the given stream. The stream is not closed.
+     * 
+     * @param aSource
+     *            where the data comes from (for error messages).
+     * @see #readCompactCas(CasPool, File, File)
+     */
+    public static CAS readCompactCas(CasPool aPool, InputStream aIn, String aSource,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        try {
+            String tsKey = readCompactHeader(new DataInputStream(aIn), aSource);
+            
+            CAS cas = aPool.borrow(tsKey);
+            if (cas != null) {
+                // Without a type system, the type system of the CAS is used for loading
+                CasIOUtils.load(aIn, null, cas);
+            }
+            else {
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                byte[] tsi = readTypeSystem(aTypeSystemFolder, tsKey);
+                CasIOUtils.load(aIn, new ByteArrayInputStream(tsi), cas);
+                typeSystemKeys.put(cas.getTypeSystem(), tsKey);
+            }
+            
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            cas.getJCas();
+            return cas;
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    private static String readCompactHeader(DataInputStream aIn, String aSource)
+        throws IOException
+    {
+        byte[] header = new byte[COMPACT_MAGIC.length];
+        aIn.readFully(header);
+        if (!Arrays.equals(COMPACT_MAGIC, header)) {
+            throw new IOException("[" + aSource + "] is not a compact CAS");
+        }
+        int version = aIn.readInt();
+        // The serial format is detected when loading, so older files can still be read
+        if (version != COMPACT_VERSION && version != COMPACT_VERSION_FILTERED) {
+            throw new IOException("Unsupported compact CAS format version [" + version
+                    + "] in [" + aSource + "]");
+        }
+        return aIn.readUTF();
+    }
+    
+    /**
+     * @return a key identifying the type system and index definitions of the given CAS. Two
+     *         CASes have the same key if they have the same type system, even if it is not the
+     *         same type system instance.
+     */
+    public static String getTypeSystemKey(CAS aCas)
+        throws IOException
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        String tsKey = typeSystemKeys.get(ts);
+        if (tsKey == null) {
+            tsKey = digest(serializeTypeSystem((CASImpl) aCas));
+            typeSystemKeys.put(ts, tsKey);
+        }
+        return tsKey;
+    }
+
+    /**
+     * Records the key of the type system of the given CAS if it is already known, e.g. because the
+     * type system has been copied from another CAS.
+     */
+    static void setTypeSystemKey(CAS aCas, String aTypeSystemKey)
+    {
+        typeSystemKeys.put(aCas.getTypeSystem(), aTypeSystemKey);
+    }
+
+    /**
+     * Stores the type system and index definitions of the given CAS in the type system folder
+     * unless an identical one is already there.
+     * 
+     * @return the key under which the type system has been stored.
+     */
+    private static String writeTypeSystem(CASImpl aCas, File aTypeSystemFolder)
+        throws IOException
+    {
+        String tsKey = getTypeSystemKey(aCas);
+        
+        File tsiFile = new File(aTypeSystemFolder, tsKey + TYPE_SYSTEM_SUFFIX);
+        if (!tsiFile.exists()) {
+            byte[] tsi = serializeTypeSystem(aCas);
+            
+            // Write to a temporary file first so concurrent readers never see a partially
+            // written type system. If another thread wins the race, its file is identical.
+            FileUtils.forceMkdir(aTypeSystemFolder);
+            File tmp = File.createTempFile(tsKey, ".tmp", aTypeSystemFolder);
+            FileUtils.writeByteArrayToFile(tmp, tsi);
+            if (!tmp.renameTo(tsiFile)) {
+                FileUtils.deleteQuietly(tmp);
+                if (!tsiFile.exists()) {
+                    throw new IOException("Unable to store type system [" + tsiFile + "]");
+                }
+            }
+        }
+        
+        return tsKey;
+    }
+    
+    private static byte[] serializeTypeSystem(CASImpl aCas)
+        throws IOException
+    {
+        return serialize(serializeCASMgr(aCas));
+    }
+    
+    private static byte[] serialize(Serializable aObject)
+        throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(buf)) {
+            os.writeObject(aObject);
+        }
+        return buf.toByteArray();
+    }
+    
+    private static byte[] readTypeSystem(File aTypeSystemFolder, String aKey)
+        throws IOException
+    {
+        byte[] tsi = typeSystems.get(aKey);
+        if (tsi == null) {
+            File tsiFile = new File(aTypeSystemFolder, aKey + TYPE_SYSTEM_SUFFIX);
+            if (!tsiFile.exists()) {
+                throw new IOException("Type system [" + aKey + "] not found in ["
+                        + aTypeSystemFolder + "]");
+            }
+            tsi = FileUtils.readFileToByteArray(tsiFile);
+            typeSystems.put(aKey, tsi);
+        }
+        return tsi;
+    }
+    
+    /**
+     * Removes the file before it is written again instead of overwriting it in place. CAS files
+     * may be hard-linked into the history and overwriting them in place would also change the
+     * history.
+     */
+    private static void unlink(File aFile)
+        throws IOException
+    {
+        Files.deleteIfExists(aFile.toPath());
+    }
+    
+    private static String digest(byte[] aData)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return String.format("%040x", new BigInteger(1, md.digest(aData)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-1 is guaranteed to be available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
 }
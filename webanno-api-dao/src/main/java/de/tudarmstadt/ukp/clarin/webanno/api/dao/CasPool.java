@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
+
+/**
+ * Pool of CAS instances which are no longer used, keyed by their type system (i.e. the schema
+ * version of the project they belong to). Setting up the type system and the JCas of a CAS is
+ * expensive compared to loading the annotations into it, so when reading a CAS whose type system
+ * matches a pooled instance, only the annotation data needs to be deserialized.
+ * <p>
+ * CASes only end up in the pool if they are explicitly {@link #release(CAS) released}, which is
+ * done on paths that read many CASes one after the other, e.g. the export. When the schema of a
+ * project changes, the CASes using its previous type system are {@link #retire(String) retired}
+ * so they do not pile up in the pool.
+ */
+@Component("casPool")
+public class CasPool
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Deque<CAS>> idle = new HashMap<>();
+
+    /**
+     * Keys of type systems which are no longer used by any project. Released CASes using one of
+     * these are dropped instead of being pooled. There is one key per schema change, so the set
+     * stays small.
+     */
+    private final Set<String> retired = new HashSet<>();
+
+    private long borrowed;
+    private long created;
+    private long released;
+
+    @Value(value = "${repository.cas.pool.size}")
+    private int maxIdle;
+
+    public CasPool()
+    {
+        // Nothing to do
+    }
+
+    public CasPool(int aMaxIdle)
+    {
+        maxIdle = aMaxIdle;
+    }
+
+    /**
+     * @return a reset CAS using the type system with the given key or {@code null} if there is
+     *         none in the pool. In the latter case, the caller needs to create a new CAS.
+     */
+    public synchronized CAS borrow(String aTypeSystemKey)
+    {
+        Deque<CAS> cases = idle.get(aTypeSystemKey);
+        if (cases == null || cases.isEmpty()) {
+            created++;
+            return null;
+        }
+
+        borrowed++;
+        CAS cas = cases.pop();
+        if (cases.isEmpty()) {
+            idle.remove(aTypeSystemKey);
+        }
+        return cas;
+    }
+
+    /**
+     * Returns a CAS which is no longer used to the pool. The caller must not use the CAS or any of
+     * its feature structures afterwards.
+     */
+    public void release(CAS aCas)
+    {
+        if (maxIdle <= 0 || aCas == null) {
+            return;
+        }
+
+        String key;
+        try {
+            key = CasPersistenceUtils.getTypeSystemKey(aCas);
+        }
+        catch (IOException e) {
+            log.warn("Unable to determine type system of released CAS - dropping it", e);
+            return;
+        }
+
+        synchronized (this) {
+            if (retired.contains(key)) {
+                return;
+            }
+
+            Deque<CAS> cases = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+            // Check for a duplicate release before resetting the CAS - it may have been borrowed
+            // and be in use again already
+            if (cases.size() >= maxIdle || cases.contains(aCas)) {
+                return;
+            }
+
+            aCas.reset();
+            DirtyRegion.clear(aCas);
+            AnnotationOffsetIndex.invalidate(aCas);
+
+            cases.push(aCas);
+            released++;
+        }
+    }
+
+    /**
+     * Drops all pooled CASes using the type system with the given key and stops pooling CASes
+     * using it, e.g. because the schema of the project using it has changed.
+     */
+    public synchronized void retire(String aTypeSystemKey)
+    {
+        retired.add(aTypeSystemKey);
+        idle.remove(aTypeSystemKey);
+    }
+
+    /**
+     * Allows pooling CASes using the type system with the given key again, e.g. because a project
+     * uses it (again).
+     */
+    public synchronized void activate(String aTypeSystemKey)
+    {
+        retired.remove(aTypeSystemKey);
+    }
+
+    /**
+     * @return the number of CASes currently held by the pool.
+     */
+    public synchronized int getIdleCount()
+    {
+        return idle.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("[type systems: %d, idle: %d, borrowed: %d, created: %d, "
+                + "released: %d]", idle.size(), getIdleCount(), borrowed, created, released);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Stores the serialized annotation CASes of the repository. The {@link CasStorageServiceImpl}
+ * takes care of serializing the CASes, caching and locking; a backend only deals with opaque
+ * blobs identified by a {@link CasKey}. The caller holds the read lock for the CAS when reading
+ * and the write lock when changing it.
+ * <p>
+ * The backend is selected using the {@code repository.cas.backend} setting. Type systems
+ * referred to by CASes in the compact format, source documents and the initial CASes always
+ * remain on the file system.
+ */
+public interface CasStorageBackend
+{
+    void start();
+
+    void stop();
+
+    boolean exists(CasKey aKey)
+        throws IOException;
+
+    /**
+     * @return the current version of the CAS. The stream supports mark/reset.
+     * @throws FileNotFoundException
+     *             if the CAS does not exist.
+     */
+    InputStream read(CasKey aKey)
+        throws IOException;
+
+    /**
+     * Replaces the current version of the CAS with the data produced by the given writer. If the
+     * writer fails, the previous version remains in place.
+     */
+    void write(CasKey aKey, CasWriter aWriter)
+        throws IOException;
+
+    /**
+     * Removes the current version of the CAS.
+     *
+     * @return whether the CAS existed.
+     */
+    boolean delete(CasKey aKey)
+        throws IOException;
+
+    /**
+     * @return a value which changes whenever the CAS is written or {@code -1} if the CAS does not
+     *         exist. Used to detect stale cache entries.
+     */
+    long getVersion(CasKey aKey)
+        throws IOException;
+
+    /**
+     * @return the timestamps of the history versions of the CAS, oldest first.
+     */
+    List<Long> listHistory(CasKey aKey)
+        throws IOException;
+
+    /**
+     * @throws FileNotFoundException
+     *             if there is no history version with the given timestamp.
+     */
+    byte[] readHistory(CasKey aKey, long aTimestamp)
+        throws IOException;
+
+    /**
+     * @return the keys of all CASes of the given project.
+     */
+    List<CasKey> list(long aProjectId)
+        throws IOException;
+
+    /**
+     * Removes all CASes of the given document including their history.
+     */
+    void deleteDocument(long aProjectId, long aDocumentId)
+        throws IOException;
+
+    /**
+     * Removes all CASes of the given project including their history.
+     */
+    void deleteProject(long aProjectId)
+        throws IOException;
+
+    /**
+     * Produces the serialized form of a CAS.
+     */
+    @FunctionalInterface
+    interface CasWriter
+    {
+        void write(OutputStream aOut)
+            throws IOException;
+    }
+}
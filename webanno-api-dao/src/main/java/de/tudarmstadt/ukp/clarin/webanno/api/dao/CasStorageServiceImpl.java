@@ -18,23 +18,39 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
-import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipFile;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
+import org.apache.commons.io.IOUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.CasCreationUtils;
@@ -42,26 +58,82 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.session.SessionDestroyedEvent;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentLifecycleAware;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAware;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, SmartLifecycle, ApplicationListener<SessionDestroyedEvent>,
+    DocumentLifecycleAware, ProjectLifecycleAware
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    /**
+     * If a thread has to wait longer than this for access to a CAS, the wait is logged.
+     */
+    private static final long LOCK_WAIT_LOG_THRESHOLD_MS = 1000;
+
+    /**
+     * Storage format writing a Java-serialized {@code CASCompleteSerializer} per CAS.
+     */
+    public static final String FORMAT_LEGACY = "legacy";
+
+    /**
+     * Storage format writing UIMA compressed binary (form 4) per CAS and the type system only
+     * once per project and schema version.
+     */
+    public static final String FORMAT_COMPACT = "compact";
+
+    /**
+     * Storage backend keeping every CAS in a file of its own.
+     */
+    public static final String BACKEND_FILE = "file";
+
+    /**
+     * Storage backend keeping all CASes of a project in a single store file.
+     */
+    public static final String BACKEND_STORE = "store";
+
+    /**
+     * Check every CAS before saving it.
+     */
+    public static final String CHECK_SYNC = "sync";
+
+    /**
+     * Check only every n-th save of a CAS before saving it.
+     */
+    public static final String CHECK_SAMPLED = "sampled";
+
+    /**
+     * Check every saved CAS in the background.
+     */
+    public static final String CHECK_ASYNC = "async";
+
+    private static final String TYPESYSTEM = "/typesystem";
+
+    private final ReadWriteLockTable<CasKey> locks = new ReadWriteLockTable<>();
 
     @Value(value = "${repository.path}")
     private File dir;
@@ -75,14 +147,255 @@ public class CasStorageServiceImpl
     @Value(value = "${backup.keep.number}")
     private int backupKeepNumber;
     
+    @Value(value = "${backup.delta}")
+    private boolean backupDelta;
+    
+    @Value(value = "${repository.cas.format}")
+    private String casFormat;
+    
+    @Value(value = "${repository.cas.backend}")
+    private String backendName;
+    
+    @Value(value = "${repository.cas.cache.size}")
+    private long casCacheSize;
+    
+    @Value(value = "${repository.cas.writeBehind.delay}")
+    private long writeBehindDelay;
+    
+    @Value(value = "${repository.cas.bulkRead.threads}")
+    private int bulkReadThreads;
+    
+    @Value(value = "${debug.casDoctor.savePolicy}")
+    private String checkPolicy;
+    
+    @Value(value = "${debug.casDoctor.sampleInterval}")
+    private int checkSampleInterval;
+    
     @Resource(name = "casDoctor")
     private CasDoctor casDoctor;
     
+    @Resource(name = "casPool")
+    private CasPool casPool;
+    
+    @Resource(name = "repositoryLayout")
+    private RepositoryLayout repositoryLayout;
+    
+    private CasCache casCache;
+    
+    private CasStorageBackend backend;
+    
+    private CasVerifier casVerifier;
+    
+    /**
+     * Number of saves per CAS for the sampled check policy.
+     */
+    private final ConcurrentMap<CasKey, Long> saveCounts = new ConcurrentHashMap<>();
+    
+    /**
+     * Number of incrementally checked saves per CAS. Every n-th of them is followed by a full
+     * check in the background.
+     */
+    private final ConcurrentMap<CasKey, Long> incrementalSaveCounts = new ConcurrentHashMap<>();
+    
+    /**
+     * CAS writes which have been accepted but not yet written to the repository. There is at most
+     * one pending write per CAS - later writes replace the snapshot of earlier ones.
+     */
+    private final ConcurrentMap<CasKey, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * The {@link #getCasVersion versions} of the CASes. A CAS gets a new version whenever it is
+     * written, imported or removed. Versions are unique across all CASes.
+     */
+    private final ConcurrentMap<CasKey, Long> casVersions = new ConcurrentHashMap<>();
+    private final AtomicLong lastCasVersion = new AtomicLong();
+
+    /**
+     * The time at which each CAS has last been {@link #getCasLastAccess accessed}.
+     */
+    private final ConcurrentMap<CasKey, Long> lastAccess = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService writeBehindExecutor;
+    
+    private ExecutorService bulkReadExecutor;
+    
+    private final AtomicLong writeBehindRequests = new AtomicLong();
+    private final AtomicLong writeBehindFlushes = new AtomicLong();
+    
+    private volatile boolean running = false;
+    
     public CasStorageServiceImpl()
     {
         // Nothing to do
     }
 
+    /**
+     * This constructor must only be used for unit tests. CASes are stored in files without
+     * history and checked synchronously before saving.
+     *
+     * @param aCasCacheSize
+     *            the size of the CAS cache in megabytes.
+     * @param aWriteBehindDelay
+     *            the write-behind delay in milliseconds or {@code 0} to write right away.
+     */
+    CasStorageServiceImpl(CasDoctor aCasDoctor, CasPool aCasPool, RepositoryLayout aLayout,
+            String aCasFormat, long aCasCacheSize, long aWriteBehindDelay)
+    {
+        casDoctor = aCasDoctor;
+        casPool = aCasPool;
+        repositoryLayout = aLayout;
+        dir = aLayout.getRepository();
+        casFormat = aCasFormat;
+        backendName = BACKEND_FILE;
+        casCacheSize = aCasCacheSize;
+        writeBehindDelay = aWriteBehindDelay;
+        checkPolicy = CHECK_SYNC;
+        init();
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        // The cache size is configured in megabytes
+        casCache = new CasCache(casCacheSize * 1024 * 1024);
+        
+        backend = createBackend(backendName, repositoryLayout, backupInterval, backupKeepTime,
+                backupKeepNumber, backupDelta);
+        
+        if (checkPolicy == null || checkPolicy.isEmpty()) {
+            checkPolicy = CHECK_SYNC;
+        }
+        if (!CHECK_SYNC.equals(checkPolicy) && !CHECK_SAMPLED.equals(checkPolicy)
+                && !CHECK_ASYNC.equals(checkPolicy)) {
+            throw new IllegalArgumentException("Unknown CAS Doctor save policy [" + checkPolicy
+                    + "]");
+        }
+        // Incremental checks only look at the changed part of a CAS, so the full checks are
+        // run in the background
+        if (CHECK_ASYNC.equals(checkPolicy) || casDoctor.isIncremental()) {
+            casVerifier = new CasVerifier(casDoctor, repositoryLayout);
+        }
+        
+        if (writeBehindDelay > 0) {
+            writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "CAS write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        if (bulkReadThreads > 0) {
+            AtomicInteger threadCount = new AtomicInteger();
+            bulkReadExecutor = Executors.newFixedThreadPool(bulkReadThreads, r -> {
+                Thread thread = new Thread(r, "CAS bulk reader " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * Creates the storage backend with the given name.
+     */
+    public static CasStorageBackend createBackend(String aName, RepositoryLayout aLayout,
+            long aBackupInterval, long aBackupKeepTime, int aBackupKeepNumber,
+            boolean aBackupDelta)
+    {
+        if (aName == null || aName.isEmpty() || BACKEND_FILE.equals(aName)) {
+            return new FileSystemCasStorageBackend(aLayout, aBackupInterval,
+                    aBackupKeepTime, aBackupKeepNumber, aBackupDelta);
+        }
+        else if (BACKEND_STORE.equals(aName)) {
+            // The store does not use deltas - unchanged parts are not written again anyway
+            return new KeyValueCasStorageBackend(aLayout.getRepository(), aBackupInterval,
+                    aBackupKeepTime, aBackupKeepNumber);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown CAS storage backend [" + aName + "]");
+        }
+    }
+    
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+        backend.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        
+        if (bulkReadExecutor != null) {
+            bulkReadExecutor.shutdownNow();
+        }
+        
+        if (casVerifier != null) {
+            log.info("CAS verifier statistics: {}", casVerifier);
+            casVerifier.stop();
+        }
+        
+        // From here on, all writes go directly to the repository again. Flush whatever is still
+        // pending before the application context and with it the database goes away.
+        flushAll();
+        
+        if (writeBehindExecutor != null) {
+            writeBehindExecutor.shutdown();
+            try {
+                writeBehindExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Pending writes that were scheduled while shutting down
+            flushAll();
+        }
+        
+        backend.stop();
+    }
+
+    @Override
+    public int getPhase()
+    {
+        // Stop last - CASes saved by other services while they stop are written right away
+        // anyway once write-behind has been stopped.
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+    
+    /**
+     * Flushes the pending writes of a user when the session of the user ends, e.g. on logout or
+     * when the session times out.
+     */
+    @Override
+    public void onApplicationEvent(SessionDestroyedEvent aEvent)
+    {
+        for (SecurityContext context : aEvent.getSecurityContexts()) {
+            if (context.getAuthentication() != null) {
+                flushCases(context.getAuthentication().getName());
+            }
+        }
+    }
+
     /**
      * Creates an annotation document (either user's annotation document or CURATION_USER's
      * annotation document)
@@ -99,23 +412,38 @@ public class CasStorageServiceImpl
     public void writeCas(SourceDocument aDocument, JCas aJcas, String aUserName)
         throws IOException
     {
-
-        File annotationFolder = getAnnotationFolder(aDocument);
-        File targetPath = getAnnotationFolder(aDocument);
-        writeCas(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aJcas, aUserName,
-                annotationFolder, targetPath);
+        writeCas(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aJcas,
+                aUserName);
     }
     
     private void writeCas(Project aProject, String aDocumentName, long aDocumentId, JCas aJcas,
-            String aUserName, File aAnnotationFolder, File aTargetPath)
+            String aUserName)
         throws IOException
     {
         log.debug("Writing annotation document [{}]({}) for user [{}] in project [{}]({})",
                 aDocumentName, aDocumentId, aUserName, aProject.getName(), aProject.getId());
         // DebugUtils.smallStack();
 
+        CasKey key = new CasKey(aProject.getId(), aDocumentId, aUserName);
+        boolean checkNow = isCheckBeforeSave(key);
+        boolean checkFullyLater = !checkNow && CHECK_ASYNC.equals(checkPolicy);
         try {
-            casDoctor.analyze(aProject, aJcas.getCas());
+            if (checkNow) {
+                if (casVerifier != null && casVerifier.isFlagged(key)) {
+                    // A problem has been found in a previous version in the background, so the
+                    // whole CAS is checked again and not only the part which has changed
+                    DirtyRegion.clear(aJcas.getCas());
+                }
+                else if (casDoctor.isIncremental(aJcas.getCas())) {
+                    long saves = incrementalSaveCounts.merge(key, 1L, Long::sum);
+                    checkFullyLater = saves % Math.max(checkSampleInterval, 1) == 0;
+                }
+                
+                boolean ok = casDoctor.analyze(aProject, aJcas.getCas());
+                if (ok && casVerifier != null) {
+                    casVerifier.clearFlag(key);
+                }
+            }
         }
         catch (CasDoctorException e) {
             StringBuilder detailMsg = new StringBuilder();
@@ -134,152 +462,93 @@ public class CasStorageServiceImpl
                     + ") in project [" + aProject.getName() + "] (" + aProject.getId() + ")", e);
         }
 
-        synchronized (lock) {
-            // File annotationFolder = getAnnotationFolder(aDocument);
-            FileUtils.forceMkdir(aAnnotationFolder);
-
-            final String username = aUserName;
-
-            File currentVersion = new File(aAnnotationFolder, username + ".ser");
-            File oldVersion = new File(aAnnotationFolder, username + ".ser.old");
-
-            // Save current version
-            try {
-                // Make a backup of the current version of the file before overwriting
-                if (currentVersion.exists()) {
-                    renameFile(currentVersion, oldVersion);
-                }
-
-                // Now write the new version to "<username>.ser" or CURATION_USER.ser
-                DocumentMetaData md;
-                try {
-                    md = DocumentMetaData.get(aJcas);
-                }
-                catch (IllegalArgumentException e) {
-                    md = DocumentMetaData.create(aJcas);
-                }
-                md.setDocumentId(aUserName);
-
-                // File targetPath = getAnnotationFolder(aDocument);
-                CasPersistenceUtils.writeSerializedCas(aJcas,
-                        new File(aTargetPath, aUserName + ".ser"));
-
-                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                        String.valueOf(aProject.getId()))) {
-                    log.info(
-                            "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
-                            aUserName, aDocumentName, aDocumentId, aProject.getName(),
-                            aProject.getId());
-                }
+        DocumentMetaData md;
+        try {
+            md = DocumentMetaData.get(aJcas);
+        }
+        catch (IllegalArgumentException e) {
+            md = DocumentMetaData.create(aJcas);
+        }
+        md.setDocumentId(aUserName);
 
-                // If the saving was successful, we delete the old version
-                if (oldVersion.exists()) {
-                    FileUtils.forceDelete(oldVersion);
-                }
+        CASCompleteSerializer snapshot = null;
+        long casVersion;
+        try (CasLock lock = acquireLock(key, true)) {
+            lastAccess.put(key, System.currentTimeMillis());
+            casVersion = newCasVersion(key);
+            
+            // The first version of a CAS is always written right away, so checking whether a
+            // CAS exists does not need to know about pending writes.
+            if (isWriteBehindEnabled() && backend.exists(key)) {
+                snapshot = CasPersistenceUtils.takeSnapshot(aJcas.getCas());
+                scheduleWrite(key, new PendingWrite(aProject, aDocumentName, aDocumentId,
+                        aUserName, snapshot));
             }
-            catch (IOException e) {
-                // If we could not save the new version, restore the old one.
-                FileUtils.forceDelete(currentVersion);
-                // If this is the first version, there is no old version, so do not restore anything
-                if (oldVersion.exists()) {
-                    renameFile(oldVersion, currentVersion);
-                }
-                // Now abort anyway
-                throw e;
-            }
-
-            // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current version
-                long now = currentVersion.lastModified();
-
-                // Get all history files for the current user
-                File[] history = aAnnotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern
-                            .compile(Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
-
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(aAnnotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history, then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
-
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-
-                            try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                    Logging.KEY_PROJECT_ID, String.valueOf(aProject.getId()))) {
-                                log.info(
-                                        "Removed surplus history file [{}] of user [{}] for "
-                                                + "document [{}]({}) in project [{}]({})",
-                                        file.getName(), aUserName, aDocumentName, aDocumentId,
-                                        aProject.getName(), aProject.getId());
-                            }
-                        }
-                    }
+            else {
+                // Anything still pending is older than what we are writing now
+                pendingWrites.remove(key);
+                
+                persistCas(key, aProject, aDocumentName, aDocumentId, aJcas, aUserName);
+            }
+        }
+        
+        // Changes made from now on are checked when the CAS is saved the next time
+        DirtyRegion.clear(aJcas.getCas());
+        tagCas(aJcas.getCas(), casVersion);
+        
+        if (checkFullyLater && casVerifier != null) {
+            casVerifier.submit(key, aProject, snapshot != null ? snapshot
+                    : CasPersistenceUtils.takeSnapshot(aJcas.getCas()));
+        }
+    }
+    
+    /**
+     * Decides whether the CAS Doctor checks the given CAS synchronously before saving it according
+     * to the configured policy. If not, the CAS is either not checked at all or checked in the
+     * background after saving it.
+     */
+    private boolean isCheckBeforeSave(CasKey aKey)
+    {
+        // Without any checks, the analysis is cheap, so there is nothing to gain
+        if (!casDoctor.isChecksActive() || CHECK_SYNC.equals(checkPolicy)) {
+            return true;
+        }
+        
+        if (CHECK_SAMPLED.equals(checkPolicy)) {
+            long saves = saveCounts.merge(aKey, 1L, Long::sum);
+            return (saves - 1) % Math.max(checkSampleInterval, 1) == 0;
+        }
+        
+        // A problem has been found in a previous version in the background - check the CAS
+        // synchronously again so the problem does not go unnoticed
+        return casVerifier.isFlagged(aKey);
+    }
+    
+    /**
+     * Writes the CAS to the storage backend which also manages the history. The caller must hold
+     * the write lock for the CAS.
+     */
+    private void persistCas(CasKey aKey, Project aProject, String aDocumentName, long aDocumentId,
+            JCas aJcas, String aUserName)
+        throws IOException
+    {
+        try {
+            backend.write(aKey, out -> writeCasData(aProject, aJcas, out));
 
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-
-                                try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                        Logging.KEY_PROJECT_ID, String.valueOf(aProject.getId()))) {
-                                    log.info(
-                                            "Removed outdated history file [{}] of user [{}] for "
-                                                    + "document [{}]({}) in project [{}]({})",
-                                            file.getName(), aUserName, aDocumentName, aDocumentId,
-                                            aProject.getName(), aProject.getId());
-                                }
-                            }
-                        }
-                    }
-                }
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aProject.getId()))) {
+                log.info(
+                        "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
+                        aUserName, aDocumentName, aDocumentId, aProject.getName(),
+                        aProject.getId());
             }
+            
+            // Subsequent reads can be served from the cache
+            casCache.put(aKey, backend.getVersion(aKey), aJcas.getCas());
+        }
+        catch (IOException e) {
+            casCache.invalidate(aKey);
+            throw e;
         }
     }
 
@@ -302,6 +571,44 @@ public class CasStorageServiceImpl
     @Override
     public JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
         throws IOException
+    {
+        return readCas(aDocument, aUsername, aAnalyzeAndRepair, true);
+    }
+    
+    @Override
+    public Stream<CasReadResult> readCases(List<CasReadRequest> aRequests,
+            boolean aAnalyzeAndRepair)
+    {
+        ParallelCasReader reader = new ParallelCasReader(bulkReadExecutor, bulkReadThreads * 2,
+                aRequests, request -> readCasResult(request, aAnalyzeAndRepair),
+                this::releaseCas);
+        
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(reader,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(reader::close);
+    }
+    
+    private CasReadResult readCasResult(CasReadRequest aRequest, boolean aAnalyzeAndRepair)
+    {
+        try {
+            return new CasReadResult(aRequest, readCas(aRequest.getDocument(),
+                    aRequest.getUsername(), aAnalyzeAndRepair, false));
+        }
+        catch (IOException | RuntimeException e) {
+            log.debug("Unable to read annotation document {}", aRequest, e);
+            return new CasReadResult(aRequest, e);
+        }
+    }
+    
+    /**
+     * @param aFlushOtherDocuments
+     *            whether pending changes to other documents of the user should be written. This
+     *            is the case when the user opens a document, but not when reading CASes in bulk.
+     */
+    private JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair,
+            boolean aFlushOtherDocuments)
+        throws IOException
     {
         log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
                 aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
@@ -309,36 +616,492 @@ public class CasStorageServiceImpl
 
         // DebugUtils.smallStack();
 
-        synchronized (lock) {
-            File annotationFolder = getAnnotationFolder(aDocument);
-
-            String file = aUsername + ".ser";
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        CAS cas;
+        boolean legacyFormat;
+        long casVersion;
+        try (CasLock lock = acquireLock(key, false)) {
+            // Recorded while holding the lock, so somebody changing the CAS under the write lock
+            // either sees the access or the reader gets the changed CAS
+            if (aFlushOtherDocuments) {
+                lastAccess.put(key, System.currentTimeMillis());
+            }
+            
+            if (!backend.exists(key)) {
+                throw new FileNotFoundException("Annotation document of user [" + aUsername
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + ") not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
 
-            try {
-                File serializedCasFile = new File(annotationFolder, file);
-                if (!serializedCasFile.exists()) {
-                    throw new FileNotFoundException("Annotation document of user [" + aUsername
-                            + "] for source document [" + aDocument.getName() + "] ("
-                            + aDocument.getId() + ") not found in project["
-                            + aDocument.getProject().getName() + "] ("
-                            + aDocument.getProject().getId() + ")");
+            casVersion = casVersions.computeIfAbsent(key, k -> lastCasVersion.incrementAndGet());
+            
+            PendingWrite pending = pendingWrites.get(key);
+            if (pending != null) {
+                // The repository does not have the latest version of the CAS yet
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                CasPersistenceUtils.restoreSnapshot(pending.snapshot, cas);
+                legacyFormat = false;
+            }
+            else {
+                long version = backend.getVersion(key);
+                cas = casCache.isEnabled() ? restoreFromCache(key, version) : null;
+                if (cas != null) {
+                    log.debug("Annotation document served from cache - cache statistics: {}",
+                            casCache);
+                    legacyFormat = false;
                 }
+                else {
+                    try (InputStream is = backend.read(key)) {
+                        legacyFormat = !CasPersistenceUtils.isCompactCas(is);
+                        cas = readCasData(aDocument.getProject(), is, key.toString(),
+                                !legacyFormat);
+                    }
+                    casCache.put(key, version, cas);
+                }
+            }
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        
+        // When a user opens a document, the previously opened ones are closed and there is no
+        // reason to keep their changes in memory any longer.
+        if (aFlushOtherDocuments && isWriteBehindEnabled()) {
+            flushOtherDocuments(key);
+        }
+        
+        // Lazily migrate the CAS to the compact format. This happens before the analysis and
+        // repair, so the migrated file has exactly the same contents as the original one.
+        boolean migrated = false;
+        if (legacyFormat && FORMAT_COMPACT.equals(casFormat)) {
+            CAS migratedCas = migrateCas(aDocument, aUsername, cas);
+            if (migratedCas != null) {
+                // Continue with the CAS as it is now stored, the legacy one is no longer needed
+                casPool.release(cas);
+                cas = migratedCas;
+                migrated = true;
+            }
+        }
 
-                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-                CasPersistenceUtils.readSerializedCas(cas.getJCas(), serializedCasFile);
+        boolean repaired = false;
+        if (aAnalyzeAndRepair) {
+            repaired = analyzeAndRepair(aDocument.getProject(), aDocument.getName(),
+                    aDocument.getId(), aUsername, cas);
+        }
+        
+        // A repaired CAS differs from the stored CAS and the migration has assigned a new version
+        // to the stored CAS which we do not know here. Leaving the CAS untagged only means that
+        // the caches keyed by the version are not used for it.
+        if (!migrated && !repaired) {
+            tagCas(cas, casVersion);
+        }
 
-                if (aAnalyzeAndRepair) {
-                    analyzeAndRepair(aDocument, aUsername, cas);
+        try {
+            return cas.getJCas();
+        }
+        catch (CASException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+    }
+    
+    /**
+     * Writes the CAS of the given user in the legacy format which contains the type system and
+     * can be read without access to the repository, e.g. when exporting a project.
+     */
+    @Override
+    public void exportCas(SourceDocument aDocument, String aUsername, File aTargetFile)
+        throws IOException
+    {
+        flushCas(aDocument, aUsername);
+        
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, false);
+                InputStream is = backend.read(key)) {
+            if (!CasPersistenceUtils.isCompactCas(is)) {
+                FileUtils.copyInputStreamToFile(is, aTargetFile);
+                return;
+            }
+            
+            CAS cas = readCasData(aDocument.getProject(), is, key.toString(), true);
+            try {
+                CasPersistenceUtils.writeSerializedCas(cas.getJCas(), aTargetFile);
+            }
+            finally {
+                casPool.release(cas);
+            }
+        }
+        catch (CASException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+    }
+    
+    @Override
+    public void importCas(SourceDocument aDocument, String aUsername, InputStream aData)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, true)) {
+            // The imported data replaces whatever is pending
+            pendingWrites.remove(key);
+            casCache.invalidate(key);
+            newCasVersion(key);
+            
+            backend.write(key, out -> IOUtils.copy(aData, out));
+        }
+    }
+    
+    @Override
+    public boolean updateCas(SourceDocument aDocument, String aUsername, CasUpdater aUpdater)
+        throws IOException
+    {
+        Project project = aDocument.getProject();
+        CasKey key = new CasKey(project.getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, true)) {
+            if (!backend.exists(key)) {
+                return false;
+            }
+            
+            CAS cas;
+            PendingWrite pending = pendingWrites.get(key);
+            if (pending != null) {
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                CasPersistenceUtils.restoreSnapshot(pending.snapshot, cas);
+            }
+            else {
+                try (InputStream is = backend.read(key)) {
+                    cas = readCasData(project, is, key.toString(),
+                            CasPersistenceUtils.isCompactCas(is));
                 }
-
-                return cas.getJCas();
             }
-            catch (UIMAException e) {
-                throw new DataRetrievalFailureException("Unable to parse annotation", e);
+            
+            try {
+                if (!aUpdater.update(cas)) {
+                    return false;
+                }
+                
+                // The updated CAS includes whatever has been pending
+                pendingWrites.remove(key);
+                newCasVersion(key);
+                persistCas(key, project, aDocument.getName(), aDocument.getId(), cas.getJCas(),
+                        aUsername);
+                return true;
+            }
+            finally {
+                casPool.release(cas);
+            }
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, false)) {
+            return backend.exists(key);
+        }
+    }
+    
+    @Override
+    public boolean deleteCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, true)) {
+            pendingWrites.remove(key);
+            casCache.invalidate(key);
+            newCasVersion(key);
+            
+            return backend.delete(key);
+        }
+    }
+    
+    @Override
+    public void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        if (pendingWrites.containsKey(key)) {
+            try (CasLock lock = acquireLock(key, true)) {
+                flushPending(key);
+            }
+        }
+    }
+    
+    @Override
+    public void flushCases(String aUsername)
+    {
+        for (CasKey key : pendingWrites.keySet()) {
+            if (key.getUserName().equals(aUsername)) {
+                flushQuietly(key);
+            }
+        }
+    }
+    
+    private void flushAll()
+    {
+        for (CasKey key : pendingWrites.keySet()) {
+            flushQuietly(key);
+        }
+    }
+    
+    private void flushOtherDocuments(CasKey aKey)
+    {
+        for (CasKey key : pendingWrites.keySet()) {
+            if (key.getUserName().equals(aKey.getUserName()) && !key.equals(aKey)) {
+                try {
+                    writeBehindExecutor.execute(() -> flushQuietly(key));
+                }
+                catch (RejectedExecutionException e) {
+                    // Shutting down - stop() takes care of the pending writes
+                }
+            }
+        }
+    }
+    
+    private boolean isWriteBehindEnabled()
+    {
+        return running && writeBehindExecutor != null;
+    }
+    
+    /**
+     * Queues a CAS write. The caller must hold the write lock for the CAS.
+     */
+    private void scheduleWrite(CasKey aKey, PendingWrite aWrite)
+        throws IOException
+    {
+        writeBehindRequests.incrementAndGet();
+        
+        // If there is already a pending write, it is still scheduled because the flush also
+        // needs the write lock. It picks up the new snapshot, so changes never stay in memory
+        // for longer than the configured delay even if the CAS is written over and over again.
+        if (pendingWrites.put(aKey, aWrite) == null) {
+            try {
+                writeBehindExecutor.schedule(() -> flushQuietly(aKey), writeBehindDelay,
+                        TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                // Shutting down - write right away
+                flushPending(aKey);
+            }
+        }
+        
+        log.debug("Deferred write of CAS {} - pending writes: {}", aKey, pendingWrites.size());
+    }
+    
+    private void flushQuietly(CasKey aKey)
+    {
+        try (CasLock lock = acquireLock(aKey, true)) {
+            flushPending(aKey);
+        }
+        catch (Exception e) {
+            log.error("Unable to write pending changes of CAS {}", aKey, e);
+        }
+    }
+    
+    /**
+     * Writes the pending changes of the given CAS, if any. The caller must hold the write lock for
+     * the CAS. If the changes cannot be written, they remain pending and writing them is retried
+     * later.
+     */
+    private void flushPending(CasKey aKey)
+        throws IOException
+    {
+        PendingWrite write = pendingWrites.remove(aKey);
+        if (write == null) {
+            return;
+        }
+        
+        // The CAS or the whole document has been deleted in the mean time
+        if (!backend.exists(aKey)) {
+            log.info("Dropped pending changes of CAS {} which no longer exists", aKey);
+            return;
+        }
+        
+        try {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CasPersistenceUtils.restoreSnapshot(write.snapshot, cas);
+            persistCas(aKey, write.project, write.documentName, write.documentId,
+                    cas.getJCas(), write.userName);
+            writeBehindFlushes.incrementAndGet();
+        }
+        catch (UIMAException | IOException e) {
+            // Keep the changes unless they have been superseded already
+            if (pendingWrites.putIfAbsent(aKey, write) == null && writeBehindExecutor != null) {
+                try {
+                    writeBehindExecutor.schedule(() -> flushQuietly(aKey), writeBehindDelay,
+                            TimeUnit.MILLISECONDS);
+                }
+                catch (RejectedExecutionException e1) {
+                    // Shutting down - stop() makes a final attempt
+                }
+            }
+            
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+    
+    @Override
+    public List<Long> listCasHistory(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return backend.listHistory(new CasKey(aDocument.getProject().getId(), aDocument.getId(),
+                aUsername));
+    }
+    
+    @Override
+    public JCas readCasHistory(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        byte[] data = backend.readHistory(key, aTimestamp);
+        
+        try (InputStream is = new ByteArrayInputStream(data)) {
+            CAS cas = readCasData(aDocument.getProject(), is, key + "@" + aTimestamp,
+                    CasPersistenceUtils.isCompactCas(is));
+            return cas.getJCas();
+        }
+        catch (CASException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+    }
+    
+    /**
+     * Rewrites a CAS which has been read in the legacy format using the compact format.
+     * 
+     * @return the CAS read back from the migrated file or {@code null} if the CAS has not been
+     *         migrated because another thread has removed or rewritten it in the meantime.
+     */
+    private CAS migrateCas(SourceDocument aDocument, String aUsername, CAS aCas)
+        throws IOException
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        try (CasLock lock = acquireLock(key, true)) {
+            // Another thread may have written the CAS since we have read it
+            if (!backend.exists(key)) {
+                return null;
+            }
+            try (InputStream is = backend.read(key)) {
+                if (CasPersistenceUtils.isCompactCas(is)) {
+                    return null;
+                }
+            }
+            
+            JCas jcas = aCas.getJCas();
+            File typeSystemFolder = getTypeSystemFolder(aDocument.getProject());
+            backend.write(key, out -> CasPersistenceUtils.writeCompactCas(jcas, out,
+                    typeSystemFolder));
+            newCasVersion(key);
+            
+            // Cache what is actually stored now and not the CAS we have migrated, so the cache
+            // can never serve a CAS which differs from the one on disk
+            CAS migrated;
+            try (InputStream is = backend.read(key)) {
+                migrated = readCasData(aDocument.getProject(), is, key.toString(), true);
             }
+            casCache.put(key, backend.getVersion(key), migrated);
+            
+            log.debug("Migrated annotation document of user [{}] for document [{}]({}) in "
+                    + "project [{}]({}) to the compact storage format", aUsername,
+                    aDocument.getName(), aDocument.getId(), aDocument.getProject().getName(),
+                    aDocument.getProject().getId());
+            
+            return migrated;
+        }
+        catch (CASException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    private CAS restoreFromCache(CasKey aKey, long aVersion)
+        throws UIMAException
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        return casCache.restore(aKey, aVersion, cas) ? cas : null;
+    }
+    
+    /**
+     * Reads a CAS in either storage format. Pooled CAS instances are re-used if possible.
+     */
+    private CAS readCasData(Project aProject, InputStream aIn, String aSource, boolean aCompact)
+        throws IOException
+    {
+        if (aCompact) {
+            return CasPersistenceUtils.readCompactCas(casPool, aIn, aSource,
+                    getTypeSystemFolder(aProject));
+        }
+        else {
+            return CasPersistenceUtils.readSerializedCas(casPool, aIn);
         }
     }
     
+    @Override
+    public void releaseCas(CAS aCas)
+    {
+        // The CAS is going to be re-used for other data
+        DirtyRegion.forgetStoredVersion(aCas);
+        casPool.release(aCas);
+    }
+    
+    @Override
+    public long getCasLastAccess(SourceDocument aDocument, String aUsername)
+    {
+        CasKey key = new CasKey(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+        return lastAccess.getOrDefault(key, -1L);
+    }
+    
+    @Override
+    public long getCasVersion(CAS aCas)
+    {
+        return DirtyRegion.getStoredVersion(aCas);
+    }
+    
+    /**
+     * Assigns a new version to the given CAS. The caller must hold the write lock for the CAS.
+     */
+    private long newCasVersion(CasKey aKey)
+    {
+        long version = lastCasVersion.incrementAndGet();
+        casVersions.put(aKey, version);
+        return version;
+    }
+    
+    /**
+     * Remembers the version of a CAS object which has just been read or written.
+     */
+    private void tagCas(CAS aCas, long aVersion)
+    {
+        DirtyRegion.setStoredVersion(aCas, aVersion);
+    }
+    
+    /**
+     * Writes a CAS in the configured storage format.
+     */
+    private void writeCasData(Project aProject, JCas aJCas, OutputStream aOut)
+        throws IOException
+    {
+        if (FORMAT_COMPACT.equals(casFormat)) {
+            CasPersistenceUtils.writeCompactCas(aJCas, aOut, getTypeSystemFolder(aProject));
+        }
+        else {
+            CasPersistenceUtils.writeSerializedCas(aJCas, aOut);
+        }
+    }
+    
+    /**
+     * Get the folder where the type systems referred to by CASes in the compact storage format
+     * are stored.
+     */
+    private File getTypeSystemFolder(Project aProject)
+    {
+        return new File(dir, PROJECT + aProject.getId() + TYPESYSTEM);
+    }
+    
     @Override
     public void analyzeAndRepair(SourceDocument aDocument, String aUsername, CAS aCas)
     {
@@ -346,14 +1109,22 @@ public class CasStorageServiceImpl
                 aCas);
     }
 
-    private void analyzeAndRepair(Project aProject, String aDocumentName, long aDocumentId,
+    /**
+     * @return whether the CAS has been changed by a repair.
+     */
+    private boolean analyzeAndRepair(Project aProject, String aDocumentName, long aDocumentId,
             String aUsername, CAS aCas)
     {
         // Check if repairs are active - if this is the case, we only need to run the repairs
         // because the repairs do an analysis as a pre- and post-condition. 
         if (casDoctor.isRepairsActive()) {
             try {
-                casDoctor.repair(aProject, aCas);
+                if (casDoctor.repair(aProject, aCas)) {
+                    // The CAS no longer is what has been stored and indexes built for it are
+                    // stale
+                    AnnotationOffsetIndex.invalidate(aCas);
+                    return true;
+                }
             }
             catch (Exception e) {
                 throw new DataRetrievalFailureException("Error repairing CAS of user ["
@@ -389,7 +1160,10 @@ public class CasStorageServiceImpl
                         + aProject.getId() + ")", e);
             }
         }
+        
+        return false;
     }
+    
     /**
      * Get the folder where the annotations are stored. Creates the folder if necessary.
      *
@@ -400,28 +1174,194 @@ public class CasStorageServiceImpl
     public File getAnnotationFolder(SourceDocument aDocument)
         throws IOException
     {
-        File annotationFolder = new File(dir, PROJECT + aDocument.getProject().getId() + DOCUMENT
-                + aDocument.getId() + ANNOTATION);
-        FileUtils.forceMkdir(annotationFolder);
-        return annotationFolder;
+        return repositoryLayout.createDocumentFolder(aDocument.getProject().getId(),
+                aDocument.getId(), ANNOTATION);
     }
     
     /**
-     * Renames a file.
-     *
-     * @throws IOException
-     *             if the file cannot be renamed.
-     * @return the target file.
+     * Acquire the lock for the given CAS. Readers only block writers of the same CAS and writers
+     * only block readers and writers of the same CAS. Additionally, the shared lock of the
+     * document is acquired so that the document folder is not moved while the CAS is accessed.
      */
-    private static File renameFile(File aFrom, File aTo)
+    private CasLock acquireLock(CasKey aKey, boolean aExclusive)
+    {
+        LockHandle documentLock = repositoryLayout.lockDocument(aKey.getDocumentId(), false);
+        LockHandle lock;
+        try {
+            lock = aExclusive ? locks.writeLock(aKey) : locks.readLock(aKey);
+        }
+        catch (RuntimeException e) {
+            documentLock.close();
+            throw e;
+        }
+        
+        long waited = documentLock.getWaitTime(TimeUnit.MILLISECONDS)
+                + lock.getWaitTime(TimeUnit.MILLISECONDS);
+        if (waited > LOCK_WAIT_LOG_THRESHOLD_MS) {
+            log.info("Waited {}ms for {} access to CAS {} - lock statistics: {}", waited,
+                    aExclusive ? "exclusive" : "shared", aKey, locks);
+        }
+        
+        return new CasLock(documentLock, lock);
+    }
+    
+    @Override
+    public void afterDocumentCreate(SourceDocument aDocument, JCas aJCas)
+    {
+        // Nothing to do
+    }
+    
+    @Override
+    public void beforeDocumentRemove(SourceDocument aDocument)
         throws IOException
     {
-        if (!aFrom.renameTo(aTo)) {
-            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
+        for (CasKey key : pendingWrites.keySet()) {
+            if (key.getProjectId() == aDocument.getProject().getId()
+                    && key.getDocumentId() == aDocument.getId()) {
+                try (CasLock lock = acquireLock(key, true)) {
+                    pendingWrites.remove(key);
+                    casCache.invalidate(key);
+                }
+            }
         }
+        
+        saveCounts.keySet().removeIf(k -> k.getDocumentId() == aDocument.getId());
+        casVersions.keySet().removeIf(k -> k.getDocumentId() == aDocument.getId());
+        lastAccess.keySet().removeIf(k -> k.getDocumentId() == aDocument.getId());
+        incrementalSaveCounts.keySet().removeIf(k -> k.getDocumentId() == aDocument.getId());
+        if (casVerifier != null) {
+            casVerifier.forgetDocument(aDocument.getId());
+        }
+        
+        backend.deleteDocument(aDocument.getProject().getId(), aDocument.getId());
+    }
+    
+    @Override
+    public void afterAnnotationUpdate(AnnotationDocument aDocument, JCas aJCas)
+    {
+        // Nothing to do
+    }
+    
+    @Override
+    public void afterProjectCreate(Project aProject)
+    {
+        // Nothing to do
+    }
+    
+    @Override
+    public void beforeProjectRemove(Project aProject)
+        throws IOException
+    {
+        casVersions.keySet().removeIf(k -> k.getProjectId() == aProject.getId());
+        lastAccess.keySet().removeIf(k -> k.getProjectId() == aProject.getId());
+        backend.deleteProject(aProject.getId());
+    }
+    
+    @Override
+    public void onProjectImport(ZipFile aZip,
+            de.tudarmstadt.ukp.clarin.webanno.export.model.Project aExportedProject,
+            Project aProject)
+    {
+        // CASes are imported through importCas()
+    }
+    
+    /**
+     * @return the storage backend holding the CASes.
+     */
+    public CasStorageBackend getBackend()
+    {
+        return backend;
+    }
+    
+    /**
+     * @return the cache of recently read and written CASes. Provides access to the cache
+     *         statistics.
+     */
+    public CasCache getCache()
+    {
+        return casCache;
+    }
+    
+    /**
+     * @return the locks guarding access to the individual CASes. Provides access to the lock
+     *         wait-time statistics.
+     */
+    public ReadWriteLockTable<?> getLocks()
+    {
+        return locks;
+    }
+    
+    /**
+     * @return the number of CASes which have changes that have not been written to the
+     *         repository yet.
+     */
+    public int getPendingWriteCount()
+    {
+        return pendingWrites.size();
+    }
+    
+    /**
+     * @return the number of CAS writes which have been deferred. Together with
+     *         {@link #getWriteBehindFlushCount()}, this indicates how many writes were saved by
+     *         coalescing them.
+     */
+    public long getWriteBehindRequestCount()
+    {
+        return writeBehindRequests.get();
+    }
+    
+    /**
+     * @return the number of deferred CAS writes which have actually been written to the
+     *         repository.
+     */
+    public long getWriteBehindFlushCount()
+    {
+        return writeBehindFlushes.get();
+    }
+    
+    /**
+     * The locks held while accessing a CAS.
+     */
+    private static final class CasLock
+        implements AutoCloseable
+    {
+        private final LockHandle documentLock;
+        private final LockHandle casLock;
+        
+        public CasLock(LockHandle aDocumentLock, LockHandle aCasLock)
+        {
+            documentLock = aDocumentLock;
+            casLock = aCasLock;
+        }
+        
+        @Override
+        public void close()
+        {
+            try {
+                casLock.close();
+            }
+            finally {
+                documentLock.close();
+            }
+        }
+    }
+    
+    private static final class PendingWrite
+    {
+        private final Project project;
+        private final String documentName;
+        private final long documentId;
+        private final String userName;
+        private final CASCompleteSerializer snapshot;
 
-        // We are not sure if File is mutable. This makes sure we get a new file
-        // in any case.
-        return new File(aTo.getPath());
+        public PendingWrite(Project aProject, String aDocumentName, long aDocumentId,
+                String aUserName, CASCompleteSerializer aSnapshot)
+        {
+            project = aProject;
+            documentName = aDocumentName;
+            documentId = aDocumentId;
+            userName = aUserName;
+            snapshot = aSnapshot;
+        }
     }
 }
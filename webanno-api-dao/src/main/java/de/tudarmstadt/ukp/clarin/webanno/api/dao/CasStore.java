@@ -0,0 +1,862 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only single-file store holding all CASes of a project including their history.
+ * <p>
+ * Every change is appended to the file as a record protected by a checksum and the file is
+ * synced before the change becomes visible, so a write either completely succeeds or leaves the
+ * previous version untouched. When the store is opened, the records are replayed to build an
+ * in-memory index of the current and historic versions. A torn record at the end of the file
+ * (e.g. after a crash during a write) is discarded.
+ * <p>
+ * Superseded versions which are not part of the history remain in the file until it is
+ * {@link #compact() compacted}.
+ */
+final class CasStore
+    implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasStore.class);
+
+    private static final byte[] MAGIC = { 'W', 'A', 'K', 'V' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+
+    /**
+     * Record length prefix and checksum suffix.
+     */
+    private static final int RECORD_OVERHEAD = 8;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_DELETE_DOCUMENT = 3;
+    private static final byte OP_PRUNE = 4;
+
+    /**
+     * Flag of put records which carry the current version of a CAS.
+     */
+    private static final byte FLAG_CURRENT = 1;
+
+    /**
+     * Flag of put records which are also part of the history of a CAS.
+     */
+    private static final byte FLAG_HISTORY = 2;
+
+    /**
+     * Do not bother compacting small stores.
+     */
+    private static final long MIN_COMPACT_GARBAGE = 1024 * 1024;
+
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final long projectId;
+    private final File file;
+    private final long interval;
+
+    /**
+     * Serializes all changes to the store. Must be acquired before the {@link #lock}.
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * Readers hold the read lock, changes to the index and the channel need the write lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Key, Slot> index = new HashMap<>();
+
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * @param aProjectId
+     *            the project the store belongs to.
+     * @param aFile
+     *            the store file. It is created if it does not exist yet.
+     * @param aInterval
+     *            minimum time between two history versions. If this is {@code 0}, no history is
+     *            kept.
+     */
+    public CasStore(long aProjectId, File aFile, long aInterval)
+        throws IOException
+    {
+        projectId = aProjectId;
+        file = aFile;
+        interval = aInterval;
+
+        open();
+    }
+
+    private void open()
+        throws IOException
+    {
+        // Left over from an interrupted compaction - the store file itself is still intact
+        Files.deleteIfExists(new File(file.getPath() + COMPACT_SUFFIX).toPath());
+
+        Files.createDirectories(file.getParentFile().toPath());
+        channel = FileChannel.open(file.toPath(), CREATE, READ, WRITE);
+
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+            size = HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            channel.close();
+            throw new IOException("File [" + file + "] is not a CAS store");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException("Unsupported CAS store version [" + version + "] in file ["
+                    + file + "]");
+        }
+
+        long fileSize = channel.size();
+        long pos = HEADER_SIZE;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (pos + RECORD_OVERHEAD <= fileSize) {
+            lengthBuffer.clear();
+            readFully(channel, lengthBuffer, pos);
+            int length = lengthBuffer.getInt(0);
+            if (length <= 0 || pos + RECORD_OVERHEAD + length > fileSize) {
+                break;
+            }
+
+            Record record = readRecord(pos, length);
+            if (record == null) {
+                break;
+            }
+            apply(record);
+            pos += RECORD_OVERHEAD + length;
+        }
+
+        if (pos < fileSize) {
+            LOG.warn("Discarding {} bytes of incomplete or corrupt data at the end of CAS store "
+                    + "[{}]", fileSize - pos, file);
+            channel.truncate(pos);
+            channel.force(true);
+        }
+        size = pos;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public boolean exists(long aDocumentId, String aUserName)
+    {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(new Key(aDocumentId, aUserName));
+            return slot != null && slot.current != null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the current version of the given CAS or {@code null} if there is none.
+     */
+    public byte[] read(long aDocumentId, String aUserName)
+        throws IOException
+    {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(new Key(aDocumentId, aUserName));
+            if (slot == null || slot.current == null) {
+                return null;
+            }
+            return readData(slot.current);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the timestamp of the current version of the given CAS or {@code -1} if there is
+     *         none. Every write produces a new timestamp.
+     */
+    public long getVersion(long aDocumentId, String aUserName)
+    {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(new Key(aDocumentId, aUserName));
+            return slot != null && slot.current != null ? slot.current.timestamp : -1;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the timestamps of the history versions of the given CAS, oldest first.
+     */
+    public List<Long> listHistory(long aDocumentId, String aUserName)
+    {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(new Key(aDocumentId, aUserName));
+            return slot != null ? new ArrayList<>(slot.history.keySet())
+                    : Collections.emptyList();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the given history version of the given CAS or {@code null} if there is none.
+     */
+    public byte[] readHistory(long aDocumentId, String aUserName, long aTimestamp)
+        throws IOException
+    {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(new Key(aDocumentId, aUserName));
+            Location location = slot != null ? slot.history.get(aTimestamp) : null;
+            return location != null ? readData(location) : null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the keys of all CASes which currently exist in the store.
+     */
+    public List<CasKey> list()
+    {
+        lock.readLock().lock();
+        try {
+            List<CasKey> keys = new ArrayList<>();
+            for (Map.Entry<Key, Slot> e : index.entrySet()) {
+                if (e.getValue().current != null) {
+                    keys.add(new CasKey(projectId, e.getKey().documentId, e.getKey().userName));
+                }
+            }
+            return keys;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a new version of the given CAS. When this method returns, the data has been synced
+     * to disk.
+     */
+    public void put(long aDocumentId, String aUserName, byte[] aData)
+        throws IOException
+    {
+        synchronized (appendLock) {
+            Key key = new Key(aDocumentId, aUserName);
+            Slot slot = index.get(key);
+
+            // Timestamps identify versions, so they must be unique per CAS
+            long timestamp = System.currentTimeMillis();
+            if (slot != null) {
+                if (slot.current != null) {
+                    timestamp = Math.max(timestamp, slot.current.timestamp + 1);
+                }
+                if (!slot.history.isEmpty()) {
+                    timestamp = Math.max(timestamp, slot.history.lastKey() + 1);
+                }
+            }
+
+            byte flags = FLAG_CURRENT;
+            if (interval > 0 && (slot == null || slot.history.isEmpty()
+                    || slot.history.lastKey() + interval < timestamp)) {
+                flags |= FLAG_HISTORY;
+            }
+
+            append(Collections.singletonList(
+                    new Record(OP_PUT, flags, aDocumentId, aUserName, timestamp, aData)));
+        }
+    }
+
+    /**
+     * Removes the current version of the given CAS. Its history is retained.
+     *
+     * @return whether the CAS existed.
+     */
+    public boolean delete(long aDocumentId, String aUserName)
+        throws IOException
+    {
+        synchronized (appendLock) {
+            if (!exists(aDocumentId, aUserName)) {
+                return false;
+            }
+
+            append(Collections.singletonList(new Record(OP_DELETE, (byte) 0, aDocumentId,
+                    aUserName, System.currentTimeMillis(), null)));
+            return true;
+        }
+    }
+
+    /**
+     * Removes all CASes of the given document including their history.
+     */
+    public void deleteDocument(long aDocumentId)
+        throws IOException
+    {
+        synchronized (appendLock) {
+            boolean found = index.keySet().stream().anyMatch(k -> k.documentId == aDocumentId);
+            if (found) {
+                append(Collections.singletonList(new Record(OP_DELETE_DOCUMENT, (byte) 0,
+                        aDocumentId, "", System.currentTimeMillis(), null)));
+            }
+        }
+    }
+
+    /**
+     * Removes history versions exceeding the given limits. The newest history version of a CAS is
+     * never removed based on its age.
+     *
+     * @param aKeepTime
+     *            maximum age of history versions to keep. If this is {@code 0}, versions are not
+     *            removed based on their age.
+     * @param aKeepNumber
+     *            maximum number of history versions to keep per CAS. If this is {@code 0},
+     *            versions are not removed based on their number.
+     * @return the number of removed history versions.
+     */
+    public int prune(long aKeepTime, int aKeepNumber)
+        throws IOException
+    {
+        if (aKeepTime <= 0 && aKeepNumber <= 0) {
+            return 0;
+        }
+
+        synchronized (appendLock) {
+            long now = System.currentTimeMillis();
+            List<Record> records = new ArrayList<>();
+            int removed = 0;
+            for (Map.Entry<Key, Slot> e : index.entrySet()) {
+                TreeMap<Long, Location> history = e.getValue().history;
+                if (history.isEmpty()) {
+                    continue;
+                }
+
+                // Everything older than the cutoff is removed
+                long cutoff = Long.MIN_VALUE;
+                if (aKeepNumber > 0 && history.size() > aKeepNumber) {
+                    cutoff = new ArrayList<>(history.keySet()).get(history.size() - aKeepNumber);
+                }
+                if (aKeepTime > 0) {
+                    cutoff = Math.max(cutoff, Math.min(now - aKeepTime, history.lastKey()));
+                }
+
+                int count = history.headMap(cutoff).size();
+                if (count > 0) {
+                    removed += count;
+                    records.add(new Record(OP_PRUNE, (byte) 0, e.getKey().documentId,
+                            e.getKey().userName, cutoff, null));
+                }
+            }
+
+            if (!records.isEmpty()) {
+                append(records);
+                LOG.info("Removed {} history versions from CAS store [{}]", removed, file);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * @return the number of bytes in the store file which are still referenced.
+     */
+    public long getLiveSize()
+    {
+        lock.readLock().lock();
+        try {
+            return HEADER_SIZE + liveLocations().stream()
+                    .mapToLong(l -> l.recordLength).sum();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the store file.
+     */
+    public long getSize()
+    {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the store file without the records which are no longer referenced if at least half
+     * of the file is garbage. Readers are only blocked while the new file is swapped in.
+     *
+     * @return whether the store was compacted.
+     */
+    public boolean compact()
+        throws IOException
+    {
+        synchronized (appendLock) {
+            // Nobody else changes the index while we hold the append lock
+            List<Location> live = liveLocations();
+            long liveSize = HEADER_SIZE + live.stream().mapToLong(l -> l.recordLength).sum();
+            long garbage = size - liveSize;
+            if (garbage < MIN_COMPACT_GARBAGE || garbage < liveSize) {
+                return false;
+            }
+
+            // Keep the original order so that replaying the compacted file yields the same
+            // index
+            live.sort((a, b) -> Long.compare(a.recordOffset, b.recordOffset));
+
+            File tmp = new File(file.getPath() + COMPACT_SUFFIX);
+            Map<Location, Location> moved = new HashMap<>();
+            long pos;
+            try (FileChannel out = FileChannel.open(tmp.toPath(), CREATE, TRUNCATE_EXISTING,
+                    WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(MAGIC);
+                header.putInt(VERSION);
+                header.flip();
+                writeFully(out, header, 0);
+                pos = HEADER_SIZE;
+
+                for (Location location : live) {
+                    Slot slot = index.get(location.key);
+                    byte flags = 0;
+                    if (slot.current == location) {
+                        flags |= FLAG_CURRENT;
+                    }
+                    if (slot.history.get(location.timestamp) == location) {
+                        flags |= FLAG_HISTORY;
+                    }
+
+                    Record record = new Record(OP_PUT, flags, location.key.documentId,
+                            location.key.userName, location.timestamp, readData(location));
+                    ByteBuffer buffer = record.encode();
+                    writeFully(out, buffer, pos);
+                    moved.put(location, new Location(location.key, location.timestamp, pos,
+                            buffer.limit(), record.dataOffset));
+                    pos += buffer.limit();
+                }
+
+                out.force(true);
+            }
+            catch (IOException e) {
+                Files.deleteIfExists(tmp.toPath());
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                channel.close();
+                Files.move(tmp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+                channel = FileChannel.open(file.toPath(), READ, WRITE);
+
+                for (Slot slot : index.values()) {
+                    if (slot.current != null) {
+                        slot.current = moved.get(slot.current);
+                    }
+                    slot.history.replaceAll((timestamp, location) -> moved.get(location));
+                }
+
+                LOG.info("Compacted CAS store [{}] from {} to {} bytes", file, size, pos);
+                size = pos;
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        synchronized (appendLock) {
+            lock.writeLock().lock();
+            try {
+                channel.close();
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the distinct locations referenced by the index. A version can be both the current
+     *         version and a history version.
+     */
+    private List<Location> liveLocations()
+    {
+        Set<Location> live = new HashSet<>();
+        for (Slot slot : index.values()) {
+            if (slot.current != null) {
+                live.add(slot.current);
+            }
+            live.addAll(slot.history.values());
+        }
+        return new ArrayList<>(live);
+    }
+
+    /**
+     * Appends the given records and syncs the file. The records only become visible after they
+     * have been synced. The caller must hold the append lock.
+     */
+    private void append(List<Record> aRecords)
+        throws IOException
+    {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (Record record : aRecords) {
+            buffers.add(record.encode());
+        }
+
+        long pos = size;
+        try {
+            for (int i = 0; i < aRecords.size(); i++) {
+                ByteBuffer buffer = buffers.get(i);
+                aRecords.get(i).recordOffset = pos;
+                writeFully(channel, buffer, pos);
+                pos += buffer.limit();
+            }
+            channel.force(false);
+        }
+        catch (IOException e) {
+            // Do not leave a partial record behind which would hide subsequent records
+            try {
+                channel.truncate(size);
+            }
+            catch (IOException e1) {
+                e.addSuppressed(e1);
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Record record : aRecords) {
+                apply(record);
+            }
+            size = pos;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Record aRecord)
+    {
+        Key key = new Key(aRecord.documentId, aRecord.userName);
+        switch (aRecord.op) {
+        case OP_PUT: {
+            Location location = new Location(key, aRecord.timestamp, aRecord.recordOffset,
+                    aRecord.recordLength, aRecord.dataOffset);
+            Slot slot = index.computeIfAbsent(key, k -> new Slot());
+            if ((aRecord.flags & FLAG_CURRENT) != 0) {
+                slot.current = location;
+            }
+            if ((aRecord.flags & FLAG_HISTORY) != 0) {
+                slot.history.put(aRecord.timestamp, location);
+            }
+            break;
+        }
+        case OP_DELETE: {
+            Slot slot = index.get(key);
+            if (slot != null) {
+                slot.current = null;
+                if (slot.history.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+            break;
+        }
+        case OP_DELETE_DOCUMENT: {
+            index.keySet().removeIf(k -> k.documentId == aRecord.documentId);
+            break;
+        }
+        case OP_PRUNE: {
+            Slot slot = index.get(key);
+            if (slot != null) {
+                slot.history.headMap(aRecord.timestamp).clear();
+                if (slot.current == null && slot.history.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+            break;
+        }
+        default:
+            // Records are validated when they are read
+            throw new IllegalStateException("Unknown record type [" + aRecord.op + "]");
+        }
+    }
+
+    /**
+     * Reads the record at the given position.
+     *
+     * @return the record or {@code null} if it is corrupt.
+     */
+    private Record readRecord(long aPos, int aLength)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_OVERHEAD + aLength);
+        readFully(channel, buffer, aPos);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, aLength);
+        if ((int) crc.getValue() != buffer.getInt(4 + aLength)) {
+            return null;
+        }
+
+        try (DataInputStream is = new DataInputStream(
+                new ByteArrayInputStream(buffer.array(), 4, aLength))) {
+            Record record = new Record();
+            record.op = is.readByte();
+            if (record.op < OP_PUT || record.op > OP_PRUNE) {
+                return null;
+            }
+            record.flags = is.readByte();
+            record.documentId = is.readLong();
+            record.userName = is.readUTF();
+            record.timestamp = is.readLong();
+            record.recordOffset = aPos;
+            record.recordLength = RECORD_OVERHEAD + aLength;
+            // Everything after the fixed fields is the data
+            record.dataOffset = record.recordLength - 4 - is.available();
+            return record;
+        }
+    }
+
+    /**
+     * Reads the data of the given version. The checksum of the record is verified again to
+     * detect corruption which happened after the store has been opened.
+     */
+    private byte[] readData(Location aLocation)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(aLocation.recordLength);
+        readFully(channel, buffer, aLocation.recordOffset);
+
+        int length = aLocation.recordLength - RECORD_OVERHEAD;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, length);
+        if ((int) crc.getValue() != buffer.getInt(4 + length)) {
+            throw new IOException("Corrupt record at offset [" + aLocation.recordOffset
+                    + "] in CAS store [" + file + "]");
+        }
+
+        return Arrays.copyOfRange(buffer.array(), aLocation.dataOffset,
+                aLocation.recordLength - 4);
+    }
+
+    private static void writeFully(FileChannel aChannel, ByteBuffer aBuffer, long aPos)
+        throws IOException
+    {
+        long pos = aPos;
+        while (aBuffer.hasRemaining()) {
+            pos += aChannel.write(aBuffer, pos);
+        }
+    }
+
+    private static void readFully(FileChannel aChannel, ByteBuffer aBuffer, long aPos)
+        throws IOException
+    {
+        long pos = aPos;
+        while (aBuffer.hasRemaining()) {
+            int n = aChannel.read(aBuffer, pos);
+            if (n == -1) {
+                throw new IOException("Unexpected end of CAS store");
+            }
+            pos += n;
+        }
+    }
+
+    private static final class Record
+    {
+        private byte op;
+        private byte flags;
+        private long documentId;
+        private String userName;
+        private long timestamp;
+        private byte[] data;
+
+        private long recordOffset;
+        private int recordLength;
+        private int dataOffset;
+
+        private Record()
+        {
+            // Used when reading
+        }
+
+        private Record(byte aOp, byte aFlags, long aDocumentId, String aUserName,
+                long aTimestamp, byte[] aData)
+        {
+            op = aOp;
+            flags = aFlags;
+            documentId = aDocumentId;
+            userName = aUserName;
+            timestamp = aTimestamp;
+            data = aData;
+        }
+
+        /**
+         * Encodes the record as length prefix, body and checksum of the body. Also sets the
+         * record length and the offset of the data within the record.
+         */
+        private ByteBuffer encode()
+            throws IOException
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(
+                    64 + (data != null ? data.length : 0));
+            try (DataOutputStream os = new DataOutputStream(bos)) {
+                os.writeInt(0);
+                os.writeByte(op);
+                os.writeByte(flags);
+                os.writeLong(documentId);
+                os.writeUTF(userName);
+                os.writeLong(timestamp);
+                dataOffset = os.size();
+                if (data != null) {
+                    os.write(data);
+                }
+                os.writeInt(0);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bos.toByteArray());
+            int length = buffer.limit() - RECORD_OVERHEAD;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 4, length);
+            buffer.putInt(0, length);
+            buffer.putInt(4 + length, (int) crc.getValue());
+            recordLength = buffer.limit();
+            return buffer;
+        }
+    }
+
+    private static final class Key
+    {
+        private final long documentId;
+        private final String userName;
+
+        private Key(long aDocumentId, String aUserName)
+        {
+            documentId = aDocumentId;
+            userName = aUserName;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(documentId) + userName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && userName.equals(other.userName);
+        }
+    }
+
+    /**
+     * Location of a version in the store file. Instances are compared by identity so that a
+     * version which is both the current version and a history version is only counted once.
+     */
+    private static final class Location
+    {
+        private final Key key;
+        private final long timestamp;
+        private final long recordOffset;
+        private final int recordLength;
+        private final int dataOffset;
+
+        private Location(Key aKey, long aTimestamp, long aRecordOffset, int aRecordLength,
+                int aDataOffset)
+        {
+            key = aKey;
+            timestamp = aTimestamp;
+            recordOffset = aRecordOffset;
+            recordLength = aRecordLength;
+            dataOffset = aDataOffset;
+        }
+    }
+
+    private static final class Slot
+    {
+        private Location current;
+        private final TreeMap<Long, Location> history = new TreeMap<>();
+    }
+}
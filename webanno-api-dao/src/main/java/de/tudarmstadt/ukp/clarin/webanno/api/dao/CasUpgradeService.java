@@ -0,0 +1,479 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Upgrades all CASes of a project to the current type system of the project in the background,
+ * e.g. after layers or features have been added. Otherwise, every CAS would be upgraded when it
+ * is opened the next time, slowing down opening documents for every user and in particular
+ * pages using many documents at once. The upgraded CASes are written back, so the
+ * {@link AnnotationSchemaService#upgradeCas upgrade} is a no-op when they are opened.
+ * <p>
+ * The upgrade changes the addresses of the annotations, which editors use to refer to them. CASes
+ * which may still be open in an editor are therefore skipped and left to be upgraded when they
+ * are opened the next time.
+ * <p>
+ * All projects share a fixed number of worker threads, limiting the load caused by the upgrades.
+ * If the type system changes again while the CASes are upgraded, the upgrade starts over once
+ * the current pass is complete.
+ */
+@Component("casUpgradeService")
+public class CasUpgradeService
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * CASes which have been accessed by an editor more recently than this may still be open. This
+     * matches the default session timeout, after which the editor is gone.
+     */
+    static final long IN_USE_TIME = TimeUnit.MINUTES.toMillis(30);
+
+    @Value(value = "${repository.cas.upgrade.background}")
+    private boolean enabled;
+
+    @Value(value = "${repository.cas.upgrade.threads}")
+    private int threads;
+
+    @Resource(name = "annotationService")
+    private AnnotationSchemaService annotationService;
+
+    @Resource(name = "documentService")
+    private DocumentService documentService;
+
+    @Resource(name = "casStorageService")
+    private CasStorageService casStorageService;
+
+    @Resource(name = "casPool")
+    private CasPool casPool;
+
+    @Resource(name = "repositoryLayout")
+    private RepositoryLayout repositoryLayout;
+
+    private final Map<Long, UpgradeJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Per project, the key of the type system to which all CASes have been upgraded since WebAnno
+     * has been started.
+     */
+    private final Map<Long, String> upgradedTypeSystems = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    private volatile boolean running = false;
+
+    public CasUpgradeService()
+    {
+        // Nothing to do
+    }
+
+    CasUpgradeService(AnnotationSchemaService aAnnotationService,
+            DocumentService aDocumentService, CasStorageService aCasStorageService,
+            CasPool aCasPool, RepositoryLayout aRepositoryLayout, int aThreads)
+    {
+        enabled = true;
+        threads = aThreads;
+        annotationService = aAnnotationService;
+        documentService = aDocumentService;
+        casStorageService = aCasStorageService;
+        casPool = aCasPool;
+        repositoryLayout = aRepositoryLayout;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Starts upgrading the CASes of the given project in the background. If the CASes are already
+     * being upgraded, the upgrade is repeated afterwards so that CASes which have already been
+     * upgraded get the latest type system.
+     *
+     * @param aProject
+     *            the project.
+     * @return the upgrade job or {@code null} if background upgrades are disabled.
+     */
+    public synchronized UpgradeJob startUpgrade(Project aProject)
+    {
+        if (!enabled || !running) {
+            return null;
+        }
+
+        UpgradeJob job = jobs.get(aProject.getId());
+        if (job != null && !job.done) {
+            job.restartRequested = true;
+            return job;
+        }
+
+        UpgradeJob newJob = new UpgradeJob(aProject);
+        jobs.put(aProject.getId(), newJob);
+
+        Thread thread = new Thread(() -> run(newJob),
+                "CAS upgrade of project " + aProject.getId());
+        thread.setDaemon(true);
+        thread.start();
+
+        return newJob;
+    }
+
+    /**
+     * @return the last upgrade job of the given project or {@code null} if there is none.
+     */
+    public UpgradeJob getJob(Project aProject)
+    {
+        return jobs.get(aProject.getId());
+    }
+
+    private void run(UpgradeJob aJob)
+    {
+        Project project = aJob.project;
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(project.getId()))) {
+            while (true) {
+                aJob.restartRequested = false;
+
+                String typeSystemKey = getTypeSystemKey(project);
+                if (typeSystemKey.equals(upgradedTypeSystems.get(project.getId()))) {
+                    log.debug("CASes of project [{}]({}) are up to date", project.getName(),
+                            project.getId());
+                }
+                else if (upgradeAll(aJob)) {
+                    upgradedTypeSystems.put(project.getId(), typeSystemKey);
+                }
+
+                synchronized (this) {
+                    if (!aJob.restartRequested || !running) {
+                        aJob.done = true;
+                        return;
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to upgrade the CASes of project [{}]({})", project.getName(),
+                    project.getId(), e);
+        }
+        finally {
+            aJob.done = true;
+        }
+    }
+
+    /**
+     * Upgrades all CASes of the project once.
+     *
+     * @return whether all CASes have been upgraded successfully.
+     */
+    private boolean upgradeAll(UpgradeJob aJob)
+        throws IOException, InterruptedException
+    {
+        Project project = aJob.project;
+        long start = System.currentTimeMillis();
+
+        List<Pair<SourceDocument, String>> targets = new ArrayList<>();
+        for (SourceDocument sd : documentService.listSourceDocuments(project)) {
+            Set<String> users = new LinkedHashSet<>();
+            users.add(INITIAL_CAS_PSEUDO_USER);
+            for (AnnotationDocument ad : documentService.listAnnotationDocuments(sd)) {
+                users.add(ad.getUser());
+            }
+            users.add(CURATION_USER);
+            users.add(CORRECTION_USER);
+            for (String user : users) {
+                targets.add(Pair.of(sd, user));
+            }
+        }
+
+        aJob.total.set(targets.size());
+        aJob.processed.set(0);
+        aJob.upgraded.set(0);
+        aJob.skipped.set(0);
+        aJob.errors.set(0);
+        log.info("Upgrading CASes of project [{}]({}) in the background", project.getName(),
+                project.getId());
+
+        // Only queue a few more CASes than can be processed at a time, so other projects get their
+        // turn and the upgrade can be abandoned quickly
+        int slotCount = Math.max(threads, 1) * 2;
+        Semaphore slots = new Semaphore(slotCount);
+        for (Pair<SourceDocument, String> target : targets) {
+            if (!running || aJob.restartRequested) {
+                break;
+            }
+
+            slots.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (upgrade(aJob, target.getKey(), target.getValue())) {
+                            aJob.upgraded.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e) {
+                        aJob.errors.incrementAndGet();
+                        log.error("Unable to upgrade CAS of user [{}] for document [{}]({})",
+                                target.getValue(), target.getKey().getName(),
+                                target.getKey().getId(), e);
+                    }
+                    finally {
+                        aJob.processed.incrementAndGet();
+                        slots.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The service has been stopped since we have checked - the slot is not used
+                slots.release();
+                break;
+            }
+        }
+
+        // Wait for the CASes which are still being upgraded
+        slots.acquire(slotCount);
+
+        // Skipped CASes are upgraded by the next upgrade of the project
+        boolean complete = aJob.processed.get() == targets.size() && aJob.errors.get() == 0
+                && aJob.skipped.get() == 0;
+        log.info("Upgraded {} of {} CASes of project [{}]({}) in {}ms, skipped {} in use{}",
+                aJob.upgraded.get(), aJob.processed.get(), project.getName(), project.getId(),
+                System.currentTimeMillis() - start, aJob.skipped.get(),
+                complete ? "" : " - incomplete");
+        return complete;
+    }
+
+    /**
+     * Upgrades a single CAS if it exists and is not in use.
+     *
+     * @return whether the CAS has been upgraded.
+     */
+    private boolean upgrade(UpgradeJob aJob, SourceDocument aDocument, String aUser)
+        throws IOException, UIMAException
+    {
+        if (!INITIAL_CAS_PSEUDO_USER.equals(aUser)) {
+            // Check before reading the CAS to avoid reading it in vain
+            if (isInUse(aDocument, aUser)) {
+                aJob.skipped.incrementAndGet();
+                return false;
+            }
+            
+            return casStorageService.updateCas(aDocument, aUser, cas -> {
+                // Check again while holding the lock - nobody can read the CAS until it has been
+                // upgraded now
+                if (isInUse(aDocument, aUser)) {
+                    aJob.skipped.incrementAndGet();
+                    return false;
+                }
+                return annotationService.upgradeCas(cas, aDocument, aUser);
+            });
+        }
+
+        // The initial CASes are not managed by the CAS storage and not opened by editors
+        File file = documentService.getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER);
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), true)) {
+            if (!file.exists()) {
+                return false;
+            }
+
+            CAS cas = CasPersistenceUtils.readSerializedCas(casPool, file);
+            try {
+                if (!annotationService.upgradeCas(cas, aDocument, aUser)) {
+                    return false;
+                }
+                CasPersistenceUtils.writeSerializedCas(cas.getJCas(), file);
+                return true;
+            }
+            finally {
+                casPool.release(cas);
+            }
+        }
+    }
+
+    private boolean isInUse(SourceDocument aDocument, String aUser)
+    {
+        long lastAccess = casStorageService.getCasLastAccess(aDocument, aUser);
+        return lastAccess >= 0 && System.currentTimeMillis() - lastAccess < IN_USE_TIME;
+    }
+
+    private String getTypeSystemKey(Project aProject)
+        throws IOException, UIMAException
+    {
+        CAS cas = annotationService.createCas(aProject);
+        try {
+            return CasPersistenceUtils.getTypeSystemKey(cas);
+        }
+        finally {
+            casPool.release(cas);
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), r -> {
+            Thread thread = new Thread(r, "CAS upgrade " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        // CASes which have not been upgraded yet are upgraded when they are opened. The upgrades
+        // in progress are completed because the CAS storage is only stopped after this service.
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("CAS upgrades still running after waiting for one minute");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getPhase()
+    {
+        // Stop before the CAS storage which the upgrades use
+        return 0;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    /**
+     * The progress of upgrading the CASes of a project.
+     */
+    public static final class UpgradeJob
+    {
+        private final Project project;
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong upgraded = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private volatile boolean restartRequested = false;
+        private volatile boolean done = false;
+
+        private UpgradeJob(Project aProject)
+        {
+            project = aProject;
+        }
+
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        public long getTotal()
+        {
+            return total.get();
+        }
+
+        public long getProcessed()
+        {
+            return processed.get();
+        }
+
+        public long getUpgraded()
+        {
+            return upgraded.get();
+        }
+
+        /**
+         * @return the number of CASes which have not been upgraded because they may be open.
+         */
+        public long getSkipped()
+        {
+            return skipped.get();
+        }
+
+        public long getErrors()
+        {
+            return errors.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("processed: %d/%d, upgraded: %d, skipped: %d, errors: %d",
+                    processed.get(), total.get(), upgraded.get(), skipped.get(), errors.get());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
+
+/**
+ * Runs the CAS Doctor checks on saved CASes in the background, so saving does not have to wait
+ * for the checks. If a check fails, the affected version of the CAS is copied to the
+ * {@code quarantine} folder of the document together with the messages of the checks and the CAS
+ * is flagged. The next save of a flagged CAS is checked synchronously again, so the problem
+ * surfaces to the user just like when checking every save. When checking incrementally, it runs
+ * the full checks which are skipped while saving.
+ * <p>
+ * At most one version per CAS is waiting to be checked. If a CAS is saved again before its
+ * previous version has been checked, only the newer version is checked.
+ */
+class CasVerifier
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String QUARANTINE = "/quarantine";
+
+    private final CasDoctor casDoctor;
+    private final RepositoryLayout layout;
+
+    private final ExecutorService executor;
+
+    /**
+     * Versions which are waiting to be checked.
+     */
+    private final ConcurrentMap<CasKey, Job> queued = new ConcurrentHashMap<>();
+
+    /**
+     * CASes for which a check failed and the messages of the failed check.
+     */
+    private final ConcurrentMap<CasKey, List<LogMessage>> flagged = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public CasVerifier(CasDoctor aCasDoctor, RepositoryLayout aLayout)
+    {
+        casDoctor = aCasDoctor;
+        layout = aLayout;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CAS verifier");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the given version of a CAS for checking.
+     */
+    public void submit(CasKey aKey, Project aProject, CASCompleteSerializer aSnapshot)
+    {
+        submitted.incrementAndGet();
+        if (queued.put(aKey, new Job(aProject, aSnapshot)) != null) {
+            // The previous version has not been checked yet and is now superseded
+            return;
+        }
+
+        try {
+            executor.execute(() -> verify(aKey));
+        }
+        catch (RejectedExecutionException e) {
+            // Shutting down - the version is not checked
+            queued.remove(aKey);
+        }
+    }
+
+    /**
+     * @return whether a check has failed for a previous version of the given CAS.
+     */
+    public boolean isFlagged(CasKey aKey)
+    {
+        return flagged.containsKey(aKey);
+    }
+
+    /**
+     * Removes the flag from the given CAS, e.g. because a later version has passed the checks.
+     */
+    public void clearFlag(CasKey aKey)
+    {
+        flagged.remove(aKey);
+    }
+
+    /**
+     * Drops the queued versions and flags of all CASes of the given document.
+     */
+    public void forgetDocument(long aDocumentId)
+    {
+        queued.keySet().removeIf(k -> k.getDocumentId() == aDocumentId);
+        flagged.keySet().removeIf(k -> k.getDocumentId() == aDocumentId);
+    }
+
+    /**
+     * Stops checking. Versions which have not been checked yet are dropped.
+     */
+    public void stop()
+    {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queued.clear();
+    }
+
+    private void verify(CasKey aKey)
+    {
+        Job job = queued.remove(aKey);
+        if (job == null) {
+            return;
+        }
+
+        List<LogMessage> messages = new ArrayList<>();
+        boolean ok;
+        CAS cas;
+        try {
+            cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CasPersistenceUtils.restoreSnapshot(job.snapshot, cas);
+            ok = casDoctor.analyze(job.project, cas, messages, false);
+        }
+        catch (Exception e) {
+            log.error("Unable to check CAS {}", aKey, e);
+            return;
+        }
+
+        verified.incrementAndGet();
+        if (ok) {
+            return;
+        }
+
+        failed.incrementAndGet();
+        flagged.put(aKey, messages);
+
+        try {
+            File file = quarantine(aKey, cas, messages);
+            log.error("CAS Doctor found problems in CAS {} - version quarantined as [{}]", aKey,
+                    file);
+        }
+        catch (IOException | UIMAException e) {
+            log.error("CAS Doctor found problems in CAS {} - unable to quarantine version", aKey,
+                    e);
+        }
+    }
+
+    /**
+     * Copies the given version of the CAS and the messages of the checks to the quarantine folder
+     * of the document. The CAS is stored in the self-contained legacy format, so it can be
+     * inspected independently from the repository.
+     */
+    private File quarantine(CasKey aKey, CAS aCas, List<LogMessage> aMessages)
+        throws IOException, UIMAException
+    {
+        try (LockHandle lock = layout.lockDocument(aKey.getDocumentId(), false)) {
+            File folder = layout.getDocumentFolder(aKey.getProjectId(), aKey.getDocumentId(),
+                    QUARANTINE);
+            FileUtils.forceMkdir(folder);
+
+            String name = aKey.getUserName() + "-" + System.currentTimeMillis();
+            File casFile = new File(folder, name + ".ser");
+            CasPersistenceUtils.writeSerializedCas(aCas.getJCas(), casFile);
+            FileUtils.writeStringToFile(new File(folder, name + ".txt"), aMessages.stream()
+                    .map(m -> String.format("[%s] %s", m.level, m.message))
+                    .collect(Collectors.joining("\n", "", "\n")), StandardCharsets.UTF_8);
+            return casFile;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "submitted: " + submitted.get() + ", verified: " + verified.get() + ", failed: "
+                + failed.get() + ", queued: " + queued.size() + ", flagged: " + flagged.size();
+    }
+
+    private static final class Job
+    {
+        private final Project project;
+        private final CASCompleteSerializer snapshot;
+
+        public Job(Project aProject, CASCompleteSerializer aSnapshot)
+        {
+            project = aProject;
+            snapshot = aSnapshot;
+        }
+    }
+}
@@ -18,14 +18,13 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
-import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
-import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.SOURCE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static org.apache.commons.io.IOUtils.copyLarge;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,6 +36,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.stream.Stream;
 import java.util.zip.ZipFile;
 
 import javax.annotation.Resource;
@@ -50,8 +50,6 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -61,6 +59,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentLifecycleAware;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentLifecycleAwareRegistry;
@@ -74,9 +74,11 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 
 @Component(DocumentService.SERVICE_NAME)
@@ -97,9 +99,15 @@ public class DocumentServiceImpl
     @Resource(name = "casStorageService")
     private CasStorageService casStorageService;
 
+    @Resource(name = "casPool")
+    private CasPool casPool;
+
     @Resource(name = "importExportService")
     private ImportExportService importExportService;
 
+    @Resource(name = "repositoryLayout")
+    private RepositoryLayout repositoryLayout;
+
     @Resource
     private DocumentLifecycleAwareRegistry documentLifecycleAwareRegistry;
 
@@ -139,10 +147,8 @@ public class DocumentServiceImpl
     public File getDocumentFolder(SourceDocument aDocument)
         throws IOException
     {
-        File sourceDocFolder = new File(dir, PROJECT + aDocument.getProject().getId() + DOCUMENT
-                + aDocument.getId() + SOURCE);
-        FileUtils.forceMkdir(sourceDocFolder);
-        return sourceDocFolder;
+        return repositoryLayout.createDocumentFolder(aDocument.getProject().getId(),
+                aDocument.getId(), SOURCE);
     }
 
     @Override
@@ -156,6 +162,11 @@ public class DocumentServiceImpl
         else {
             entityManager.merge(aDocument);
         }
+        
+        // A finished curation must not be lost, so do not keep it pending in the write-behind
+        if (SourceDocumentState.CURATION_FINISHED.equals(aDocument.getState())) {
+            casStorageService.flushCas(aDocument, WebAnnoConst.CURATION_USER);
+        }
     }
 
     @Override
@@ -189,6 +200,17 @@ public class DocumentServiceImpl
             entityManager.merge(aAnnotationDocument);
         }
         
+        // Finished annotations must not be lost, so do not keep them pending in the write-behind
+        if (AnnotationDocumentState.FINISHED.equals(aAnnotationDocument.getState())) {
+            try {
+                casStorageService.flushCas(aAnnotationDocument.getDocument(),
+                        aAnnotationDocument.getUser());
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aAnnotationDocument.getProject().getId()))) {
             log.info(
@@ -207,8 +229,7 @@ public class DocumentServiceImpl
     public boolean existsCas(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        return new File(casStorageService.getAnnotationFolder(aSourceDocument), aUsername + ".ser")
-                .exists();
+        return casStorageService.existsCas(aSourceDocument, aUsername);
     }
 
     @Override
@@ -239,16 +260,39 @@ public class DocumentServiceImpl
     @Override
     public File getSourceDocumentFile(SourceDocument aDocument)
     {
-        File documentUri = new File(dir.getAbsolutePath() + PROJECT
-                + aDocument.getProject().getId() + DOCUMENT + aDocument.getId() + SOURCE);
+        File documentUri = repositoryLayout.getDocumentFolder(aDocument.getProject().getId(),
+                aDocument.getId(), SOURCE);
         return new File(documentUri, aDocument.getName());
     }
 
+    @Override
+    public void copySourceDocumentFile(SourceDocument aDocument, OutputStream aOut)
+        throws IOException
+    {
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), false);
+                InputStream is = new FileInputStream(getSourceDocumentFile(aDocument))) {
+            copyLarge(is, aOut);
+        }
+    }
+
+    @Override
+    public void replaceSourceDocumentFile(SourceDocument aDocument, InputStream aIn)
+        throws IOException
+    {
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), false)) {
+            File file = getSourceDocumentFile(aDocument);
+            FileUtils.forceMkdir(file.getParentFile());
+            try (OutputStream os = new FileOutputStream(file)) {
+                copyLarge(aIn, os);
+            }
+        }
+    }
+
     @Override
     public File getCasFile(SourceDocument aDocument, String aUser)
     {
-        File documentUri = new File(dir.getAbsolutePath() + PROJECT
-                + aDocument.getProject().getId() + DOCUMENT + aDocument.getId() + ANNOTATION);
+        File documentUri = repositoryLayout.getDocumentFolder(aDocument.getProject().getId(),
+                aDocument.getId(), ANNOTATION);
         return new File(documentUri, aUser + ".ser");
     }
     
@@ -419,11 +463,14 @@ public class DocumentServiceImpl
         
         entityManager.remove(aDocument);
 
-        String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
-                + aDocument.getId();
         // remove from file both source and related annotation file
-        if (new File(path).exists()) {
-            FileUtils.forceDelete(new File(path));
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), true)) {
+            File folder = repositoryLayout.getDocumentFolder(aDocument.getProject().getId(),
+                    aDocument.getId());
+            if (folder.exists()) {
+                FileUtils.forceDelete(folder);
+            }
+            repositoryLayout.forgetDocument(aDocument.getId());
         }
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -465,7 +512,8 @@ public class DocumentServiceImpl
         try {
             FileUtils.forceMkdir(targetFile.getParentFile());
             
-            try (OutputStream os = new FileOutputStream(targetFile)) {
+            try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), false);
+                    OutputStream os = new FileOutputStream(targetFile)) {
                 copyLarge(aIs, os);
             }
             
@@ -510,7 +558,8 @@ public class DocumentServiceImpl
     public boolean existsInitialCas(SourceDocument aDocument)
         throws IOException
     {
-        return existsCas(aDocument, INITIAL_CAS_PSEUDO_USER);
+        // The initial CAS is always kept as a file of its own, independent of the storage backend
+        return getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER).exists();
     }
 
     @Override
@@ -527,17 +576,23 @@ public class DocumentServiceImpl
         // Normally, the initial CAS should be created on document import, but after
         // adding this feature, the existing projects do not yet have initial CASes, so
         // we create them here lazily
-        JCas jcas = importExportService.importCasFromFile(getSourceDocumentFile(aDocument),
-                aDocument.getProject(), aDocument.getFormat());
-        
-        if (aAnalyzeRepairAndSave) {
-            casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
+        // The document lock ensures that the document folder is not moved meanwhile
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), false)) {
+            JCas jcas = importExportService.importCasFromFile(getSourceDocumentFile(aDocument),
+                    aDocument.getProject(), aDocument.getFormat());
+            
+            if (aAnalyzeRepairAndSave) {
+                casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER,
+                        jcas.getCas());
+                
+                File casFile = new File(repositoryLayout.createDocumentFolder(
+                        aDocument.getProject().getId(), aDocument.getId(), ANNOTATION),
+                        INITIAL_CAS_PSEUDO_USER + ".ser");
+                CasPersistenceUtils.writeSerializedCas(jcas, casFile);
+            }
             
-            CasPersistenceUtils.writeSerializedCas(jcas,
-                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+            return jcas;
         }
-        
-        return jcas;
     }
 
     @Override
@@ -551,9 +606,12 @@ public class DocumentServiceImpl
     public JCas readInitialCas(SourceDocument aDocument, boolean aAnalyzeAndRepair)
         throws CASException, ResourceInitializationException, IOException
     {
-        JCas jcas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null).getJCas();
-        
-        CasPersistenceUtils.readSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        JCas jcas;
+        try (LockHandle lock = repositoryLayout.lockDocument(aDocument.getId(), false)) {
+            jcas = CasPersistenceUtils
+                    .readSerializedCas(casPool, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER))
+                    .getJCas();
+        }
         
         if (aAnalyzeAndRepair) {
             casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
@@ -604,12 +662,45 @@ public class DocumentServiceImpl
     @Transactional
     public JCas readAnnotationCas(AnnotationDocument aAnnotationDocument, boolean aAnalyzeAndRepair)
         throws IOException
+    {
+        return readOrCreateCas(aAnnotationDocument.getDocument(), aAnnotationDocument.getUser(),
+                aAnalyzeAndRepair);
+    }
+    
+    @Override
+    public Stream<CasReadResult> readAnnotationCases(List<AnnotationDocument> aAnnotationDocuments)
+    {
+        List<CasReadRequest> requests = new ArrayList<>();
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            requests.add(new CasReadRequest(annotationDocument.getDocument(),
+                    annotationDocument.getUser()));
+        }
+        
+        // CASes which do not exist yet are created from the source document on the calling
+        // thread, just like readAnnotationCas() would do
+        return casStorageService.readCases(requests, true).map(result -> {
+            if (result.isSuccessful() || !(result.getError() instanceof FileNotFoundException)) {
+                return result;
+            }
+            
+            try {
+                return new CasReadResult(result.getRequest(),
+                        readOrCreateCas(result.getDocument(), result.getUsername(), true));
+            }
+            catch (IOException | RuntimeException e) {
+                return new CasReadResult(result.getRequest(), e);
+            }
+        });
+    }
+    
+    private JCas readOrCreateCas(SourceDocument aDocument, String aUsername,
+            boolean aAnalyzeAndRepair)
+        throws IOException
     {
         // If there is no CAS yet for the annotation document, create one.
         JCas jcas = null;
-        SourceDocument aDocument = aAnnotationDocument.getDocument();
-        String user = aAnnotationDocument.getUser();
-        if (!existsCas(aAnnotationDocument.getDocument(), user)) {
+        String user = aUsername;
+        if (!existsCas(aDocument, user)) {
             // Convert the source file into an annotation CAS
             try {
                 if (!existsInitialCas(aDocument)) {
@@ -686,8 +777,10 @@ public class DocumentServiceImpl
             AnnotationDocument annotationDocument = getAnnotationDocument(aDocument, user);
             try {
                 CAS cas = readAnnotationCas(annotationDocument).getCas();
-                upgradeCas(cas, annotationDocument);
-                writeAnnotationCas(cas.getJCas(), annotationDocument.getDocument(), user, false);
+                if (upgradeCas(cas, annotationDocument)) {
+                    writeAnnotationCas(cas.getJCas(), annotationDocument.getDocument(), user,
+                            false);
+                }
 
                 // This is no longer needed because it is handled on the respective pages.
 //                if (aMode.equals(Mode.ANNOTATION)) {
@@ -724,10 +817,10 @@ public class DocumentServiceImpl
     }
 
     @Override
-    public void upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
+    public boolean upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
         throws UIMAException, IOException
     {
-        annotationService.upgradeCas(aCas, aAnnotationDocument.getDocument(),
+        return annotationService.upgradeCas(aCas, aAnnotationDocument.getDocument(),
                 aAnnotationDocument.getUser());
     }
     
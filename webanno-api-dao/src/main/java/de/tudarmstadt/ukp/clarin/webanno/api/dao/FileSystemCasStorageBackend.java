@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Stores every CAS in a file of its own in the annotation folder of its document. This is the
+ * traditional layout of the repository. The location of the document folders is determined by
+ * the {@link RepositoryLayout}. The history is managed by {@link CasHistory}.
+ */
+public class FileSystemCasStorageBackend
+    implements CasStorageBackend
+{
+    private static final String SUFFIX = ".ser";
+    private static final String OLD_SUFFIX = ".ser.old";
+
+    private final RepositoryLayout layout;
+    private final CasHistory history;
+
+    /**
+     * Versions of the CAS files. The modification time of a file is too coarse to tell two writes
+     * apart, so every write (or delete) through this backend assigns a new version instead. CAS
+     * files which have not been touched since startup get a version on first access.
+     */
+    private final ConcurrentMap<CasKey, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    /**
+     * @param aLayout
+     *            the layout of the repository.
+     * @param aInterval
+     *            minimum time between two history snapshots. If this is {@code 0}, no history is
+     *            kept.
+     * @param aKeepTime
+     *            maximum age of history snapshots to keep.
+     * @param aKeepNumber
+     *            maximum number of history snapshots to keep.
+     * @param aDelta
+     *            whether to store older history snapshots as deltas.
+     */
+    public FileSystemCasStorageBackend(RepositoryLayout aLayout, long aInterval, long aKeepTime,
+            int aKeepNumber, boolean aDelta)
+    {
+        layout = aLayout;
+        history = new CasHistory(aInterval, aKeepTime, aKeepNumber, aDelta);
+    }
+
+    @Override
+    public void start()
+    {
+        history.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        history.stop();
+    }
+
+    @Override
+    public boolean exists(CasKey aKey)
+    {
+        return getCasFile(aKey).exists();
+    }
+
+    @Override
+    public InputStream read(CasKey aKey)
+        throws IOException
+    {
+        File file = getCasFile(aKey);
+        if (!file.exists()) {
+            throw new FileNotFoundException("CAS file [" + file + "] not found");
+        }
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public void write(CasKey aKey, CasWriter aWriter)
+        throws IOException
+    {
+        File annotationFolder = layout.createDocumentFolder(aKey.getProjectId(),
+                aKey.getDocumentId(), ANNOTATION);
+
+        File currentVersion = new File(annotationFolder, aKey.getUserName() + SUFFIX);
+        File oldVersion = new File(annotationFolder, aKey.getUserName() + OLD_SUFFIX);
+
+        // Save current version
+        try {
+            // Make a backup of the current version of the file before overwriting. This also
+            // ensures that the new version is a new file and not written in place, which matters
+            // because the current version may be hard-linked into the history.
+            if (currentVersion.exists()) {
+                renameFile(currentVersion, oldVersion);
+            }
+
+            try (OutputStream os = new BufferedOutputStream(
+                    new FileOutputStream(currentVersion))) {
+                aWriter.write(os);
+            }
+
+            // If the saving was successful, we delete the old version
+            if (oldVersion.exists()) {
+                FileUtils.forceDelete(oldVersion);
+            }
+        }
+        catch (IOException e) {
+            // If we could not save the new version, restore the old one.
+            FileUtils.forceDelete(currentVersion);
+            // If this is the first version, there is no old version, so do not restore anything
+            if (oldVersion.exists()) {
+                renameFile(oldVersion, currentVersion);
+            }
+            // Now abort anyway
+            throw e;
+        }
+        finally {
+            // Whatever is on disk now, cached copies of the previous state are no longer valid
+            versions.put(aKey, lastVersion.incrementAndGet());
+        }
+
+        // Manage history
+        history.snapshot(aKey.getProjectId(), currentVersion, aKey.getUserName());
+    }
+
+    @Override
+    public boolean delete(CasKey aKey)
+        throws IOException
+    {
+        try {
+            return Files.deleteIfExists(getCasFile(aKey).toPath());
+        }
+        finally {
+            versions.remove(aKey);
+        }
+    }
+
+    @Override
+    public long getVersion(CasKey aKey)
+    {
+        File file = getCasFile(aKey);
+        if (!file.exists()) {
+            return -1;
+        }
+        return versions.computeIfAbsent(aKey, k -> lastVersion.incrementAndGet());
+    }
+
+    @Override
+    public List<Long> listHistory(CasKey aKey)
+    {
+        return history.listSnapshots(aKey.getProjectId(), getCasFile(aKey), aKey.getUserName());
+    }
+
+    @Override
+    public byte[] readHistory(CasKey aKey, long aTimestamp)
+        throws IOException
+    {
+        return history.readSnapshot(aKey.getProjectId(), getCasFile(aKey), aKey.getUserName(),
+                aTimestamp);
+    }
+
+    @Override
+    public List<CasKey> list(long aProjectId)
+    {
+        List<CasKey> keys = new ArrayList<>();
+        for (Entry<Long, File> document : layout.listDocumentFolders(aProjectId).entrySet()) {
+            long documentId = document.getKey();
+            File[] casFiles = new File(document.getValue(), ANNOTATION)
+                    .listFiles(f -> f.isFile() && f.getName().endsWith(SUFFIX));
+            if (casFiles == null) {
+                continue;
+            }
+
+            for (File casFile : casFiles) {
+                String name = casFile.getName();
+                keys.add(new CasKey(aProjectId, documentId,
+                        name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void deleteDocument(long aProjectId, long aDocumentId)
+    {
+        // The document folder including the CASes and their history is removed by the document
+        // service
+        versions.keySet().removeIf(key -> key.getProjectId() == aProjectId
+                && key.getDocumentId() == aDocumentId);
+    }
+
+    @Override
+    public void deleteProject(long aProjectId)
+    {
+        // The project folder including the CASes and their history is removed by the project
+        // service
+        versions.keySet().removeIf(key -> key.getProjectId() == aProjectId);
+    }
+
+    public File getCasFile(CasKey aKey)
+    {
+        return new File(getAnnotationFolder(aKey.getProjectId(), aKey.getDocumentId()),
+                aKey.getUserName() + SUFFIX);
+    }
+
+    public File getAnnotationFolder(long aProjectId, long aDocumentId)
+    {
+        return layout.getDocumentFolder(aProjectId, aDocumentId, ANNOTATION);
+    }
+
+    /**
+     * @return the history manager. Provides access to the history statistics.
+     */
+    CasHistory getHistory()
+    {
+        return history;
+    }
+
+    /**
+     * Renames a file.
+     *
+     * @throws IOException
+     *             if the file cannot be renamed.
+     */
+    private static void renameFile(File aFrom, File aTo)
+        throws IOException
+    {
+        if (!aFrom.renameTo(aTo)) {
+            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
+        }
+    }
+}
@@ -52,13 +52,9 @@ import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.CollectionReaderFactory;
-import org.apache.uima.fit.factory.JCasFactory;
-import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -147,35 +143,30 @@ public class ImportExportServiceImpl
             String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
     {
-        File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
-        String serializedCasFileName;
+        String casUser;
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCasFileName = aUser + ".ser";
+            casUser = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCasFileName = WebAnnoConst.CURATION_USER + ".ser";
+            casUser = WebAnnoConst.CURATION_USER;
         }
 
-        // Read file
-        File serializedCasFile = new File(annotationFolder, serializedCasFileName);
-        if (!serializedCasFile.exists()) {
-            throw new FileNotFoundException("CAS file [" + serializedCasFileName
-                    + "] not found in [" + annotationFolder + "]");
-        }
-
-        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        CasPersistenceUtils.readSerializedCas(cas.getJCas(), serializedCasFile);
+        // Read file - the CAS storage takes care of the different storage formats
+        CAS cas = casStorageService.readCas(aDocument, casUser, false).getCas();
 
         // Update type system the CAS
         annotationService.upgradeCas(cas, aDocument, aUser);
         
         File exportFile = exportCasToFile(cas, aDocument, aFileName, aWriter, aStripExtension);
+        
+        // The CAS is not used anymore - allow it to be reused when exporting the next document
+        casStorageService.releaseCas(cas);
 
         Project project = aDocument.getProject();
         
@@ -189,6 +180,13 @@ public class ImportExportServiceImpl
         return exportFile;
     }
     
+    @Override
+    public void exportSerializedCas(SourceDocument aDocument, String aUser, File aTargetFolder)
+        throws IOException
+    {
+        casStorageService.exportCas(aDocument, aUser, new File(aTargetFolder, aUser + ".ser"));
+    }
+    
     @Override
     @Transactional
     public void uploadTrainingDocument(File aFile, TrainingDocument aDocument)
@@ -346,12 +344,7 @@ public class ImportExportServiceImpl
         }
         
         // Prepare a CAS with the project type system
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = annotationService.getProjectTypes(aProject);
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-        CAS cas = JCasFactory.createJCas(allTypes).getCas();
+        CAS cas = annotationService.createCas(aProject);
 
         // Convert the source document to CAS
         CollectionReader reader = CollectionReaderFactory.createReader(readerClass,
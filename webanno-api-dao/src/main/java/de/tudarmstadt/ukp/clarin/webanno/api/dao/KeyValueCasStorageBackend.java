@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores all CASes of a project including their history in a single {@link CasStore} file in the
+ * project folder. Compared to the file system backend, this avoids creating, renaming and
+ * deleting several files per save and keeps the number of files in the repository low. Writes
+ * are synced to disk before they are acknowledged.
+ * <p>
+ * Stores are opened on first access. Outdated history versions are removed and stores with a
+ * lot of superseded data are compacted in the background.
+ */
+public class KeyValueCasStorageBackend
+    implements CasStorageBackend
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static final String STORE_FILE = "annotations.store";
+
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 300;
+
+    private final File dir;
+    private final long interval;
+    private final long keepTime;
+    private final int keepNumber;
+
+    private final Map<Long, CasStore> stores = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService maintenanceExecutor;
+
+    /**
+     * @param aRepository
+     *            the repository folder.
+     * @param aInterval
+     *            minimum time between two history versions. If this is {@code 0}, no history is
+     *            kept.
+     * @param aKeepTime
+     *            maximum age of history versions to keep.
+     * @param aKeepNumber
+     *            maximum number of history versions to keep.
+     */
+    public KeyValueCasStorageBackend(File aRepository, long aInterval, long aKeepTime,
+            int aKeepNumber)
+    {
+        dir = aRepository;
+        interval = aInterval;
+        keepTime = aKeepTime;
+        keepNumber = aKeepNumber;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (maintenanceExecutor == null) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "CAS store maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceExecutor.scheduleWithFixedDelay(this::maintainQuietly,
+                    MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+            maintenanceExecutor = null;
+        }
+
+        for (Long projectId : stores.keySet()) {
+            closeStore(projectId);
+        }
+    }
+
+    @Override
+    public boolean exists(CasKey aKey)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        return store != null && store.exists(aKey.getDocumentId(), aKey.getUserName());
+    }
+
+    @Override
+    public InputStream read(CasKey aKey)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        byte[] data = store != null ? store.read(aKey.getDocumentId(), aKey.getUserName())
+                : null;
+        if (data == null) {
+            throw new FileNotFoundException("CAS " + aKey + " not found");
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void write(CasKey aKey, CasWriter aWriter)
+        throws IOException
+    {
+        // Serialize completely before touching the store so a failing writer leaves no trace
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        aWriter.write(buffer);
+
+        getStore(aKey.getProjectId(), true).put(aKey.getDocumentId(), aKey.getUserName(),
+                buffer.toByteArray());
+    }
+
+    @Override
+    public boolean delete(CasKey aKey)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        return store != null && store.delete(aKey.getDocumentId(), aKey.getUserName());
+    }
+
+    @Override
+    public long getVersion(CasKey aKey)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        return store != null ? store.getVersion(aKey.getDocumentId(), aKey.getUserName()) : -1;
+    }
+
+    @Override
+    public List<Long> listHistory(CasKey aKey)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        return store != null ? store.listHistory(aKey.getDocumentId(), aKey.getUserName())
+                : Collections.emptyList();
+    }
+
+    @Override
+    public byte[] readHistory(CasKey aKey, long aTimestamp)
+        throws IOException
+    {
+        CasStore store = getStore(aKey.getProjectId(), false);
+        byte[] data = store != null
+                ? store.readHistory(aKey.getDocumentId(), aKey.getUserName(), aTimestamp)
+                : null;
+        if (data == null) {
+            throw new FileNotFoundException("No history version [" + aTimestamp + "] of CAS "
+                    + aKey);
+        }
+        return data;
+    }
+
+    @Override
+    public List<CasKey> list(long aProjectId)
+        throws IOException
+    {
+        CasStore store = getStore(aProjectId, false);
+        return store != null ? store.list() : Collections.emptyList();
+    }
+
+    @Override
+    public void deleteDocument(long aProjectId, long aDocumentId)
+        throws IOException
+    {
+        CasStore store = getStore(aProjectId, false);
+        if (store != null) {
+            store.deleteDocument(aDocumentId);
+        }
+    }
+
+    @Override
+    public void deleteProject(long aProjectId)
+        throws IOException
+    {
+        closeStore(aProjectId);
+        Files.deleteIfExists(getStoreFile(aProjectId).toPath());
+    }
+
+    public File getStoreFile(long aProjectId)
+    {
+        return new File(dir, PROJECT + aProjectId + "/" + STORE_FILE);
+    }
+
+    /**
+     * @param aCreate
+     *            whether to create the store if it does not exist yet. Reading from or deleting
+     *            in a project without any CASes should not create an empty store.
+     * @return the store of the given project or {@code null} if there is none and it should not
+     *         be created.
+     */
+    private CasStore getStore(long aProjectId, boolean aCreate)
+        throws IOException
+    {
+        CasStore store = stores.get(aProjectId);
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (stores) {
+            store = stores.get(aProjectId);
+            if (store == null) {
+                File file = getStoreFile(aProjectId);
+                if (!aCreate && !file.exists()) {
+                    return null;
+                }
+                store = new CasStore(aProjectId, file, interval);
+                stores.put(aProjectId, store);
+                log.debug("Opened CAS store [{}] ({} bytes)", file, store.getSize());
+            }
+            return store;
+        }
+    }
+
+    private void closeStore(long aProjectId)
+    {
+        synchronized (stores) {
+            CasStore store = stores.remove(aProjectId);
+            if (store != null) {
+                try {
+                    store.close();
+                }
+                catch (IOException e) {
+                    log.error("Unable to close CAS store [{}]", store.getFile(), e);
+                }
+            }
+        }
+    }
+
+    private void maintainQuietly()
+    {
+        for (CasStore store : stores.values()) {
+            try {
+                store.prune(keepTime, keepNumber);
+                store.compact();
+            }
+            catch (Exception e) {
+                log.error("Unable to maintain CAS store [{}]", store.getFile(), e);
+            }
+        }
+    }
+}
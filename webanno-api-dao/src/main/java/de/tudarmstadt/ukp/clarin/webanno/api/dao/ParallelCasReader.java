@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
+
+/**
+ * Iterates over the results of reading a list of CASes. The CASes are read on the given executor
+ * while the caller consumes the results, but at most {@code window} CASes are read ahead. This
+ * bounds the memory required no matter how many CASes are requested.
+ * <p>
+ * If the caller needs a result which no worker has picked up yet, the caller reads the CAS itself
+ * instead of waiting in line, so a busy executor slows the caller down but never blocks it.
+ */
+class ParallelCasReader
+    implements Iterator<CasReadResult>, AutoCloseable
+{
+    private final Executor executor;
+    private final int window;
+    private final Iterator<CasReadRequest> requests;
+    private final Function<CasReadRequest, CasReadResult> loader;
+    private final Consumer<CAS> releaser;
+
+    private final Deque<FutureTask<CasReadResult>> inFlight = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**
+     * @param aExecutor
+     *            the executor to read the CASes on. If this is {@code null}, every CAS is read by
+     *            the caller when it is requested.
+     * @param aWindow
+     *            the maximum number of CASes read ahead of the caller.
+     * @param aRequests
+     *            the CASes to read.
+     * @param aLoader
+     *            reads a single CAS. Must not throw, but report failures in the result instead.
+     * @param aReleaser
+     *            receives CASes which have been read but not consumed when the reader is closed.
+     */
+    public ParallelCasReader(Executor aExecutor, int aWindow, List<CasReadRequest> aRequests,
+            Function<CasReadRequest, CasReadResult> aLoader, Consumer<CAS> aReleaser)
+    {
+        executor = aExecutor;
+        window = aExecutor != null ? Math.max(aWindow, 1) : 1;
+        requests = aRequests.iterator();
+        loader = aLoader;
+        releaser = aReleaser;
+    }
+
+    @Override
+    public synchronized boolean hasNext()
+    {
+        return !closed && (!inFlight.isEmpty() || requests.hasNext());
+    }
+
+    @Override
+    public synchronized CasReadResult next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        fill();
+        FutureTask<CasReadResult> task = inFlight.poll();
+        // Immediately start reading the next CAS, so it is read while the caller is busy with
+        // the current one
+        fill();
+
+        // Does nothing if a worker has already started the task
+        task.run();
+
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while reading CASes", e);
+        }
+        catch (ExecutionException e) {
+            // The loader reports regular failures as part of the result, so this can only be an
+            // error
+            throw new IllegalStateException("Unable to read CAS", e.getCause());
+        }
+    }
+
+    private void fill()
+    {
+        while (inFlight.size() < window && requests.hasNext()) {
+            CasReadRequest request = requests.next();
+            FutureTask<CasReadResult> task = new FutureTask<>(() -> loader.apply(request));
+            inFlight.add(task);
+            if (executor != null) {
+                try {
+                    executor.execute(task);
+                }
+                catch (RejectedExecutionException e) {
+                    // The executor is shutting down - the caller reads the CAS when needed
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops reading ahead. CASes which have already been read, but not been consumed, are
+     * released.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+
+        for (FutureTask<CasReadResult> task : inFlight) {
+            // If the task has not started yet, it will not run anymore
+            task.cancel(false);
+            if (task.isDone() && !task.isCancelled()) {
+                release(task);
+            }
+        }
+        inFlight.clear();
+    }
+
+    private void release(FutureTask<CasReadResult> aTask)
+    {
+        try {
+            CasReadResult result = aTask.get();
+            if (result.isSuccessful()) {
+                releaser.accept(result.getJCas().getCas());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException | CancellationException | IOException e) {
+            // Nothing to release
+        }
+    }
+}
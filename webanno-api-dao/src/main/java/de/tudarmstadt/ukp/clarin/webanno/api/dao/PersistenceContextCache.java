@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches query results for as long as the entity manager bound to the current thread is open,
+ * i.e. for the duration of a request (open entity manager in view) or of a transaction. The
+ * cached results are the managed entities of that entity manager, so changes made to them in the
+ * meantime are visible and the cache never hands out detached entities. If no entity manager is
+ * bound to the current thread, nothing is cached.
+ * <p>
+ * Since the cache cannot see which entities a query depends on, callers must invalidate it when
+ * they create or remove entities which could be part of a cached result. Invalidating drops the
+ * cached results of all entity managers.
+ */
+public class PersistenceContextCache
+{
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final Map<EntityManager, Map<Object, Object>> caches = new WeakHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    public PersistenceContextCache(EntityManagerFactory aEntityManagerFactory)
+    {
+        entityManagerFactory = aEntityManagerFactory;
+    }
+
+    /**
+     * Returns the cached result for the given key or loads it. If loading fails, nothing is
+     * cached and the exception is passed on to the caller.
+     *
+     * @param aKey
+     *            the key identifying the query and its parameters.
+     * @param aLoader
+     *            runs the query.
+     * @return the result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object aKey, Supplier<T> aLoader)
+    {
+        Map<Object, Object> cache = getCache();
+        if (cache == null) {
+            return aLoader.get();
+        }
+
+        synchronized (this) {
+            if (cache.containsKey(aKey)) {
+                hits++;
+                return (T) cache.get(aKey);
+            }
+            misses++;
+        }
+
+        // Run the query outside the lock - it may flush the entity manager and take a while
+        T result = aLoader.get();
+
+        synchronized (this) {
+            cache.put(aKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops all cached results. If this happens within a transaction, the results are dropped
+     * again when the transaction completes, since a rollback detaches the entities of the entity
+     * manager and results loaded within the transaction might not be valid afterwards.
+     */
+    public void invalidate()
+    {
+        clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            clear();
+                        }
+                    });
+        }
+    }
+
+    private synchronized void clear()
+    {
+        caches.clear();
+        invalidations++;
+    }
+
+    private synchronized Map<Object, Object> getCache()
+    {
+        if (entityManagerFactory == null) {
+            return null;
+        }
+
+        EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager
+                .getResource(entityManagerFactory);
+        if (holder == null) {
+            return null;
+        }
+
+        return caches.computeIfAbsent(holder.getEntityManager(), em -> new HashMap<>());
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    public synchronized long getInvalidationCount()
+    {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        long total = hits + misses;
+        return String.format("[entity managers: %d, hits: %d, misses: %d, hit rate: %.1f%%, "
+                + "invalidations: %d]", caches.size(), hits, misses,
+                total > 0 ? hits * 100.0 / total : 0.0, invalidations);
+    }
+}
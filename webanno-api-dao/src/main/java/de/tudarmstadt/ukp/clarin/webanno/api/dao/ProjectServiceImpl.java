@@ -90,6 +90,9 @@ public class ProjectServiceImpl
     @Resource
     private ProjectLifecycleAwareRegistry projectLifecycleAwareRegistry;
 
+    @Resource(name = "repositoryLayout")
+    private RepositoryLayout repositoryLayout;
+
     @Value(value = "${repository.path}")
     private File dir;
 
@@ -474,6 +477,7 @@ public class ProjectServiceImpl
                 log.info("Project directory to be deleted was not found: [{}]. Ignoring.", path);
             }
         }
+        repositoryLayout.forgetProject(aProject.getId());
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aProject.getId()))) {
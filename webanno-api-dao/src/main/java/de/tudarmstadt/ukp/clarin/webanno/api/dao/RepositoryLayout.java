@@ -0,0 +1,516 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
+
+/**
+ * Decides where the folders of the documents are located in the repository.
+ * <p>
+ * In the <b>flat</b> layout, every document folder is located directly in the document folder of
+ * its project ({@code project/<project>/document/<document>}). For projects with a very large
+ * number of documents, directory operations on this folder become slow. In the <b>sharded</b>
+ * layout, the document folders are instead distributed over two levels of sub-folders derived
+ * from a hash of the document ID ({@code project/<project>/documents/<xx>/<yy>/<document>}). The
+ * sharded layout uses a different root folder, so shard folders cannot be mistaken for document
+ * folders.
+ * <p>
+ * The configured layout is used for new documents. Existing documents are transparently found in
+ * the other layout, so the layout can be changed at any time. Document folders can be moved to
+ * the configured layout while WebAnno is running using {@link #migrateAll()}, which is done in the
+ * background on startup if {@code repository.layout.migrate} is enabled. To ensure that a folder
+ * is not moved while it is accessed, code accessing the files of a document must hold the
+ * {@link #lockDocument document lock}.
+ * <p>
+ * The resolved location of each document folder is cached and every folder is only created once,
+ * so looking up a folder usually does not require any file system access.
+ */
+@Component("repositoryLayout")
+public class RepositoryLayout
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Every document folder is located directly in the document folder of its project.
+     */
+    public static final String LAYOUT_FLAT = "flat";
+
+    /**
+     * The document folders are distributed over two levels of sub-folders.
+     */
+    public static final String LAYOUT_SHARDED = "sharded";
+
+    private static final String SHARDED_DOCUMENT = "/documents/";
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    @Value(value = "${repository.layout}")
+    private String layout;
+
+    @Value(value = "${repository.layout.migrate}")
+    private boolean migrateOnStartup;
+
+    /**
+     * Resolved document folders by document ID. Only folders which exist are cached.
+     */
+    private final ConcurrentMap<Long, File> documentFolders = new ConcurrentHashMap<>();
+
+    /**
+     * Folders which have already been created, so they do not need to be created again.
+     */
+    private final Set<File> createdFolders = ConcurrentHashMap.newKeySet();
+
+    private final ReadWriteLockTable<Long> locks = new ReadWriteLockTable<>();
+
+    private Thread migrationThread;
+
+    private volatile boolean running = false;
+
+    private volatile boolean migrationCancelled = false;
+
+    public RepositoryLayout()
+    {
+        // Nothing to do
+    }
+
+    public RepositoryLayout(File aRepository, String aLayout)
+    {
+        dir = aRepository;
+        layout = aLayout;
+    }
+
+    public File getRepository()
+    {
+        return dir;
+    }
+
+    public boolean isSharded()
+    {
+        if (layout == null || layout.isEmpty() || LAYOUT_FLAT.equals(layout)) {
+            return false;
+        }
+        else if (LAYOUT_SHARDED.equals(layout)) {
+            return true;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown repository layout [" + layout + "]");
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+        migrationCancelled = false;
+
+        if (migrateOnStartup) {
+            migrationThread = new Thread(() -> {
+                try {
+                    migrateAll();
+                }
+                catch (Exception e) {
+                    log.error("Migration to the {} repository layout failed",
+                            isSharded() ? LAYOUT_SHARDED : LAYOUT_FLAT, e);
+                }
+            }, "Repository layout migration");
+            migrationThread.setDaemon(true);
+            migrationThread.start();
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        migrationCancelled = true;
+
+        if (migrationThread != null) {
+            // The migration checks the flag after every document
+            try {
+                migrationThread.join(TimeUnit.MINUTES.toMillis(1));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            migrationThread = null;
+        }
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    /**
+     * Acquires the lock for the files of the given document. Accessing the files requires the
+     * shared lock, moving the document folder requires the exclusive lock. The lock must be
+     * released by closing the returned handle.
+     */
+    public LockHandle lockDocument(long aDocumentId, boolean aExclusive)
+    {
+        return aExclusive ? locks.writeLock(aDocumentId) : locks.readLock(aDocumentId);
+    }
+
+    /**
+     * @return the folder of the given document. The folder may not exist.
+     */
+    public File getDocumentFolder(long aProjectId, long aDocumentId)
+    {
+        File folder = documentFolders.get(aDocumentId);
+        if (folder != null) {
+            return folder;
+        }
+
+        File preferred = isSharded() ? getShardedFolder(aProjectId, aDocumentId)
+                : getFlatFolder(aProjectId, aDocumentId);
+        File fallback = isSharded() ? getFlatFolder(aProjectId, aDocumentId)
+                : getShardedFolder(aProjectId, aDocumentId);
+
+        if (preferred.isDirectory()) {
+            folder = preferred;
+        }
+        else if (fallback.isDirectory()) {
+            folder = fallback;
+        }
+        else {
+            // New documents go to the configured layout - the folder is cached once it has been
+            // created.
+            return preferred;
+        }
+
+        documentFolders.put(aDocumentId, folder);
+        return folder;
+    }
+
+    /**
+     * @return the given sub-folder (e.g. {@code /source}) of the folder of the given document. The
+     *         folder may not exist.
+     */
+    public File getDocumentFolder(long aProjectId, long aDocumentId, String aSubFolder)
+    {
+        return new File(getDocumentFolder(aProjectId, aDocumentId), aSubFolder);
+    }
+
+    /**
+     * @return the given sub-folder (e.g. {@code /source}) of the folder of the given document.
+     *         Creates the folder if necessary.
+     * @throws IOException
+     *             if the folder cannot be created.
+     */
+    public File createDocumentFolder(long aProjectId, long aDocumentId, String aSubFolder)
+        throws IOException
+    {
+        File folder = getDocumentFolder(aProjectId, aDocumentId, aSubFolder);
+        if (!createdFolders.contains(folder)) {
+            FileUtils.forceMkdir(folder);
+            createdFolders.add(folder);
+            documentFolders.putIfAbsent(aDocumentId, folder.getParentFile());
+        }
+        return folder;
+    }
+
+    /**
+     * Drops the cached information about the given document, e.g. because its folder has been
+     * removed.
+     */
+    public void forgetDocument(long aDocumentId)
+    {
+        File folder = documentFolders.remove(aDocumentId);
+        if (folder != null) {
+            forgetFolders(folder);
+        }
+    }
+
+    /**
+     * Drops the cached information about all documents of the given project, e.g. because the
+     * project folder has been removed.
+     */
+    public void forgetProject(long aProjectId)
+    {
+        File projectFolder = new File(dir, PROJECT + aProjectId);
+        documentFolders.values().removeIf(f -> f.toPath().startsWith(projectFolder.toPath()));
+        forgetFolders(projectFolder);
+    }
+
+    private void forgetFolders(File aFolder)
+    {
+        createdFolders.removeIf(f -> f.toPath().startsWith(aFolder.toPath()));
+    }
+
+    /**
+     * @return the existing document folders of the given project in both layouts by document ID.
+     *         If the folder of a document exists in both layouts, the one from the configured
+     *         layout is returned.
+     */
+    public Map<Long, File> listDocumentFolders(long aProjectId)
+    {
+        Map<Long, File> folders = new TreeMap<>();
+
+        File[] flatFolders = new File(dir, PROJECT + aProjectId + DOCUMENT)
+                .listFiles(File::isDirectory);
+        if (flatFolders != null) {
+            for (File folder : flatFolders) {
+                addDocumentFolder(folders, folder, !isSharded());
+            }
+        }
+
+        File[] shards = new File(dir, PROJECT + aProjectId + SHARDED_DOCUMENT)
+                .listFiles(File::isDirectory);
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] subShards = shard.listFiles(File::isDirectory);
+                if (subShards == null) {
+                    continue;
+                }
+                for (File subShard : subShards) {
+                    File[] shardedFolders = subShard.listFiles(File::isDirectory);
+                    if (shardedFolders == null) {
+                        continue;
+                    }
+                    for (File folder : shardedFolders) {
+                        addDocumentFolder(folders, folder, isSharded());
+                    }
+                }
+            }
+        }
+
+        return folders;
+    }
+
+    private static void addDocumentFolder(Map<Long, File> aFolders, File aFolder,
+            boolean aPreferred)
+    {
+        long documentId;
+        try {
+            documentId = Long.parseLong(aFolder.getName());
+        }
+        catch (NumberFormatException e) {
+            return;
+        }
+
+        if (aPreferred) {
+            aFolders.put(documentId, aFolder);
+        }
+        else {
+            aFolders.putIfAbsent(documentId, aFolder);
+        }
+    }
+
+    /**
+     * Moves the folders of all documents in the repository to the configured layout. This can be
+     * done while WebAnno is running. Documents are moved one after the other while holding their
+     * document lock, so they are only inaccessible for a very short time.
+     *
+     * @return the number of document folders moved.
+     */
+    public long migrateAll()
+        throws IOException
+    {
+        File[] projects = new File(dir, PROJECT).listFiles(File::isDirectory);
+        if (projects == null) {
+            return 0;
+        }
+
+        log.info("Migrating repository to the {} layout",
+                isSharded() ? LAYOUT_SHARDED : LAYOUT_FLAT);
+
+        long start = System.currentTimeMillis();
+        long moved = 0;
+        for (File project : projects) {
+            long projectId;
+            try {
+                projectId = Long.parseLong(project.getName());
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+
+            moved += migrateProject(projectId);
+
+            if (migrationCancelled) {
+                log.info("Migration interrupted after moving {} document folders", moved);
+                return moved;
+            }
+        }
+
+        log.info("Migration moved {} document folders in {}ms", moved,
+                System.currentTimeMillis() - start);
+        return moved;
+    }
+
+    /**
+     * Moves the folders of all documents of the given project to the configured layout.
+     *
+     * @return the number of document folders moved.
+     */
+    public long migrateProject(long aProjectId)
+        throws IOException
+    {
+        long moved = 0;
+        for (Long documentId : listDocumentFolders(aProjectId).keySet()) {
+            if (migrateDocument(aProjectId, documentId)) {
+                moved++;
+            }
+
+            if (migrationCancelled) {
+                return moved;
+            }
+        }
+
+        // Remove the root folder of the old layout if no documents are left in it
+        File oldRoot = new File(dir, PROJECT + aProjectId
+                + (isSharded() ? DOCUMENT : SHARDED_DOCUMENT));
+        if (!isSharded()) {
+            // Empty shard folders
+            File[] shards = oldRoot.listFiles(File::isDirectory);
+            if (shards != null) {
+                for (File shard : shards) {
+                    File[] subShards = shard.listFiles(File::isDirectory);
+                    if (subShards != null) {
+                        for (File subShard : subShards) {
+                            deleteIfEmpty(subShard);
+                        }
+                    }
+                    deleteIfEmpty(shard);
+                }
+            }
+        }
+        deleteIfEmpty(oldRoot);
+
+        if (moved > 0) {
+            log.info("Moved {} document folders of project [{}] to the {} layout", moved,
+                    aProjectId, isSharded() ? LAYOUT_SHARDED : LAYOUT_FLAT);
+        }
+
+        return moved;
+    }
+
+    /**
+     * Moves the folder of the given document to the configured layout.
+     *
+     * @return whether the folder has been moved.
+     */
+    public boolean migrateDocument(long aProjectId, long aDocumentId)
+        throws IOException
+    {
+        File target = isSharded() ? getShardedFolder(aProjectId, aDocumentId)
+                : getFlatFolder(aProjectId, aDocumentId);
+        File source = isSharded() ? getFlatFolder(aProjectId, aDocumentId)
+                : getShardedFolder(aProjectId, aDocumentId);
+
+        try (LockHandle lock = lockDocument(aDocumentId, true)) {
+            if (!source.isDirectory()) {
+                return false;
+            }
+
+            if (target.exists()) {
+                log.warn("Folder of document [{}] exists in both layouts - not moving [{}]",
+                        aDocumentId, source);
+                return false;
+            }
+
+            FileUtils.forceMkdir(target.getParentFile());
+            // Within the same project folder, this is a rename and does not copy any data
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            forgetFolders(source);
+            documentFolders.put(aDocumentId, target);
+            return true;
+        }
+    }
+
+    private File getFlatFolder(long aProjectId, long aDocumentId)
+    {
+        return new File(dir, PROJECT + aProjectId + DOCUMENT + aDocumentId);
+    }
+
+    private File getShardedFolder(long aProjectId, long aDocumentId)
+    {
+        return new File(dir, PROJECT + aProjectId + SHARDED_DOCUMENT + getShard(aDocumentId)
+                + "/" + aDocumentId);
+    }
+
+    /**
+     * @return the two levels of shard folders for the given document ID, e.g. {@code 3f/a0}. The
+     *         IDs are assigned sequentially, so they are hashed (Fibonacci hashing) to spread
+     *         consecutive documents over all 65536 shards.
+     */
+    static String getShard(long aDocumentId)
+    {
+        int hash = (int) ((aDocumentId * 0x9E3779B97F4A7C15L) >>> 48);
+        return String.format("%02x/%02x", hash >>> 8, hash & 0xff);
+    }
+
+    private static void deleteIfEmpty(File aFolder)
+    {
+        try {
+            Files.deleteIfExists(aFolder.toPath());
+        }
+        catch (DirectoryNotEmptyException e) {
+            // Still in use
+        }
+        catch (IOException e) {
+            // Not critical - the folder is simply left behind
+        }
+    }
+}
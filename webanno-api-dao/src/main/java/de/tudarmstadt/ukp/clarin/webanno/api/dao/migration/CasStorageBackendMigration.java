@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageBackend;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.RepositoryLayout;
+
+/**
+ * Moves all annotation CASes in a repository from one storage backend to another, e.g. from
+ * {@code file} to {@code store}. Every CAS is read back from the target backend and compared to
+ * the original before it is removed from the source backend. The CASes are copied as they are,
+ * so the storage format does not change. The history of the CASes is not migrated. The
+ * migration must not be run while WebAnno is using the repository.
+ * <p>
+ * The time needed for reading from the source backend, writing to the target backend and
+ * reading from the target backend is measured, so the migration also serves to compare the
+ * backends on a real repository. With {@code --keep-source}, the CASes remain in the source
+ * backend, which allows running the comparison without committing to the target backend.
+ * <p>
+ * Usage: {@code CasStorageBackendMigration <repository-path> <source-backend> <target-backend>
+ * [--keep-source]}
+ */
+public class CasStorageBackendMigration
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File repository;
+    private final CasStorageBackend source;
+    private final CasStorageBackend target;
+    private final boolean keepSource;
+
+    private long cases;
+    private long bytes;
+    private long sourceReadNanos;
+    private long targetWriteNanos;
+    private long targetReadNanos;
+
+    public CasStorageBackendMigration(File aRepository, String aSource, String aTarget,
+            boolean aKeepSource)
+    {
+        if (aSource.equals(aTarget)) {
+            throw new IllegalArgumentException("Source and target backend must be different");
+        }
+
+        repository = aRepository;
+        // The documents are found in either layout, so the layout used here does not matter
+        RepositoryLayout layout = new RepositoryLayout(aRepository, RepositoryLayout.LAYOUT_FLAT);
+        // The history is not migrated, so the backends do not need to keep any
+        source = CasStorageServiceImpl.createBackend(aSource, layout, 0, 0, 0, false);
+        target = CasStorageServiceImpl.createBackend(aTarget, layout, 0, 0, 0, false);
+        keepSource = aKeepSource;
+    }
+
+    public void run()
+        throws IOException
+    {
+        File[] projects = new File(repository, "project").listFiles(File::isDirectory);
+        if (projects == null) {
+            throw new IOException("No projects found in repository [" + repository + "]");
+        }
+
+        try {
+            for (File project : projects) {
+                long projectId;
+                try {
+                    projectId = Long.parseLong(project.getName());
+                }
+                catch (NumberFormatException e) {
+                    continue;
+                }
+
+                migrateProject(projectId);
+            }
+        }
+        finally {
+            source.stop();
+            target.stop();
+        }
+
+        log.info("Migrated {} CASes ({} bytes){}", cases, bytes,
+                keepSource ? " (source kept)" : "");
+        log.info("Source read:  {}ms", sourceReadNanos / 1_000_000);
+        log.info("Target write: {}ms", targetWriteNanos / 1_000_000);
+        log.info("Target read:  {}ms", targetReadNanos / 1_000_000);
+    }
+
+    private void migrateProject(long aProjectId)
+        throws IOException
+    {
+        List<CasKey> keys = source.list(aProjectId);
+        for (CasKey key : keys) {
+            long start = System.nanoTime();
+            byte[] data;
+            try (InputStream is = source.read(key)) {
+                data = IOUtils.toByteArray(is);
+            }
+            sourceReadNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            target.write(key, out -> out.write(data));
+            targetWriteNanos += System.nanoTime() - start;
+
+            // Verify that the CAS arrived intact before removing the original
+            start = System.nanoTime();
+            byte[] verify;
+            try (InputStream is = target.read(key)) {
+                verify = IOUtils.toByteArray(is);
+            }
+            targetReadNanos += System.nanoTime() - start;
+            if (!Arrays.equals(data, verify)) {
+                throw new IOException("Verification of CAS " + key + " failed");
+            }
+
+            cases++;
+            bytes += data.length;
+
+            if (!keepSource) {
+                source.delete(key);
+            }
+
+            log.debug("Migrated CAS {}", key);
+        }
+
+        log.info("Migrated {} CASes of project [{}]", keys.size(), aProjectId);
+    }
+
+    public static void main(String[] aArgs)
+        throws Exception
+    {
+        if (aArgs.length < 3) {
+            System.err.println("Usage: CasStorageBackendMigration <repository-path> "
+                    + "<source-backend> <target-backend> [--keep-source]");
+            System.exit(1);
+        }
+
+        boolean keepSource = aArgs.length > 3 && "--keep-source".equals(aArgs[3]);
+        new CasStorageBackendMigration(new File(aArgs[0]), aArgs[1], aArgs[2], keepSource)
+                .run();
+    }
+}
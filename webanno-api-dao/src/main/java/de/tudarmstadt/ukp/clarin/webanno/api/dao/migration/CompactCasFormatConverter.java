@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.RepositoryLayout;
+
+/**
+ * Converts all annotation CASes in a repository from the legacy storage format to the compact
+ * storage format. CASes are also migrated lazily when they are read while the compact format is
+ * enabled, so running this converter is optional. It must not be run while WebAnno is using the
+ * repository.
+ * <p>
+ * For every converted CAS, the time needed for reading and writing it is measured for both
+ * formats, so the converter also serves to compare the formats on a real repository.
+ * <p>
+ * Usage: {@code CompactCasFormatConverter <repository-path> [--dry-run]}
+ */
+public class CompactCasFormatConverter
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File repository;
+    private final boolean dryRun;
+
+    private long files;
+    private long legacyBytes;
+    private long compactBytes;
+    private long legacyReadNanos;
+    private long legacyWriteNanos;
+    private long compactReadNanos;
+    private long compactWriteNanos;
+
+    public CompactCasFormatConverter(File aRepository, boolean aDryRun)
+    {
+        repository = aRepository;
+        dryRun = aDryRun;
+    }
+
+    public void run()
+        throws IOException, UIMAException
+    {
+        File[] projects = new File(repository, "project").listFiles(File::isDirectory);
+        if (projects == null) {
+            throw new IOException("No projects found in repository [" + repository + "]");
+        }
+
+        // The documents are found in either layout, so the layout used here does not matter
+        RepositoryLayout layout = new RepositoryLayout(repository, RepositoryLayout.LAYOUT_FLAT);
+
+        for (File project : projects) {
+            long projectId;
+            try {
+                projectId = Long.parseLong(project.getName());
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+
+            File typeSystemFolder = new File(project, "typesystem");
+            for (File document : layout.listDocumentFolders(projectId).values()) {
+                File[] casFiles = new File(document, "annotation")
+                        .listFiles(f -> f.isFile() && f.getName().endsWith(".ser"));
+                if (casFiles == null) {
+                    continue;
+                }
+
+                for (File casFile : casFiles) {
+                    convert(casFile, typeSystemFolder);
+                }
+            }
+        }
+
+        log.info("Converted {} CAS files{}", files, dryRun ? " (dry run)" : "");
+        log.info("Size:  legacy {} bytes, compact {} bytes", legacyBytes, compactBytes);
+        log.info("Read:  legacy {}ms, compact {}ms", legacyReadNanos / 1_000_000,
+                compactReadNanos / 1_000_000);
+        log.info("Write: legacy {}ms, compact {}ms", legacyWriteNanos / 1_000_000,
+                compactWriteNanos / 1_000_000);
+    }
+
+    private void convert(File aCasFile, File aTypeSystemFolder)
+        throws IOException, UIMAException
+    {
+        if (CasPersistenceUtils.isCompactCas(aCasFile)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CasPersistenceUtils.readSerializedCas(cas.getJCas(), aCasFile);
+        legacyReadNanos += System.nanoTime() - start;
+
+        File legacyFile = new File(aCasFile.getPath() + ".legacy.tmp");
+        File compactFile = new File(aCasFile.getPath() + ".compact.tmp");
+        try {
+            start = System.nanoTime();
+            CasPersistenceUtils.writeSerializedCas(cas.getJCas(), legacyFile);
+            legacyWriteNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CasPersistenceUtils.writeCompactCas(cas.getJCas(), compactFile, aTypeSystemFolder);
+            compactWriteNanos += System.nanoTime() - start;
+
+            // Verify that the compact file can actually be read before replacing the original
+            start = System.nanoTime();
+            CAS verify = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CasPersistenceUtils.readCompactCas(verify.getJCas(), compactFile, aTypeSystemFolder);
+            compactReadNanos += System.nanoTime() - start;
+
+            legacyBytes += aCasFile.length();
+            compactBytes += compactFile.length();
+            files++;
+
+            if (!dryRun) {
+                FileUtils.forceDelete(aCasFile);
+                FileUtils.moveFile(compactFile, aCasFile);
+            }
+
+            log.debug("Converted [{}]", aCasFile);
+        }
+        finally {
+            FileUtils.deleteQuietly(legacyFile);
+            FileUtils.deleteQuietly(compactFile);
+        }
+    }
+
+    public static void main(String[] aArgs)
+        throws Exception
+    {
+        if (aArgs.length < 1) {
+            System.err.println(
+                    "Usage: CompactCasFormatConverter <repository-path> [--dry-run]");
+            System.exit(1);
+        }
+
+        boolean dryRun = aArgs.length > 1 && "--dry-run".equals(aArgs[1]);
+        new CompactCasFormatConverter(new File(aArgs[0]), dryRun).run();
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class AnnotationSchemaServiceImplTest
+{
+    private static final String SPAN = "webanno.custom.Span";
+    private static final String OTHER = "webanno.custom.Other";
+    private static final String USER = "user";
+
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private Project project;
+    private SourceDocument document;
+
+    /**
+     * The layers and features in the fake database.
+     */
+    private final List<AnnotationLayer> layers = new ArrayList<>();
+    private final List<AnnotationFeature> features = new ArrayList<>();
+    private long lastId;
+
+    /**
+     * The number of queries run against the fake database.
+     */
+    private int queries;
+
+    private EntityManager entityManager;
+    private EntityManagerFactory entityManagerFactory;
+
+    private AnnotationSchemaServiceImpl sut;
+
+    @Before
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+
+        document = new SourceDocument();
+        document.setId(1);
+        document.setName("document");
+        document.setProject(project);
+
+        entityManager = fakeEntityManager();
+        entityManagerFactory = fake(EntityManagerFactory.class, this::objectMethod);
+        sut = new AnnotationSchemaServiceImpl(entityManager, entityManagerFactory,
+                new FeatureSupportRegistryImpl());
+    }
+
+    @Test
+    public void thatProjectTypeSystemIsBuiltOncePerSchemaVersion()
+        throws Exception
+    {
+        createSpanLayer(SPAN);
+
+        TypeSystemDescription first = sut.getFullProjectTypeSystem(project);
+        int queriesAfterBuild = queries;
+        TypeSystemDescription second = sut.getFullProjectTypeSystem(project);
+        CAS cas = sut.createCas(project);
+
+        assertEquals(queriesAfterBuild, queries);
+        assertNotNull(first.getType(SPAN));
+        assertNotNull(second.getType(SPAN));
+        assertNotNull(cas.getTypeSystem().getType(SPAN));
+
+        // A new layer changes the schema version, so the type system is built again
+        long version = sut.getSchemaVersion(project);
+        createSpanLayer(OTHER);
+
+        assertNotEquals(version, sut.getSchemaVersion(project));
+        assertNotNull(sut.getFullProjectTypeSystem(project).getType(OTHER));
+        assertNotNull(sut.createCas(project).getTypeSystem().getType(OTHER));
+        assertTrue(queries > queriesAfterBuild);
+    }
+
+    @Test
+    public void thatNewFeatureIsPartOfProjectTypeSystem()
+        throws Exception
+    {
+        AnnotationLayer layer = createSpanLayer(SPAN);
+        assertFalse(hasFeature(sut.getFullProjectTypeSystem(project).getType(SPAN), "value"));
+
+        createFeature(layer, "value");
+
+        assertTrue(hasFeature(sut.getFullProjectTypeSystem(project).getType(SPAN), "value"));
+        assertNotNull(sut.createCas(project).getTypeSystem()
+                .getFeatureByFullName(SPAN + ":value"));
+    }
+
+    @Test
+    public void thatSchemaVersionIsKeptPerProject()
+        throws Exception
+    {
+        Project otherProject = new Project();
+        otherProject.setId(2);
+        otherProject.setName("other");
+        sut.getFullProjectTypeSystem(otherProject);
+        long otherVersion = sut.getSchemaVersion(otherProject);
+        int queriesAfterBuild = queries;
+
+        createSpanLayer(SPAN);
+
+        assertEquals(otherVersion, sut.getSchemaVersion(otherProject));
+        assertNull(sut.getFullProjectTypeSystem(otherProject).getType(SPAN));
+        assertEquals(queriesAfterBuild, queries);
+    }
+
+    @Test
+    public void thatCallersMayModifyProjectTypeSystem()
+        throws Exception
+    {
+        createSpanLayer(SPAN);
+
+        sut.getFullProjectTypeSystem(project).addType(OTHER, "", CAS.TYPE_NAME_ANNOTATION);
+
+        assertNull(sut.getFullProjectTypeSystem(project).getType(OTHER));
+        assertNull(sut.createCas(project).getTypeSystem().getType(OTHER));
+    }
+
+    @Test
+    public void thatTypeSystemBuiltDuringTransactionIsNotKept()
+        throws Exception
+    {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            createSpanLayer(SPAN);
+            sut.getFullProjectTypeSystem(project);
+            long version = sut.getSchemaVersion(project);
+
+            // The transaction might be rolled back, so the type system might not be valid
+            for (TransactionSynchronization sync : TransactionSynchronizationManager
+                    .getSynchronizations()) {
+                sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+
+            assertNotEquals(version, sut.getSchemaVersion(project));
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        int queriesBefore = queries;
+        sut.getFullProjectTypeSystem(project);
+        assertTrue(queries > queriesBefore);
+    }
+
+    @Test
+    public void thatCasWithProjectTypeSystemIsNotUpgraded()
+        throws Exception
+    {
+        createSpanLayer(SPAN);
+        CAS cas = sut.createCas(project);
+        cas.setDocumentText("This is a test.");
+        Type type = cas.getTypeSystem().getType(SPAN);
+        cas.addFsToIndexes(cas.createAnnotation(type, 0, 4));
+        TypeSystem typeSystem = cas.getTypeSystem();
+
+        assertFalse(sut.upgradeCas(cas, document, USER));
+
+        assertSame(typeSystem, cas.getTypeSystem());
+        assertEquals(1, CasUtil.select(cas, type).size());
+    }
+
+    @Test
+    public void thatOutdatedCasIsUpgraded()
+        throws Exception
+    {
+        createSpanLayer(SPAN);
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 4).addToIndexes();
+        CAS cas = jcas.getCas();
+
+        assertTrue(sut.upgradeCas(cas, document, USER));
+
+        assertNotNull(cas.getTypeSystem().getType(SPAN));
+        assertEquals(1, select(cas.getJCas(), Token.class).size());
+
+        // The upgraded CAS is up to date until the schema changes
+        assertFalse(sut.upgradeCas(cas, document, USER));
+        createSpanLayer(OTHER);
+        assertTrue(sut.upgradeCas(cas, document, USER));
+        assertNotNull(cas.getTypeSystem().getType(OTHER));
+        assertEquals(1, select(cas.getJCas(), Token.class).size());
+    }
+
+    @Test
+    public void thatSkippedUpgradeDoesNotChangeCasVersion()
+        throws Exception
+    {
+        createSpanLayer(SPAN);
+        CasStorageServiceImpl storage = new CasStorageServiceImpl(
+                new CasDoctor(new Class<?>[0]), new CasPool(0),
+                new RepositoryLayout(folder.newFolder("repository"), RepositoryLayout.LAYOUT_FLAT),
+                CasStorageServiceImpl.FORMAT_COMPACT, 1, 0);
+        storage.start();
+        try {
+            JCas jcas = sut.createCas(project).getJCas();
+            jcas.setDocumentText("This is a test.");
+            storage.writeCas(document, jcas, USER);
+            long version = storage.getCasVersion(storage.readCas(document, USER, false).getCas());
+            assertNotEquals(-1, version);
+
+            assertFalse(storage.updateCas(document, USER,
+                cas -> sut.upgradeCas(cas, document, USER)));
+            assertEquals(version,
+                    storage.getCasVersion(storage.readCas(document, USER, false).getCas()));
+
+            // After a schema change, the CAS is upgraded and written with a new version
+            createSpanLayer(OTHER);
+            assertTrue(storage.updateCas(document, USER,
+                cas -> sut.upgradeCas(cas, document, USER)));
+            JCas upgraded = storage.readCas(document, USER, false);
+            assertNotNull(upgraded.getTypeSystem().getType(OTHER));
+            long upgradedVersion = storage.getCasVersion(upgraded.getCas());
+            assertNotEquals(-1, upgradedVersion);
+            assertNotEquals(version, upgradedVersion);
+        }
+        finally {
+            storage.stop();
+        }
+    }
+
+    @Test
+    public void thatSchemaQueriesAreCachedWhileEntityManagerIsBound()
+        throws Exception
+    {
+        AnnotationLayer layer = createSpanLayer(SPAN);
+        createFeature(layer, "value");
+
+        TransactionSynchronizationManager.bindResource(entityManagerFactory,
+                new EntityManagerHolder(entityManager));
+        try {
+            int queriesBefore = queries;
+            assertEquals(1, sut.listAnnotationLayer(project).size());
+            assertEquals(1, sut.listAnnotationLayer(project).size());
+            assertEquals(1, sut.listAnnotationFeature(layer).size());
+            assertEquals(1, sut.listAnnotationFeature(layer).size());
+            assertEquals(queriesBefore + 2, queries);
+
+            // Callers get a copy of the cached list
+            sut.listAnnotationLayer(project).clear();
+            assertEquals(1, sut.listAnnotationLayer(project).size());
+
+            // Creating a layer invalidates the cached results
+            createSpanLayer(OTHER);
+            assertEquals(2, sut.listAnnotationLayer(project).size());
+            assertEquals(queriesBefore + 3, queries);
+        }
+        finally {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+        }
+
+        // Without an entity manager bound to the thread, nothing is cached
+        int queriesBefore = queries;
+        sut.listAnnotationLayer(project);
+        sut.listAnnotationLayer(project);
+        assertEquals(queriesBefore + 2, queries);
+    }
+
+    @Test
+    public void thatAdapterIsSharedUntilSchemaChanges()
+        throws Exception
+    {
+        AnnotationLayer layer = createSpanLayer(SPAN);
+        TypeAdapter adapter = sut.getAdapter(layer);
+        int queriesAfterBuild = queries;
+
+        assertSame(adapter, sut.getAdapter(layer));
+        assertEquals(queriesAfterBuild, queries);
+
+        // A new feature changes the schema version, so the adapter is built again
+        createFeature(layer, "value");
+        TypeAdapter rebuilt = sut.getAdapter(layer);
+
+        assertNotSame(adapter, rebuilt);
+        assertEquals(1, rebuilt.listFeatures().size());
+        assertSame(rebuilt, sut.getAdapter(layer));
+    }
+
+    @Test
+    public void thatAdapterOfUnsavedLayerIsNotShared()
+    {
+        AnnotationLayer layer = new AnnotationLayer(SPAN, SPAN, WebAnnoConst.SPAN_TYPE, project,
+                false);
+
+        assertNotSame(sut.getAdapter(layer), sut.getAdapter(layer));
+    }
+
+    @Test
+    public void thatAdapterResolvesTypesPerTypeSystem()
+        throws Exception
+    {
+        AnnotationLayer layer = createSpanLayer(SPAN);
+        createFeature(layer, "value");
+        TypeAdapter adapter = sut.getAdapter(layer);
+        CAS cas1 = sut.createCas(project);
+        CAS cas2 = CasCreationUtils.createCas(sut.getFullProjectTypeSystem(project), null, null);
+        TypeSystem ts1 = cas1.getTypeSystem();
+        TypeSystem ts2 = cas2.getTypeSystem();
+
+        assertSame(ts1.getType(SPAN), adapter.getAnnotationType(cas1));
+        assertSame(ts2.getType(SPAN), adapter.getAnnotationType(cas2));
+        assertSame(ts1.getType(SPAN), adapter.resolveType(cas1, SPAN));
+        assertSame(ts2.getFeatureByFullName(SPAN + ":value"),
+                adapter.resolveFeature(cas2, SPAN, "value"));
+        assertSame(ts1.getFeatureByFullName(SPAN + ":value"),
+                adapter.resolveFeature(cas1, SPAN, "value"));
+        assertNull(adapter.resolveFeature(cas1, SPAN, "missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thatAdapterRejectsUndeclaredType()
+        throws Exception
+    {
+        TypeAdapter adapter = sut.getAdapter(createSpanLayer(SPAN));
+
+        adapter.getAnnotationType(JCasFactory.createJCas().getCas());
+    }
+
+    private AnnotationLayer createSpanLayer(String aName)
+        throws IOException
+    {
+        AnnotationLayer layer = new AnnotationLayer(aName, aName, WebAnnoConst.SPAN_TYPE,
+                project, false);
+        sut.createLayer(layer);
+        return layer;
+    }
+
+    private AnnotationFeature createFeature(AnnotationLayer aLayer, String aName)
+    {
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName(aName);
+        feature.setUiName(aName);
+        feature.setType(CAS.TYPE_NAME_STRING);
+        feature.setLayer(aLayer);
+        feature.setProject(aLayer.getProject());
+        sut.createFeature(feature);
+        return feature;
+    }
+
+    private static boolean hasFeature(TypeDescription aType, String aName)
+    {
+        for (FeatureDescription feature : aType.getFeatures()) {
+            if (feature.getName().equals(aName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An entity manager which keeps layers and features in memory and supports only the queries
+     * needed to build the type system and the adapters of a project.
+     */
+    private EntityManager fakeEntityManager()
+    {
+        return fake(EntityManager.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "persist":
+                if (args[0] instanceof AnnotationLayer) {
+                    ((AnnotationLayer) args[0]).setId(++lastId);
+                    layers.add((AnnotationLayer) args[0]);
+                }
+                else {
+                    ((AnnotationFeature) args[0]).setId(++lastId);
+                    features.add((AnnotationFeature) args[0]);
+                }
+                return null;
+            case "merge":
+                return args[0];
+            case "createQuery":
+                return fakeQuery((String) args[0]);
+            default:
+                return objectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private TypedQuery<?> fakeQuery(String aQuery)
+    {
+        String query = aQuery.replaceAll("\\s+", " ");
+        Map<String, Object> parameters = new HashMap<>();
+        return fake(TypedQuery.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "setParameter":
+                parameters.put((String) args[0], args[1]);
+                return proxy;
+            case "getResultList":
+                queries++;
+                if (query.startsWith("FROM AnnotationLayer WHERE project =:project")) {
+                    long projectId = ((Project) parameters.get("project")).getId();
+                    return layers.stream()
+                            .filter(l -> l.getProject().getId() == projectId)
+                            .collect(toList());
+                }
+                if (query.startsWith("FROM AnnotationFeature WHERE layer =:layer")) {
+                    long layerId = ((AnnotationLayer) parameters.get("layer")).getId();
+                    return features.stream()
+                            .filter(f -> f.getLayer().getId() == layerId)
+                            .collect(toList());
+                }
+                throw new UnsupportedOperationException(aQuery);
+            default:
+                return objectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private Object objectMethod(Object aProxy, Method aMethod, Object[] aArgs)
+    {
+        switch (aMethod.getName()) {
+        case "hashCode":
+            return System.identityHashCode(aProxy);
+        case "equals":
+            return aProxy == aArgs[0];
+        case "toString":
+            return "fake " + aProxy.getClass().getInterfaces()[0].getSimpleName();
+        default:
+            throw new UnsupportedOperationException(aMethod.getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> aInterface, InvocationHandler aHandler)
+    {
+        return (T) Proxy.newProxyInstance(aInterface.getClassLoader(),
+                new Class<?>[] { aInterface }, aHandler);
+    }
+}
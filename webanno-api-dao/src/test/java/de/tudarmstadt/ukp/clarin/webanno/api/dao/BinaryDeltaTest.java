@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BinaryDeltaTest
+{
+    @Test
+    public void thatEmptyDataRoundTrips()
+        throws Exception
+    {
+        assertRoundTrip(new byte[0], new byte[0]);
+        assertRoundTrip(new byte[0], randomBytes(1, 100));
+        assertRoundTrip(randomBytes(2, 100), new byte[0]);
+    }
+
+    @Test
+    public void thatDataShorterThanBlockRoundTrips()
+        throws Exception
+    {
+        byte[] base = randomBytes(3, 10);
+        byte[] target = Arrays.copyOf(base, 12);
+        target[11] = 42;
+
+        assertRoundTrip(base, target);
+        assertRoundTrip(target, base);
+    }
+
+    @Test
+    public void thatIdenticalDataIsCopied()
+        throws Exception
+    {
+        byte[] data = randomBytes(4, 10000);
+
+        byte[] delta = assertRoundTrip(data, data);
+        assertTrue(delta.length < 100);
+    }
+
+    @Test
+    public void thatInsertedDataIsFound()
+        throws Exception
+    {
+        byte[] base = randomBytes(5, 10000);
+        byte[] inserted = randomBytes(6, 7);
+
+        // Insert a few bytes in the middle, shifting all following data
+        byte[] target = new byte[base.length + inserted.length];
+        System.arraycopy(base, 0, target, 0, 5003);
+        System.arraycopy(inserted, 0, target, 5003, inserted.length);
+        System.arraycopy(base, 5003, target, 5003 + inserted.length, base.length - 5003);
+
+        byte[] delta = assertRoundTrip(base, target);
+        assertTrue(delta.length < 200);
+    }
+
+    @Test
+    public void thatShiftedDataIsFound()
+        throws Exception
+    {
+        byte[] base = randomBytes(7, 10000);
+
+        // Drop a few bytes at the start, shifting all data
+        byte[] target = Arrays.copyOfRange(base, 5, base.length);
+
+        byte[] delta = assertRoundTrip(base, target);
+        assertTrue(delta.length < 200);
+    }
+
+    @Test
+    public void thatChangedDataRoundTrips()
+        throws Exception
+    {
+        byte[] base = randomBytes(8, 10000);
+        byte[] target = base.clone();
+        for (int i = 0; i < target.length; i += 1000) {
+            target[i]++;
+        }
+
+        assertRoundTrip(base, target);
+    }
+
+    @Test(expected = IOException.class)
+    public void thatBaseOfDifferentLengthIsRejected()
+        throws Exception
+    {
+        byte[] base = randomBytes(9, 1000);
+        byte[] delta = BinaryDelta.diff(base, randomBytes(10, 1000));
+
+        BinaryDelta.patch(Arrays.copyOf(base, 999), delta);
+    }
+
+    @Test(expected = IOException.class)
+    public void thatWrongBaseIsRejected()
+        throws Exception
+    {
+        byte[] base = randomBytes(11, 1000);
+        byte[] target = base.clone();
+        target[500]++;
+        byte[] delta = BinaryDelta.diff(base, target);
+
+        byte[] wrongBase = base.clone();
+        wrongBase[100]++;
+        BinaryDelta.patch(wrongBase, delta);
+    }
+
+    @Test(expected = IOException.class)
+    public void thatNonDeltaIsRejected()
+        throws Exception
+    {
+        BinaryDelta.patch(new byte[0], randomBytes(12, 100));
+    }
+
+    private static byte[] assertRoundTrip(byte[] aBase, byte[] aTarget)
+        throws IOException
+    {
+        byte[] delta = BinaryDelta.diff(aBase, aTarget);
+        assertArrayEquals(aTarget, BinaryDelta.patch(aBase, delta));
+        return delta;
+    }
+
+    private static byte[] randomBytes(long aSeed, int aLength)
+    {
+        byte[] data = new byte[aLength];
+        new Random(aSeed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasCacheTest
+{
+    private static final CasKey KEY_1 = new CasKey(1, 1, "user");
+    private static final CasKey KEY_2 = new CasKey(1, 2, "user");
+    private static final CasKey KEY_3 = new CasKey(1, 3, "user");
+
+    @Test
+    public void thatCachedCasIsRestored()
+        throws Exception
+    {
+        CasCache sut = new CasCache(10 * 1024 * 1024);
+        JCas jcas = createCas("This is a test.");
+        sut.put(KEY_1, 1, jcas.getCas());
+
+        // The cache keeps a snapshot, so later changes do not affect it
+        new Token(jcas, 0, 4).addToIndexes();
+
+        CAS target = createTarget();
+        assertTrue(sut.restore(KEY_1, 1, target));
+        assertEquals("This is a test.", target.getDocumentText());
+        assertEquals(1, select(target.getJCas(), Token.class).size());
+        assertEquals(1, sut.getHitCount());
+        assertEquals(0, sut.getMissCount());
+    }
+
+    @Test
+    public void thatOutdatedEntryIsDiscarded()
+        throws Exception
+    {
+        CasCache sut = new CasCache(10 * 1024 * 1024);
+        sut.put(KEY_1, 1, createCas("This is a test.").getCas());
+
+        assertFalse(sut.restore(KEY_1, 2, createTarget()));
+        assertEquals(0, sut.getEntryCount());
+        assertEquals(0, sut.getSize());
+        assertEquals(1, sut.getMissCount());
+
+        // The entry is gone, so the old version is not served either
+        assertFalse(sut.restore(KEY_1, 1, createTarget()));
+        assertFalse(sut.restore(KEY_2, 1, createTarget()));
+        assertEquals(3, sut.getMissCount());
+    }
+
+    @Test
+    public void thatSizeIsAccounted()
+        throws Exception
+    {
+        CasCache sut = new CasCache(10 * 1024 * 1024);
+        JCas jcas1 = createCas("This is a test.");
+        JCas jcas2 = createCas("This is a somewhat longer test.");
+        long size1 = estimate(jcas1);
+        long size2 = estimate(jcas2);
+
+        sut.put(KEY_1, 1, jcas1.getCas());
+        sut.put(KEY_2, 1, jcas2.getCas());
+        assertEquals(size1 + size2, sut.getSize());
+        assertEquals(2, sut.getEntryCount());
+
+        // Replacing an entry does not count it twice
+        sut.put(KEY_1, 2, jcas1.getCas());
+        assertEquals(size1 + size2, sut.getSize());
+
+        sut.invalidate(KEY_2);
+        assertEquals(size1, sut.getSize());
+        assertEquals(1, sut.getEntryCount());
+    }
+
+    @Test
+    public void thatTypeSystemIsPartOfTheSize()
+        throws Exception
+    {
+        JCas jcas = createCas("");
+        CASCompleteSerializer snapshot = CasPersistenceUtils.takeSnapshot(jcas.getCas());
+
+        // An almost empty CAS still has a type system with many types and features
+        long typeSystemNames = 0;
+        for (String name : snapshot.getCASMgrSerializer().typeNames) {
+            typeSystemNames += name != null ? name.length() * 2L : 0;
+        }
+        assertTrue(CasCache.estimateSize(snapshot) > typeSystemNames);
+    }
+
+    @Test
+    public void thatLeastRecentlyUsedEntryIsEvicted()
+        throws Exception
+    {
+        JCas jcas = createCas("This is a test.");
+        long size = estimate(jcas);
+        CasCache sut = new CasCache(size * 2 + size / 2);
+
+        sut.put(KEY_1, 1, jcas.getCas());
+        sut.put(KEY_2, 1, jcas.getCas());
+        // Use the first entry, so the second one is the least recently used
+        assertTrue(sut.restore(KEY_1, 1, createTarget()));
+        sut.put(KEY_3, 1, jcas.getCas());
+
+        assertEquals(1, sut.getEvictionCount());
+        assertEquals(2, sut.getEntryCount());
+        assertEquals(size * 2, sut.getSize());
+        assertTrue(sut.restore(KEY_1, 1, createTarget()));
+        assertFalse(sut.restore(KEY_2, 1, createTarget()));
+        assertTrue(sut.restore(KEY_3, 1, createTarget()));
+    }
+
+    @Test
+    public void thatHugeCasIsNotCached()
+        throws Exception
+    {
+        JCas jcas = createCas("This is a test.");
+        CasCache sut = new CasCache(estimate(jcas) - 1);
+        sut.put(KEY_1, 1, createCas("Small").getCas());
+        assertEquals(1, sut.getEntryCount());
+
+        // A CAS which does not fit is not cached and does not evict others
+        sut.put(KEY_2, 1, jcas.getCas());
+        assertEquals(0, sut.getEvictionCount());
+        assertEquals(1, sut.getEntryCount());
+        assertFalse(sut.restore(KEY_2, 1, createTarget()));
+
+        // but it drops the cached older version of the same CAS
+        sut.put(KEY_1, 2, jcas.getCas());
+        assertEquals(0, sut.getEntryCount());
+        assertEquals(0, sut.getSize());
+    }
+
+    @Test
+    public void thatDisabledCacheDoesNothing()
+        throws Exception
+    {
+        CasCache sut = new CasCache(0);
+        sut.put(KEY_1, 1, createCas("This is a test.").getCas());
+
+        assertFalse(sut.isEnabled());
+        assertFalse(sut.restore(KEY_1, 1, createTarget()));
+        assertEquals(0, sut.getEntryCount());
+        assertEquals(0, sut.getSize());
+    }
+
+    private static long estimate(JCas aJCas)
+    {
+        return CasCache.estimateSize(CasPersistenceUtils.takeSnapshot(aJCas.getCas()));
+    }
+
+    private static JCas createCas(String aText)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(aText);
+        if (aText.length() >= 4) {
+            new Token(jcas, 0, 4).addToIndexes();
+        }
+        return jcas;
+    }
+
+    private static CAS createTarget()
+        throws Exception
+    {
+        return CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+    }
+}
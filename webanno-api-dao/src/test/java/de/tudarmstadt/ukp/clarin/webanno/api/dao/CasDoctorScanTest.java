@@ -0,0 +1,307 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasUpdater;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasDoctorScan.CasSource;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.NoZeroSizeTokensAndSentencesCheck;
+import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.RemoveZeroSizeTokensAndSentencesRepair;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasDoctorScanTest
+{
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryCasSource source;
+    private File reportFile;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        source = new MemoryCasSource();
+        reportFile = new File(folder.getRoot(), "report/scan.tsv");
+    }
+
+    @Test
+    public void thatBrokenCasIsRepaired()
+        throws Exception
+    {
+        source.add(key(1), createCas(false));
+        source.add(key(2), createCas(true));
+        source.add(key(3), createCas(false));
+
+        CasDoctorScan scan = new CasDoctorScan(source, new CasDoctor(
+                NoZeroSizeTokensAndSentencesCheck.class,
+                RemoveZeroSizeTokensAndSentencesRepair.class), 2, reportFile, false);
+        scan.run();
+
+        assertTrue(scan.isDone());
+        assertTrue(scan.isFinished());
+        assertEquals(3, scan.getTotal());
+        assertEquals(3, scan.getProcessed());
+        assertEquals(1, scan.getRepaired());
+        assertEquals(0, scan.getFailed());
+        assertEquals(0, scan.getErrors());
+        assertEquals(100, scan.getProgress());
+
+        // The repaired CAS has been written back
+        assertEquals(1, source.updated.size());
+        assertEquals(2, select(source.cases.get(key(2)).getJCas(), Token.class).size());
+
+        assertEquals(CasDoctorScan.RESULT_OK, result(key(1)));
+        assertEquals(CasDoctorScan.RESULT_REPAIRED, result(key(2)));
+        assertEquals(CasDoctorScan.RESULT_OK, result(key(3)));
+    }
+
+    @Test
+    public void thatBrokenCasFailsWithoutRepairs()
+        throws Exception
+    {
+        source.add(key(1), createCas(true));
+
+        CasDoctorScan scan = new CasDoctorScan(source,
+                new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 1, reportFile, false);
+        scan.run();
+
+        assertEquals(1, scan.getFailed());
+        assertEquals(0, scan.getRepaired());
+        assertTrue(source.updated.isEmpty());
+        assertEquals(CasDoctorScan.RESULT_FAILED, result(key(1)));
+    }
+
+    @Test
+    public void thatUnreadableCasIsReportedAsError()
+        throws Exception
+    {
+        source.add(key(1), createCas(false));
+        // Listed but not readable
+        source.keys.add(key(2));
+
+        CasDoctorScan scan = new CasDoctorScan(source,
+                new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 1, reportFile, false);
+        scan.run();
+
+        assertTrue(scan.isFinished());
+        assertEquals(1, scan.getErrors());
+        assertEquals(CasDoctorScan.RESULT_OK, result(key(1)));
+        assertEquals(CasDoctorScan.RESULT_ERROR, result(key(2)));
+    }
+
+    @Test
+    public void thatResumedScanSkipsReportedCases()
+        throws Exception
+    {
+        source.add(key(1), createCas(false));
+        source.add(key(2), createCas(false));
+        new CasDoctorScan(source, new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 2,
+                reportFile, false).run();
+
+        // The last line of an aborted scan may be incomplete, so the CAS is scanned again
+        Files.write(reportFile.toPath(), "1\t3\tdoc".getBytes(UTF_8),
+                StandardOpenOption.APPEND);
+        source.add(key(3), createCas(false));
+        source.add(key(4), createCas(false));
+        source.read.clear();
+
+        CasDoctorScan scan = new CasDoctorScan(source,
+                new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 2, reportFile, true);
+        scan.run();
+
+        assertTrue(scan.isFinished());
+        assertEquals(4, scan.getProcessed());
+        assertEquals(2, source.read.size());
+        assertTrue(source.read.contains(key(3)));
+        assertTrue(source.read.contains(key(4)));
+
+        assertEquals(4, CasDoctorScan.readReportedKeys(reportFile).size());
+        List<String> lines = Files.readAllLines(reportFile.toPath(), UTF_8);
+        assertEquals(1, lines.stream().filter(l -> l.startsWith("#")).count());
+    }
+
+    @Test
+    public void thatNewScanOverwritesReport()
+        throws Exception
+    {
+        source.add(key(1), createCas(false));
+        new CasDoctorScan(source, new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 1,
+                reportFile, false).run();
+        source.read.clear();
+
+        new CasDoctorScan(source, new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 1,
+                reportFile, false).run();
+
+        assertEquals(1, source.read.size());
+        assertEquals(2, Files.readAllLines(reportFile.toPath(), UTF_8).size());
+    }
+
+    @Test
+    public void thatStoppedScanIsNotFinished()
+        throws Exception
+    {
+        source.add(key(1), createCas(false));
+
+        CasDoctorScan scan = new CasDoctorScan(source,
+                new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class), 1, reportFile, false);
+        scan.stop();
+        scan.run();
+
+        assertTrue(scan.isDone());
+        assertTrue(scan.isStopRequested());
+        assertEquals(0, scan.getProcessed());
+        assertTrue(CasDoctorScan.readReportedKeys(reportFile).isEmpty());
+        assertFalse(scan.isFinished());
+    }
+
+    /**
+     * @return the result reported for the given CAS.
+     */
+    private String result(CasKey aKey)
+        throws IOException
+    {
+        List<String> results = Files.readAllLines(reportFile.toPath(), UTF_8).stream()
+                .filter(l -> !l.startsWith("#"))
+                .map(l -> l.split("\t", -1))
+                .filter(f -> f[1].equals(String.valueOf(aKey.getDocumentId())))
+                .map(f -> f[4])
+                .distinct()
+                .collect(Collectors.toList());
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    private static CasKey key(long aDocumentId)
+    {
+        return new CasKey(1, aDocumentId, "user");
+    }
+
+    /**
+     * @param aBroken
+     *            whether to add a zero-size token.
+     */
+    private static CAS createCas(boolean aBroken)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 4).addToIndexes();
+        new Token(jcas, 5, 7).addToIndexes();
+        if (aBroken) {
+            new Token(jcas, 8, 8).addToIndexes();
+        }
+        return jcas.getCas();
+    }
+
+    private static class MemoryCasSource
+        implements CasSource
+    {
+        private final List<CasKey> keys = new ArrayList<>();
+        private final Map<CasKey, CAS> cases = new ConcurrentHashMap<>();
+        private final List<CasKey> read = new CopyOnWriteArrayList<>();
+        private final List<CasKey> updated = new CopyOnWriteArrayList<>();
+
+        public void add(CasKey aKey, CAS aCas)
+        {
+            keys.add(aKey);
+            cases.put(aKey, aCas);
+        }
+
+        @Override
+        public List<CasKey> list()
+        {
+            return new ArrayList<>(keys);
+        }
+
+        @Override
+        public Project getProject(CasKey aKey)
+        {
+            return null;
+        }
+
+        @Override
+        public String getDocumentName(CasKey aKey)
+        {
+            return "document " + aKey.getDocumentId();
+        }
+
+        @Override
+        public CAS read(CasKey aKey)
+            throws IOException
+        {
+            read.add(aKey);
+            CAS cas = cases.get(aKey);
+            if (cas == null) {
+                throw new FileNotFoundException("No CAS for " + aKey);
+            }
+            return cas;
+        }
+
+        @Override
+        public boolean update(CasKey aKey, CasUpdater aUpdater)
+            throws IOException
+        {
+            try {
+                boolean changed = aUpdater.update(cases.get(aKey));
+                if (changed) {
+                    updated.add(aKey);
+                }
+                return changed;
+            }
+            catch (IOException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void release(CAS aCas)
+        {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasHistoryTest
+{
+    private static final String USER = "user";
+    private static final long START = 1_000_000_000_000L;
+    private static final long STEP = 1000;
+
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private File casFile;
+    private byte[] data;
+    private TreeMap<Long, byte[]> versions;
+    private int saved;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        casFile = new File(folder.getRoot(), USER + ".ser");
+        data = new byte[10000];
+        new Random(1).nextBytes(data);
+        versions = new TreeMap<>();
+        saved = 0;
+    }
+
+    @Test
+    public void thatSnapshotsAreStoredAsDeltas()
+        throws Exception
+    {
+        CasHistory sut = new CasHistory(1, 0, 0, true);
+        save(sut, 2 * CasHistory.MAX_DELTA_CHAIN + 3);
+
+        sut.compact();
+
+        assertTrue(countDeltas() > 0);
+        assertFalse(isDelta(newest()));
+        assertChainsBounded();
+        assertAllVersionsRestored(sut);
+    }
+
+    @Test
+    public void thatAllVersionsAreRestoredAfterRebase()
+        throws Exception
+    {
+        CasHistory sut = new CasHistory(1, 0, 0, true);
+        save(sut, 20);
+        sut.compact();
+        List<Long> deltasBefore = listDeltas();
+
+        // The new snapshots extend the existing delta chain which then needs to be re-based
+        save(sut, 5);
+        sut.compact();
+
+        List<Long> rebased = new ArrayList<>(deltasBefore);
+        rebased.removeAll(listDeltas());
+        assertFalse(rebased.isEmpty());
+        assertChainsBounded();
+        assertAllVersionsRestored(sut);
+
+        // The history is also restored after a restart
+        assertAllVersionsRestored(new CasHistory(1, 0, 0, true));
+    }
+
+    @Test
+    public void thatAllVersionsAreRestoredAfterPruningByNumber()
+        throws Exception
+    {
+        CasHistory sut = new CasHistory(1, 0, 5, true);
+        save(sut, 20);
+        sut.compact();
+        save(sut, 5);
+        sut.compact();
+
+        sut.prune(newest());
+
+        assertEquals(5, sut.listSnapshots(1, casFile, USER).size());
+        forgetAllBut(5);
+        assertEquals(5, listSnapshotFiles().length);
+        assertAllVersionsRestored(sut);
+    }
+
+    @Test
+    public void thatAllVersionsAreRestoredAfterPruningByTime()
+        throws Exception
+    {
+        CasHistory sut = new CasHistory(1, 10 * STEP, 0, true);
+        save(sut, 30);
+        sut.compact();
+
+        sut.prune(newest() + STEP / 2);
+
+        // The snapshots which are not older than the keep time remain
+        assertEquals(10, sut.listSnapshots(1, casFile, USER).size());
+        forgetAllBut(10);
+        assertEquals(10, listSnapshotFiles().length);
+        assertAllVersionsRestored(sut);
+
+        // Compacting the pruned history keeps the versions intact
+        save(sut, 3);
+        sut.compact();
+        assertChainsBounded();
+        assertAllVersionsRestored(sut);
+    }
+
+    @Test
+    public void thatPruningBeforeCompactionKeepsVersions()
+        throws Exception
+    {
+        CasHistory sut = new CasHistory(1, 0, 7, true);
+        save(sut, 12);
+
+        sut.prune(newest());
+        sut.compact();
+
+        forgetAllBut(7);
+        assertEquals(6, countDeltas());
+        assertAllVersionsRestored(sut);
+    }
+
+    /**
+     * Saves the given number of new versions of the CAS, each differing only slightly from the
+     * previous one.
+     */
+    private void save(CasHistory aHistory, int aCount)
+        throws Exception
+    {
+        for (int i = 0; i < aCount; i++) {
+            long timestamp = START + saved * STEP;
+            data = data.clone();
+            data[(saved * 37) % data.length]++;
+            saved++;
+
+            // CAS files are never modified in place - the history may hard-link to them
+            File tmpFile = new File(folder.getRoot(), "tmp");
+            FileUtils.writeByteArrayToFile(tmpFile, data);
+            Files.move(tmpFile.toPath(), casFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertTrue(casFile.setLastModified(timestamp));
+
+            assertTrue(aHistory.snapshot(1, casFile, USER));
+            versions.put(timestamp, data);
+        }
+    }
+
+    private void assertAllVersionsRestored(CasHistory aHistory)
+        throws Exception
+    {
+        assertEquals(new ArrayList<>(versions.keySet()),
+                aHistory.listSnapshots(1, casFile, USER));
+        for (Map.Entry<Long, byte[]> version : versions.entrySet()) {
+            assertArrayEquals("Version " + version.getKey(), version.getValue(),
+                    aHistory.readSnapshot(1, casFile, USER, version.getKey()));
+        }
+    }
+
+    /**
+     * Checks that no snapshot needs more than the allowed number of deltas to be restored.
+     */
+    private void assertChainsBounded()
+    {
+        List<Long> timestamps = new ArrayList<>(versions.keySet());
+        Collections.reverse(timestamps);
+        int chain = 0;
+        for (long timestamp : timestamps) {
+            chain = isDelta(timestamp) ? chain + 1 : 0;
+            assertTrue("Chain at " + timestamp, chain < CasHistory.MAX_DELTA_CHAIN);
+        }
+    }
+
+    private void forgetAllBut(int aNewest)
+    {
+        List<Long> timestamps = new ArrayList<>(versions.keySet());
+        for (Long timestamp : timestamps.subList(0, timestamps.size() - aNewest)) {
+            versions.remove(timestamp);
+        }
+    }
+
+    private long newest()
+    {
+        return versions.lastKey();
+    }
+
+    private boolean isDelta(long aTimestamp)
+    {
+        File delta = new File(folder.getRoot(), USER + ".ser." + aTimestamp + ".delta");
+        File full = new File(folder.getRoot(), USER + ".ser." + aTimestamp + ".bak");
+        assertTrue(delta.exists() != full.exists());
+        return delta.exists();
+    }
+
+    private List<Long> listDeltas()
+    {
+        List<Long> deltas = new ArrayList<>();
+        for (long timestamp : versions.keySet()) {
+            if (isDelta(timestamp)) {
+                deltas.add(timestamp);
+            }
+        }
+        return deltas;
+    }
+
+    private int countDeltas()
+    {
+        return listDeltas().size();
+    }
+
+    private File[] listSnapshotFiles()
+    {
+        return folder.getRoot().listFiles((dir, name) -> name.startsWith(USER + ".ser.")
+                && (name.endsWith(".bak") || name.endsWith(".delta")));
+    }
+}
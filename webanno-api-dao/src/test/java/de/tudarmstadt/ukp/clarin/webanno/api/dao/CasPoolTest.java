@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Test;
+
+public class CasPoolTest
+{
+    @Test
+    public void thatEmptyPoolReturnsNothing()
+        throws Exception
+    {
+        CasPool pool = new CasPool(2);
+
+        assertNull(pool.borrow("unknown"));
+    }
+
+    @Test
+    public void thatReleasedCasIsResetAndReused()
+        throws Exception
+    {
+        CasPool pool = new CasPool(2);
+        CAS cas = createCas("This is a test .");
+        String key = CasPersistenceUtils.getTypeSystemKey(cas);
+
+        pool.release(cas);
+        assertEquals(1, pool.getIdleCount());
+
+        CAS borrowed = pool.borrow(key);
+        assertSame(cas, borrowed);
+        assertNull(borrowed.getDocumentText());
+        assertEquals(0, pool.getIdleCount());
+        assertNull(pool.borrow(key));
+    }
+
+    @Test
+    public void thatDuplicateReleaseIsIgnored()
+        throws Exception
+    {
+        CasPool pool = new CasPool(2);
+        CAS cas = createCas("This is a test .");
+        String key = CasPersistenceUtils.getTypeSystemKey(cas);
+
+        pool.release(cas);
+        pool.release(cas);
+        assertEquals(1, pool.getIdleCount());
+
+        assertSame(cas, pool.borrow(key));
+        assertNull(pool.borrow(key));
+    }
+
+    @Test
+    public void thatPoolIsBounded()
+        throws Exception
+    {
+        CasPool pool = new CasPool(2);
+
+        pool.release(createCas("1"));
+        pool.release(createCas("2"));
+        pool.release(createCas("3"));
+
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void thatDisabledPoolKeepsNothing()
+        throws Exception
+    {
+        CasPool pool = new CasPool(0);
+        CAS cas = createCas("This is a test .");
+
+        pool.release(cas);
+
+        assertEquals(0, pool.getIdleCount());
+        // The CAS is not reset either
+        assertEquals("This is a test .", cas.getDocumentText());
+    }
+
+    @Test
+    public void thatRetiredTypeSystemIsNotPooled()
+        throws Exception
+    {
+        CasPool pool = new CasPool(2);
+        CAS cas = createCas("1");
+        String key = CasPersistenceUtils.getTypeSystemKey(cas);
+
+        pool.release(cas);
+        pool.retire(key);
+        assertEquals(0, pool.getIdleCount());
+
+        pool.release(createCas("2"));
+        assertEquals(0, pool.getIdleCount());
+
+        pool.activate(key);
+        pool.release(createCas("3"));
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    private static CAS createCas(String aText)
+        throws Exception
+    {
+        CAS cas = JCasFactory.createJCas().getCas();
+        cas.setDocumentText(aText);
+        return cas;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.core.session.SessionDestroyedEvent;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.SentenceIndex;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.RemoveDanglingRelationsRepair;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class CasStorageServiceImplTest
+{
+    private static final String USER = "user";
+
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private RepositoryLayout layout;
+    private SourceDocument document;
+
+    private List<CasStorageServiceImpl> services = new ArrayList<>();
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        Project project = new Project();
+        project.setId(1);
+        project.setName("project");
+
+        document = new SourceDocument();
+        document.setId(1);
+        document.setName("document");
+        document.setProject(project);
+
+        layout = new RepositoryLayout(folder.newFolder("repository"),
+                RepositoryLayout.LAYOUT_FLAT);
+    }
+
+    @After
+    public void tearDown()
+    {
+        services.forEach(CasStorageServiceImpl::stop);
+    }
+
+    @Test
+    public void thatAddressesSurviveRoundTripThroughDisk()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createService(CasStorageServiceImpl.FORMAT_COMPACT);
+
+        JCas jcas = createCasWithGarbage();
+        List<Integer> written = addresses(jcas);
+        sut.writeCas(document, jcas, USER);
+
+        sut.getCache().invalidate(key());
+        JCas read = sut.readCas(document, USER, false);
+
+        assertEquals(written, addresses(read));
+        assertEquals(0, sut.getCache().getHitCount());
+    }
+
+    @Test
+    public void thatMigratedCasMatchesStoredCas()
+        throws Exception
+    {
+        JCas jcas = createCasWithGarbage();
+        List<Integer> written = addresses(jcas);
+        createService(CasStorageServiceImpl.FORMAT_LEGACY).writeCas(document, jcas, USER);
+
+        CasStorageServiceImpl sut = createService(CasStorageServiceImpl.FORMAT_COMPACT);
+        JCas migrated = sut.readCas(document, USER, false);
+
+        assertTrue(CasPersistenceUtils.isCompactCas(
+                new FileSystemCasStorageBackend(layout, 0, 0, 0, false).getCasFile(key())));
+        assertEquals(written, addresses(migrated));
+        // The version of the migrated CAS is not known to the reader
+        assertEquals(-1, sut.getCasVersion(migrated.getCas()));
+
+        // The cache serves what is on disk now
+        JCas cached = sut.readCas(document, USER, false);
+        assertEquals(1, sut.getCache().getHitCount());
+        assertEquals(written, addresses(cached));
+        assertNotEquals(-1, sut.getCasVersion(cached.getCas()));
+
+        sut.getCache().invalidate(key());
+        JCas fromDisk = sut.readCas(document, USER, false);
+        assertEquals(written, addresses(fromDisk));
+        assertEquals(sut.getCasVersion(cached.getCas()), sut.getCasVersion(fromDisk.getCas()));
+    }
+
+    @Test
+    public void thatSentenceIndexIsSharedBetweenCachedAndStoredCas()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createService(CasStorageServiceImpl.FORMAT_COMPACT);
+        sut.writeCas(document, createCasWithGarbage(), USER);
+
+        JCas cached = sut.readCas(document, USER, false);
+        assertEquals(1, sut.getCache().getHitCount());
+        SentenceIndex index = SentenceIndex.get(cached);
+
+        sut.getCache().invalidate(key());
+        JCas fromDisk = sut.readCas(document, USER, false);
+        assertEquals(1, sut.getCache().getHitCount());
+        assertEquals(sut.getCasVersion(cached.getCas()), sut.getCasVersion(fromDisk.getCas()));
+
+        // The index built for the cached CAS must be valid for the CAS read from disk
+        assertSame(index, SentenceIndex.get(fromDisk));
+        List<Sentence> sentences = new ArrayList<>(select(fromDisk, Sentence.class));
+        assertEquals(sentences.size(), index.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            int address = fromDisk.getLowLevelCas().ll_getFSRef(sentences.get(i));
+            assertEquals(address, index.getAddress(i));
+            assertEquals(i, index.indexOfAddress(address));
+            assertEquals(sentences.get(i).getBegin(), index.getBegin(i));
+        }
+    }
+
+    @Test
+    public void thatRepairedCasIsNotTagged()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        Token governor = new Token(jcas, 0, 4);
+        governor.addToIndexes();
+        // The dependent is not indexed, so the relation is dangling
+        Token dependent = new Token(jcas, 5, 7);
+        Dependency dep = new Dependency(jcas, 0, 7);
+        dep.setGovernor(governor);
+        dep.setDependent(dependent);
+        dep.addToIndexes();
+
+        CasStorageServiceImpl sut = createService(CasStorageServiceImpl.FORMAT_COMPACT,
+                new CasDoctor(RemoveDanglingRelationsRepair.class));
+        sut.writeCas(document, jcas, USER);
+
+        JCas repaired = sut.readCas(document, USER);
+
+        assertTrue(select(repaired, Dependency.class).isEmpty());
+        assertEquals(-1, sut.getCasVersion(repaired.getCas()));
+
+        // Without the repair, the CAS is what is stored
+        JCas unrepaired = sut.readCas(document, USER, false);
+        assertEquals(1, select(unrepaired, Dependency.class).size());
+        assertNotEquals(-1, sut.getCasVersion(unrepaired.getCas()));
+    }
+
+    @Test
+    public void thatCasWithoutRepairsIsTagged()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createService(CasStorageServiceImpl.FORMAT_COMPACT,
+                new CasDoctor(RemoveDanglingRelationsRepair.class));
+        sut.writeCas(document, createCasWithGarbage(), USER);
+
+        JCas read = sut.readCas(document, USER);
+
+        assertNotEquals(-1, sut.getCasVersion(read.getCas()));
+    }
+
+    @Test
+    public void thatRepeatedWritesAreCoalesced()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        // The first version is written right away
+        sut.writeCas(document, jcas, USER);
+        assertEquals(0, sut.getPendingWriteCount());
+
+        for (int i = 0; i < 3; i++) {
+            new Token(jcas, 0, 4).addToIndexes();
+            sut.writeCas(document, jcas, USER);
+        }
+
+        assertEquals(3, sut.getWriteBehindRequestCount());
+        assertEquals(1, sut.getPendingWriteCount());
+        assertEquals(8, tokensOnDisk());
+
+        sut.flushCas(document, USER);
+
+        assertEquals(1, sut.getWriteBehindFlushCount());
+        assertEquals(0, sut.getPendingWriteCount());
+        assertEquals(11, tokensOnDisk());
+    }
+
+    @Test
+    public void thatReadSeesPendingWrite()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        sut.writeCas(document, jcas, USER);
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeCas(document, jcas, USER);
+
+        JCas read = sut.readCas(document, USER, false);
+
+        assertEquals(9, select(read, Token.class).size());
+        assertEquals(8, tokensOnDisk());
+    }
+
+    @Test
+    public void thatSessionEndFlushesPendingWrites()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        sut.writeCas(document, jcas, USER);
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeCas(document, jcas, USER);
+
+        SecurityContext context = new SecurityContextImpl();
+        context.setAuthentication(new TestingAuthenticationToken(USER, null));
+        sut.onApplicationEvent(new SessionDestroyedEvent(this)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public List<SecurityContext> getSecurityContexts()
+            {
+                return Collections.singletonList(context);
+            }
+
+            public String getId()
+            {
+                return "session";
+            }
+        });
+
+        assertEquals(0, sut.getPendingWriteCount());
+        assertEquals(9, tokensOnDisk());
+    }
+
+    @Test
+    public void thatStopFlushesPendingWrites()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        sut.writeCas(document, jcas, USER);
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeCas(document, jcas, USER);
+
+        services.remove(sut);
+        sut.stop();
+
+        assertEquals(0, sut.getPendingWriteCount());
+        assertEquals(9, tokensOnDisk());
+    }
+
+    @Test
+    public void thatDeleteDropsPendingWrite()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        sut.writeCas(document, jcas, USER);
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeCas(document, jcas, USER);
+
+        assertTrue(sut.deleteCas(document, USER));
+        sut.flushCas(document, USER);
+
+        assertEquals(0, sut.getPendingWriteCount());
+        assertFalse(sut.existsCas(document, USER));
+    }
+
+    @Test
+    public void thatImportReplacesPendingWrite()
+        throws Exception
+    {
+        CasStorageServiceImpl sut = createWriteBehindService();
+        JCas jcas = createCasWithGarbage();
+        sut.writeCas(document, jcas, USER);
+        File exported = new File(folder.getRoot(), "exported.ser");
+        sut.exportCas(document, USER, exported);
+
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeCas(document, jcas, USER);
+        try (InputStream is = new FileInputStream(exported)) {
+            sut.importCas(document, USER, is);
+        }
+        sut.flushCas(document, USER);
+
+        assertEquals(0, sut.getPendingWriteCount());
+        assertEquals(8, select(sut.readCas(document, USER, false), Token.class).size());
+        assertEquals(8, tokensOnDisk());
+    }
+
+    /**
+     * @return the number of tokens in the CAS as it is currently stored on disk.
+     */
+    private int tokensOnDisk()
+        throws IOException
+    {
+        CasStorageServiceImpl reader = createService(CasStorageServiceImpl.FORMAT_COMPACT,
+                new CasDoctor(new Class<?>[0]), 0, 0);
+        return select(reader.readCas(document, USER, false), Token.class).size();
+    }
+
+    private CasStorageServiceImpl createWriteBehindService()
+    {
+        // Pending writes are only written when flushed explicitly
+        return createService(CasStorageServiceImpl.FORMAT_COMPACT,
+                new CasDoctor(new Class<?>[0]), 1, TimeUnit.HOURS.toMillis(1));
+    }
+
+    private CasStorageServiceImpl createService(String aFormat)
+    {
+        return createService(aFormat, new CasDoctor(new Class<?>[0]));
+    }
+
+    private CasStorageServiceImpl createService(String aFormat, CasDoctor aCasDoctor)
+    {
+        return createService(aFormat, aCasDoctor, 1, 0);
+    }
+
+    private CasStorageServiceImpl createService(String aFormat, CasDoctor aCasDoctor,
+            long aCacheSize, long aWriteBehindDelay)
+    {
+        CasStorageServiceImpl service = new CasStorageServiceImpl(aCasDoctor, new CasPool(0),
+                layout, aFormat, aCacheSize, aWriteBehindDelay);
+        service.start();
+        services.add(service);
+        return service;
+    }
+
+    private CasKey key()
+    {
+        return new CasKey(document.getProject().getId(), document.getId(), USER);
+    }
+
+    /**
+     * Creates a CAS which contains feature structures that are not reachable from the indexes
+     * before the indexed ones, so a serialization dropping them would renumber the indexed ones.
+     */
+    private static JCas createCasWithGarbage()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test . This too .");
+        new Token(jcas, 0, 4);
+        new Token(jcas, 5, 7);
+        new Sentence(jcas, 0, 7);
+        new Token(jcas, 0, 4).addToIndexes();
+        new Token(jcas, 5, 7).addToIndexes();
+        new Token(jcas, 8, 9).addToIndexes();
+        new Token(jcas, 10, 14).addToIndexes();
+        new Token(jcas, 15, 16).addToIndexes();
+        new Sentence(jcas, 0, 16).addToIndexes();
+        new Token(jcas, 17, 21).addToIndexes();
+        new Token(jcas, 22, 25).addToIndexes();
+        new Token(jcas, 26, 27).addToIndexes();
+        new Sentence(jcas, 17, 27).addToIndexes();
+        return jcas;
+    }
+
+    private static List<Integer> addresses(JCas aJCas)
+    {
+        List<Integer> addresses = new ArrayList<>();
+        for (FeatureStructure fs : select(aJCas, Token.class)) {
+            addresses.add(aJCas.getLowLevelCas().ll_getFSRef(fs));
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasStoreTest
+{
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void thatPutReadAndDeleteWork()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, 0)) {
+            assertFalse(store.exists(1, "user"));
+            assertNull(store.read(1, "user"));
+            assertEquals(-1, store.getVersion(1, "user"));
+
+            store.put(1, "user", data("first"));
+            long version = store.getVersion(1, "user");
+            store.put(1, "user", data("second"));
+            store.put(2, "user", data("other"));
+
+            assertTrue(store.exists(1, "user"));
+            assertArrayEquals(data("second"), store.read(1, "user"));
+            assertArrayEquals(data("other"), store.read(2, "user"));
+            assertTrue(store.getVersion(1, "user") > version);
+            assertEquals(2, store.list().size());
+
+            assertTrue(store.delete(1, "user"));
+            assertFalse(store.delete(1, "user"));
+            assertFalse(store.exists(1, "user"));
+            assertNull(store.read(1, "user"));
+            assertEquals(-1, store.getVersion(1, "user"));
+            assertEquals(1, store.list().size());
+        }
+
+        // Everything is replayed when the store is opened again
+        try (CasStore store = new CasStore(1, file, 0)) {
+            assertFalse(store.exists(1, "user"));
+            assertArrayEquals(data("other"), store.read(2, "user"));
+        }
+    }
+
+    @Test
+    public void thatDeleteDocumentRemovesAllUsers()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, DAY)) {
+            store.put(1, "user1", data("a"));
+            store.put(1, "user2", data("b"));
+            store.put(2, "user1", data("c"));
+
+            store.deleteDocument(1);
+
+            assertFalse(store.exists(1, "user1"));
+            assertFalse(store.exists(1, "user2"));
+            assertTrue(store.listHistory(1, "user1").isEmpty());
+            assertTrue(store.exists(2, "user1"));
+        }
+
+        try (CasStore store = new CasStore(1, file, DAY)) {
+            assertEquals(1, store.list().size());
+        }
+    }
+
+    @Test
+    public void thatHistoryIsKept()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, DAY)) {
+            store.put(1, "user", data("first"));
+            store.put(1, "user", data("second"));
+
+            // Only the first version is older than the interval
+            List<Long> history = store.listHistory(1, "user");
+            assertEquals(1, history.size());
+            assertArrayEquals(data("first"), store.readHistory(1, "user", history.get(0)));
+            assertNull(store.readHistory(1, "user", history.get(0) + 1));
+
+            // The history survives deleting the current version
+            store.delete(1, "user");
+            assertEquals(history, store.listHistory(1, "user"));
+        }
+    }
+
+    @Test
+    public void thatTruncatedRecordIsDiscarded()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, 0)) {
+            store.put(1, "user", data("first"));
+            store.put(1, "user", data("second"));
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        assertRecoveredAfterDamage(file);
+    }
+
+    @Test
+    public void thatCorruptRecordIsDiscarded()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, 0)) {
+            store.put(1, "user", data("first"));
+            store.put(1, "user", data("second"));
+        }
+
+        // Flip a byte in the data of the last record, just before its checksum
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long pos = raf.length() - 5;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+
+        assertRecoveredAfterDamage(file);
+    }
+
+    private void assertRecoveredAfterDamage(File aFile)
+        throws Exception
+    {
+        long damagedSize = aFile.length();
+        try (CasStore store = new CasStore(1, aFile, 0)) {
+            // The damaged last record is dropped, the previous version is current again
+            assertArrayEquals(data("first"), store.read(1, "user"));
+            assertTrue(store.getSize() < damagedSize);
+            assertEquals(store.getSize(), aFile.length());
+
+            // New records are not hidden behind the damaged one
+            store.put(1, "user", data("third"));
+        }
+
+        try (CasStore store = new CasStore(1, aFile, 0)) {
+            assertArrayEquals(data("third"), store.read(1, "user"));
+        }
+    }
+
+    @Test
+    public void thatPruneLimitsNumberOfHistoryVersions()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, 1)) {
+            for (int i = 0; i < 5; i++) {
+                store.put(1, "user", data("version " + i));
+                // Make sure every version goes to the history
+                Thread.sleep(5);
+            }
+            List<Long> history = store.listHistory(1, "user");
+            assertEquals(5, history.size());
+
+            // Limits of 0 are disabled
+            assertEquals(0, store.prune(0, 0));
+
+            assertEquals(3, store.prune(0, 2));
+            assertEquals(history.subList(3, 5), store.listHistory(1, "user"));
+            assertEquals(0, store.prune(0, 2));
+        }
+
+        // Pruning is replayed when the store is opened again
+        try (CasStore store = new CasStore(1, file, 1)) {
+            List<Long> history = store.listHistory(1, "user");
+            assertEquals(2, history.size());
+            assertArrayEquals(data("version 3"), store.readHistory(1, "user", history.get(0)));
+            assertArrayEquals(data("version 4"), store.read(1, "user"));
+        }
+    }
+
+    @Test
+    public void thatPruneLimitsAgeOfHistoryVersions()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        try (CasStore store = new CasStore(1, file, 1)) {
+            for (int i = 0; i < 3; i++) {
+                store.put(1, "user", data("version " + i));
+                Thread.sleep(5);
+            }
+
+            // Nothing is old enough
+            assertEquals(0, store.prune(DAY, 0));
+
+            // Everything is too old, but the newest history version is kept anyway
+            assertEquals(2, store.prune(1, 0));
+            List<Long> history = store.listHistory(1, "user");
+            assertEquals(1, history.size());
+            assertArrayEquals(data("version 2"), store.readHistory(1, "user", history.get(0)));
+        }
+    }
+
+    @Test
+    public void thatCompactPreservesLiveDataAndHistory()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "store");
+        byte[] big = new byte[100 * 1024];
+        try (CasStore store = new CasStore(1, file, DAY)) {
+            // Small stores are not compacted
+            store.put(1, "user", data("first"));
+            assertFalse(store.compact());
+
+            // Produce a lot of superseded versions
+            for (int i = 0; i < 30; i++) {
+                big[0] = (byte) i;
+                store.put(2, "user", big);
+            }
+            store.put(1, "user", data("second"));
+            store.put(3, "user", data("deleted"));
+            store.delete(3, "user");
+
+            long liveSize = store.getLiveSize();
+            List<Long> history1 = store.listHistory(1, "user");
+            List<Long> history2 = store.listHistory(2, "user");
+            long version = store.getVersion(1, "user");
+
+            assertTrue(store.compact());
+            assertEquals(liveSize, store.getSize());
+            assertEquals(liveSize, file.length());
+            assertFalse(store.compact());
+
+            assertCompactedContent(store, history1, history2, version, big);
+        }
+
+        // The compacted file replays to the same state
+        try (CasStore store = new CasStore(1, file, DAY)) {
+            assertCompactedContent(store, store.listHistory(1, "user"),
+                    store.listHistory(2, "user"), store.getVersion(1, "user"), big);
+            assertFalse(new File(file.getPath() + ".compact").exists());
+        }
+    }
+
+    private void assertCompactedContent(CasStore aStore, List<Long> aHistory1,
+            List<Long> aHistory2, long aVersion, byte[] aBig)
+        throws Exception
+    {
+        assertArrayEquals(data("second"), aStore.read(1, "user"));
+        assertEquals(aVersion, aStore.getVersion(1, "user"));
+        assertEquals(aHistory1, aStore.listHistory(1, "user"));
+        assertArrayEquals(data("first"), aStore.readHistory(1, "user", aHistory1.get(0)));
+        assertArrayEquals(aBig, aStore.read(2, "user"));
+        assertEquals(aHistory2, aStore.listHistory(2, "user"));
+        assertEquals(0, aStore.readHistory(2, "user", aHistory2.get(0))[0]);
+        assertFalse(aStore.exists(3, "user"));
+        assertEquals(2, aStore.list().size());
+    }
+
+    private static byte[] data(String aText)
+    {
+        return aText.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasUpdater;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasUpgradeService.UpgradeJob;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasUpgradeServiceTest
+{
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private Project project;
+    private SourceDocument document;
+
+    /**
+     * When the CASes of the users have last been accessed by an editor.
+     */
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+
+    /**
+     * Users whose CAS an editor accesses while the upgrade is waiting for the CAS.
+     */
+    private final Map<String, Boolean> accessWhileWaiting = new ConcurrentHashMap<>();
+
+    private final List<String> upgraded = new CopyOnWriteArrayList<>();
+
+    /**
+     * Counted down when an upgrade starts.
+     */
+    private volatile CountDownLatch upgradeStarted = new CountDownLatch(0);
+
+    /**
+     * Awaited by every upgrade before it completes.
+     */
+    private volatile CountDownLatch upgradeProceed = new CountDownLatch(0);
+
+    private CasUpgradeService sut;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+
+        document = new SourceDocument();
+        document.setId(1);
+        document.setName("document");
+        document.setProject(project);
+
+        List<AnnotationDocument> annotationDocuments = new ArrayList<>();
+        for (String user : new String[] { "alice", "bob" }) {
+            AnnotationDocument ad = new AnnotationDocument();
+            ad.setUser(user);
+            ad.setDocument(document);
+            annotationDocuments.add(ad);
+        }
+
+        File missingFile = new File(folder.getRoot(), "missing.ser");
+
+        DocumentService documentService = fake(DocumentService.class, (method, args) -> {
+            switch (method) {
+            case "listSourceDocuments":
+                return Collections.singletonList(document);
+            case "listAnnotationDocuments":
+                return annotationDocuments;
+            case "getCasFile":
+                return missingFile;
+            default:
+                throw new UnsupportedOperationException(method);
+            }
+        });
+
+        CasStorageService casStorageService = fake(CasStorageService.class, (method, args) -> {
+            String user = (String) args[1];
+            switch (method) {
+            case "getCasLastAccess":
+                return lastAccess.getOrDefault(user, -1L);
+            case "updateCas":
+                if (accessWhileWaiting.containsKey(user)) {
+                    lastAccess.put(user, System.currentTimeMillis());
+                }
+                return ((CasUpdater) args[2]).update(JCasFactory.createJCas().getCas());
+            default:
+                throw new UnsupportedOperationException(method);
+            }
+        });
+
+        AnnotationSchemaService annotationService = fake(AnnotationSchemaService.class,
+            (method, args) -> {
+                switch (method) {
+                case "createCas":
+                    return JCasFactory.createJCas().getCas();
+                case "upgradeCas":
+                    upgradeStarted.countDown();
+                    upgradeProceed.await();
+                    upgraded.add((String) args[2]);
+                    return true;
+                default:
+                    throw new UnsupportedOperationException(method);
+                }
+            });
+
+        sut = new CasUpgradeService(annotationService, documentService, casStorageService,
+                new CasPool(0), new RepositoryLayout(folder.newFolder("repository"),
+                        RepositoryLayout.LAYOUT_FLAT), 2);
+        sut.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.stop();
+    }
+
+    @Test
+    public void thatCasesNotInUseAreUpgraded()
+        throws Exception
+    {
+        UpgradeJob job = upgrade();
+
+        assertEquals(0, job.getErrors());
+        assertEquals(0, job.getSkipped());
+        assertEquals(4, job.getUpgraded());
+        assertTrue(upgraded.contains("alice"));
+        assertTrue(upgraded.contains("bob"));
+        assertTrue(upgraded.contains(CURATION_USER));
+    }
+
+    @Test
+    public void thatRecentlyAccessedCasIsSkipped()
+        throws Exception
+    {
+        lastAccess.put("alice", System.currentTimeMillis());
+        lastAccess.put("bob", System.currentTimeMillis() - CasUpgradeService.IN_USE_TIME
+                - TimeUnit.MINUTES.toMillis(1));
+
+        UpgradeJob job = upgrade();
+
+        assertEquals(0, job.getErrors());
+        assertEquals(1, job.getSkipped());
+        assertEquals(3, job.getUpgraded());
+        assertFalse(upgraded.contains("alice"));
+        assertTrue(upgraded.contains("bob"));
+    }
+
+    @Test
+    public void thatCasAccessedWhileWaitingForLockIsSkipped()
+        throws Exception
+    {
+        accessWhileWaiting.put("alice", true);
+
+        UpgradeJob job = upgrade();
+
+        assertEquals(1, job.getSkipped());
+        assertEquals(3, job.getUpgraded());
+        assertFalse(upgraded.contains("alice"));
+    }
+
+    @Test
+    public void thatSkippedCasesAreUpgradedLater()
+        throws Exception
+    {
+        lastAccess.put("alice", System.currentTimeMillis());
+        assertEquals(1, upgrade().getSkipped());
+
+        // The upgrade is not considered complete, so it is repeated once the editor is gone
+        lastAccess.remove("alice");
+        UpgradeJob job = upgrade();
+
+        assertEquals(0, job.getSkipped());
+        assertTrue(upgraded.contains("alice"));
+    }
+
+    @Test
+    public void thatNothingIsUpgradedWhenStopped()
+        throws Exception
+    {
+        sut.stop();
+
+        assertNull(sut.startUpgrade(project));
+    }
+
+    @Test
+    public void thatStopWaitsForUpgradesInProgress()
+        throws Exception
+    {
+        upgradeStarted = new CountDownLatch(1);
+        upgradeProceed = new CountDownLatch(1);
+        UpgradeJob job = sut.startUpgrade(project);
+        assertTrue(upgradeStarted.await(10, TimeUnit.SECONDS));
+
+        Thread stopper = new Thread(sut::stop);
+        stopper.start();
+        stopper.join(200);
+        assertTrue(stopper.isAlive());
+
+        upgradeProceed.countDown();
+        stopper.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(stopper.isAlive());
+        assertFalse(upgraded.isEmpty());
+
+        // The job notices that the service has been stopped and ends
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!job.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isDone());
+    }
+
+    private UpgradeJob upgrade()
+        throws InterruptedException
+    {
+        UpgradeJob job = sut.startUpgrade(project);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!job.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isDone());
+        return job;
+    }
+
+    @FunctionalInterface
+    private interface FakeMethod
+    {
+        Object invoke(String aMethod, Object[] aArgs)
+            throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> aInterface, FakeMethod aImplementation)
+    {
+        return (T) Proxy.newProxyInstance(aInterface.getClassLoader(),
+                new Class<?>[] { aInterface },
+                (proxy, method, args) -> aImplementation.invoke(method.getName(), args));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KeyValueCasStorageBackendTest
+{
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyValueCasStorageBackend backend;
+
+    @Before
+    public void setup()
+    {
+        backend = new KeyValueCasStorageBackend(folder.getRoot(), TimeUnit.DAYS.toMillis(1), 0,
+                0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        backend.stop();
+    }
+
+    @Test
+    public void thatWriteReadAndDeleteWork()
+        throws Exception
+    {
+        CasKey key = new CasKey(1, 2, "user");
+
+        assertFalse(backend.exists(key));
+        assertEquals(-1, backend.getVersion(key));
+        // Looking for a CAS does not create a store
+        assertFalse(backend.getStoreFile(1).exists());
+
+        write(key, "first");
+        long version = backend.getVersion(key);
+        write(key, "second");
+
+        assertTrue(backend.exists(key));
+        assertEquals("second", read(key));
+        assertNotEquals(version, backend.getVersion(key));
+        assertEquals(1, backend.list(1).size());
+        assertEquals(1, backend.listHistory(key).size());
+        assertArrayEquals(bytes("first"),
+                backend.readHistory(key, backend.listHistory(key).get(0)));
+
+        assertTrue(backend.delete(key));
+        assertFalse(backend.exists(key));
+        try {
+            backend.read(key);
+            fail("Expected the CAS to be gone");
+        }
+        catch (FileNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void thatFailingWriterLeavesPreviousVersion()
+        throws Exception
+    {
+        CasKey key = new CasKey(1, 2, "user");
+        write(key, "first");
+
+        try {
+            backend.write(key, out -> {
+                out.write(bytes("partial"));
+                throw new IOException("broken");
+            });
+            fail("Expected the write to fail");
+        }
+        catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+        }
+
+        assertEquals("first", read(key));
+    }
+
+    @Test
+    public void thatDataSurvivesRestart()
+        throws Exception
+    {
+        CasKey key = new CasKey(1, 2, "user");
+        write(key, "first");
+        backend.stop();
+
+        backend = new KeyValueCasStorageBackend(folder.getRoot(), 0, 0, 0);
+        assertEquals("first", read(key));
+    }
+
+    @Test
+    public void thatDeleteRemovesDocumentsAndProjects()
+        throws Exception
+    {
+        write(new CasKey(1, 2, "user1"), "a");
+        write(new CasKey(1, 2, "user2"), "b");
+        write(new CasKey(1, 3, "user1"), "c");
+        write(new CasKey(4, 5, "user1"), "d");
+
+        backend.deleteDocument(1, 2);
+        assertEquals(1, backend.list(1).size());
+        assertTrue(backend.listHistory(new CasKey(1, 2, "user1")).isEmpty());
+
+        backend.deleteProject(1);
+        assertFalse(backend.getStoreFile(1).exists());
+        assertTrue(backend.list(1).isEmpty());
+        assertEquals("d", read(new CasKey(4, 5, "user1")));
+    }
+
+    private void write(CasKey aKey, String aText)
+        throws IOException
+    {
+        backend.write(aKey, out -> out.write(bytes(aText)));
+    }
+
+    private String read(CasKey aKey)
+        throws IOException
+    {
+        try (InputStream is = backend.read(aKey)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String aText)
+    {
+        return aText.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
+
+public class ParallelCasReaderTest
+{
+    private JCas jcas;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+    }
+
+    @Test
+    public void thatResultsAreReturnedInRequestOrder()
+        throws Exception
+    {
+        List<CasReadRequest> requests = createRequests(20);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (ParallelCasReader reader = new ParallelCasReader(executor, 4, requests,
+                request -> {
+                    // Let later requests finish before earlier ones
+                    sleep(20 - requests.indexOf(request));
+                    return new CasReadResult(request, jcas);
+                }, cas -> { })) {
+            for (CasReadRequest request : requests) {
+                assertTrue(reader.hasNext());
+                assertSame(request, reader.next().getRequest());
+            }
+            assertFalse(reader.hasNext());
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void thatReadAheadIsBounded()
+    {
+        List<CasReadRequest> requests = createRequests(10);
+        AtomicInteger loaded = new AtomicInteger();
+        // Run the tasks right away, so the number of loaded CASes is deterministic
+        try (ParallelCasReader reader = new ParallelCasReader(Runnable::run, 3, requests,
+                request -> {
+                    loaded.incrementAndGet();
+                    return new CasReadResult(request, jcas);
+                }, cas -> { })) {
+            assertEquals(0, loaded.get());
+
+            int consumed = 0;
+            while (reader.hasNext()) {
+                reader.next();
+                consumed++;
+                assertEquals(Math.min(requests.size(), consumed + 3), loaded.get());
+            }
+            assertEquals(requests.size(), consumed);
+        }
+    }
+
+    @Test
+    public void thatCasesAreReadOnDemandWithoutExecutor()
+    {
+        List<CasReadRequest> requests = createRequests(5);
+        AtomicInteger loaded = new AtomicInteger();
+        try (ParallelCasReader reader = new ParallelCasReader(null, 3, requests, request -> {
+            loaded.incrementAndGet();
+            return new CasReadResult(request, jcas);
+        }, cas -> { })) {
+            for (int i = 0; i < requests.size(); i++) {
+                assertSame(requests.get(i), reader.next().getRequest());
+                assertEquals(i + 1, loaded.get());
+            }
+        }
+    }
+
+    @Test
+    public void thatFailuresAreReportedPerResult()
+    {
+        List<CasReadRequest> requests = createRequests(3);
+        try (ParallelCasReader reader = new ParallelCasReader(Runnable::run, 2, requests,
+                request -> request == requests.get(1)
+                        ? new CasReadResult(request, new IOException("broken"))
+                        : new CasReadResult(request, jcas),
+                cas -> { })) {
+            assertTrue(reader.next().isSuccessful());
+
+            CasReadResult failed = reader.next();
+            assertFalse(failed.isSuccessful());
+            try {
+                failed.getJCas();
+                fail("Expected the failure to be reported");
+            }
+            catch (IOException e) {
+                assertEquals("broken", e.getMessage());
+            }
+
+            // Reading continues after a failure
+            assertTrue(reader.next().isSuccessful());
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void thatLoaderErrorsArePropagated()
+        throws Exception
+    {
+        List<CasReadRequest> requests = createRequests(3);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RuntimeException error = new IllegalArgumentException("bug");
+        try (ParallelCasReader reader = new ParallelCasReader(executor, 2, requests,
+                request -> {
+                    if (request == requests.get(1)) {
+                        throw error;
+                    }
+                    return new CasReadResult(request, jcas);
+                }, cas -> { })) {
+            assertTrue(reader.next().isSuccessful());
+            try {
+                reader.next();
+                fail("Expected the error to be propagated");
+            }
+            catch (IllegalStateException e) {
+                assertSame(error, e.getCause());
+            }
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void thatCloseReleasesUnconsumedCases()
+        throws Exception
+    {
+        List<CasReadRequest> requests = createRequests(6);
+        List<CAS> released = new ArrayList<>();
+        ParallelCasReader reader = new ParallelCasReader(Runnable::run, 2, requests,
+                request -> {
+                    try {
+                        return new CasReadResult(request, JCasFactory.createJCas());
+                    }
+                    catch (Exception e) {
+                        return new CasReadResult(request, e);
+                    }
+                }, released::add);
+
+        CAS consumed = reader.next().getJCas().getCas();
+        reader.close();
+
+        // The two CASes read ahead are released, but not the one handed out
+        assertEquals(2, released.size());
+        assertFalse(released.contains(consumed));
+        assertFalse(reader.hasNext());
+    }
+
+    private static List<CasReadRequest> createRequests(int aCount)
+    {
+        List<CasReadRequest> requests = new ArrayList<>();
+        for (int i = 0; i < aCount; i++) {
+            requests.add(new CasReadRequest(null, "user" + i));
+        }
+        return requests;
+    }
+
+    private static void sleep(long aMillis)
+    {
+        try {
+            Thread.sleep(aMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NoResultException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class PersistenceContextCacheTest
+{
+    private EntityManagerFactory entityManagerFactory;
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<String> loader = () -> "result " + loads.incrementAndGet();
+
+    private PersistenceContextCache sut;
+
+    @Before
+    public void setup()
+    {
+        entityManagerFactory = fake(EntityManagerFactory.class);
+        sut = new PersistenceContextCache(entityManagerFactory);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (TransactionSynchronizationManager.hasResource(entityManagerFactory)) {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void thatNothingIsCachedWithoutEntityManager()
+    {
+        assertEquals("result 1", sut.get("key", loader));
+        assertEquals("result 2", sut.get("key", loader));
+
+        PersistenceContextCache disabled = new PersistenceContextCache(null);
+        assertEquals("result 3", disabled.get("key", loader));
+        assertEquals("result 4", disabled.get("key", loader));
+    }
+
+    @Test
+    public void thatResultsAreCachedPerEntityManager()
+    {
+        bindEntityManager();
+        assertEquals("result 1", sut.get("key", loader));
+        assertEquals("result 1", sut.get("key", loader));
+        assertEquals("result 2", sut.get("other key", loader));
+        assertEquals(1, sut.getHitCount());
+        assertEquals(2, sut.getMissCount());
+
+        // The next request has a new entity manager which must not see the old entities
+        TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+        bindEntityManager();
+        assertEquals("result 3", sut.get("key", loader));
+        assertEquals("result 3", sut.get("key", loader));
+    }
+
+    @Test
+    public void thatInvalidateDropsResults()
+    {
+        bindEntityManager();
+        assertEquals("result 1", sut.get("key", loader));
+
+        sut.invalidate();
+
+        assertEquals("result 2", sut.get("key", loader));
+        assertEquals("result 2", sut.get("key", loader));
+        assertEquals(1, sut.getInvalidationCount());
+    }
+
+    @Test
+    public void thatResultsAreDroppedAgainWhenTransactionCompletes()
+    {
+        bindEntityManager();
+        TransactionSynchronizationManager.initSynchronization();
+
+        sut.invalidate();
+        // Loaded within the transaction which may still be rolled back
+        assertEquals("result 1", sut.get("key", loader));
+        assertEquals("result 1", sut.get("key", loader));
+
+        for (TransactionSynchronization sync : TransactionSynchronizationManager
+                .getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        assertEquals("result 2", sut.get("key", loader));
+        assertEquals(2, sut.getInvalidationCount());
+    }
+
+    @Test
+    public void thatFailedLookupIsNotCached()
+    {
+        bindEntityManager();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                sut.get("key", () -> {
+                    loads.incrementAndGet();
+                    throw new NoResultException();
+                });
+                fail("Lookup should have failed");
+            }
+            catch (NoResultException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(2, loads.get());
+        assertEquals("result 3", sut.get("key", loader));
+    }
+
+    private void bindEntityManager()
+    {
+        TransactionSynchronizationManager.bindResource(entityManagerFactory,
+                new EntityManagerHolder(fake(EntityManager.class)));
+    }
+
+    /**
+     * @return a proxy which only supports the methods of {@link Object}, enough to be used as a
+     *         key or a resource.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> aInterface)
+    {
+        InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "fake " + aInterface.getSimpleName();
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        };
+        return (T) Proxy.newProxyInstance(aInterface.getClassLoader(),
+                new Class<?>[] { aInterface }, handler);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Identifies a CAS to be read by {@link CasStorageService#readCases}.
+ */
+public class CasReadRequest
+{
+    private final SourceDocument document;
+    private final String username;
+
+    /**
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the user who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    public CasReadRequest(SourceDocument aDocument, String aUsername)
+    {
+        document = aDocument;
+        username = aUsername;
+    }
+
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + document.getName() + "](" + document.getId() + ") for user [" + username
+                + "]";
+    }
+}
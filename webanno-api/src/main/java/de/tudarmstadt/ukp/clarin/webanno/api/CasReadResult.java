@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.IOException;
+
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Outcome of reading a single CAS via {@link CasStorageService#readCases}. Failing to read one
+ * CAS does not abort reading the others, so each result either holds the CAS or the reason why it
+ * could not be read.
+ */
+public class CasReadResult
+{
+    private final CasReadRequest request;
+    private final JCas jcas;
+    private final Exception error;
+
+    public CasReadResult(CasReadRequest aRequest, JCas aJCas)
+    {
+        request = aRequest;
+        jcas = aJCas;
+        error = null;
+    }
+
+    public CasReadResult(CasReadRequest aRequest, Exception aError)
+    {
+        request = aRequest;
+        jcas = null;
+        error = aError;
+    }
+
+    public CasReadRequest getRequest()
+    {
+        return request;
+    }
+
+    public SourceDocument getDocument()
+    {
+        return request.getDocument();
+    }
+
+    public String getUsername()
+    {
+        return request.getUsername();
+    }
+
+    /**
+     * @return whether the CAS could be read.
+     */
+    public boolean isSuccessful()
+    {
+        return error == null;
+    }
+
+    /**
+     * @return the exception which prevented the CAS from being read or {@code null}.
+     */
+    public Exception getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return the CAS.
+     * @throws IOException
+     *             if the CAS could not be read. Runtime exceptions that occurred while reading are
+     *             re-thrown as they are.
+     */
+    public JCas getJCas()
+        throws IOException
+    {
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        else if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        else if (error != null) {
+            throw new IOException(error);
+        }
+
+        return jcas;
+    }
+}
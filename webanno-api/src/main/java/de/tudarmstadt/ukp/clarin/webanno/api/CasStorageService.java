@@ -19,7 +19,11 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.stream.Stream;
 
+import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
 
@@ -62,7 +66,200 @@ public interface CasStorageService
     JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
         throws IOException;
     
+    /**
+     * Reads the CASes for many documents and users, e.g. for project-wide operations. The CASes
+     * are read in parallel in the background while the caller consumes the stream. Only a limited
+     * number of CASes is read ahead of the caller, so the memory needed does not depend on the
+     * number of requests.
+     * <p>
+     * The results are returned in the order of the requests. The stream must be closed when it is
+     * no longer needed (e.g. using try-with-resources), otherwise CASes read ahead are kept until
+     * they are garbage collected. Contrary to {@link #readCas}, reading a CAS does not cause
+     * pending changes to other documents of the same user to be written.
+     *
+     * @param aRequests
+     *            the documents and users to read the CASes for.
+     * @param aAnalyzeAndRepair
+     *            whether to analyze and repair the CASes after reading them.
+     * @return the results in the order of the requests.
+     */
+    Stream<CasReadResult> readCases(List<CasReadRequest> aRequests, boolean aAnalyzeAndRepair);
+    
+    /**
+     * Hands a CAS which has been read from the storage and which is no longer used back so that
+     * subsequent reads can re-use it. This is optional, but recommended when reading many CASes
+     * one after the other. The caller must not use the CAS or any of its feature structures
+     * afterwards.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    void releaseCas(CAS aCas);
+
+    /**
+     * Returns a number identifying the state of the given CAS, e.g. to cache data derived from
+     * it. CASes which have been read from or written to the storage have the same version as long
+     * as the CAS has not been written again in the meantime. Changes made to a CAS after it has
+     * been read or written are only noticed if they are made through the type adapters. The
+     * number is only valid while WebAnno is running.
+     *
+     * @param aCas
+     *            the CAS.
+     * @return the version or {@code -1} if the CAS has not been read or written by this service
+     *         or has been changed since.
+     */
+    long getCasVersion(CAS aCas);
+
+    /**
+     * Returns when the CAS of the given user has last been read or written by an editor, i.e.
+     * through {@link #readCas} or {@link #writeCas}. Reading CASes in bulk using
+     * {@link #readCases} does not count. An editor may keep addresses of annotations from the
+     * CAS it has read, so a CAS accessed recently must not be changed in the background in a way
+     * which changes these addresses.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @return the time in milliseconds or {@code -1} if the CAS has not been accessed since
+     *         WebAnno has been started.
+     */
+    long getCasLastAccess(SourceDocument aDocument, String aUsername);
+
+    /**
+     * Writes the CAS of the given user to the given file in a self-contained format which does
+     * not depend on any other files in the repository, e.g. for exporting a project.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aTargetFile
+     *            the file to write the CAS to.
+     */
+    void exportCas(SourceDocument aDocument, String aUsername, File aTargetFile)
+        throws IOException;
+
+    /**
+     * Replaces the CAS of the given user with the data from the given stream, e.g. when importing
+     * a project. The data must be a CAS in the legacy format as produced by {@link #exportCas}.
+     * Pending changes to the CAS are discarded.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aData
+     *            the serialized CAS. The stream is not closed.
+     */
+    void importCas(SourceDocument aDocument, String aUsername, InputStream aData)
+        throws IOException;
+
+    /**
+     * Reads the CAS of the given user, lets the given function modify it and writes it back if
+     * the function reports a change. No other thread can read or write the CAS in the meantime,
+     * so concurrent changes to the CAS are not lost. The CAS is not analyzed by the CAS Doctor, so
+     * a function changing the annotations must make sure itself that they remain consistent, e.g.
+     * by repairing the CAS using the CAS Doctor.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aUpdater
+     *            the function modifying the CAS.
+     * @return whether the CAS has been changed. If there is no CAS for the user, {@code false} is
+     *         returned.
+     */
+    boolean updateCas(SourceDocument aDocument, String aUsername, CasUpdater aUpdater)
+        throws IOException;
+
+    /**
+     * Checks if there is a CAS for the given user.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Removes the CAS of the given user. Pending changes to the CAS are discarded.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @return whether the CAS existed.
+     */
+    boolean deleteCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Writes pending changes to the CAS of the given user to the repository right away. Changes
+     * are only kept pending if write-behind is enabled. Callers need to flush a CAS when it must
+     * be persistent, e.g. when the user has finished the document.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Writes pending changes to any CAS of the given user to the repository right away, e.g.
+     * when the user logs out. Failures are logged and writing the affected CASes is retried
+     * later.
+     *
+     * @param aUsername
+     *            the {@link User} or the CURATION_USER
+     */
+    void flushCases(String aUsername);
+    
+    /**
+     * Lists the versions of the CAS of the given user which have been kept as internal backups.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @return the timestamps of the versions, oldest first.
+     */
+    List<Long> listCasHistory(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Restores a version of the CAS of the given user from the internal backups. To make it the
+     * current version again, write it using {@link #writeCas}.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aTimestamp
+     *            the version as returned by {@link #listCasHistory}.
+     */
+    JCas readCasHistory(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException;
+    
     File getAnnotationFolder(SourceDocument aDocument)
             throws IOException;
     void analyzeAndRepair(SourceDocument aDocument, String aUsername, CAS aCas);
+    
+    /**
+     * Modifies a CAS, see {@link CasStorageService#updateCas}.
+     */
+    @FunctionalInterface
+    interface CasUpdater
+    {
+        /**
+         * @return whether the CAS has been changed and needs to be written.
+         */
+        boolean update(CAS aCas)
+            throws IOException, UIMAException;
+    }
 }
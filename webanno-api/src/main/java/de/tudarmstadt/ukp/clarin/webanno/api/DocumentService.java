@@ -20,8 +20,10 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import javax.persistence.NoResultException;
 
@@ -133,12 +135,46 @@ public interface DocumentService
      * be read and converted to CAS object. subsequent accesses will be to the annotated document
      * unless and otherwise the document is removed from the project.
      *
+     * <p>
+     * The document folder may be moved to another location while WebAnno is running (see the
+     * {@code repository.layout} settings), so the returned path must only be used while the
+     * document is not accessed otherwise. To read or write the file, prefer
+     * {@link #copySourceDocumentFile} and {@link #replaceSourceDocumentFile}.
+     *
      * @param document
      *            The {@link SourceDocument} to be examined
      * @return the Directory path of the source document
      */
     File getSourceDocumentFile(SourceDocument document);
 
+    /**
+     * Copies the original file of the given document to the given stream. The document folder is
+     * not moved meanwhile.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aOut
+     *            the stream to copy the file to. The stream is not closed.
+     * @throws IOException
+     *             if an I/O error occurs, e.g. the file does not exist.
+     */
+    void copySourceDocumentFile(SourceDocument aDocument, OutputStream aOut)
+        throws IOException;
+
+    /**
+     * Replaces the original file of the given document with the given data, e.g. when importing
+     * a project. The document folder is not moved meanwhile.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aIn
+     *            the new content of the file. The stream is not closed.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void replaceSourceDocumentFile(SourceDocument aDocument, InputStream aIn)
+        throws IOException;
+
     /**
      * List all source documents in a project. The source documents are the original TCF documents
      * imported.
@@ -184,7 +220,8 @@ public interface DocumentService
         throws IOException, UIMAException;
 
     /**
-     * Get the directory of this {@link SourceDocument} usually to read the content of the document
+     * Get the directory of this {@link SourceDocument} usually to read the content of the document.
+     * The same restrictions as for {@link #getSourceDocumentFile} apply.
      *
      * @param aDocument
      *            the source document.
@@ -299,6 +336,18 @@ public interface DocumentService
     JCas readAnnotationCas(AnnotationDocument aAnnotationDocument, boolean aAnalyzeAndRepair)
         throws IOException;
     
+    /**
+     * Gets the CASes for the given annotation documents, reading them in parallel. Like
+     * {@link #readAnnotationCas(AnnotationDocument)}, CASes are converted from the source document
+     * if necessary. See {@link CasStorageService#readCases} for details - in particular, the stream
+     * must be closed after use.
+     *
+     * @param annotationDocuments
+     *            the annotation documents.
+     * @return the results in the order of the annotation documents.
+     */
+    Stream<CasReadResult> readAnnotationCases(List<AnnotationDocument> annotationDocuments);
+    
     /**
      * Gets the CAS for the given annotation document. Converts it form the source document if
      * necessary. If necessary, no annotation document exists, one is created. The source document
@@ -420,7 +469,17 @@ public interface DocumentService
      */
     void removeAnnotationDocument(AnnotationDocument annotationDocument);
 
-    void upgradeCas(CAS aCurCas, AnnotationDocument annotationDocument)
+    /**
+     * Changes the type system of the given CAS to the current type system of the project, keeping
+     * the annotations. If the CAS already uses the current type system, it is left untouched.
+     *
+     * @param aCurCas
+     *            the CAS.
+     * @param annotationDocument
+     *            the annotation document the CAS belongs to.
+     * @return whether the CAS has been changed.
+     */
+    boolean upgradeCas(CAS aCurCas, AnnotationDocument annotationDocument)
         throws UIMAException, IOException;
 
     /**
@@ -155,6 +155,23 @@ public interface ImportExportService
             String fileName, Mode mode, boolean stripExtension)
         throws UIMAException, IOException, ClassNotFoundException;
     
+    /**
+     * Copies the serialized CAS of the given user into the given folder as
+     * {@code <user>.ser}. The copy does not depend on any other files in the repository and can
+     * be imported again, e.g. as part of a project export.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the user whose CAS to export (may be one of the pseudo users).
+     * @param targetFolder
+     *            the folder to copy the CAS to.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void exportSerializedCas(SourceDocument document, String user, File targetFolder)
+        throws IOException;
+    
     void uploadTrainingDocument(File aFile, TrainingDocument aDocument)
             throws IOException;
 }
@@ -24,6 +24,8 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.TRAIN;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.Resource;
 
 import org.apache.commons.io.FileUtils;
@@ -43,6 +45,8 @@ import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
@@ -52,7 +56,15 @@ public class AutomationCasStorageServiceImpl
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    /**
+     * If a thread has to wait longer than this for access to a CAS, the wait is logged.
+     */
+    private static final long LOCK_WAIT_LOG_THRESHOLD_MS = 1000;
+
+    /**
+     * Locks indexed by the ID of the training document.
+     */
+    private final ReadWriteLockTable<Long> locks = new ReadWriteLockTable<>();
 
     @Value(value = "${repository.path}")
     private File dir;
@@ -109,7 +121,7 @@ public class AutomationCasStorageServiceImpl
                     + aDocumentName + "] (" + aDocumentId + ") in project [" + aProject.getName()
                     + "] (" + aProject.getId() + ")", e);
         }
-        synchronized (lock) {
+        try (LockHandle lock = acquireLock(aDocumentId, true)) {
             FileUtils.forceMkdir(aAnnotationFolder);
             // Save CAS of the training document
             {
@@ -143,7 +155,7 @@ public class AutomationCasStorageServiceImpl
 
         // DebugUtils.smallStack();
 
-        synchronized (lock) {
+        try (LockHandle lock = acquireLock(aDocument.getId(), false)) {
             File annotationFolder = getAutomationFolder(aDocument);
 
             String file = aDocument.getName() + ".ser";
@@ -238,6 +250,32 @@ public class AutomationCasStorageServiceImpl
         return annotationFolder;
     }
     
+    /**
+     * Acquire the lock for the CAS of the given training document.
+     */
+    private LockHandle acquireLock(long aDocumentId, boolean aExclusive)
+    {
+        LockHandle lock = aExclusive ? locks.writeLock(aDocumentId) : locks.readLock(aDocumentId);
+        
+        long waited = lock.getWaitTime(TimeUnit.MILLISECONDS);
+        if (waited > LOCK_WAIT_LOG_THRESHOLD_MS) {
+            log.info("Waited {}ms for {} access to CAS of training document [{}] - lock "
+                    + "statistics: {}", waited, aExclusive ? "exclusive" : "shared",
+                    aDocumentId, locks);
+        }
+        
+        return lock;
+    }
+    
+    /**
+     * @return the locks guarding access to the individual CASes. Provides access to the lock
+     *         wait-time statistics.
+     */
+    public ReadWriteLockTable<?> getLocks()
+    {
+        return locks;
+    }
+    
     /**
      * Renames a file.
      *
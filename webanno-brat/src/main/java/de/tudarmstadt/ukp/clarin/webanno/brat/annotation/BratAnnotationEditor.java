@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -54,6 +55,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import com.googlecode.wicket.jquery.ui.resource.JQueryUIResourceReference;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.AnnotationEditorBase;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.action.AnnotationActionHandler;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.action.JCasProvider;
@@ -66,11 +68,13 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocumen
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.ArcAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.DoActionResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.DocumentPatch;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.WhoamiResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.OffsetsList;
@@ -110,12 +114,22 @@ public class BratAnnotationEditor
     private static final String PARAM_ORIGIN_SPAN_ID = "originSpanId";
     private static final String PARAM_SPAN_TYPE = "type";
 
+    private static final AtomicLong RENDER_GENERATION = new AtomicLong();
+
     private @SpringBean PreRenderer preRenderer;
     private @SpringBean AnnotationSchemaService annotationService;
+    private @SpringBean CasStorageService casStorageService;
+    private @SpringBean BratRenderCache renderCache;
 
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
 
+    /**
+     * The data last sent to brat. On the next render, only the changes are sent if possible. This
+     * is not serialized with the page, so the complete data is sent after the page was restored.
+     */
+    private transient GetDocumentResponse lastRendered;
+
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final JCasProvider aJCasProvider)
     {
@@ -190,6 +204,7 @@ public class BratAnnotationEditor
                 
                 
                 Object result = null;
+                String json = null;
                 try {
                     boolean skipImplicitSlotActions = false;
                     
@@ -303,11 +318,23 @@ public class BratAnnotationEditor
                         result = info;
                     }
                     else if (GetDocumentResponse.is(action)) {
-                        GetDocumentResponse response = new GetDocumentResponse();
                         if (getModelObject().getProject() != null) {
-                            render(response, jCas);
+                            String cacheKey = getRenderCacheKey(jCas);
+                            json = renderCache.get(cacheKey);
+                            if (json != null) {
+                                // See bratRenderCommand()
+                                lastRendered = null;
+                            }
+                            else {
+                                GetDocumentResponse response = new GetDocumentResponse();
+                                render(response, jCas);
+                                json = cacheRender(cacheKey, response);
+                                result = response;
+                            }
+                        }
+                        else {
+                            result = new GetDocumentResponse();
                         }
-                        result = response;
                     }
 
                 }
@@ -317,11 +344,13 @@ public class BratAnnotationEditor
                 }
 
                 // Serialize updated document to JSON
-                if (result == null) {
+                if (result == null && json == null) {
                     LOG.warn("AJAX-RPC: Action [{}] produced no result!", action);
                 }
                 else {
-                    String json = toJson(result);
+                    if (json == null) {
+                        json = toJson(result);
+                    }
                     // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
                     // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
                     // up from there and then pass it on to BRAT to do the rendering.
@@ -468,12 +497,78 @@ public class BratAnnotationEditor
     private String bratRenderCommand(JCas aJCas)
     {
         LOG.debug("BEGIN bratRenderCommand");
+        String cacheKey = getRenderCacheKey(aJCas);
+        String cached = renderCache.get(cacheKey);
+        if (cached != null) {
+            LOG.debug("Window served from render cache - cache statistics: {}", renderCache);
+            // We do not have the data of the cached window, so the next render cannot be sent
+            // as a patch
+            lastRendered = null;
+            LOG.debug("END bratRenderCommand");
+            return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', ["
+                    + cached + "]);";
+        }
+        
+        GetDocumentResponse previous = lastRendered;
         GetDocumentResponse response = new GetDocumentResponse();
         render(response, aJCas);
-        String json = toJson(response);
+        
+        // If brat already displays the window, only send what has changed. The patch is applied
+        // by brat only if it still displays the data the patch is based on, otherwise it reloads
+        // the document.
+        DocumentPatch patch = previous != null ? DocumentPatch.diff(previous, response) : null;
+        String command;
+        if (patch != null) {
+            LOG.debug("Sending {} changes instead of the complete document", patch.size());
+            command = "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderDataPatch', ["
+                    + toJson(patch) + "]);";
+            cacheRender(cacheKey, response);
+        }
+        else {
+            String json = cacheRender(cacheKey, response);
+            command = "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', ["
+                    + (json != null ? json : toJson(response)) + "]);";
+        }
         LOG.debug("END bratRenderCommand");
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', [" + json
-                + "]);";
+        return command;
+    }
+    
+    /**
+     * @return the key of the current window in the render cache or {@code null} if the window
+     *         cannot be cached, e.g. because the CAS has changes which have not been saved yet.
+     */
+    private String getRenderCacheKey(JCas aJCas)
+    {
+        if (!renderCache.isEnabled()) {
+            return null;
+        }
+        
+        AnnotatorState state = getModelObject();
+        return BratRenderCache.createKey(state, getLayersToRender(),
+                annotationService.getSchemaVersion(state.getProject()),
+                casStorageService.getCasVersion(aJCas.getCas()));
+    }
+    
+    /**
+     * Adds the rendered window to the render cache.
+     * 
+     * @return the JSON of the window or {@code null} if the window is not cached.
+     */
+    private String cacheRender(String aCacheKey, GetDocumentResponse aResponse)
+    {
+        if (aCacheKey == null) {
+            return null;
+        }
+        
+        try {
+            String json = JSONUtil.toInterpretableJsonString(aResponse);
+            renderCache.put(aCacheKey, json);
+            return json;
+        }
+        catch (IOException e) {
+            LOG.error("Unable to cache rendered window", e);
+            return null;
+        }
     }
     
     private void render(GetDocumentResponse response, JCas aJCas)
@@ -482,6 +577,9 @@ public class BratAnnotationEditor
         preRenderer.render(vdoc, getModelObject(), aJCas, getLayersToRender());
         
         BratRenderer.render(response, getModelObject(), vdoc, aJCas, annotationService);
+        
+        response.setGeneration(RENDER_GENERATION.incrementAndGet());
+        lastRendered = response;
     }
 
     private List<AnnotationLayer> getLayersToRender()
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Relation;
+
+/**
+ * The changes between two {@link GetDocumentResponse GetDocumentResponses} for the same window
+ * of a document. It is sent to brat using the {@code renderDataPatch} command instead of the
+ * complete data when only a few annotations have changed, e.g. after a single annotation has been
+ * created or deleted. Brat applies the patch only if the data it currently displays has the
+ * generation the patch is based on, otherwise it reloads the complete document.
+ * <p>
+ * The patch only reduces the data sent to the browser. The server still renders the complete
+ * window to compute the patch, and brat still lays out the complete window after applying it.
+ */
+public class DocumentPatch
+{
+    /**
+     * If the patch would contain more than this fraction of the annotations and comments of the
+     * new data, sending the complete data is preferred.
+     */
+    private static final double MAX_CHANGED_RATIO = 0.5;
+
+    private long base;
+    private long generation;
+
+    /**
+     * IDs of entities and relations which have been removed.
+     */
+    private List<VID> removed = new ArrayList<>();
+
+    /**
+     * Entities which have been added or changed.
+     */
+    private List<Entity> entities = new ArrayList<>();
+
+    /**
+     * Relations which have been added or changed.
+     */
+    private List<Relation> relations = new ArrayList<>();
+
+    /**
+     * IDs of the annotations whose comments are replaced by the comments in {@link #comments}.
+     */
+    @JsonProperty("comment_targets")
+    private List<VID> commentTargets = new ArrayList<>();
+
+    private List<Comment> comments = new ArrayList<>();
+
+    public DocumentPatch()
+    {
+        // Nothing to do
+    }
+
+    public DocumentPatch(long aBase, long aGeneration)
+    {
+        base = aBase;
+        generation = aGeneration;
+    }
+
+    /**
+     * Computes the changes from the old to the new data.
+     *
+     * @param aOld
+     *            the data brat currently displays.
+     * @param aNew
+     *            the data to display.
+     * @return the patch or {@code null} if the complete new data should be sent instead, e.g.
+     *         because the window has moved or because most annotations have changed.
+     */
+    public static DocumentPatch diff(GetDocumentResponse aOld, GetDocumentResponse aNew)
+    {
+        // Brat needs to lay out everything from scratch if the text or its segmentation changed,
+        // so there is nothing to gain from sending a patch.
+        if (aOld.isRtlMode() != aNew.isRtlMode()
+                || aOld.getSentenceNumberOffset() != aNew.getSentenceNumberOffset()
+                || !Objects.equals(aOld.getText(), aNew.getText())
+                || !Objects.equals(aOld.getTokenOffsets(), aNew.getTokenOffsets())
+                || !Objects.equals(aOld.getSentenceOffsets(), aNew.getSentenceOffsets())
+                || !Objects.equals(aOld.getAttributes(), aNew.getAttributes())
+                || !Objects.equals(aOld.getEquivs(), aNew.getEquivs())) {
+            return null;
+        }
+
+        DocumentPatch patch = new DocumentPatch(aOld.getGeneration(), aNew.getGeneration());
+
+        // Brat identifies entities and relations by their ID, so the patch cannot be applied if
+        // an ID is not unique.
+        Map<VID, Object> oldAnnotations = new HashMap<>();
+        for (Entity entity : aOld.getEntities()) {
+            if (oldAnnotations.put(entity.getVid(), entity) != null) {
+                return null;
+            }
+        }
+        for (Relation relation : aOld.getRelations()) {
+            if (oldAnnotations.put(relation.getVid(), relation) != null) {
+                return null;
+            }
+        }
+
+        Set<VID> newIds = new LinkedHashSet<>();
+        for (Entity entity : aNew.getEntities()) {
+            if (!newIds.add(entity.getVid())) {
+                return null;
+            }
+            if (!entity.equals(oldAnnotations.get(entity.getVid()))) {
+                patch.entities.add(entity);
+            }
+        }
+        for (Relation relation : aNew.getRelations()) {
+            if (!newIds.add(relation.getVid())) {
+                return null;
+            }
+            if (!relation.equals(oldAnnotations.get(relation.getVid()))) {
+                patch.relations.add(relation);
+            }
+        }
+        for (VID id : oldAnnotations.keySet()) {
+            if (!newIds.contains(id)) {
+                patch.removed.add(id);
+            }
+        }
+
+        // An annotation can have several comments, so they are replaced per annotation
+        Map<VID, List<Comment>> oldComments = groupByVid(aOld.getComments());
+        Map<VID, List<Comment>> newComments = groupByVid(aNew.getComments());
+        for (Map.Entry<VID, List<Comment>> e : newComments.entrySet()) {
+            if (!e.getValue().equals(oldComments.get(e.getKey()))) {
+                patch.commentTargets.add(e.getKey());
+                patch.comments.addAll(e.getValue());
+            }
+        }
+        for (VID id : oldComments.keySet()) {
+            if (!newComments.containsKey(id)) {
+                patch.commentTargets.add(id);
+            }
+        }
+
+        int total = aNew.getEntities().size() + aNew.getRelations().size()
+                + aNew.getComments().size();
+        if (patch.size() > total * MAX_CHANGED_RATIO) {
+            return null;
+        }
+
+        return patch;
+    }
+
+    private static Map<VID, List<Comment>> groupByVid(List<Comment> aComments)
+    {
+        Map<VID, List<Comment>> comments = new LinkedHashMap<>();
+        for (Comment comment : aComments) {
+            comments.computeIfAbsent(comment.getVid(), k -> new ArrayList<>()).add(comment);
+        }
+        return comments;
+    }
+
+    /**
+     * @return the number of changed items in the patch.
+     */
+    public int size()
+    {
+        return removed.size() + entities.size() + relations.size() + commentTargets.size()
+                + comments.size();
+    }
+
+    /**
+     * @return the generation of the data the patch is based on.
+     */
+    public long getBase()
+    {
+        return base;
+    }
+
+    public void setBase(long aBase)
+    {
+        base = aBase;
+    }
+
+    /**
+     * @return the generation of the data after applying the patch.
+     */
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public void setGeneration(long aGeneration)
+    {
+        generation = aGeneration;
+    }
+
+    public List<VID> getRemoved()
+    {
+        return removed;
+    }
+
+    public void setRemoved(List<VID> aRemoved)
+    {
+        removed = aRemoved;
+    }
+
+    public List<Entity> getEntities()
+    {
+        return entities;
+    }
+
+    public void setEntities(List<Entity> aEntities)
+    {
+        entities = aEntities;
+    }
+
+    public List<Relation> getRelations()
+    {
+        return relations;
+    }
+
+    public void setRelations(List<Relation> aRelations)
+    {
+        relations = aRelations;
+    }
+
+    public List<VID> getCommentTargets()
+    {
+        return commentTargets;
+    }
+
+    public void setCommentTargets(List<VID> aCommentTargets)
+    {
+        commentTargets = aCommentTargets;
+    }
+
+    public List<Comment> getComments()
+    {
+        return comments;
+    }
+
+    public void setComments(List<Comment> aComments)
+    {
+        comments = aComments;
+    }
+}
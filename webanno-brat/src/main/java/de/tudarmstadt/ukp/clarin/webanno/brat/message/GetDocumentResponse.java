@@ -57,6 +57,13 @@ public class GetDocumentResponse
 
     private GetCollectionInformationResponse info;
 
+    // WEBANNO EXTENSION BEGIN - Incremental rendering
+    /**
+     * Identifies the rendered data so that a {@link DocumentPatch} can be checked against it.
+     */
+    private long generation;
+    // WEBANNO EXTENSION END
+
     public GetCollectionInformationResponse getInfo()
     {
         return info;
@@ -301,6 +308,16 @@ public class GetDocumentResponse
         rtlMode = aRtlMode;
     }
 
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public void setGeneration(long aGeneration)
+    {
+        generation = aGeneration;
+    }
+
     public static boolean is(String aCommand)
     {
         return COMMAND.equals(aCommand);
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Bounded in-memory cache of rendered windows with LRU eviction. It keeps the JSON sent to brat
+ * for a window of a document, so paging back to a window or re-opening a document does not need
+ * to render the window again.
+ * <p>
+ * The cache is shared by all users. An entry is keyed by everything the rendering depends on, in
+ * particular the {@link CasStorageService#getCasVersion version} of the rendered CAS. Writing a
+ * CAS changes its version, so entries rendered from an older state of a CAS are never hit again
+ * and are evicted eventually. A CAS with changes which have not been written yet has no version
+ * and is not cached at all. Code changing a CAS without the type adapters must therefore
+ * record the change in the dirty region of the CAS or invalidate its offset indexes, otherwise
+ * the window may be served from the cache with the old annotations.
+ */
+@Component(BratRenderCache.SERVICE_NAME)
+public class BratRenderCache
+{
+    public static final String SERVICE_NAME = "bratRenderCache";
+
+    private static final char KEY_SEPARATOR = '|';
+
+    @Value(value = "${ui.brat.renderCache.size}")
+    private long cacheSize;
+
+    private long maxSize;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BratRenderCache()
+    {
+        // Nothing to do
+    }
+
+    BratRenderCache(long aMaxSize)
+    {
+        maxSize = aMaxSize;
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        // The cache size is configured in megabytes
+        maxSize = cacheSize * 1024 * 1024;
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Builds the key of the rendered window of the given CAS. Callers add whatever else the
+     * rendering depends on, e.g. the state of a custom coloring strategy.
+     *
+     * @param aState
+     *            the state of the editor which renders the window.
+     * @param aLayers
+     *            the layers which are rendered.
+     * @param aSchemaVersion
+     *            the schema version of the project.
+     * @param aCasVersion
+     *            the version of the rendered CAS.
+     * @param aExtra
+     *            additional parts of the key.
+     * @return the key or {@code null} if the result cannot be cached, e.g. because the CAS has no
+     *         version.
+     */
+    public static String createKey(AnnotatorState aState, List<AnnotationLayer> aLayers,
+            long aSchemaVersion, long aCasVersion, Object... aExtra)
+    {
+        if (aCasVersion < 0 || aState.getDocument() == null || aState.getUser() == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(aState.getDocument().getId()).append(KEY_SEPARATOR);
+        key.append(aState.getUser().getUsername()).append(KEY_SEPARATOR);
+        key.append(aState.getMode()).append(KEY_SEPARATOR);
+        key.append(aCasVersion).append(KEY_SEPARATOR);
+        key.append(aSchemaVersion).append(KEY_SEPARATOR);
+        key.append(aState.getWindowBeginOffset()).append(KEY_SEPARATOR);
+        key.append(aState.getWindowEndOffset()).append(KEY_SEPARATOR);
+        key.append(aState.getFirstVisibleUnitIndex()).append(KEY_SEPARATOR);
+        key.append(aState.getScriptDirection()).append(KEY_SEPARATOR);
+        key.append(aState.getPreferences().isStaticColor()).append(KEY_SEPARATOR);
+        // The order of the layers matters because the layers share the color palette
+        for (AnnotationLayer layer : aLayers) {
+            key.append(layer.getId()).append(',');
+        }
+        for (Object part : aExtra) {
+            key.append(KEY_SEPARATOR).append(part);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param aKey
+     *            the key as created by {@link #createKey}, may be {@code null}.
+     * @return the cached JSON or {@code null} if there is none.
+     */
+    public synchronized String get(String aKey)
+    {
+        if (!isEnabled() || aKey == null) {
+            return null;
+        }
+
+        String json = entries.get(aKey);
+        if (json == null) {
+            misses++;
+        }
+        else {
+            hits++;
+        }
+        return json;
+    }
+
+    /**
+     * @param aKey
+     *            the key as created by {@link #createKey}, may be {@code null}.
+     * @param aJson
+     *            the JSON sent to brat for the window.
+     */
+    public synchronized void put(String aKey, String aJson)
+    {
+        if (!isEnabled() || aKey == null) {
+            return;
+        }
+
+        long entrySize = estimateSize(aKey, aJson);
+        if (entrySize > maxSize) {
+            // Do not let a single huge window flush the whole cache
+            return;
+        }
+
+        String previous = entries.put(aKey, aJson);
+        if (previous != null) {
+            size -= estimateSize(aKey, previous);
+        }
+        size += entrySize;
+
+        Iterator<Map.Entry<String, String>> i = entries.entrySet().iterator();
+        while (size > maxSize && i.hasNext()) {
+            Map.Entry<String, String> eldest = i.next();
+            i.remove();
+            size -= estimateSize(eldest.getKey(), eldest.getValue());
+            evictions++;
+        }
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate amount of memory in bytes occupied by the cached entries.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("[entries: %d, size: %d/%d, hits: %d, misses: %d, evictions: %d]",
+                entries.size(), size, maxSize, hits, misses, evictions);
+    }
+
+    private static long estimateSize(String aKey, String aJson)
+    {
+        // Rough overhead of the map entry and the two strings plus their characters
+        return 128 + (aKey.length() + aJson.length()) * 2L;
+    }
+}
@@ -66,4 +66,46 @@ public class Argument
     {
         return target;
     }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((label == null) ? 0 : label.hashCode());
+        result = prime * result + ((target == null) ? 0 : target.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Argument other = (Argument) obj;
+        if (label == null) {
+            if (other.label != null) {
+                return false;
+            }
+        }
+        else if (!label.equals(other.label)) {
+            return false;
+        }
+        if (target == null) {
+            if (other.target != null) {
+                return false;
+            }
+        }
+        else if (!target.equals(other.target)) {
+            return false;
+        }
+        return true;
+    }
 }
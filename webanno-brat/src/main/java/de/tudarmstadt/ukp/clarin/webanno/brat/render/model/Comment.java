@@ -105,4 +105,55 @@ public class Comment
     {
         this.comment = comment;
     }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((vid == null) ? 0 : vid.hashCode());
+        result = prime * result + ((commentType == null) ? 0 : commentType.hashCode());
+        result = prime * result + ((comment == null) ? 0 : comment.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Comment other = (Comment) obj;
+        if (vid == null) {
+            if (other.vid != null) {
+                return false;
+            }
+        }
+        else if (!vid.equals(other.vid)) {
+            return false;
+        }
+        if (commentType == null) {
+            if (other.commentType != null) {
+                return false;
+            }
+        }
+        else if (!commentType.equals(other.commentType)) {
+            return false;
+        }
+        if (comment == null) {
+            if (other.comment != null) {
+                return false;
+            }
+        }
+        else if (!comment.equals(other.comment)) {
+            return false;
+        }
+        return true;
+    }
 }
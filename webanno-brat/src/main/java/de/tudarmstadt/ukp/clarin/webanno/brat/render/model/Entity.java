@@ -136,4 +136,73 @@ public class Entity
     {
         color = aColor;
     }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((vid == null) ? 0 : vid.hashCode());
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        result = prime * result + ((offsets == null) ? 0 : offsets.hashCode());
+        result = prime * result + ((labelText == null) ? 0 : labelText.hashCode());
+        result = prime * result + ((color == null) ? 0 : color.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Entity other = (Entity) obj;
+        if (vid == null) {
+            if (other.vid != null) {
+                return false;
+            }
+        }
+        else if (!vid.equals(other.vid)) {
+            return false;
+        }
+        if (type == null) {
+            if (other.type != null) {
+                return false;
+            }
+        }
+        else if (!type.equals(other.type)) {
+            return false;
+        }
+        if (offsets == null) {
+            if (other.offsets != null) {
+                return false;
+            }
+        }
+        else if (!offsets.equals(other.offsets)) {
+            return false;
+        }
+        if (labelText == null) {
+            if (other.labelText != null) {
+                return false;
+            }
+        }
+        else if (!labelText.equals(other.labelText)) {
+            return false;
+        }
+        if (color == null) {
+            if (other.color != null) {
+                return false;
+            }
+        }
+        else if (!color.equals(other.color)) {
+            return false;
+        }
+        return true;
+    }
 }
@@ -72,6 +72,38 @@ public class Offsets
         end = aEnd;
     }
 
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + begin;
+        result = prime * result + end;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Offsets other = (Offsets) obj;
+        if (begin != other.begin) {
+            return false;
+        }
+        if (end != other.end) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Deserialize {@link Offsets} from JSON to Java.
      *
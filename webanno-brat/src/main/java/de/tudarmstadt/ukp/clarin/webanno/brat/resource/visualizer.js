@@ -3599,6 +3599,63 @@ Util.profileStart('before render');
         }
       };
 
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+      // Applies the changes sent by the server to the data currently displayed and renders the
+      // result. The whole window is laid out again because the rows, the arc heights and the
+      // spacing of the chunks all depend on each other. If the patch is not based on the data
+      // currently displayed, the complete document is reloaded instead.
+      var renderDataPatch = function(patch) {
+        if (!sourceData || sourceData.generation !== patch.base) {
+          dispatcher.post('current', [coll, doc, args, true]);
+          return;
+        }
+
+        var removed = {};
+        $.each(patch.removed, function(idNo, id) {
+          removed[id] = true;
+        });
+
+        var applyChanges = function(items, changes) {
+          var changed = {};
+          $.each(changes, function(changeNo, change) {
+            changed[change[0]] = change;
+          });
+          var result = [];
+          $.each(items, function(itemNo, item) {
+            var id = item[0];
+            if (changed[id]) {
+              result.push(changed[id]);
+              delete changed[id];
+            } else if (!removed[id]) {
+              result.push(item);
+            }
+          });
+          // Whatever has not replaced an existing item is new
+          $.each(changes, function(changeNo, change) {
+            if (changed[change[0]]) {
+              result.push(change);
+            }
+          });
+          return result;
+        };
+
+        var commentTargets = {};
+        $.each(patch.comment_targets, function(idNo, id) {
+          commentTargets[id] = true;
+        });
+        var comments = $.grep(sourceData.comments, function(comment) {
+          return !commentTargets[comment[0]];
+        });
+
+        var patched = $.extend({}, sourceData);
+        patched.entities = applyChanges(sourceData.entities, patch.entities);
+        patched.relations = applyChanges(sourceData.relations, patch.relations);
+        patched.comments = comments.concat(patch.comments);
+        patched.generation = patch.generation;
+        renderData(patched);
+      };
+// WEBANNO EXTENSION END
+
       var requestRenderData = function(sourceData) {
         requestedData = sourceData;
         triggerRender();
@@ -4009,6 +4066,9 @@ Util.profileStart('before render');
           on('collectionChanged', collectionChanged).
           on('collectionLoaded', collectionLoaded).
           on('renderData', renderData).
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+          on('renderDataPatch', renderDataPatch).
+// WEBANNO EXTENSION END
           on('triggerRender', triggerRender).
           on('requestRenderData', requestRenderData).
           on('isReloadOkay', isReloadOkay).
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Relation;
+
+public class DocumentPatchTest
+{
+    private static final String TEXT = "This is a test .";
+    
+    private GetDocumentResponse oldData;
+    private GetDocumentResponse newData;
+
+    @Before
+    public void setup()
+    {
+        oldData = createResponse(1);
+        newData = createResponse(2);
+    }
+
+    @Test
+    public void thatUnchangedDataGivesEmptyPatch()
+    {
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        assertEquals(1, patch.getBase());
+        assertEquals(2, patch.getGeneration());
+        assertEquals(0, patch.size());
+    }
+
+    @Test
+    public void thatAddedEntityIsSent()
+    {
+        Entity added = entity(20, "added");
+        newData.addEntity(added);
+
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        assertEquals(asList(added), patch.getEntities());
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatChangedEntityIsSent()
+    {
+        Entity changed = entity(3, "changed");
+        newData.getEntities().set(2, changed);
+
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        assertEquals(asList(changed), patch.getEntities());
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatRemovedEntityIsListed()
+    {
+        newData.getEntities().remove(2);
+
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        assertEquals(asList(new VID(3)), patch.getRemoved());
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatRelationChangesAreSent()
+    {
+        Relation added = relation(12, 3, 4, "added");
+        Relation changed = relation(10, 1, 2, "changed");
+        newData.getRelations().set(0, changed);
+        newData.getRelations().remove(1);
+        newData.addRelation(added);
+
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        assertEquals(asList(changed, added), patch.getRelations());
+        assertEquals(asList(new VID(11)), patch.getRemoved());
+        assertEquals(3, patch.size());
+    }
+
+    @Test
+    public void thatCommentsAreReplacedPerAnnotation()
+    {
+        Comment changed = new Comment(new VID(1), "AnnotatorNotes", "changed");
+        Comment added = new Comment(new VID(3), "AnnotatorNotes", "added");
+        newData.setComments(asList(newData.getComments().get(0), changed, added));
+
+        DocumentPatch patch = DocumentPatch.diff(oldData, newData);
+
+        // All comments of an annotation are sent if one of them changed
+        assertEquals(asList(new VID(1), new VID(3), new VID(2)), patch.getCommentTargets());
+        assertEquals(asList(newData.getComments().get(0), changed, added), patch.getComments());
+        assertEquals(0, patch.getEntities().size());
+    }
+
+    @Test
+    public void thatDuplicateIdsFallBackToFullRender()
+    {
+        GetDocumentResponse duplicateEntities = createResponse(3);
+        duplicateEntities.addEntity(entity(1, "duplicate"));
+        assertNull(DocumentPatch.diff(duplicateEntities, newData));
+        assertNull(DocumentPatch.diff(oldData, duplicateEntities));
+
+        // Entities and relations share the IDs
+        GetDocumentResponse duplicateRelation = createResponse(4);
+        duplicateRelation.addRelation(relation(1, 3, 4, "duplicate"));
+        assertNull(DocumentPatch.diff(duplicateRelation, newData));
+        assertNull(DocumentPatch.diff(oldData, duplicateRelation));
+    }
+
+    @Test
+    public void thatMostlyChangedDataFallsBackToFullRender()
+    {
+        // Half of the annotations and comments of the new data may change
+        for (int i = 0; i < 6; i++) {
+            newData.getEntities().set(i, entity(i + 1, "changed"));
+        }
+        assertEquals(6, DocumentPatch.diff(oldData, newData).size());
+
+        newData.getEntities().set(6, entity(7, "changed"));
+        assertNull(DocumentPatch.diff(oldData, newData));
+    }
+
+    @Test
+    public void thatChangedLayoutFallsBackToFullRender()
+    {
+        newData.setSentenceOffsets(Collections.singletonList(new Offsets(0, 4)));
+
+        assertNull(DocumentPatch.diff(oldData, newData));
+    }
+
+    /**
+     * Creates the data of a window with eight entities, two relations and comments on two of the
+     * entities.
+     */
+    private static GetDocumentResponse createResponse(long aGeneration)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setGeneration(aGeneration);
+        response.setText(TEXT);
+        response.addSentence(0, TEXT.length());
+        for (int i = 0; i < TEXT.length(); i += 2) {
+            response.addToken(i, i + 1);
+        }
+        for (int i = 1; i <= 8; i++) {
+            response.addEntity(entity(i, "label"));
+        }
+        response.addRelation(relation(10, 1, 2, "label"));
+        response.addRelation(relation(11, 2, 3, "label"));
+        response.addComment(new Comment(new VID(1), "AnnotatorNotes", "first"));
+        response.addComment(new Comment(new VID(2), "AnnotatorNotes", "second"));
+        return response;
+    }
+
+    private static Entity entity(int aId, String aLabel)
+    {
+        return new Entity(new VID(aId), "type", new Offsets(aId, aId + 1), aLabel, "color");
+    }
+
+    private static Relation relation(int aId, int aSource, int aTarget, String aLabel)
+    {
+        return new Relation(new VID(aId), "type", asList(new Argument("Arg1", new VID(aSource)),
+                new Argument("Arg2", new VID(aTarget))), aLabel, "color");
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class BratRenderCacheTest
+{
+    private AnnotatorState state;
+    private AnnotationLayer layer1;
+    private AnnotationLayer layer2;
+
+    @Before
+    public void setup()
+    {
+        Project project = new Project();
+        project.setId(1);
+
+        SourceDocument document = new SourceDocument();
+        document.setId(2);
+        document.setProject(project);
+
+        User user = new User();
+        user.setUsername("user");
+
+        state = createState(Mode.ANNOTATION, document, user);
+
+        layer1 = new AnnotationLayer();
+        layer1.setId(10);
+        layer2 = new AnnotationLayer();
+        layer2.setId(11);
+    }
+
+    @Test
+    public void thatKeyCoversRenderingInputs()
+    {
+        List<AnnotationLayer> layers = asList(layer1, layer2);
+        String key = BratRenderCache.createKey(state, layers, 1, 5);
+
+        assertEquals(key, BratRenderCache.createKey(state, layers, 1, 5));
+        assertNotEquals(key, BratRenderCache.createKey(state, layers, 1, 6));
+        assertNotEquals(key, BratRenderCache.createKey(state, layers, 2, 5));
+        assertNotEquals(key, BratRenderCache.createKey(state, asList(layer2, layer1), 1, 5));
+        assertNotEquals(key, BratRenderCache.createKey(state, asList(layer1), 1, 5));
+        assertNotEquals(key, BratRenderCache.createKey(state, layers, 1, 5, "extra"));
+
+        User otherUser = new User();
+        otherUser.setUsername("other");
+        assertNotEquals(key, BratRenderCache.createKey(
+                createState(Mode.ANNOTATION, state.getDocument(), otherUser), layers, 1, 5));
+        assertNotEquals(key, BratRenderCache.createKey(
+                createState(Mode.CURATION, state.getDocument(), state.getUser()), layers, 1, 5));
+    }
+
+    @Test
+    public void thatCasWithoutVersionIsNotCached()
+    {
+        assertNull(BratRenderCache.createKey(state, asList(layer1), 1, -1));
+        assertNull(BratRenderCache.createKey(createState(Mode.ANNOTATION, null, state.getUser()),
+                asList(layer1), 1, 5));
+    }
+
+    @Test
+    public void thatLeastRecentlyUsedEntriesAreEvicted()
+    {
+        String json = StringUtils.repeat('x', 100);
+        // Room for two entries
+        BratRenderCache cache = new BratRenderCache(700);
+
+        cache.put("a", json);
+        cache.put("b", json);
+        assertEquals(json, cache.get("a"));
+        cache.put("c", json);
+
+        assertNull(cache.get("b"));
+        assertEquals(json, cache.get("a"));
+        assertEquals(json, cache.get("c"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void thatReplacedEntryIsAccountedOnce()
+    {
+        BratRenderCache cache = new BratRenderCache(700);
+
+        cache.put("a", "old");
+        long size = cache.getSize();
+        cache.put("a", "new");
+
+        assertEquals(size, cache.getSize());
+        assertEquals("new", cache.get("a"));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void thatOversizedEntryIsRejected()
+    {
+        BratRenderCache cache = new BratRenderCache(700);
+        cache.put("a", "small");
+
+        cache.put("b", StringUtils.repeat('x', 1000));
+
+        assertNull(cache.get("b"));
+        assertEquals("small", cache.get("a"));
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void thatDisabledCacheKeepsNothing()
+    {
+        BratRenderCache cache = new BratRenderCache(0);
+        assertFalse(cache.isEnabled());
+
+        cache.put("a", "json");
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void thatChangeWithoutAdapterIsNotServedFromCache()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test .");
+        CAS cas = jcas.getCas();
+        DirtyRegion.setStoredVersion(cas, 42);
+
+        String key = BratRenderCache.createKey(state, asList(layer1), 1,
+                DirtyRegion.getStoredVersion(cas));
+        assertNotNull(key);
+
+        // Code which changes the CAS without the adapters, e.g. when merging for curation,
+        // invalidates the offset indexes - after that the CAS does not have a version anymore
+        new Token(jcas, 0, 4).addToIndexes();
+        AnnotationOffsetIndex.invalidate(cas);
+
+        assertNull(BratRenderCache.createKey(state, asList(layer1), 1,
+                DirtyRegion.getStoredVersion(cas)));
+    }
+
+    private static AnnotatorState createState(Mode aMode, SourceDocument aDocument, User aUser)
+    {
+        AnnotatorState state = new AnnotatorStateImpl(aMode);
+        state.setDocument(aDocument, asList(aDocument));
+        state.setUser(aUser);
+        return state;
+    }
+}
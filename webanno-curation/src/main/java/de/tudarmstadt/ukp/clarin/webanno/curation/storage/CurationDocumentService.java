@@ -19,12 +19,15 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
 import org.springframework.security.access.prepost.PreAuthorize;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 
@@ -65,6 +68,17 @@ public interface CurationDocumentService
     JCas readCurationCas(SourceDocument document)
         throws IOException;
 
+    /**
+     * Get the curation documents for the given {@link SourceDocument}s, reading them in parallel.
+     * See {@link CasStorageService#readCases} for details - in particular, the stream must be
+     * closed after use.
+     *
+     * @param documents
+     *            the source documents.
+     * @return the results in the order of the source documents.
+     */
+    Stream<CasReadResult> readCurationCases(List<SourceDocument> documents);
+
     /**
      * Remove a curation annotation document from the file system, for this {@link SourceDocument}
      *
@@ -19,17 +19,17 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
@@ -41,6 +41,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -69,10 +71,7 @@ public class CurationDocumentServiceImpl
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        if (new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                WebAnnoConst.CURATION_USER + ".ser").exists()) {
-            FileUtils.forceDelete(new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                    WebAnnoConst.CURATION_USER + ".ser"));
+        if (casStorageService.deleteCas(aSourceDocument, WebAnnoConst.CURATION_USER)) {
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aSourceDocument.getProject().getId()))) {
@@ -104,6 +103,16 @@ public class CurationDocumentServiceImpl
         return casStorageService.readCas(aDocument, CURATION_USER);
     }
 
+    @Override
+    public Stream<CasReadResult> readCurationCases(List<SourceDocument> aDocuments)
+    {
+        List<CasReadRequest> requests = new ArrayList<>();
+        for (SourceDocument document : aDocuments) {
+            requests.add(new CasReadRequest(document, CURATION_USER));
+        }
+        return casStorageService.readCases(requests, true);
+    }
+
     @Override
     public void upgradeCurationCas(CAS aCas, SourceDocument aDocument)
         throws UIMAException, IOException
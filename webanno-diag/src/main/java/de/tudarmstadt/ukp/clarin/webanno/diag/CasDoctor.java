@@ -22,6 +22,10 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -37,7 +41,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.checks.Check;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.IncrementalCheck;
 import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.SettingsUtil;
@@ -57,6 +63,9 @@ public class CasDoctor
     @Value(value = "${debug.casDoctor.repairs}")
     private String activeRepairs;
 
+    @Value(value = "${debug.casDoctor.incremental}")
+    private boolean incremental = false;
+
     private ApplicationContext context;
     
     private List<Class<? extends Check>> checkClasses = new ArrayList<>();
@@ -65,6 +74,12 @@ public class CasDoctor
     @Value(value = "${debug.casDoctor.forceReleaseBehavior}")
     private boolean disableAutoScan = false;
 
+    /**
+     * Time spent in the individual checks and repairs, keyed by their class name. Incremental runs
+     * of a check are recorded separately.
+     */
+    private final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
     public CasDoctor()
     {
         // Bean operation
@@ -122,13 +137,49 @@ public class CasDoctor
         return fatalChecks;
     }
 
-    public void repair(Project aProject, CAS aCas)
+    public void setIncremental(boolean aIncremental)
+    {
+        incremental = aIncremental;
+    }
+
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    /**
+     * @return whether only the changed part of the given CAS is examined by the checks which
+     *         support this. That is the case if incremental checking is enabled and the changes
+     *         made to the CAS since it has been read have been recorded.
+     * @see DirtyRegion
+     */
+    public boolean isIncremental(CAS aCas)
+    {
+        return incremental && DirtyRegion.exists(aCas);
+    }
+
+    /**
+     * @return whether any of the repairs has changed the CAS.
+     */
+    public boolean repair(Project aProject, CAS aCas)
     {
         List<LogMessage> messages = new ArrayList<>();
         repair(aProject, aCas, messages);
         if (log.isWarnEnabled() && !messages.isEmpty()) {
             messages.forEach(s -> log.warn("{}", s));
         }
+        return isRepaired(messages);
+    }
+    
+    /**
+     * @return whether the given messages contain a message from a repair. The repairs report
+     *         everything they change, so if there is no such message, the CAS has not been
+     *         changed.
+     */
+    public static boolean isRepaired(List<LogMessage> aMessages)
+    {
+        return aMessages.stream()
+                .anyMatch(m -> m.source != null && Repair.class.isAssignableFrom(m.source));
     }
     
     public boolean isRepairsActive()
@@ -136,6 +187,11 @@ public class CasDoctor
         return !repairClasses.isEmpty();
     }
     
+    public boolean isChecksActive()
+    {
+        return !checkClasses.isEmpty();
+    }
+    
     public void repair(Project aProject, CAS aCas, List<LogMessage> aMessages)
     {
         // If there are no active repairs, don't do anything
@@ -147,15 +203,17 @@ public class CasDoctor
         long tStart = System.currentTimeMillis();
         for (Class<? extends Repair> repairClass : repairClasses) {
             try {
-                long tStartTask = System.currentTimeMillis();
+                long tStartTask = System.nanoTime();
                 Repair repair = repairClass.newInstance();
                 if (context != null) {
                     context.getAutowireCapableBeanFactory().autowireBean(repair);
                 }
                 log.info("CasDoctor repair [" + repairClass.getSimpleName() + "] running...");
                 repair.repair(aProject, aCas, aMessages);
+                long duration = System.nanoTime() - tStartTask;
+                getStatistics(repairClass.getSimpleName()).record(duration, false);
                 log.info("CasDoctor repair [" + repairClass.getSimpleName() + "] completed in "
-                        + (System.currentTimeMillis() - tStartTask) + "ms");
+                        + TimeUnit.NANOSECONDS.toMillis(duration) + "ms");
             }
             catch (Exception e) {
 //                aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot perform repair [%s]: %s",
@@ -196,18 +254,31 @@ public class CasDoctor
     {
         long tStart = System.currentTimeMillis();
         
+        DirtyRegion region = incremental ? DirtyRegion.get(aCas) : null;
+        
         boolean ok = true;
         for (Class<? extends Check> checkClass : checkClasses) {
             try {
-                long tStartTask = System.currentTimeMillis();
+                long tStartTask = System.nanoTime();
                 Check check = checkClass.newInstance();
                 if (context != null) {
                     context.getAutowireCapableBeanFactory().autowireBean(check);
                 }
                 log.debug("CasDoctor analysis [" + checkClass.getSimpleName() + "] running...");
-                ok &= check.check(aProject, aCas, aMessages);
+                boolean passed;
+                String name = checkClass.getSimpleName();
+                if (region != null && check instanceof IncrementalCheck) {
+                    passed = ((IncrementalCheck) check).check(aProject, aCas, region, aMessages);
+                    name += " (incremental)";
+                }
+                else {
+                    passed = check.check(aProject, aCas, aMessages);
+                }
+                ok &= passed;
+                long duration = System.nanoTime() - tStartTask;
+                getStatistics(name).record(duration, !passed);
                 log.debug("CasDoctor analysis [" + checkClass.getSimpleName() + "] completed in "
-                        + (System.currentTimeMillis() - tStartTask) + "ms");
+                        + TimeUnit.NANOSECONDS.toMillis(duration) + "ms");
             }
             catch (InstantiationException | IllegalAccessException e) {
                 aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot instantiate [%s]: %s",
@@ -229,6 +300,27 @@ public class CasDoctor
         return ok;
     }
 
+    private Statistics getStatistics(String aName)
+    {
+        return statistics.computeIfAbsent(aName, Statistics::new);
+    }
+    
+    /**
+     * @return the time spent in the checks and repairs which have been run so far, most expensive
+     *         first.
+     */
+    public List<Statistics> getStatistics()
+    {
+        return statistics.values().stream()
+                .sorted(Comparator.comparing(Statistics::getTotalTime).reversed())
+                .collect(Collectors.toList());
+    }
+    
+    public void resetStatistics()
+    {
+        statistics.clear();
+    }
+
     public void setCheckClasses(List<Class<? extends Check>> aCheckClasses)
     {
         checkClasses = aCheckClasses;
@@ -358,6 +450,80 @@ public class CasDoctor
         }
     }
 
+    /**
+     * Time spent in a check or repair.
+     */
+    public static class Statistics
+        implements Serializable
+    {
+        private static final long serialVersionUID = -2875236164452706478L;
+        
+        private final String name;
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        
+        public Statistics(String aName)
+        {
+            name = aName;
+        }
+        
+        private void record(long aNanos, boolean aFailed)
+        {
+            runs.incrementAndGet();
+            if (aFailed) {
+                failures.incrementAndGet();
+            }
+            totalTime.addAndGet(aNanos);
+            maxTime.accumulateAndGet(aNanos, Math::max);
+        }
+        
+        public String getName()
+        {
+            return name;
+        }
+        
+        public long getRuns()
+        {
+            return runs.get();
+        }
+        
+        /**
+         * @return how often a check found problems. Always zero for repairs.
+         */
+        public long getFailures()
+        {
+            return failures.get();
+        }
+        
+        /**
+         * @return the total time in nanoseconds.
+         */
+        public long getTotalTime()
+        {
+            return totalTime.get();
+        }
+        
+        /**
+         * @return the time of the slowest run in nanoseconds.
+         */
+        public long getMaxTime()
+        {
+            return maxTime.get();
+        }
+        
+        @Override
+        public String toString()
+        {
+            long n = runs.get();
+            return String.format("[%s] runs: %d, failures: %d, total: %dms, avg: %dms, max: %dms",
+                    name, n, failures.get(), TimeUnit.NANOSECONDS.toMillis(totalTime.get()),
+                    n > 0 ? TimeUnit.NANOSECONDS.toMillis(totalTime.get() / n) : 0,
+                    TimeUnit.NANOSECONDS.toMillis(maxTime.get()));
+        }
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext aContext)
         throws BeansException
@@ -17,128 +17,279 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag;
 
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FSIterator;
-import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.impl.LowLevelTypeSystem;
 
+/**
+ * Reachability analysis of the feature structures in a CAS. The analysis works on the addresses
+ * of the feature structures in the CAS heap, which are tracked in bit sets and primitive maps, so
+ * no wrapper objects need to be kept for the feature structures. The references are followed
+ * iteratively, so the analysis does not depend on the stack size even for very long chains of
+ * references.
+ * <p>
+ * Only the features of feature structures are followed, not the elements of arrays. References
+ * through the {@code sofa} feature are not followed.
+ */
 public class CasDoctorUtils
 {
-    public static Set<FeatureStructure> collectIndexed(CAS aCas)
+    /**
+     * @return the addresses of all feature structures indexed in the given CAS.
+     */
+    public static BitSet collectIndexed(CAS aCas)
     {
         LowLevelCAS llcas = aCas.getLowLevelCAS();
-        Set<FeatureStructure> fses = new TreeSet<>(Comparator.comparingInt(llcas::ll_getFSRef));
+        BitSet indexed = new BitSet();
 
         FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
                 aCas.getTypeSystem().getTopType());
 
-        i.forEachRemaining(fses::add);
+        i.forEachRemaining(fs -> indexed.set(llcas.ll_getFSRef(fs)));
 
-        return fses;
+        return indexed;
     }
 
-    public static Set<FeatureStructure> collectReachable(CAS aCas)
+    /**
+     * @return the addresses of all feature structures reachable from the feature structures
+     *         indexed in the given CAS, including the indexed ones.
+     */
+    public static BitSet collectReachable(CAS aCas)
     {
-        LowLevelCAS llcas = aCas.getLowLevelCAS();
-        Set<FeatureStructure> fses = new TreeSet<>(Comparator.comparingInt(llcas::ll_getFSRef));
+        BitSet reachable = new BitSet();
+        new Traversal(aCas).run(collectIndexed(aCas), reachable, null);
+        return reachable;
+    }
 
-        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
-                aCas.getTypeSystem().getTopType());
+    public static Set<FeatureStructure> getNonIndexedFSes(CAS aCas)
+    {
+        BitSet indexed = collectIndexed(aCas);
+        BitSet reachable = new BitSet();
+        Traversal traversal = new Traversal(aCas);
+        traversal.run(indexed, reachable, null);
 
-        i.forEachRemaining(fs -> collect(fses, fs));
+        // Remove all that are indexed
+        reachable.andNot(indexed);
 
-        return fses;
+        // Remove all that are not annotations - all that is left are non-index annotations
+        Set<FeatureStructure> nonIndexed = new LinkedHashSet<>();
+        for (int addr = reachable.nextSetBit(0); addr >= 0;
+                addr = reachable.nextSetBit(addr + 1)) {
+            if (traversal.isAnnotation(addr)) {
+                nonIndexed.add(traversal.llcas.ll_getFSForRef(addr));
+            }
+        }
+        return nonIndexed;
     }
 
-    public static void collect(Set<FeatureStructure> aFSes, FeatureStructure aFS)
+    /**
+     * @return the non-indexed annotations reachable from the indexed feature structures in the
+     *         given CAS, each with the last indexed feature structure on the path through which it
+     *         has been reached.
+     */
+    public static Map<FeatureStructure, FeatureStructure> getNonIndexedFSesWithOwner(CAS aCas)
     {
-        if (aFS != null && !aFSes.contains(aFS)) {
-            aFSes.add(aFS);
+        BitSet indexed = collectIndexed(aCas);
+        BitSet reachable = new BitSet();
+        IntIntMap owners = new IntIntMap();
+        Traversal traversal = new Traversal(aCas);
+        traversal.run(indexed, reachable, owners);
 
-            for (Feature f : aFS.getType().getFeatures()) {
-                if (!f.getRange().isPrimitive()
-                        && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
-                    collect(aFSes, aFS.getFeatureValue(f));
-                }
+        // Remove all that are indexed
+        reachable.andNot(indexed);
+
+        // Remove all that are not annotations - all that is left are non-index annotations
+        Map<FeatureStructure, FeatureStructure> nonIndexed = new LinkedHashMap<>();
+        for (int addr = reachable.nextSetBit(0); addr >= 0;
+                addr = reachable.nextSetBit(addr + 1)) {
+            if (traversal.isAnnotation(addr)) {
+                nonIndexed.put(traversal.llcas.ll_getFSForRef(addr),
+                        traversal.llcas.ll_getFSForRef(owners.get(addr)));
             }
         }
+        return nonIndexed;
     }
 
     /**
-     * Recursively collect referenced FSes and also record for each the last indexed FS that refers
-     * the them.
+     * Depth-first traversal of the references between the feature structures in a CAS.
      */
-    public static void collect(Map<FeatureStructure, FeatureStructure> aFSes,
-            Set<FeatureStructure> aIndexed, FeatureStructure aFS, FeatureStructure aLastIndexed)
+    private static class Traversal
     {
-        if (aFS != null && !aFSes.containsKey(aFS)) {
-            // We might find an annotation indirectly. In that case make sure we consider it as 
-            // an indexed annotation instead of wrongly recording it as non-indexed
-            if (aIndexed.contains(aFS)) {
-                aFSes.put(aFS, aFS);
-            }
-            else {
-                aFSes.put(aFS, aLastIndexed);
-            }
+        private final LowLevelCAS llcas;
+        private final LowLevelTypeSystem llts;
+        private final int annotationTypeCode;
+
+        /**
+         * Codes of the features which are followed, by type code. Filled lazily.
+         */
+        private int[][] referenceFeatures = new int[64][];
+
+        /**
+         * Stack of pending feature structures. Each entry holds the address of the feature
+         * structure in the upper and the address of its owner in the lower 32 bits.
+         */
+        private long[] stack = new long[1024];
+        private int stackSize;
+
+        public Traversal(CAS aCas)
+        {
+            llcas = aCas.getLowLevelCAS();
+            llts = llcas.ll_getTypeSystem();
+            annotationTypeCode = llts.ll_getCodeForType(aCas.getAnnotationType());
+        }
+
+        /**
+         * Marks every feature structure reachable from the given roots in the reachable set. If
+         * the owners map is given, the last indexed feature structure on the path through which a
+         * non-indexed feature structure has been reached first is recorded there.
+         */
+        public void run(BitSet aRoots, BitSet aReachable, IntIntMap aOwners)
+        {
+            for (int root = aRoots.nextSetBit(0); root >= 0;
+                    root = aRoots.nextSetBit(root + 1)) {
+                if (aReachable.get(root)) {
+                    continue;
+                }
+
+                push(root, root);
+                while (stackSize > 0) {
+                    long entry = stack[--stackSize];
+                    int addr = (int) (entry >>> 32);
+                    int owner = (int) entry;
+
+                    if (aReachable.get(addr)) {
+                        continue;
+                    }
+                    aReachable.set(addr);
+
+                    // We might find an indexed annotation indirectly. In that case it becomes
+                    // the owner of everything reachable through it.
+                    if (aRoots.get(addr)) {
+                        owner = addr;
+                    }
+                    else if (aOwners != null) {
+                        aOwners.put(addr, owner);
+                    }
 
-            for (Feature f : aFS.getType().getFeatures()) {
-                if (!f.getRange().isPrimitive()
-                        && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
-                    collect(aFSes, aIndexed, aFS.getFeatureValue(f),
-                            aIndexed.contains(aFS) ? aFS : aLastIndexed);
+                    for (int feature : getReferenceFeatures(llcas.ll_getFSRefType(addr))) {
+                        int target = llcas.ll_getRefValue(addr, feature);
+                        if (target != LowLevelCAS.NULL_FS_REF && !aReachable.get(target)) {
+                            push(target, owner);
+                        }
+                    }
                 }
             }
         }
-    }
-
-    public static Set<FeatureStructure> getNonIndexedFSes(CAS aCas)
-    {
-        TypeSystem ts = aCas.getTypeSystem();
 
-        Set<FeatureStructure> allIndexedFS = collectIndexed(aCas);
-        Set<FeatureStructure> allReachableFS = collectReachable(aCas);
+        public boolean isAnnotation(int aAddr)
+        {
+            return llts.ll_subsumes(annotationTypeCode, llcas.ll_getFSRefType(aAddr));
+        }
 
-        // Remove all that are indexed
-        allReachableFS.removeAll(allIndexedFS);
+        private void push(int aAddr, int aOwner)
+        {
+            if (stackSize == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = ((long) aAddr << 32) | (aOwner & 0xFFFFFFFFL);
+        }
 
-        // Remove all that are not annotations
-        allReachableFS.removeIf(fs -> !ts.subsumes(aCas.getAnnotationType(), fs.getType()));
+        private int[] getReferenceFeatures(int aTypeCode)
+        {
+            if (aTypeCode >= referenceFeatures.length) {
+                referenceFeatures = Arrays.copyOf(referenceFeatures,
+                        Math.max(aTypeCode + 1, referenceFeatures.length * 2));
+            }
 
-        // All that is left are non-index annotations
-        return allReachableFS;
+            int[] features = referenceFeatures[aTypeCode];
+            if (features == null) {
+                Type type = llts.ll_getTypeForCode(aTypeCode);
+                features = type.getFeatures().stream()
+                        .filter(f -> !f.getRange().isPrimitive()
+                                && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName()))
+                        .mapToInt(llts::ll_getCodeForFeature)
+                        .toArray();
+                referenceFeatures[aTypeCode] = features;
+            }
+            return features;
+        }
     }
 
-    public static Map<FeatureStructure, FeatureStructure> getNonIndexedFSesWithOwner(CAS aCas)
+    /**
+     * Map from int to int using open addressing with linear probing. Keys must be positive, which
+     * holds for the addresses of feature structures.
+     */
+    static class IntIntMap
     {
-        TypeSystem ts = aCas.getTypeSystem();
-        
-        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        private int[] keys = new int[256];
+        private int[] values = new int[256];
+        private int size;
 
-        Set<FeatureStructure> allIndexedFS = collectIndexed(aCas);
-        Map<FeatureStructure, FeatureStructure> allReachableFS = new TreeMap<>(
-            Comparator.comparingInt(llcas::ll_getFSRef));
-        
-        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
-                aCas.getTypeSystem().getTopType());
+        public void put(int aKey, int aValue)
+        {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
 
-        i.forEachRemaining(fs -> collect(allReachableFS, allIndexedFS, fs, fs));
+            int slot = find(keys, aKey);
+            if (keys[slot] == 0) {
+                keys[slot] = aKey;
+                size++;
+            }
+            values[slot] = aValue;
+        }
 
-        // Remove all that are not annotations
-        allReachableFS.entrySet().removeIf(e -> 
-                !ts.subsumes(aCas.getAnnotationType(), e.getKey().getType()));
-        
-        // Remove all that are indexed
-        allReachableFS.entrySet().removeIf(e -> e.getKey() == e.getValue());
+        /**
+         * @return the value for the given key or {@code 0} if there is none.
+         */
+        public int get(int aKey)
+        {
+            int slot = find(keys, aKey);
+            return keys[slot] == aKey ? values[slot] : 0;
+        }
 
-        // All that is left are non-index annotations
-        return allReachableFS;
+        public int size()
+        {
+            return size;
+        }
+
+        private void grow()
+        {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = find(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        /**
+         * @return the slot holding the given key or the empty slot where it would be inserted.
+         */
+        private static int find(int[] aKeys, int aKey)
+        {
+            int mask = aKeys.length - 1;
+            // Spread the consecutive addresses over the table
+            int hash = aKey * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (aKeys[slot] != 0 && aKeys[slot] != aKey) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
     }
 }
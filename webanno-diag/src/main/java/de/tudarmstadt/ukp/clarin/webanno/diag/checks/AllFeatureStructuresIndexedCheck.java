@@ -18,31 +18,72 @@
 package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
 import static de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorUtils.getNonIndexedFSesWithOwner;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.text.AnnotationFS;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 public class AllFeatureStructuresIndexedCheck
-    implements Check
+    implements IncrementalCheck
 {
     @Override
     public boolean check(Project aProject, CAS aCas, List<LogMessage> aMessages)
     {
-        Map<FeatureStructure, FeatureStructure> nonIndexed = getNonIndexedFSesWithOwner(aCas);
+        return report(getNonIndexedFSesWithOwner(aCas), aMessages);
+    }
+
+    /**
+     * Only looks for annotations within the changed offset range which refer to annotations that
+     * are no longer indexed, e.g. relations whose source or target has been deleted. Feature
+     * structures which can only be reached through other feature structures are not examined.
+     */
+    @Override
+    public boolean check(Project aProject, CAS aCas, DirtyRegion aRegion,
+            List<LogMessage> aMessages)
+    {
+        if (!aRegion.hasRange()) {
+            return true;
+        }
+
+        Map<FeatureStructure, FeatureStructure> nonIndexed = new LinkedHashMap<>();
+        for (AnnotationFS ann : selectCovered(aCas, aCas.getAnnotationType(), aRegion.getBegin(),
+                aRegion.getEnd())) {
+            for (Feature feat : ann.getType().getFeatures()) {
+                if (feat.getRange().isPrimitive()
+                        || CAS.FEATURE_BASE_NAME_SOFA.equals(feat.getShortName())) {
+                    continue;
+                }
+
+                FeatureStructure value = ann.getFeatureValue(feat);
+                if (value instanceof AnnotationFS && !isIndexed((AnnotationFS) value)) {
+                    nonIndexed.putIfAbsent(value, ann);
+                }
+            }
+        }
 
-        if (!nonIndexed.isEmpty()) {
+        return report(nonIndexed, aMessages);
+    }
+
+    private boolean report(Map<FeatureStructure, FeatureStructure> aNonIndexed,
+            List<LogMessage> aMessages)
+    {
+        if (!aNonIndexed.isEmpty()) {
             aMessages.add(new LogMessage(this, LogLevel.ERROR, "Unindexed feature structures: %d",
-                    nonIndexed.size()));
+                    aNonIndexed.size()));
 
-            for (Entry<FeatureStructure, FeatureStructure> e : nonIndexed.entrySet()) {
+            for (Entry<FeatureStructure, FeatureStructure> e : aNonIndexed.entrySet()) {
                 aMessages.add(new LogMessage(this, LogLevel.ERROR,
                         "Non-indexed feature structure [%s] reachable through [%s]", e.getKey(),
                         e.getValue()));
@@ -52,6 +93,23 @@ public class AllFeatureStructuresIndexedCheck
         // aMessages.add(String.format("[%s] OK", getClass().getSimpleName()));
         // }
 
-        return nonIndexed.isEmpty();
+        return aNonIndexed.isEmpty();
+    }
+
+    /**
+     * Looks up the annotation in the annotation index at its offsets. This only touches the
+     * annotations at the same location instead of the whole index.
+     */
+    private static boolean isIndexed(AnnotationFS aFs)
+    {
+        CAS cas = aFs.getView();
+        int addr = cas.getLowLevelCAS().ll_getFSRef(aFs);
+        for (AnnotationFS candidate : selectCovered(cas, aFs.getType(), aFs.getBegin(),
+                aFs.getEnd())) {
+            if (cas.getLowLevelCAS().ll_getFSRef(candidate) == addr) {
+                return true;
+            }
+        }
+        return false;
     }
 }
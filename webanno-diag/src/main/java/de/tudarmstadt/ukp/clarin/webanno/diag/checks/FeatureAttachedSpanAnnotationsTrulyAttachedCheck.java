@@ -22,6 +22,7 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.FSUtil.getFeature;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -32,19 +33,46 @@ import org.apache.uima.cas.text.AnnotationFS;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 public class FeatureAttachedSpanAnnotationsTrulyAttachedCheck
-    implements Check
+    implements IncrementalCheck
 {
     @Resource(name = "annotationService")
     private AnnotationSchemaService annotationService;
 
     @Override
     public boolean check(Project aProject, CAS aCas, List<LogMessage> aMessages)
+    {
+        return checkRegion(aProject, aCas, null, aMessages);
+    }
+
+    /**
+     * Only the annotations within the changed offset range are checked. When a span annotation is
+     * created or deleted, the annotation it is attached to is changed as well, so both of them are
+     * always part of the range.
+     */
+    @Override
+    public boolean check(Project aProject, CAS aCas, DirtyRegion aRegion,
+            List<LogMessage> aMessages)
+    {
+        if (!aRegion.hasRange()) {
+            return true;
+        }
+        
+        return checkRegion(aProject, aCas, aRegion, aMessages);
+    }
+
+    /**
+     * @param aRegion
+     *            the changed part of the CAS or {@code null} to check the whole CAS.
+     */
+    private boolean checkRegion(Project aProject, CAS aCas, DirtyRegion aRegion,
+            List<LogMessage> aMessages)
     {
         boolean ok = true;
         for (AnnotationLayer layer : annotationService.listAnnotationLayer(aProject)) {
@@ -67,7 +95,9 @@ public class FeatureAttachedSpanAnnotationsTrulyAttachedCheck
                 continue;
             }
 
-            for (AnnotationFS anno : select(aCas, layerType)) {
+            Collection<AnnotationFS> annotations = aRegion == null ? select(aCas, layerType)
+                    : selectCovered(aCas, layerType, aRegion.getBegin(), aRegion.getEnd());
+            for (AnnotationFS anno : annotations) {
                 for (AnnotationFS attach : selectCovered(attachType, anno)) {
                     AnnotationFS candidate = getFeature(attach, layer.getAttachFeature().getName(),
                             AnnotationFS.class);
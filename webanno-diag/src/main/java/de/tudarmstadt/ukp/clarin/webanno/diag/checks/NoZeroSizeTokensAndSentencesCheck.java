@@ -18,7 +18,9 @@
 package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
 import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.uima.cas.CAS;
@@ -26,6 +28,7 @@ import org.apache.uima.cas.CASException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -33,7 +36,7 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 public class NoZeroSizeTokensAndSentencesCheck
-    implements Check
+    implements IncrementalCheck
 {
     private Logger log = LoggerFactory.getLogger(getClass());
    
@@ -41,25 +44,8 @@ public class NoZeroSizeTokensAndSentencesCheck
     public boolean check(Project aProject, CAS aCas, List<LogMessage> aMessages)
     {
         try {
-            boolean ok = true;
-            
-            for (Token t : select(aCas.getJCas(), Token.class)) {
-                if (t.getBegin() >= t.getEnd()) {
-                    aMessages.add(new LogMessage(this, LogLevel.ERROR,
-                            "Token with illegal span: %s", t));
-                    ok = false;
-                }
-            }
-
-            for (Sentence s : select(aCas.getJCas(), Sentence.class)) {
-                if (s.getBegin() >= s.getEnd()) {
-                    aMessages.add(new LogMessage(this, LogLevel.ERROR,
-                            "Sentence with illegal span: %s", s));
-                    ok = false;
-                }
-            }
-            
-            return ok;
+            return check(select(aCas.getJCas(), Token.class),
+                    select(aCas.getJCas(), Sentence.class), aMessages);
         }
         catch (CASException e) {
             log.error("Unabled to access JCas", e);
@@ -68,4 +54,54 @@ public class NoZeroSizeTokensAndSentencesCheck
             return false;
         }
     }
+    
+    @Override
+    public boolean check(Project aProject, CAS aCas, DirtyRegion aRegion,
+            List<LogMessage> aMessages)
+    {
+        // Tokens and sentences are annotations, so if no annotation has been changed, there is
+        // nothing to check
+        if (!aRegion.hasRange()) {
+            return true;
+        }
+        
+        try {
+            return check(
+                    selectCovered(aCas.getJCas(), Token.class, aRegion.getBegin(),
+                            aRegion.getEnd()),
+                    selectCovered(aCas.getJCas(), Sentence.class, aRegion.getBegin(),
+                            aRegion.getEnd()),
+                    aMessages);
+        }
+        catch (CASException e) {
+            log.error("Unabled to access JCas", e);
+            aMessages.add(new LogMessage(this, LogLevel.ERROR,
+                    "Unabled to access JCas", e.getMessage()));
+            return false;
+        }
+    }
+    
+    private boolean check(Collection<Token> aTokens, Collection<Sentence> aSentences,
+            List<LogMessage> aMessages)
+    {
+        boolean ok = true;
+
+        for (Token t : aTokens) {
+            if (t.getBegin() >= t.getEnd()) {
+                aMessages.add(new LogMessage(this, LogLevel.ERROR,
+                        "Token with illegal span: %s", t));
+                ok = false;
+            }
+        }
+
+        for (Sentence s : aSentences) {
+            if (s.getBegin() >= s.getEnd()) {
+                aMessages.add(new LogMessage(this, LogLevel.ERROR,
+                        "Sentence with illegal span: %s", s));
+                ok = false;
+            }
+        }
+        
+        return ok;
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.Statistics;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.AllFeatureStructuresIndexedCheck;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class CasDoctorTest
+{
+    @Test
+    public void testStatistics()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        AnnotationFS anno = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        cas.addFsToIndexes(anno);
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        assertTrue(cd.isChecksActive());
+        // A project is not required for this check
+        cd.analyze(null, cas, messages);
+        cd.analyze(null, cas, messages);
+        
+        List<Statistics> statistics = cd.getStatistics();
+        statistics.forEach(System.out::println);
+        
+        assertEquals(1, statistics.size());
+        assertEquals(AllFeatureStructuresIndexedCheck.class.getSimpleName(),
+                statistics.get(0).getName());
+        assertEquals(2, statistics.get(0).getRuns());
+        assertEquals(0, statistics.get(0).getFailures());
+        assertTrue(statistics.get(0).getMaxTime() <= statistics.get(0).getTotalTime());
+        
+        cd.resetStatistics();
+        assertTrue(cd.getStatistics().isEmpty());
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
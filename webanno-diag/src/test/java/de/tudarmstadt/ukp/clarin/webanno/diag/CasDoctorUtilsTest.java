@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class CasDoctorUtilsTest
+{
+    private static final String REF_TYPE = "RefType";
+
+    @Test
+    public void testNonIndexedFSesMatchReference()
+        throws Exception
+    {
+        CAS cas = createCas(10_000, 0.01);
+
+        Set<Integer> expected = referenceNonIndexedFSes(cas);
+        assertFalse(expected.isEmpty());
+
+        Map<FeatureStructure, FeatureStructure> withOwner = CasDoctorUtils
+                .getNonIndexedFSesWithOwner(cas);
+        assertEquals(expected, addresses(cas, withOwner.keySet()));
+        assertEquals(expected, addresses(cas, CasDoctorUtils.getNonIndexedFSes(cas)));
+
+        // Every owner must be indexed
+        BitSet indexed = CasDoctorUtils.collectIndexed(cas);
+        LowLevelCAS llcas = cas.getLowLevelCAS();
+        for (FeatureStructure owner : withOwner.values()) {
+            assertTrue(indexed.get(llcas.ll_getFSRef(owner)));
+        }
+    }
+
+    @Test
+    public void testLongChain()
+        throws Exception
+    {
+        TypeSystemDescription tsd = createTypeSystem();
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        Type refType = cas.getTypeSystem().getType(REF_TYPE);
+        Feature ref = refType.getFeatureByBaseName("ref");
+
+        // A chain this long would overflow the stack of a recursive traversal
+        AnnotationFS previous = null;
+        for (int i = 0; i < 200_000; i++) {
+            AnnotationFS anno = cas.createAnnotation(refType, 0, 1);
+            anno.setFeatureValue(ref, previous);
+            previous = anno;
+        }
+        cas.addFsToIndexes(previous);
+
+        assertEquals(200_000 - 1, CasDoctorUtils.getNonIndexedFSesWithOwner(cas).size());
+    }
+
+    @Ignore("Benchmark - run manually")
+    @Test
+    public void benchmark()
+        throws Exception
+    {
+        CAS cas = createCas(1_000_000, 0.001);
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.currentTimeMillis();
+            int reference = referenceNonIndexedFSes(cas).size();
+            long referenceTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            int result = CasDoctorUtils.getNonIndexedFSesWithOwner(cas).size();
+            long resultTime = System.currentTimeMillis() - start;
+
+            assertEquals(reference, result);
+            System.out.printf("Run %d: %d non-indexed - reference %dms, bit sets %dms%n", run,
+                    result, referenceTime, resultTime);
+        }
+    }
+
+    private static TypeSystemDescription createTypeSystem()
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        TypeDescription refTypeDesc = tsd.addType(REF_TYPE, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+        return tsd;
+    }
+
+    /**
+     * Creates a CAS with the given number of annotations, each of which refers to a random
+     * earlier one. The given share of the annotations is not indexed.
+     */
+    private static CAS createCas(int aCount, double aNonIndexedShare)
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystem(), null, null);
+        Type refType = cas.getTypeSystem().getType(REF_TYPE);
+        Feature ref = refType.getFeatureByBaseName("ref");
+
+        Random rnd = new Random(42);
+        AnnotationFS[] annos = new AnnotationFS[aCount];
+        for (int i = 0; i < aCount; i++) {
+            annos[i] = cas.createAnnotation(refType, i, i + 1);
+            if (i > 0) {
+                annos[i].setFeatureValue(ref, annos[rnd.nextInt(i)]);
+            }
+            if (rnd.nextDouble() >= aNonIndexedShare) {
+                cas.addFsToIndexes(annos[i]);
+            }
+        }
+        return cas;
+    }
+
+    private static Set<Integer> addresses(CAS aCas, Set<FeatureStructure> aFSes)
+    {
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        return aFSes.stream().map(llcas::ll_getFSRef).collect(Collectors.toSet());
+    }
+
+    /**
+     * The straightforward implementation on object sets the analysis is compared against.
+     */
+    private static Set<Integer> referenceNonIndexedFSes(CAS aCas)
+    {
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        Set<FeatureStructure> indexed = new TreeSet<>(
+                Comparator.comparingInt(llcas::ll_getFSRef));
+        aCas.getIndexRepository().getAllIndexedFS(aCas.getTypeSystem().getTopType())
+                .forEachRemaining(indexed::add);
+
+        Set<FeatureStructure> reachable = new TreeSet<>(
+                Comparator.comparingInt(llcas::ll_getFSRef));
+        indexed.forEach(fs -> collect(reachable, fs));
+
+        reachable.removeAll(indexed);
+        reachable.removeIf(
+            fs -> !aCas.getTypeSystem().subsumes(aCas.getAnnotationType(), fs.getType()));
+        return addresses(aCas, reachable);
+    }
+
+    private static void collect(Set<FeatureStructure> aFSes, FeatureStructure aFS)
+    {
+        if (aFS != null && !aFSes.contains(aFS)) {
+            aFSes.add(aFS);
+
+            for (Feature f : aFS.getType().getFeatures()) {
+                if (!f.getRange().isPrimitive()
+                        && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
+                    collect(aFSes, aFS.getFeatureValue(f));
+                }
+            }
+        }
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
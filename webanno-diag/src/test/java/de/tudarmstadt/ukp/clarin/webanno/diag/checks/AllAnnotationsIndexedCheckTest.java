@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -33,6 +34,7 @@ import org.apache.uima.util.CasCreationUtils;
 import org.junit.Rule;
 import org.junit.Test;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
@@ -116,6 +118,62 @@ public class AllAnnotationsIndexedCheckTest
         assertTrue(result);
     }
 
+    @Test
+    public void testIncremental()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        String refTypeName = "RefType";
+        
+        TypeDescription refTypeDesc = tsd.addType(refTypeName, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        Type refType = cas.getTypeSystem().getType(refTypeName);
+        
+        // An annotation which refers to a non-indexed one outside of the changed range
+        AnnotationFS anno1 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        AnnotationFS anno2 = cas.createAnnotation(refType, 0, 1);
+        anno2.setFeatureValue(refType.getFeatureByBaseName("ref"), anno1);
+        cas.addFsToIndexes(anno2);
+        
+        // An annotation which is changed and refers to an indexed one
+        AnnotationFS anno3 = cas.createAnnotation(cas.getAnnotationType(), 10, 11);
+        cas.addFsToIndexes(anno3);
+        AnnotationFS anno4 = cas.createAnnotation(refType, 10, 11);
+        anno4.setFeatureValue(refType.getFeatureByBaseName("ref"), anno3);
+        cas.addFsToIndexes(anno4);
+        DirtyRegion.record(cas, anno4);
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        cd.setIncremental(true);
+        assertTrue(cd.isIncremental(cas));
+        
+        // The problem outside of the changed range is not noticed
+        assertTrue(cd.analyze(null, cas, messages));
+        assertEquals(AllFeatureStructuresIndexedCheck.class.getSimpleName() + " (incremental)",
+                cd.getStatistics().get(0).getName());
+        
+        // Deleting the referenced annotation leaves a dangling reference in the changed range
+        cas.removeFsFromIndexes(anno3);
+        DirtyRegion.record(cas, anno3);
+        assertFalse(cd.analyze(null, cas, messages));
+        
+        // Without the recorded changes, the whole CAS is checked again
+        DirtyRegion.clear(cas);
+        assertFalse(cd.isIncremental(cas));
+        messages.clear();
+        assertFalse(cd.analyze(null, cas, messages));
+        
+        messages.forEach(System.out::println);
+        
+        assertEquals(3, messages.size());
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
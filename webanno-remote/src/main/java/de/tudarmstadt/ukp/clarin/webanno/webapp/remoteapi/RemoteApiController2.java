@@ -22,6 +22,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil.isProjectCreato
 import static de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil.isSuperAdmin;
 import static org.apache.uima.fit.util.JCasUtil.select;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,7 +56,7 @@ import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.jcas.JCas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -456,10 +457,11 @@ public class RemoteApiController2
         }
         
         if (originalFile) {
-            // Export the original file - no temporary file created here, we export directly from
-            // the file system
-            File docFile = documentService.getSourceDocumentFile(doc);
-            FileSystemResource resource = new FileSystemResource(docFile);
+            // Export the original file - no temporary file created here. The file is loaded into
+            // memory because the document folder may be moved once the document lock is released
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            documentService.copySourceDocumentFile(doc, buffer);
+            ByteArrayResource resource = new ByteArrayResource(buffer.toByteArray());
             HttpHeaders httpHeaders = new HttpHeaders();
             httpHeaders.setContentLength(resource.contentLength());
             httpHeaders.set("Content-Disposition",
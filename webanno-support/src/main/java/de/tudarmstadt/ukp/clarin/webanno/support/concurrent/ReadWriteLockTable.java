@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Table of reader/writer locks indexed by an arbitrary key. Locks are created on demand and
+ * removed from the table again once no thread holds or waits for them any more, so the table
+ * only ever contains the keys which are currently in use. Threads working on different keys
+ * never block each other.
+ * <p>
+ * The table keeps track of how often locks were acquired and how long threads had to wait for
+ * them, which allows spotting contention on individual resources.
+ *
+ * @param <K>
+ *            the key type. Must implement {@link Object#equals(Object)} and
+ *            {@link Object#hashCode()}.
+ */
+public class ReadWriteLockTable<K>
+{
+    private final ConcurrentMap<K, Entry> locks = new ConcurrentHashMap<>();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong contendedAcquisitions = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Acquire a shared lock for the given key. The returned handle must be closed to release the
+     * lock, preferably using a try-with-resources block.
+     */
+    public LockHandle readLock(K aKey)
+    {
+        return acquire(aKey, false);
+    }
+
+    /**
+     * Acquire an exclusive lock for the given key. The returned handle must be closed to release
+     * the lock, preferably using a try-with-resources block.
+     */
+    public LockHandle writeLock(K aKey)
+    {
+        return acquire(aKey, true);
+    }
+
+    private LockHandle acquire(K aKey, boolean aExclusive)
+    {
+        // Register interest in the lock before acquiring it so it cannot be removed from the
+        // table while we are waiting for it.
+        Entry entry = locks.compute(aKey, (k, e) -> {
+            Entry result = e != null ? e : new Entry();
+            result.users++;
+            return result;
+        });
+
+        Lock lock = aExclusive ? entry.lock.writeLock() : entry.lock.readLock();
+
+        long waitNanos = 0;
+        boolean acquired = false;
+        try {
+            if (lock.tryLock()) {
+                acquisitions.incrementAndGet();
+            }
+            else {
+                long start = System.nanoTime();
+                lock.lock();
+                waitNanos = System.nanoTime() - start;
+                recordWait(waitNanos);
+            }
+            acquired = true;
+        }
+        finally {
+            if (!acquired) {
+                release(aKey);
+            }
+        }
+
+        return new LockHandle(aKey, lock, waitNanos);
+    }
+
+    private void recordWait(long aNanos)
+    {
+        acquisitions.incrementAndGet();
+        contendedAcquisitions.incrementAndGet();
+        totalWaitNanos.addAndGet(aNanos);
+        maxWaitNanos.accumulateAndGet(aNanos, Math::max);
+    }
+
+    private void release(K aKey)
+    {
+        locks.computeIfPresent(aKey, (k, e) -> {
+            e.users--;
+            return e.users > 0 ? e : null;
+        });
+    }
+
+    /**
+     * @return the number of keys for which a lock is currently held or waited for.
+     */
+    public int getActiveLockCount()
+    {
+        return locks.size();
+    }
+
+    /**
+     * @return the total number of lock acquisitions.
+     */
+    public long getAcquisitionCount()
+    {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the number of lock acquisitions which had to wait for another thread.
+     */
+    public long getContendedAcquisitionCount()
+    {
+        return contendedAcquisitions.get();
+    }
+
+    /**
+     * @return the accumulated time threads had to wait for locks.
+     */
+    public long getTotalWaitTime(TimeUnit aUnit)
+    {
+        return aUnit.convert(totalWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time a thread had to wait for a lock.
+     */
+    public long getMaxWaitTime(TimeUnit aUnit)
+    {
+        return aUnit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reset the wait-time statistics. Locks which are currently held are not affected.
+     */
+    public void resetStatistics()
+    {
+        acquisitions.set(0);
+        contendedAcquisitions.set(0);
+        totalWaitNanos.set(0);
+        maxWaitNanos.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "[active: %d, acquisitions: %d, contended: %d, total wait: %dms, max wait: %dms]",
+                getActiveLockCount(), getAcquisitionCount(), getContendedAcquisitionCount(),
+                getTotalWaitTime(TimeUnit.MILLISECONDS), getMaxWaitTime(TimeUnit.MILLISECONDS));
+    }
+
+    private static class Entry
+    {
+        // Only accessed within the compute functions of the lock map, so no synchronization
+        // needed here.
+        private int users;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * A lock acquired from the table. Closing the handle releases the lock.
+     */
+    public final class LockHandle
+        implements AutoCloseable
+    {
+        private final K key;
+        private final Lock lock;
+        private final long waitNanos;
+        private boolean released = false;
+
+        private LockHandle(K aKey, Lock aLock, long aWaitNanos)
+        {
+            key = aKey;
+            lock = aLock;
+            waitNanos = aWaitNanos;
+        }
+
+        /**
+         * @return how long the thread had to wait until the lock was granted.
+         */
+        public long getWaitTime(TimeUnit aUnit)
+        {
+            return aUnit.convert(waitNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close()
+        {
+            if (!released) {
+                released = true;
+                lock.unlock();
+                release(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.ReadWriteLockTable.LockHandle;
+
+public class ReadWriteLockTableTest
+{
+    @Test
+    public void thatEntryIsRemovedWhenLastHandleIsClosed()
+    {
+        ReadWriteLockTable<String> table = new ReadWriteLockTable<>();
+
+        LockHandle first = table.readLock("a");
+        LockHandle second = table.readLock("a");
+        assertEquals(1, table.getActiveLockCount());
+
+        first.close();
+        assertEquals(1, table.getActiveLockCount());
+
+        second.close();
+        assertEquals(0, table.getActiveLockCount());
+    }
+
+    @Test
+    public void thatClosingHandleTwiceReleasesOnlyOnce()
+    {
+        ReadWriteLockTable<String> table = new ReadWriteLockTable<>();
+
+        LockHandle first = table.readLock("a");
+        LockHandle second = table.readLock("a");
+        first.close();
+        first.close();
+
+        // The second reader still holds the lock
+        assertEquals(1, table.getActiveLockCount());
+        second.close();
+        assertEquals(0, table.getActiveLockCount());
+    }
+
+    @Test
+    public void thatKeyCanBeLockedAgainAfterRelease()
+    {
+        ReadWriteLockTable<String> table = new ReadWriteLockTable<>();
+
+        try (LockHandle lock = table.writeLock("a")) {
+            assertEquals(1, table.getActiveLockCount());
+        }
+        try (LockHandle lock = table.writeLock("a")) {
+            assertEquals(1, table.getActiveLockCount());
+        }
+
+        assertEquals(0, table.getActiveLockCount());
+        assertEquals(2, table.getAcquisitionCount());
+        assertEquals(0, table.getContendedAcquisitionCount());
+    }
+
+    @Test
+    public void thatDifferentKeysDoNotBlockEachOther()
+        throws Exception
+    {
+        ReadWriteLockTable<String> table = new ReadWriteLockTable<>();
+
+        try (LockHandle lock = table.writeLock("a")) {
+            AtomicBoolean acquired = new AtomicBoolean();
+            Thread thread = new Thread(() -> {
+                try (LockHandle other = table.writeLock("b")) {
+                    acquired.set(true);
+                }
+            });
+            thread.start();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+
+            assertTrue(acquired.get());
+        }
+    }
+
+    @Test
+    public void thatWriterWaitsForReader()
+        throws Exception
+    {
+        ReadWriteLockTable<String> table = new ReadWriteLockTable<>();
+
+        LockHandle reader = table.readLock("a");
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            started.countDown();
+            try (LockHandle lock = table.writeLock("a")) {
+                acquired.set(true);
+            }
+        });
+        writer.start();
+        started.await();
+
+        // Give the writer a chance to (wrongly) get the lock
+        writer.join(200);
+        assertFalse(acquired.get());
+
+        reader.close();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(acquired.get());
+        assertEquals(1, table.getContendedAcquisitionCount());
+        assertEquals(0, table.getActiveLockCount());
+    }
+}
@@ -74,6 +74,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.FeatureState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.Selection;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.DirtyRegion;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.Evaluator;
@@ -601,6 +602,7 @@ public class AnnotationDetailEditorPanel
         if (adapter instanceof SpanAdapter) {
             for (AnnotationFS attachedFs : getAttachedRels(jCas, fs, layer)) {
                 jCas.getCas().removeFsFromIndexes(attachedFs);
+                DirtyRegion.record(jCas.getCas(), attachedFs);
                 info("The attached annotation for relation type [" + annotationService
                     .getLayer(attachedFs.getType().getName(), state.getProject()).getUiName()
                     + "] is deleted");
@@ -626,6 +628,7 @@ public class AnnotationDetailEditorPanel
                 fs.getEnd())) {
                 if (isSame(attachedFs.getFeatureValue(attachFeature), fs)) {
                     attachedFs.setFeatureValue(attachFeature, null);
+                    DirtyRegion.record(jCas.getCas(), attachedFs);
                     LOG.debug("Unattached [" + attachFeature.getShortName() + "] on annotation ["
                         + getAddr(attachedFs) + "]");
                 }
@@ -658,6 +661,7 @@ public class AnnotationDetailEditorPanel
                     }
                     if (modified) {
                         setFeature(linkFS, linkFeature, links);
+                        DirtyRegion.record(jCas.getCas(), linkFS);
                     }
                 }
             }
@@ -711,6 +715,7 @@ public class AnnotationDetailEditorPanel
         AnnotationFS idFs = selectByAddr(jCas, state.getSelection().getAnnotation().getId());
 
         jCas.removeFsFromIndexes(idFs);
+        DirtyRegion.record(jCas.getCas(), idFs);
 
         AnnotationFS originFs = selectByAddr(jCas, state.getSelection().getOrigin());
         AnnotationFS targetFs = selectByAddr(jCas, state.getSelection().getTarget());
@@ -36,9 +36,11 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.stream.Stream;
 
 import javax.persistence.NoResultException;
 
@@ -60,6 +62,7 @@ import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -69,6 +72,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
@@ -621,26 +625,37 @@ public class AutomationUtil
         // for curated docuemnts
         List<SourceDocument> sourceDocuments = aRepository
                 .listSourceDocuments(feature.getProject());
+        List<SourceDocument> curatedDocuments = new ArrayList<>();
         for (SourceDocument sourceDocument : sourceDocuments) {
             if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
-                JCas jCas = aCurationDocumentService.readCurationCas(sourceDocument);
-                for (Sentence sentence : select(jCas, Sentence.class)) {
-                    if (aBase) { // base training document
-                        trainOut.append(getMiraLine(sentence, null, adapter).toString())
-                                .append("\n");
+                curatedDocuments.add(sourceDocument);
+            }
+        }
+        // The curated CASes are read in the background while the training data is written
+        try (Stream<CasReadResult> results = aCurationDocumentService
+                .readCurationCases(curatedDocuments)) {
+            Iterator<CasReadResult> curatedCases = results.iterator();
+            for (SourceDocument sourceDocument : sourceDocuments) {
+                if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
+                    JCas jCas = curatedCases.next().getJCas();
+                    for (Sentence sentence : select(jCas, Sentence.class)) {
+                        if (aBase) { // base training document
+                            trainOut.append(getMiraLine(sentence, null, adapter).toString())
+                                    .append("\n");
+                        }
+                        else { // training document with other features
+                            trainOut.append(getMiraLine(sentence, feature, adapter).toString())
+                                    .append("\n");
+                        }
                     }
-                    else { // training document with other features
-                        trainOut.append(getMiraLine(sentence, feature, adapter).toString())
-                                .append("\n");
+                    if (!aBase) {
+                        status.setTrainDocs(status.getTrainDocs() - 1);
                     }
                 }
-                if (!aBase) {
-                    status.setTrainDocs(status.getTrainDocs() - 1);
-                }
+                trainingDocsCount++;
+                LOG.info("Processed source document " + trainingDocsCount + " of "
+                        + trainingDocuments.size());
             }
-            trainingDocsCount++;
-            LOG.info("Processed source document " + trainingDocsCount + " of "
-                    + trainingDocuments.size());
         }
         // Tab-sep documents to be used as a target layer train document
         int goldStandardDocsCounter = 0;
@@ -1621,6 +1636,8 @@ public class AutomationUtil
                 aJcas.getCas().addFsToIndexes(newAnnotation);
             }
         }
+
+        AnnotationOffsetIndex.invalidate(aJcas.getCas());
     }
 
     public static void predict(MiraTemplate aTemplate, DocumentService aRepository,
@@ -1704,5 +1721,6 @@ public class AutomationUtil
         for (AnnotationFS annotation : annotationsToRemove) {
             aJCas.removeFsFromIndexes(annotation);
         }
+        AnnotationOffsetIndex.invalidate(aJCas.getCas());
     }
 }
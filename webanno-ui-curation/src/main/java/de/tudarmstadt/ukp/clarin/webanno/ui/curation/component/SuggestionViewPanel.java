@@ -56,6 +56,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import com.fasterxml.jackson.core.JsonGenerator;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -71,6 +72,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
@@ -120,6 +122,8 @@ public class SuggestionViewPanel
     private @SpringBean CorrectionDocumentService correctionDocumentService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean CasStorageService casStorageService;
+    private @SpringBean BratRenderCache renderCache;
 
     /**
      * Data models for the annotation editor
@@ -419,7 +423,7 @@ public class SuggestionViewPanel
             final List<AnnotationOption> aAnnotationOptions,
             Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
             AnnotationSchemaService aAnnotationService, CurationContainer aCurationContainer,
-            final Map<String, Map<VID, AnnotationState>> aStates)
+            final Map<String, Map<VID, AnnotationState>> aStates, String aRenderCacheContext)
         throws IOException
     {
         List<String> usernamesSorted = new ArrayList<>(aJCases.keySet());
@@ -471,8 +475,8 @@ public class SuggestionViewPanel
                         new CurationUserSegmentForAnnotationDocument();
                 curationUserSegment2.setCollectionData(
                         getCollectionInformation(aAnnotationService, aCurationContainer));
-                curationUserSegment2.setDocumentResponse(
-                        render(jCas, aBratAnnotatorModel, curationColoringStrategy));
+                curationUserSegment2.setDocumentResponse(render(jCas, aBratAnnotatorModel,
+                        curationColoringStrategy, username, aRenderCacheContext));
                 curationUserSegment2.setUsername(username);
                 curationUserSegment2.setBratAnnotatorModel(aBratAnnotatorModel);
                 curationUserSegment2.setSelectionByUsernameAndAddress(
@@ -482,8 +486,14 @@ public class SuggestionViewPanel
         }
     }
 
+    /**
+     * @param aRenderCacheContext
+     *            the state the coloring strategy depends on as returned by
+     *            {@link #getRenderCacheContext} or {@code null} if the result must not be cached.
+     */
     private String render(JCas aJcas, AnnotatorState aBratAnnotatorModel,
-            ColoringStrategy aCurationColoringStrategy)
+            ColoringStrategy aCurationColoringStrategy, String aUsername,
+            String aRenderCacheContext)
         throws IOException
     {
         List<AnnotationLayer> layersToRender = new ArrayList<>();
@@ -497,6 +507,18 @@ public class SuggestionViewPanel
             }
         }
         
+        String cacheKey = null;
+        if (aRenderCacheContext != null) {
+            cacheKey = BratRenderCache.createKey(aBratAnnotatorModel, layersToRender,
+                    annotationService.getSchemaVersion(aBratAnnotatorModel.getProject()),
+                    casStorageService.getCasVersion(aJcas.getCas()), aUsername,
+                    aRenderCacheContext);
+            String cached = renderCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
         GetDocumentResponse response = new GetDocumentResponse();
         
         VDocument vdoc = new VDocument();
@@ -505,7 +527,38 @@ public class SuggestionViewPanel
         BratRenderer.render(response, aBratAnnotatorModel, vdoc, aJcas, annotationService,
                 aCurationColoringStrategy);
 
-        return JSONUtil.toInterpretableJsonString(response);
+        String json = JSONUtil.toInterpretableJsonString(response);
+        renderCache.put(cacheKey, json);
+        return json;
+    }
+    
+    /**
+     * The suggestion colors of a user segment depend on the differences between all CASes in the
+     * compared range, so a rendered segment can only be re-used as long as none of them has
+     * changed.
+     * 
+     * @return the versions of the compared CASes and the compared range or {@code null} if a
+     *         rendered segment cannot be cached, e.g. because a CAS has unsaved changes.
+     */
+    private String getRenderCacheContext(Map<String, JCas> aJCases, int aBegin, int aEnd)
+    {
+        if (!renderCache.isEnabled()) {
+            return null;
+        }
+        
+        List<String> usernames = new ArrayList<>(aJCases.keySet());
+        Collections.sort(usernames);
+        
+        StringBuilder context = new StringBuilder();
+        for (String username : usernames) {
+            long version = casStorageService.getCasVersion(aJCases.get(username).getCas());
+            if (version < 0) {
+                return null;
+            }
+            context.append(username).append('=').append(version).append(',');
+        }
+        context.append(aBegin).append('-').append(aEnd);
+        return context.toString();
     }
 
     private String getCollectionInformation(AnnotationSchemaService aAnnotationService,
@@ -569,19 +622,20 @@ public class SuggestionViewPanel
 
         Map<String, Map<VID, AnnotationState>> annoStates = new HashMap<>();
 
-        DiffResult diff;
-
+        int diffBegin;
+        int diffEnd;
         if (bModel.getMode().equals(Mode.CURATION)) {
-            diff = CasDiff2.doDiffSingle(annotationService, bModel.getProject(), entryTypes,
-                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases,
-                    aCurationSegment.getCurationBegin(), aCurationSegment.getCurationEnd());
+            diffBegin = aCurationSegment.getCurationBegin();
+            diffEnd = aCurationSegment.getCurationEnd();
         }
         else {
-            diff = CasDiff2.doDiffSingle(annotationService, bModel.getProject(), entryTypes,
-                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, aCurationSegment.getBegin(),
-                    aCurationSegment.getEnd());
+            diffBegin = aCurationSegment.getBegin();
+            diffEnd = aCurationSegment.getEnd();
         }
 
+        DiffResult diff = CasDiff2.doDiffSingle(annotationService, bModel.getProject(),
+                entryTypes, LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, diffBegin, diffEnd);
+
         Collection<ConfigurationSet> d = diff.getDifferingConfigurationSets().values();
 
         Collection<ConfigurationSet> i = diff.getIncompleteConfigurationSets().values();
@@ -609,7 +663,7 @@ public class SuggestionViewPanel
 
         populateCurationSentences(jCases, sentences, bModel, annotationOptions,
                 aAnnotationSelectionByUsernameAndAddress, annotationService, aCurationContainer,
-                annoStates);
+                annoStates, getRenderCacheContext(jCases, diffBegin, diffEnd));
 
         // update sentence list on the right side
         this.setModelObject(sentences);
@@ -26,10 +26,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.Type;
@@ -40,6 +42,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -339,10 +342,8 @@ public class SuggestionBuilder
             AnnotationDocument randomAnnotationDocument, Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        Map<String, JCas> jCases = new HashMap<>();
+        List<AnnotationDocument> finishedDocuments = new ArrayList<>();
         for (AnnotationDocument annotationDocument : annotationDocuments) {
-            String username = annotationDocument.getUser();
-
             if (!annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
                 continue;
             }
@@ -351,12 +352,21 @@ public class SuggestionBuilder
                 randomAnnotationDocument = annotationDocument;
             }
 
-            // Upgrading should be an explicit action during the opening of a document at the end
-            // of the open dialog - it must not happen during editing because the CAS addresses
-            // are used as IDs in the UI
-            // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
-            JCas jCas = documentService.readAnnotationCas(annotationDocument);
-            jCases.put(username, jCas);
+            finishedDocuments.add(annotationDocument);
+        }
+
+        // Upgrading should be an explicit action during the opening of a document at the end
+        // of the open dialog - it must not happen during editing because the CAS addresses
+        // are used as IDs in the UI
+        // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
+        Map<String, JCas> jCases = new HashMap<>();
+        try (Stream<CasReadResult> results = documentService
+                .readAnnotationCases(finishedDocuments)) {
+            Iterator<CasReadResult> i = results.iterator();
+            while (i.hasNext()) {
+                CasReadResult result = i.next();
+                jCases.put(result.getUsername(), result.getJCas());
+            }
         }
         return jCases;
     }
@@ -38,7 +38,6 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 
@@ -48,6 +47,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.AnnotationOffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
@@ -189,6 +189,8 @@ public class MergeCas
                 megerCas.removeFsFromIndexes(fs);
             }
         }
+        AnnotationOffsetIndex.invalidate(aJCases.get(WebAnnoConst.CURATION_USER).getCas());
+
         // if slot bearing annotation, clean
         for (FeatureStructure baseFs : slotFeaturesToReset) {
             for (Feature roleFeature : baseFs.getType().getFeatures()) {
@@ -242,6 +244,7 @@ public class MergeCas
                 }
             }
         }
+        AnnotationOffsetIndex.invalidate(aJCases.get(WebAnnoConst.CURATION_USER).getCas());
 
         return aJCases.get(WebAnnoConst.CURATION_USER);
     }
@@ -282,8 +285,8 @@ public class MergeCas
         int end = ((AnnotationFS) aBaseAnno).getEnd();
 
         for (String usr : aUsers) {
-            for (FeatureStructure baseFS : CasUtil.selectCovered(aJCases.get(usr).getCas(), t,
-                    begin, end)) {
+            for (AnnotationFS baseFS : AnnotationOffsetIndex.selectCovered(
+                    aJCases.get(usr).getCas(), t, begin, end)) {
                 // if non eqal stacked annotations with slot feature exists, get
                 // the right one
                 if (isSameAnno(aBaseAnno, baseFS)) {
@@ -307,7 +310,8 @@ public class MergeCas
         int end = ((AnnotationFS) fs).getEnd();
 
         List<FeatureStructure> fssAtThisPosition = new ArrayList<>();
-        fssAtThisPosition.addAll(CasUtil.selectCovered(aJCases.get(aUser).getCas(), t, begin, end));
+        fssAtThisPosition.addAll(AnnotationOffsetIndex.selectCovered(aJCases.get(aUser).getCas(),
+                t, begin, end));
 
         return fssAtThisPosition;
     }
@@ -507,7 +511,8 @@ public class MergeCas
     public static List<AnnotationFS> getAnnosOnPosition(AnnotationFS aFs, JCas aJcas)
     {
         Type type = aFs.getType();
-        return CasUtil.selectCovered(aJcas.getCas(), type, aFs.getBegin(), aFs.getEnd());
+        return AnnotationOffsetIndex.selectCovered(aJcas.getCas(), type, aFs.getBegin(),
+                aFs.getEnd());
     }
 
     public static List<AnnotationFS> getRelAnnosOnPosition(AnnotationFS aFs, AnnotationFS aOriginFs,
@@ -516,7 +521,8 @@ public class MergeCas
         Type type = aFs.getType();
         Feature sourceFeat = type.getFeatureByBaseName(WebAnnoConst.FEAT_REL_SOURCE);
         Feature targetFeat = type.getFeatureByBaseName(WebAnnoConst.FEAT_REL_TARGET);
-        return CasUtil.selectCovered(aJcas.getCas(), type, aFs.getBegin(), aFs.getEnd()).stream()
+        return AnnotationOffsetIndex.<AnnotationFS> selectCovered(aJcas.getCas(), type,
+                aFs.getBegin(), aFs.getEnd()).stream()
                 .filter(fs -> fs.getFeatureValue(sourceFeat).equals(aOriginFs)
                         && fs.getFeatureValue(targetFeat).equals(aTargetFs))
                 .collect(Collectors.toList());
@@ -574,6 +580,7 @@ public class MergeCas
             }
         }
         aJCas.addFsToIndexes(newFs);
+        AnnotationOffsetIndex.invalidate(aJCas.getCas());
     }
 
     /**
@@ -589,6 +596,7 @@ public class MergeCas
             setFeatureValue(aNewFs, f, getFeatureValue(aOldFs, f));
         }
         aJCas.addFsToIndexes(aNewFs);
+        AnnotationOffsetIndex.invalidate(aJCas.getCas());
     }
 
     public static void modifyRelationAnnotation(AnnotationFS aOldFs, AnnotationFS aNewFs,
@@ -613,13 +621,14 @@ public class MergeCas
             setFeatureValue(aNewFs, f, getFeatureValue(aOldFs, f));
         }
         aJCas.addFsToIndexes(aNewFs);
+        AnnotationOffsetIndex.invalidate(aJCas.getCas());
     }
 
     public static Stream<AnnotationFS> getMergeFS(AnnotationFS aOldFs, JCas aJCas)
     {
         Type type = aOldFs.getType();
-        return CasUtil.selectCovered(aJCas.getCas(), type, aOldFs.getBegin(), aOldFs.getEnd())
-                .stream().filter(fs -> isSameAnno(fs, aOldFs));
+        return AnnotationOffsetIndex.<AnnotationFS> selectCovered(aJCas.getCas(), type,
+                aOldFs.getBegin(), aOldFs.getEnd()).stream().filter(fs -> isSameAnno(fs, aOldFs));
     }
 
     private static boolean isLinkOrBasicFeatures(FeatureStructure aOldFs, Feature aFeature)
@@ -789,6 +798,7 @@ public class MergeCas
         links.remove(duplicateLink);
 
         setFeature(mergeFs, slotFeature, links);
+        AnnotationOffsetIndex.invalidate(aJcas.getCas());
     }
 
     private static List<AnnotationFS> checkAndGetTargets(JCas aJcas, JCas aClickedJCas,
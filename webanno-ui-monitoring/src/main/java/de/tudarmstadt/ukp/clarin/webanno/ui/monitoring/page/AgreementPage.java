@@ -23,10 +23,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.uima.jcas.JCas;
@@ -55,6 +57,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil;
@@ -150,47 +153,59 @@ public class AgreementPage
 
         List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
 
+        // Collect the finished annotation documents first, so that their CASes can be loaded
+        // in parallel. The lists contain null values for the documents which a user didn't
+        // finish (or work on at all) yet.
         cachedCASes = new LinkedHashMap<>();
+        List<AnnotationDocument> finishedDocuments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
         for (User user : users) {
             List<JCas> cases = new ArrayList<>();
 
             for (SourceDocument document : sourceDocuments) {
-                JCas jCas = null;
-
-                // Load the CAS if there is a finished one.
                 if (documentService.existsAnnotationDocument(document, user)) {
                     AnnotationDocument annotationDocument = documentService
                             .getAnnotationDocument(document, user);
                     if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            jCas = documentService.readAnnotationCas(annotationDocument);
-                            documentService.upgradeCas(jCas.getCas(), annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-
-                            // Set the CAS name in the DocumentMetaData so that we can pick it
-                            // up in the Diff position for the purpose of debugging / transparency.
-                            DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
-                            documentMetadata
-                                    .setDocumentId(annotationDocument.getDocument().getName());
-                            documentMetadata
-                                    .setCollectionId(annotationDocument.getProject().getName());
-                        }
-                        catch (Exception e) {
-                            LOG.error("Unable to load data", e);
-                            error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                        }
+                        finishedDocuments.add(annotationDocument);
+                        slots.add(cases.size());
                     }
                 }
 
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(jCas);
+                cases.add(null);
             }
 
             cachedCASes.put(user.getUsername(), cases);
         }
 
+        Iterator<AnnotationDocument> annotationDocuments = finishedDocuments.iterator();
+        Iterator<Integer> slot = slots.iterator();
+        try (Stream<CasReadResult> results = documentService
+                .readAnnotationCases(finishedDocuments)) {
+            results.forEachOrdered(result -> {
+                AnnotationDocument annotationDocument = annotationDocuments.next();
+                int index = slot.next();
+                try {
+                    JCas jCas = result.getJCas();
+                    documentService.upgradeCas(jCas.getCas(), annotationDocument);
+                    // REC: I think there is no need to write the CASes here. We would not
+                    // want to interfere with currently active annotator users
+
+                    // Set the CAS name in the DocumentMetaData so that we can pick it
+                    // up in the Diff position for the purpose of debugging / transparency.
+                    DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
+                    documentMetadata.setDocumentId(annotationDocument.getDocument().getName());
+                    documentMetadata.setCollectionId(annotationDocument.getProject().getName());
+                    
+                    cachedCASes.get(result.getUsername()).set(index, jCas);
+                }
+                catch (Exception e) {
+                    LOG.error("Unable to load data", e);
+                    error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
+                }
+            });
+        }
+
         return cachedCASes;
     }
 
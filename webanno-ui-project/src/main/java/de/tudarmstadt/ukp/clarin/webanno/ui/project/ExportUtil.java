@@ -19,23 +19,31 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasReadResult;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -274,9 +282,9 @@ public class ExportUtil
                 .listSourceDocuments(aProject);
         int i = 1;
         for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-            try {
-                FileUtils.copyFileToDirectory(documentService.getSourceDocumentFile(sourceDocument),
-                        sourceDocumentDir);
+            try (OutputStream os = new FileOutputStream(
+                    new File(sourceDocumentDir, sourceDocument.getName()))) {
+                documentService.copySourceDocumentFile(sourceDocument, os);
                 model.progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
                 i++;
             } catch (FileNotFoundException e) {
@@ -333,14 +341,19 @@ public class ExportUtil
      * export folder.
      */
     public static void exportAnnotationDocuments(DocumentService documentService,
-            ImportExportService importExportService, UserDao userRepository,
-            ProjectExportModel aModel, File aCopyDir)
+            ImportExportService importExportService, CasStorageService casStorageService,
+            UserDao userRepository, ProjectExportModel aModel, File aCopyDir)
         throws IOException, UIMAException, ClassNotFoundException
     {
         List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = documentService
                 .listSourceDocuments(aModel.project);
-        int i = 1;
-        int initProgress = aModel.progress;
+        
+        // Collect the annotations from regular users first, so that they can be read in parallel
+        List<Class<?>> writers = new ArrayList<>();
+        List<CasReadRequest> requests = new ArrayList<>();
+        List<de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument> requestDocuments =
+                new ArrayList<>();
+        List<Class<?>> requestWriters = new ArrayList<>();
         for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
             // Determine which format to use for export
             String formatId;
@@ -361,8 +374,8 @@ public class ExportUtil
                 }
                 writer = WebannoTsv3Writer.class;
             }
+            writers.add(writer);
 
-            // Export annotations from regular users
             for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : 
                     documentService.listAnnotationDocuments(sourceDocument)) {
                 // copy annotation document only for ACTIVE users and the state of the 
@@ -371,35 +384,73 @@ public class ExportUtil
                         && !annotationDocument.getState().equals(AnnotationDocumentState.NEW)
                         && !annotationDocument.getState()
                                 .equals(AnnotationDocumentState.IGNORE)) {
-                    File annotationDocumentAsSerialisedCasDir = new File(
-                            aCopyDir.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                    + sourceDocument.getName());
-                    File annotationDocumentDir = new File(aCopyDir.getAbsolutePath()
-                            + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-
-                    FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                    FileUtils.forceMkdir(annotationDocumentDir);
-
-                    File annotationFileAsSerialisedCas = documentService.getCasFile(
-                            sourceDocument, annotationDocument.getUser());
-
-                    File annotationFile = null;
-                    if (annotationFileAsSerialisedCas.exists() && writer != null) {
-                        annotationFile = importExportService.exportAnnotationDocument(
-                                sourceDocument, annotationDocument.getUser(), writer,
-                                annotationDocument.getUser(), Mode.ANNOTATION, false);
-                    }
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                annotationDocumentAsSerialisedCasDir);
-                        if (writer != null) {
-                            FileUtils
-                                    .copyFileToDirectory(annotationFile, annotationDocumentDir);
-                            FileUtils.forceDelete(annotationFile);
-                        }
+                    FileUtils.forceMkdir(new File(aCopyDir.getAbsolutePath()
+                            + ANNOTATION_CAS_FOLDER + sourceDocument.getName()));
+                    FileUtils.forceMkdir(new File(aCopyDir.getAbsolutePath()
+                            + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName()));
+
+                    if (documentService.existsCas(sourceDocument,
+                            annotationDocument.getUser())) {
+                        requests.add(new CasReadRequest(sourceDocument,
+                                annotationDocument.getUser()));
+                        requestDocuments.add(annotationDocument);
+                        requestWriters.add(writer);
                     }
                 }
             }
+        }
+        
+        int steps = requests.size() + documents.size();
+        int step = 0;
+        int initProgress = aModel.progress;
+        
+        // Export annotations from regular users
+        Iterator<de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument> annotationDocuments =
+                requestDocuments.iterator();
+        Iterator<Class<?>> annotationWriters = requestWriters.iterator();
+        try (Stream<CasReadResult> results = casStorageService.readCases(requests, false)) {
+            Iterator<CasReadResult> i = results.iterator();
+            while (i.hasNext()) {
+                CasReadResult result = i.next();
+                de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument =
+                        annotationDocuments.next();
+                Class<?> writer = annotationWriters.next();
+                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = result
+                        .getDocument();
+                String user = result.getUsername();
+                
+                File annotationDocumentAsSerialisedCasDir = new File(
+                        aCopyDir.getAbsolutePath() + ANNOTATION_CAS_FOLDER
+                                + sourceDocument.getName());
+                File annotationDocumentDir = new File(aCopyDir.getAbsolutePath()
+                        + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
+
+                CAS cas = result.getJCas().getCas();
+                // Update type system the CAS
+                documentService.upgradeCas(cas, annotationDocument);
+                File annotationFile = importExportService.exportCasToFile(cas, sourceDocument,
+                        user, writer, false);
+                // The CAS is not used anymore - allow it to be reused for the next document
+                casStorageService.releaseCas(cas);
+                
+                importExportService.exportSerializedCas(sourceDocument, user,
+                        annotationDocumentAsSerialisedCasDir);
+                FileUtils.copyFileToDirectory(annotationFile, annotationDocumentDir);
+                FileUtils.forceDelete(annotationFile);
+                
+                LOG.info("Exported annotation document [{}]({}) for user [{}] from project "
+                        + "[{}]({})", sourceDocument.getName(), sourceDocument.getId(), user,
+                        aModel.project.getName(), aModel.project.getId());
+                
+                step++;
+                aModel.progress = initProgress
+                        + (int) Math.ceil(((double) step) / steps * 80.0);
+            }
+        }
+        
+        Iterator<Class<?>> documentWriters = writers.iterator();
+        for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
+            Class<?> writer = documentWriters.next();
             
             // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
             // annotation_ser
@@ -407,14 +458,13 @@ public class ExportUtil
             // folder as CURATION_FOLDER
             if (WebAnnoConst.PROJECT_TYPE_AUTOMATION.equals(aModel.project.getMode())
                     || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(aModel.project.getMode())) {
-                File correctionCasFile = documentService.getCasFile(sourceDocument,
-                        CORRECTION_USER);
-                if (correctionCasFile.exists()) {
+                if (documentService.existsCas(sourceDocument, CORRECTION_USER)) {
                     // Copy CAS - this is used when importing the project again
                     File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
                             + sourceDocument.getName());
                     FileUtils.forceMkdir(curationCasDir);
-                    FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
+                    importExportService.exportSerializedCas(sourceDocument, CORRECTION_USER,
+                            curationCasDir);
                     
                     // Copy secondary export format for convenience - not used during import
                     File curationDir = new File(
@@ -430,9 +480,9 @@ public class ExportUtil
             // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
             // annotation_ser
             
+            step++;
             aModel.progress = initProgress
-                    + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-            i++;
+                    + (int) Math.ceil(((double) step) / steps * 80.0);
         }
     }
 
@@ -549,11 +599,10 @@ public class ExportUtil
                     SourceDocumentState.CURATION_IN_PROGRESS.equals(sourceDocument.getState())) ||
                 SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())
             ) {
-                File curationCasFile = documentService.getCasFile(sourceDocument,
-                        WebAnnoConst.CURATION_USER);
-                if (curationCasFile.exists()) {
+                if (documentService.existsCas(sourceDocument, WebAnnoConst.CURATION_USER)) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    importExportService.exportSerializedCas(sourceDocument,
+                            WebAnnoConst.CURATION_USER, curationCasDir);
 
                     // Copy secondary export format for convenience - not used during import
                     try {
@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -42,6 +43,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -593,8 +595,9 @@ public class ImportUtil
                 }
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File sourceFilePath = aRepository.getSourceDocumentFile(sourceDocument);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), sourceFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aRepository.replaceSourceDocumentFile(sourceDocument, is);
+                }
                 
                 LOG.info("Imported source document content for source document ["
                         + sourceDocument.getId() + "] in project [" + aProject.getName()
@@ -635,11 +638,12 @@ public class ImportUtil
      * @param zip the ZIP file.
      * @param aProject the project.
      * @param aRepository the repository service.
+     * @param aCasStorageService the CAS storage service.
      * @throws IOException if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
     public static void createAnnotationDocumentContent(ZipFile zip, Project aProject,
-            DocumentService aRepository)
+            DocumentService aRepository, CasStorageService aCasStorageService)
         throws IOException
     {
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
@@ -662,9 +666,9 @@ public class ImportUtil
                 fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aCasStorageService.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported annotation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -678,11 +682,12 @@ public class ImportUtil
      * @param zip the ZIP file.
      * @param aProject the project.
      * @param aRepository the repository service.
+     * @param aCasStorageService the CAS storage service.
      * @throws IOException if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
     public static void createCurationDocumentContent(ZipFile zip, Project aProject,
-            DocumentService aRepository)
+            DocumentService aRepository, CasStorageService aCasStorageService)
         throws IOException
     {
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
@@ -704,9 +709,9 @@ public class ImportUtil
                 }
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aCasStorageService.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported curation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -19,10 +19,14 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -30,16 +34,24 @@ import org.apache.uima.UIMAException;
 import org.apache.uima.jcas.JCas;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.CheckBoxMultipleChoice;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.link.DownloadLink;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.wicketstuff.progressbar.ProgressBar;
+import org.wicketstuff.progressbar.Progression;
+import org.wicketstuff.progressbar.ProgressionModel;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasDoctorScan;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasDoctorScanService;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
@@ -51,6 +63,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxButton;
+import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaModel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.settings.ProjectSettingsPanel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.settings.ProjectSettingsPanelBase;
 
@@ -63,9 +76,13 @@ public class ProjectCasDoctorPanel
     private static final long serialVersionUID = 2116717853865353733L;
 
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
+    private @SpringBean CasDoctorScanService casDoctorScanService;
 
     // Data properties
     private FormModel formModel = new FormModel();
+    
+    private ProgressBar scanProgress;
 
     public ProjectCasDoctorPanel(String id, IModel<Project> aProjectModel)
     {
@@ -83,6 +100,85 @@ public class ProjectCasDoctorPanel
         form.add(new LambdaAjaxButton<FormModel>("check", this::actionCheck));
         form.add(new LambdaAjaxButton<FormModel>("repair", this::actionRepair));
         form.add(createMessageSetsView());
+        
+        form.add(new CheckBox("scanRepair", PropertyModel.of(this, "formModel.scanRepair")));
+        form.add(new LambdaAjaxButton<FormModel>("startScan", (t, f) -> actionScan(t, false)));
+        form.add(new LambdaAjaxButton<FormModel>("resumeScan", (t, f) -> actionScan(t, true)));
+        form.add(new LambdaAjaxButton<FormModel>("stopScan", this::actionStopScan));
+        form.add(scanProgress = createScanProgressBar());
+        form.add(new Label("scanStatus", LambdaModel.of(this::getScanStatus))
+                .setOutputMarkupId(true));
+        form.add(new DownloadLink("scanReport", LambdaModel.of(this::getScanReport))
+        {
+            private static final long serialVersionUID = -2787155592213787937L;
+
+            @Override
+            protected void onConfigure()
+            {
+                super.onConfigure();
+                setVisible(getScanReport().exists());
+            }
+        });
+    }
+    
+    private ProgressBar createScanProgressBar()
+    {
+        return new ProgressBar("scanProgress", new ProgressionModel()
+        {
+            private static final long serialVersionUID = -8523411315226406367L;
+
+            @Override
+            protected Progression getProgression()
+            {
+                CasDoctorScan scan = casDoctorScanService.getScan(getModelObject());
+                if (scan == null || scan.isDone()) {
+                    return new Progression(100);
+                }
+                return new Progression(scan.getProgress());
+            }
+        })
+        {
+            private static final long serialVersionUID = 4372916508727591694L;
+
+            @Override
+            protected void onFinished(AjaxRequestTarget aTarget)
+            {
+                aTarget.add(ProjectCasDoctorPanel.this);
+            }
+        };
+    }
+    
+    private String getScanStatus()
+    {
+        CasDoctorScan scan = casDoctorScanService.getScan(getModelObject());
+        if (scan == null) {
+            return getScanReport().exists() ? "A previous scan can be resumed." : "";
+        }
+        else if (!scan.isDone()) {
+            return (scan.isStopRequested() ? "Stopping - " : "Running - ") + scan;
+        }
+        else {
+            return (scan.isFinished() ? "Completed - " : "Stopped - ") + scan;
+        }
+    }
+    
+    private File getScanReport()
+    {
+        return casDoctorScanService.getReportFile(getModelObject());
+    }
+    
+    private void actionScan(AjaxRequestTarget aTarget, boolean aResume)
+    {
+        casDoctorScanService.startScan(getModelObject(),
+                formModel.scanRepair ? formModel.repairs : Collections.emptyList(), aResume);
+        aTarget.add(this);
+        scanProgress.start(aTarget);
+    }
+
+    private void actionStopScan(AjaxRequestTarget aTarget, Form<?> aForm)
+    {
+        casDoctorScanService.stopScan(getModelObject());
+        aTarget.add(this);
     }
     
     private ListView<LogMessageSet> createMessageSetsView()
@@ -154,10 +250,15 @@ public class ProjectCasDoctorPanel
                 if (documentService.existsAnnotationCas(ad)) {
                     LogMessageSet messageSet = new LogMessageSet(
                             sd.getName() + " [" + ad.getUser() + "]");
+                    // The repaired CAS replaces the stored one without going through the
+                    // regular checks, so pending changes must not overwrite it later
+                    casStorageService.flushCas(ad.getDocument(), ad.getUser());
                     JCas userCas = documentService.readAnnotationCas(ad, false);
                     casDoctor.repair(project, userCas.getCas(), messageSet.messages);
-                    CasPersistenceUtils.writeSerializedCas(userCas,
-                            documentService.getCasFile(ad.getDocument(), ad.getUser()));
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    CasPersistenceUtils.writeSerializedCas(userCas, buffer);
+                    casStorageService.importCas(ad.getDocument(), ad.getUser(),
+                            new ByteArrayInputStream(buffer.toByteArray()));
                     noticeIfThereAreNoMessages(messageSet);
                     formModel.messageSets.add(messageSet);
                 }
@@ -214,6 +315,13 @@ public class ProjectCasDoctorPanel
             }
         }
 
+        // Show which checks took how much time
+        LogMessageSet timingSet = new LogMessageSet("Check timing");
+        casDoctor.getStatistics().forEach(stats -> timingSet.messages
+                .add(new LogMessage(getClass(), LogLevel.INFO, stats.toString())));
+        noticeIfThereAreNoMessages(timingSet);
+        formModel.messageSets.add(timingSet);
+
         aTarget.add(this);
     }
     
@@ -231,6 +339,7 @@ public class ProjectCasDoctorPanel
         
         private List<LogMessageSet> messageSets = new ArrayList<>();
         private List<Class<? extends Repair>> repairs;
+        private boolean scanRepair = false;
         
         {
             // Fetch only the safe/non-destructive repairs
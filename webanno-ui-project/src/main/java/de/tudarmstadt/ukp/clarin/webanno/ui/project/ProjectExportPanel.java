@@ -55,6 +55,7 @@ import org.wicketstuff.progressbar.Progression;
 import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -92,6 +93,7 @@ public class ProjectExportPanel
     private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean ImportExportService importExportService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean ConstraintsService constraintsService;
     private @SpringBean UserDao userRepository;
 
@@ -480,7 +482,7 @@ public class ProjectExportPanel
             ExportUtil.exportTrainingDocuments(automationService, aModel, aModel.project,
                     exportTempDir);
             ExportUtil.exportAnnotationDocuments(documentService, importExportService,
-                    userRepository, aModel, exportTempDir);
+                    casStorageService, userRepository, aModel, exportTempDir);
             ExportUtil.exportProjectLog(projectService, aModel.project, exportTempDir);
             ExportUtil.exportGuideLine(projectService, aModel.project, exportTempDir);
             ExportUtil.exportProjectMetaInf(projectService, aModel.project, exportTempDir);
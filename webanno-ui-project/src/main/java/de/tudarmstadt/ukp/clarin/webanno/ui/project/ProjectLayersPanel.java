@@ -45,6 +45,7 @@ import org.apache.commons.lang3.text.WordUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
 import org.apache.wicket.ajax.form.AjaxFormComponentUpdatingBehavior;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
 import org.apache.wicket.extensions.markup.html.form.select.Select;
@@ -71,6 +72,7 @@ import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.StringResourceModel;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.apache.wicket.util.time.Duration;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
@@ -78,6 +80,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureType;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasUpgradeService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasUpgradeService.UpgradeJob;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedTagSet;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -109,6 +113,7 @@ public class ProjectLayersPanel
     private @SpringBean ProjectService repository;
     private @SpringBean UserDao userRepository;
     private @SpringBean FeatureSupportRegistry featureSupportRegistry;
+    private @SpringBean CasUpgradeService casUpgradeService;
 
     private final String FIRST = "first";
     private final String NEXT = "next";
@@ -151,6 +156,66 @@ public class ProjectLayersPanel
 
         importLayerForm = new ImportLayerForm("importLayerForm");
         add(importLayerForm);
+        
+        add(new Label("upgradeStatus", LambdaModel.of(this::getUpgradeStatus))
+        {
+            private static final long serialVersionUID = 2592465389373434816L;
+
+            {
+                setOutputMarkupPlaceholderTag(true);
+            }
+            
+            @Override
+            protected void onConfigure()
+            {
+                super.onConfigure();
+                boolean active = isUpgradeActive();
+                setVisible(active);
+                
+                // Only poll for the progress while the annotations are being upgraded
+                List<AjaxSelfUpdatingTimerBehavior> timers = getBehaviors(
+                        AjaxSelfUpdatingTimerBehavior.class);
+                if (!active) {
+                    timers.forEach(timer -> remove(timer));
+                }
+                else if (timers.isEmpty()) {
+                    add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(2))
+                    {
+                        private static final long serialVersionUID = -5187463823641720447L;
+
+                        @Override
+                        protected void onPostProcessTarget(AjaxRequestTarget aTarget)
+                        {
+                            super.onPostProcessTarget(aTarget);
+                            if (!isUpgradeActive()) {
+                                stop(aTarget);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+    
+    private boolean isUpgradeActive()
+    {
+        UpgradeJob job = casUpgradeService.getJob(getModelObject());
+        return job != null && !job.isDone();
+    }
+    
+    private String getUpgradeStatus()
+    {
+        UpgradeJob job = casUpgradeService.getJob(getModelObject());
+        return job != null ? "Upgrading annotations to the new layer configuration - " + job : "";
+    }
+    
+    /**
+     * Upgrades the annotations of the project to the changed layer configuration in the background
+     * instead of when the documents are opened.
+     */
+    private void scheduleUpgrade()
+    {
+        casUpgradeService.startUpgrade(getModelObject());
     }
 
     private class LayerSelectionForm
@@ -331,6 +396,7 @@ public class ProjectLayersPanel
                                     + ExceptionUtils.getRootCauseMessage(e));
                         }
                     }
+                    scheduleUpgrade();
                     featureDetailForm.setVisible(false);
                 }
 
@@ -879,6 +945,7 @@ public class ProjectLayersPanel
 
                                 annotationService.createFeature(typeFeature);
                             }
+                            scheduleUpgrade();
                         }
                         catch (IOException e) {
                             error("unable to create Logger file while creating this layer" + ":"
@@ -1167,6 +1234,7 @@ public class ProjectLayersPanel
         }
 
         annotationService.createFeature(aFeature);
+        scheduleUpgrade();
         featureDetailForm.setVisible(false);
     }
 
@@ -70,6 +70,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAware;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAwareRegistry;
@@ -118,6 +119,7 @@ public class ProjectPage
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean AutomationService automationService;
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean ProjectService projectService;
     private @SpringBean ConstraintsService constraintsService;
     private @SpringBean UserDao userRepository;
@@ -638,10 +640,12 @@ public class ProjectPage
                 ImportUtil.createAnnotationDocument(importedProjectSetting, importedProject,
                         documentService);
                 // Import annotation document content
-                ImportUtil.createAnnotationDocumentContent(zip, importedProject, documentService);
+                ImportUtil.createAnnotationDocumentContent(zip, importedProject, documentService,
+                        casStorageService);
                 
                 // Import curation document content
-                ImportUtil.createCurationDocumentContent(zip, importedProject, documentService);
+                ImportUtil.createCurationDocumentContent(zip, importedProject, documentService,
+                        casStorageService);
             }
             catch (Exception e) {
                 error("Error Importing Project " + ExceptionUtils.getRootCauseMessage(e));